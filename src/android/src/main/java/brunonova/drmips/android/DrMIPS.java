@@ -78,6 +78,10 @@ public class DrMIPS extends Application {
 	public static final String OVERLAYED_SHOW_NAMES_PREF = "overlayed_show_names";
 	/** The key of the overlayed show for all components preference. */
 	public static final String OVERLAYED_SHOW_FOR_ALL_PREF = "overlayed_show_for_all";
+	/** The key of the preference with the maximum number of cycles executed by the "run" action. */
+	public static final String RUN_MAX_CYCLES_PREF = "run_max_cycles";
+	/** The key of the preference with the maximum time (in ms) taken by the "run" action. */
+	public static final String RUN_MAX_TIME_PREF = "run_max_time";
 	/** The default format with which the registers are displayed. */
 	public static final int DEFAULT_REGISTER_FORMAT = Util.DECIMAL_FORMAT_INDEX;
 	/** The default format with which the datapath data is displayed. */
@@ -98,6 +102,10 @@ public class DrMIPS extends Application {
 	public static final boolean DEFAULT_OVERLAYED_SHOW_NAMES = false;
 	/** Whether the in/out tips should be displayed for (almost) all components by default. */
 	public static final boolean DEFAULT_OVERLAYED_SHOW_FOR_ALL = false;
+	/** The default maximum number of cycles executed by the "run" action (0 for no limit). */
+	public static final int DEFAULT_RUN_MAX_CYCLES = 100000;
+	/** The default maximum time (in ms) taken by the "run" action (0 for no limit). */
+	public static final int DEFAULT_RUN_MAX_TIME = 5000;
 
 	/** The current application. */
 	private static DrMIPS app = null;
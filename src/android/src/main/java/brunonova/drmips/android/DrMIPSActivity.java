@@ -19,7 +19,10 @@
 package brunonova.drmips.android;
 
 import android.app.Activity;
+import android.app.ProgressDialog;
+import android.content.DialogInterface;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.text.Editable;
@@ -49,7 +52,9 @@ import android.widget.Toast;
 import brunonova.drmips.android.dialogs.*;
 import brunonova.drmips.simulator.AssembledInstruction;
 import brunonova.drmips.simulator.CPU;
+import brunonova.drmips.simulator.CancellationToken;
 import brunonova.drmips.simulator.Data;
+import brunonova.drmips.simulator.RunResult;
 import brunonova.drmips.simulator.exceptions.*;
 import org.json.JSONException;
 
@@ -63,8 +68,12 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
 
 public class DrMIPSActivity extends Activity {
+	/** Time that the "run" action executes in the UI thread before continuing in the background, in ms. */
+	private static final int RUN_FOREGROUND_TIME = 100;
+
 	/** The file currently open (if <tt>null</tt> no file is open). */
 	private File openFile = null;
 	/** The filter to select only .cpu files. */
@@ -92,6 +101,14 @@ public class DrMIPSActivity extends Activity {
 	private Spinner cmbAssembledCodeFormat, cmbRegistersFormat, cmbDataMemoryFormat, cmbDatapathFormat, cmbDatapathPerformance;
 	private HorizontalScrollView datapathScroll;
 	private TableRow tblExecRow;
+	/** The indexes of the data memory positions displayed in each row of the table. */
+	private int[] dataMemoryIndexes = new int[0];
+	/** The "run" action executing in the background (<tt>null</tt> if none). */
+	private AsyncTask<Void, Void, RunResult> runTask = null;
+	/** The token used to stop the "run" action executing in the background. */
+	private CancellationToken runToken = null;
+	/** The dialog shown while the "run" action executes in the background. */
+	private ProgressDialog runDialog = null;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -153,6 +170,21 @@ public class DrMIPSActivity extends Activity {
 		return true;
 	}
 
+	@Override
+	protected void onDestroy() {
+		if(runTask != null) { // stop the execution before the activity is recreated
+			runToken.cancel();
+			try {
+				runTask.get();
+			} catch(InterruptedException | ExecutionException ex) {
+				Log.e(getClass().getName(), "error stopping the execution", ex);
+			}
+			runDialog.dismiss();
+			runTask = null;
+		}
+		super.onDestroy();
+	}
+
 	@Override
 	protected void onSaveInstanceState(Bundle outState) {
 		if(outState != null) {
@@ -327,6 +359,10 @@ public class DrMIPSActivity extends Activity {
 		run();
 	}
 
+	public void mnuRunLimitsOnClick(MenuItem menu) {
+		DlgRunLimits.newInstance().show(getFragmentManager(), "run-limits-dialog");
+	}
+
 	public void lblFilenameOnClick(View view) {
 		if(openFile != null)
 			Toast.makeText(this, openFile.getAbsolutePath(), Toast.LENGTH_LONG).show();
@@ -752,13 +788,72 @@ public class DrMIPSActivity extends Activity {
 
 	/**
 	 * Executes all the instructions at once.
+	 * <p>The program is executed in the UI thread for up to
+	 * <tt>RUN_FOREGROUND_TIME</tt> ms. If it doesn't finish by then, the
+	 * execution continues in the background while a dialog, which can stop
+	 * it, blocks the other actions.</p>
 	 */
 	private void run() {
-		try {
-			getCPU().executeAll();
+		if(runTask != null) return;
+		SharedPreferences prefs = DrMIPS.getApplication().getPreferences();
+		final int maxCycles = prefs.getInt(DrMIPS.RUN_MAX_CYCLES_PREF, DrMIPS.DEFAULT_RUN_MAX_CYCLES);
+		final int maxTime = prefs.getInt(DrMIPS.RUN_MAX_TIME_PREF, DrMIPS.DEFAULT_RUN_MAX_TIME);
+		final int foregroundTime = (maxTime > 0 && maxTime <= RUN_FOREGROUND_TIME) ? maxTime : RUN_FOREGROUND_TIME;
+		final CPU cpu = getCPU();
+		final RunResult first = cpu.run(maxCycles, foregroundTime, null);
+		if(first.getReason() != RunResult.Reason.DEADLINE || foregroundTime == maxTime) {
+			runFinished(first, maxCycles, maxTime);
+			return;
 		}
-		catch(InfiniteLoopException e) {
-			Toast.makeText(this, getString(R.string.possible_infinite_loop).replace("#1", "" + CPU.EXECUTE_ALL_LIMIT_CYCLES), Toast.LENGTH_SHORT).show();
+
+		// Continue in the background
+		runToken = new CancellationToken();
+		final CancellationToken token = runToken;
+		runDialog = new ProgressDialog(this);
+		runDialog.setMessage(getString(R.string.running_program));
+		runDialog.setIndeterminate(true);
+		runDialog.setCancelable(false);
+		runDialog.setButton(DialogInterface.BUTTON_NEGATIVE, getString(R.string.stop), (DialogInterface.OnClickListener)null);
+		runDialog.show();
+		runDialog.getButton(DialogInterface.BUTTON_NEGATIVE).setOnClickListener(new OnClickListener() {
+			@Override
+			public void onClick(View v) { // the dialog is only dismissed when the execution stops
+				token.cancel();
+				v.setEnabled(false);
+			}
+		});
+		runTask = new AsyncTask<Void, Void, RunResult>() {
+			@Override
+			protected RunResult doInBackground(Void... params) {
+				return cpu.run(maxCycles > 0 ? maxCycles - first.getNumberOfExecutedCycles() : 0,
+					maxTime > 0 ? Math.max(1, maxTime - first.getElapsedTime()) : 0, token);
+			}
+
+			@Override
+			protected void onPostExecute(RunResult rest) {
+				if(runTask != this) return; // activity destroyed
+				runTask = null;
+				runDialog.dismiss();
+				runFinished(new RunResult(rest.getReason(), first.getNumberOfExecutedCycles() + rest.getNumberOfExecutedCycles(),
+					first.getElapsedTime() + rest.getElapsedTime()), maxCycles, maxTime);
+			}
+		}.execute();
+	}
+
+	/**
+	 * Shows the reason why the "run" action stopped, if it didn't finish normally, and refreshes the GUI.
+	 * @param result The result of the execution.
+	 * @param maxCycles The maximum number of cycles of the execution.
+	 * @param maxTime The maximum time of the execution, in ms.
+	 */
+	private void runFinished(RunResult result, int maxCycles, int maxTime) {
+		switch(result.getReason()) {
+			case BUDGET:
+				Toast.makeText(this, getString(R.string.possible_infinite_loop).replace("#1", "" + maxCycles), Toast.LENGTH_SHORT).show();
+				break;
+			case DEADLINE:
+				Toast.makeText(this, getString(R.string.time_limit_reached).replace("#1", "" + maxTime).replace("#2", "" + result.getNumberOfExecutedCycles()), Toast.LENGTH_SHORT).show();
+				break;
 		}
 		refreshValues();
 	}
@@ -932,10 +1027,12 @@ public class DrMIPSActivity extends Activity {
 			tblDataMemory.removeViewAt(1);
 
 		CPU cpu = getCPU();
+		dataMemoryIndexes = new int[0];
 		if(cpu.hasDataMemory()) {
 			TableRow row;
 			TextView address, value;
-			for(int i = 0; i < cpu.getDataMemory().getMemorySize(); i++) {
+			dataMemoryIndexes = cpu.getDataMemory().getUsedIndexes();
+			for(int i = 0; i < dataMemoryIndexes.length; i++) {
 				row = new TableRow(this);
 				row.setOnLongClickListener(dataMemoryRowOnLongClickListener);
 				address = new TextView(this);
@@ -963,25 +1060,31 @@ public class DrMIPSActivity extends Activity {
 			TextView address, value;
 			TableRow row;
 
-			for(int i = 0; i < cpu.getDataMemory().getMemorySize(); i++) {
+			if(cpu.getDataMemory().isSparse() && !Arrays.equals(cpu.getDataMemory().getUsedIndexes(), dataMemoryIndexes)) {
+				refreshDataMemoryTable(); // pages were allocated/freed (calls this method again)
+				return;
+			}
+
+			for(int i = 0; i < dataMemoryIndexes.length; i++) {
+				int memIndex = dataMemoryIndexes[i];
 				row = (TableRow)tblDataMemory.getChildAt(i + 1);
 				address = (TextView)row.getChildAt(0);
 				value = (TextView)row.getChildAt(1);
-				address.setText(Util.formatDataAccordingToFormat(new Data(Data.DATA_SIZE, i * (Data.DATA_SIZE / 8)), cmbDataMemoryFormat.getSelectedItemPosition()) + " ");
-				value.setText(Util.formatDataAccordingToFormat(new Data(Data.DATA_SIZE, cpu.getDataMemory().getDataInIndex(i)), cmbDataMemoryFormat.getSelectedItemPosition()));
+				address.setText(Util.formatDataAccordingToFormat(new Data(Data.DATA_SIZE, memIndex * (Data.DATA_SIZE / 8)), cmbDataMemoryFormat.getSelectedItemPosition()) + " ");
+				value.setText(Util.formatDataAccordingToFormat(new Data(Data.DATA_SIZE, cpu.getDataMemory().getDataInIndex(memIndex)), cmbDataMemoryFormat.getSelectedItemPosition()));
 
 				// Highlight memory positions being accessed
-				int index = cpu.getDataMemory().getAddress().getValue() / (Data.DATA_SIZE / 8);
+				int index = cpu.getDataMemory().getIndexOfAddress(cpu.getDataMemory().getAddress().getValue());
 				boolean read = cpu.getDataMemory().getMemRead().getValue() == 1;
 				boolean write = cpu.getDataMemory().getMemWrite().getValue() == 1;
 
-				if(write && i == index) {
+				if(write && memIndex == index) {
 					if(read)
 						row.setBackgroundColor(Util.getThemeColor(this, R.attr.rwColor));
 					else
 						row.setBackgroundColor(Util.getThemeColor(this, R.attr.writeColor));
 				}
-				else if(read && i == index)
+				else if(read && memIndex == index)
 					row.setBackgroundColor(Util.getThemeColor(this, R.attr.readColor));
 				else
 					row.setBackgroundResource(0); // remove background color
@@ -1187,8 +1290,9 @@ public class DrMIPSActivity extends Activity {
 	private class DataMemoryRowOnLongClickListener implements OnLongClickListener {
 		@Override
 		public boolean onLongClick(View v) {
-			int index = tblDataMemory.indexOfChild(v) - 1;
-			if(index >= 0 && index < getCPU().getDataMemory().getMemorySize()) {
+			int row = tblDataMemory.indexOfChild(v) - 1;
+			if(row >= 0 && row < dataMemoryIndexes.length) {
+				int index = dataMemoryIndexes[row];
 				int value = getCPU().getDataMemory().getDataInIndex(index);
 				DlgEditDataMemory.newInstance(index, value).show(getFragmentManager(), "edit-data-memory-dialog");
 			}
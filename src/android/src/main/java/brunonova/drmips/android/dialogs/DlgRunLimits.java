@@ -0,0 +1,113 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package brunonova.drmips.android.dialogs;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.app.DialogFragment;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.text.InputType;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.Toast;
+
+import brunonova.drmips.android.DrMIPS;
+import brunonova.drmips.android.R;
+
+/**
+ * Dialog fragment to change the limits of the "run" action.
+ *
+ * Use the method {@link #newInstance} to create the dialog.
+ *
+ * @author Bruno Nova
+ */
+public class DlgRunLimits extends DialogFragment implements DialogInterface.OnClickListener {
+	private EditText txtMaxCycles, txtMaxTime;
+
+	/**
+	 * Creates a new dialog.
+	 * @return The dialog.
+	 */
+	public static DlgRunLimits newInstance() {
+		return new DlgRunLimits();
+	}
+
+	@Override
+	public Dialog onCreateDialog(Bundle savedInstanceState) {
+		super.onCreateDialog(savedInstanceState);
+
+		txtMaxCycles = new EditText(getActivity());
+		txtMaxCycles.setHint(R.string.max_cycles);
+		txtMaxCycles.setInputType(InputType.TYPE_CLASS_NUMBER);
+		txtMaxTime = new EditText(getActivity());
+		txtMaxTime.setHint(R.string.max_time);
+		txtMaxTime.setInputType(InputType.TYPE_CLASS_NUMBER);
+		if(savedInstanceState != null && savedInstanceState.containsKey("cycles")) {
+			txtMaxCycles.setText(savedInstanceState.getString("cycles"));
+			txtMaxTime.setText(savedInstanceState.getString("time"));
+		} else {
+			txtMaxCycles.setText("" + DrMIPS.getApplication().getPreferences().getInt(DrMIPS.RUN_MAX_CYCLES_PREF, DrMIPS.DEFAULT_RUN_MAX_CYCLES));
+			txtMaxTime.setText("" + DrMIPS.getApplication().getPreferences().getInt(DrMIPS.RUN_MAX_TIME_PREF, DrMIPS.DEFAULT_RUN_MAX_TIME));
+		}
+
+		LinearLayout layout = new LinearLayout(getActivity());
+		layout.setOrientation(LinearLayout.VERTICAL);
+		layout.addView(txtMaxCycles);
+		layout.addView(txtMaxTime);
+
+		return new AlertDialog.Builder(getActivity())
+			.setTitle(R.string.run_limits)
+			.setView(layout)
+			.setPositiveButton(android.R.string.ok, this)
+			.setNegativeButton(android.R.string.cancel, this)
+			.create();
+	}
+
+	@Override
+	public void onSaveInstanceState(Bundle outState) {
+		super.onSaveInstanceState(outState);
+		outState.putString("cycles", txtMaxCycles.getText().toString());
+		outState.putString("time", txtMaxTime.getText().toString());
+	}
+
+	@Override
+	public void onClick(DialogInterface dialog, int which) {
+		switch(which) {
+			case AlertDialog.BUTTON_POSITIVE: //OK
+				try {
+					int cycles = Integer.parseInt(txtMaxCycles.getText().toString().trim());
+					int time = Integer.parseInt(txtMaxTime.getText().toString().trim());
+					if(cycles >= 0 && time >= 0) {
+						DrMIPS.getApplication().getPreferences().edit()
+							.putInt(DrMIPS.RUN_MAX_CYCLES_PREF, cycles)
+							.putInt(DrMIPS.RUN_MAX_TIME_PREF, time).apply();
+					}
+					else
+						Toast.makeText(getActivity(), R.string.invalid_value, Toast.LENGTH_SHORT).show();
+				} catch(NumberFormatException ex) {
+					Toast.makeText(getActivity(), R.string.invalid_value, Toast.LENGTH_SHORT).show();
+				}
+				break;
+
+			case AlertDialog.BUTTON_NEGATIVE: // Cancel
+				dismiss();
+				break;
+		}
+	}
+}
@@ -19,17 +19,32 @@
 package brunonova.drmips.pc;
 
 import brunonova.drmips.simulator.*;
+import brunonova.drmips.simulator.exceptions.SyntaxErrorException;
 import java.awt.Color;
 import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JPopupMenu;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
 import javax.swing.text.JTextComponent;
 import javax.swing.text.Segment;
 import org.fife.ui.autocomplete.AutoCompletion;
@@ -49,12 +64,28 @@ import org.fife.ui.rtextarea.RTextScrollPane;
  * The code editor of the simulator.
  * <p>The class extends the <tt>TextEditorPane</tt> from RSyntaxTextArea component.<br>
  * RSyntaxTextArea: <a href="http://fifesoft.com/rsyntaxtextarea/">http://fifesoft.com/rsyntaxtextarea/</a></p>
+ * <p>The code is assembled in the background, in another thread, shortly after
+ * it is edited, and the errors are displayed in the line numbers column. The
+ * editor keeps the code split in lines and tokens ({@link SourceCode}), so
+ * only the edited lines are read again. The result of an assembly is
+ * discarded if the code was edited meanwhile.</p>
  *
  * @author Bruno Nova
  */
 public class CodeEditor extends TextEditorPane {
 	/** The icon used to display errors in the line numbers column. */
 	public static final Icon ERROR_ICON = new ImageIcon(CodeEditor.class.getResource("/res/icons/x16/error.png"));
+	/** The time after the last edit when the code is assembled in the background, in milliseconds. */
+	public static final int ASSEMBLE_DELAY = 500;
+	/** The thread where the code is assembled in the background (shared by all the editors). */
+	private static final ExecutorService ASSEMBLER_THREAD = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "DrMIPS assembler");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
 
 	/** The editor's scroll pane. */
 	private RTextScrollPane scrollPane;
@@ -64,6 +95,22 @@ public class CodeEditor extends TextEditorPane {
 	private AutoCompletion complete;
 	/** The cpu with the supported instructions. */
 	private CPU cpu = null;
+	/** The code split in lines and tokens, updated as the code is edited. */
+	private SourceCode source = new SourceCode();
+	/** The assembler used in the background thread (<tt>null</tt> if there's no CPU). */
+	private Assembler backgroundAssembler = null;
+	/** The timer that starts the assembly in the background after the code is edited. */
+	private final Timer assembleTimer;
+	/** The assembly running in the background, if any. */
+	private Future<?> assembleJob = null;
+	/** The version of the code, incremented when it is edited or the CPU changes. */
+	private int version = 0;
+	/** The version of the code of the last assembly (-1 if none). */
+	private int assembledVersion = -1;
+	/** The program of the last assembly (<tt>null</tt> if it had errors). */
+	private AssembledProgram assembledProgram = null;
+	/** The error of the last assembly (<tt>null</tt> if it had no errors). */
+	private SyntaxErrorException assemblyError = null;
 
 	/** Class logger. */
 	private static final Logger LOG = Logger.getLogger(CodeEditor.class.getName());
@@ -88,6 +135,23 @@ public class CodeEditor extends TextEditorPane {
 		complete.setShowDescWindow(true);
 		complete.setAutoCompleteSingleChoices(false);
 		complete.install(this);
+
+		assembleTimer = new Timer(ASSEMBLE_DELAY, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				assembleInBackground();
+			}
+		});
+		assembleTimer.setRepeats(false);
+		getDocument().addDocumentListener(new SourceDocumentListener());
+		addPropertyChangeListener("document", new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) { // the document was replaced
+				getDocument().addDocumentListener(new SourceDocumentListener());
+				source = new SourceCode(getText());
+				codeChanged();
+			}
+		});
 	}
 
 	/**
@@ -139,14 +203,145 @@ public class CodeEditor extends TextEditorPane {
 		}
 	}
 
+	/**
+	 * Displays error icons for the given syntax errors.
+	 * <p>The previous error icons are removed.</p>
+	 * @param error The first syntax error (with the other errors, if any), or <tt>null</tt> to just remove the icons.
+	 */
+	public void showErrors(SyntaxErrorException error) {
+		clearErrorIcons();
+		if(error != null) {
+			if(!error.hasOtherErrors())
+				addErrorIcon(error.getLine(), getTranslatedSyntaxErrorMessage(error));
+			else {
+				for(SyntaxErrorException e: error.getOtherErrors())
+					addErrorIcon(e.getLine(), getTranslatedSyntaxErrorMessage(e));
+			}
+		}
+	}
+
+	/**
+	 * Returns the translated message for the given syntax error exception.
+	 * @param ex The exception.
+	 * @return Translated error message.
+	 */
+	public static String getTranslatedSyntaxErrorMessage(SyntaxErrorException ex) {
+		String message = Lang.t("line", ex.getLine()) + ": ";
+		switch(ex.getType()) {
+			case DUPLICATED_LABEL: message += Lang.t("duplicated_label", ex.getExtra()); break;
+			case INVALID_DATA_ARG: message += Lang.t("invalid_arg_data", ex.getExtra()); break;
+			case INVALID_INT_ARG: message += Lang.t("invalid_arg_int", ex.getExtra()); break;
+			case INVALID_LABEL: message += Lang.t("invalid_label", ex.getExtra()); break;
+			case INVALID_REG_ARG: message += Lang.t("invalid_arg_reg", ex.getExtra()); break;
+			case UNKNOWN_DATA_DIRECTIVE: message += Lang.t("unknown_data_directive", ex.getExtra()); break;
+			case UNKNOWN_INSTRUCTION: message += Lang.t("unknown_instruction", ex.getExtra()); break;
+			case UNKNOWN_LABEL: message += Lang.t("unknown_label", ex.getExtra()); break;
+			case WRONG_NUMBER_OF_ARGUMENTS: message += Lang.t("wrong_no_args", ex.getExtra(), ex.getExtra2()); break;
+			case INVALID_POSITIVE_INT_ARG: message += Lang.t("invalid_arg_positive_int", ex.getExtra()); break;
+			case DATA_SEGMENT_WITHOUT_DATA_MEMORY: message += Lang.t("data_segment_without_data_memory"); break;
+			default: message = ex.getMessage();
+		}
+		return message;
+	}
+
+	/**
+	 * Returns the program assembled from the current code.
+	 * <p>If the code was already assembled in the background, the result is
+	 * returned immediately. Otherwise, the code is assembled now. The error
+	 * icons are updated.</p>
+	 * @return The assembled program, to be loaded with {@link CPU#loadProgram(AssembledProgram)}.
+	 * @throws SyntaxErrorException If the code has a syntax error.
+	 */
+	public AssembledProgram assemble() throws SyntaxErrorException {
+		if(assembledVersion != version) { // not assembled in the background yet
+			assembleTimer.stop();
+			if(assembleJob != null) assembleJob.cancel(false);
+			try {
+				assembled(version, cpu.getAssembler().assemble(source), null);
+			}
+			catch(SyntaxErrorException ex) {
+				assembled(version, null, ex);
+			}
+		}
+		if(assemblyError != null)
+			throw assemblyError;
+		return assembledProgram;
+	}
+
+	/**
+	 * Assembles a copy of the current code in the background thread.
+	 */
+	private void assembleInBackground() {
+		if(backgroundAssembler == null) return;
+		final Assembler assembler = backgroundAssembler;
+		final SourceCode code = source.copy();
+		final int v = version;
+
+		if(assembleJob != null) assembleJob.cancel(false); // superseded
+		assembleJob = ASSEMBLER_THREAD.submit(new Runnable() {
+			@Override
+			public void run() {
+				AssembledProgram program = null;
+				SyntaxErrorException error = null;
+				try {
+					program = assembler.assemble(code);
+				}
+				catch(SyntaxErrorException ex) {
+					error = ex;
+				}
+				catch(RuntimeException ex) {
+					LOG.log(Level.WARNING, "error assembling the code in the background", ex);
+					return;
+				}
+
+				final AssembledProgram p = program;
+				final SyntaxErrorException e = error;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						assembled(v, p, e);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Saves the result of an assembly and displays its errors, if the code
+	 * wasn't edited meanwhile.
+	 * @param v The version of the assembled code.
+	 * @param program The assembled program (<tt>null</tt> if the code has errors).
+	 * @param error The syntax error (<tt>null</tt> if the code has no errors).
+	 */
+	private void assembled(int v, AssembledProgram program, SyntaxErrorException error) {
+		if(v != version) return; // outdated
+		assembledVersion = v;
+		assembledProgram = program;
+		assemblyError = error;
+		showErrors(error);
+	}
+
+	/**
+	 * Discards the result of the last assembly and schedules a new assembly in the background.
+	 */
+	private void codeChanged() {
+		version++;
+		assembledProgram = null;
+		assemblyError = null;
+		if(backgroundAssembler != null)
+			assembleTimer.restart();
+	}
+
 	/**
 	 * Sets the CPU for the code editor.
 	 * @param cpu The cpu with the supported instructions.
 	 */
 	public void setCPU(CPU cpu) {
 		this.cpu = cpu;
+		backgroundAssembler = cpu != null ? new Assembler(cpu) : null;
 		setSyntaxEditingStyleForCPU();
 		setAutoComplete();
+		codeChanged();
 	}
 
 	/**
@@ -531,4 +726,56 @@ public class CodeEditor extends TextEditorPane {
 		   return firstToken;
 	   }
    }
+
+	/**
+	 * Listener that updates the lines of the {@link SourceCode} when the code is edited.
+	 */
+	private class SourceDocumentListener implements DocumentListener {
+		@Override
+		public void insertUpdate(DocumentEvent e) {
+			updateLines(e);
+		}
+
+		@Override
+		public void removeUpdate(DocumentEvent e) {
+			updateLines(e);
+		}
+
+		@Override
+		public void changedUpdate(DocumentEvent e) { }
+
+		/**
+		 * Replaces the edited lines in the source code.
+		 * @param e The event of the edition.
+		 */
+		private void updateLines(DocumentEvent e) {
+			if(e.getDocument() != getDocument()) return; // old document
+			Element root = e.getDocument().getDefaultRootElement();
+			DocumentEvent.ElementChange change = e.getChange(root);
+			int index, removed, added;
+			if(change != null) { // lines added or removed
+				index = change.getIndex();
+				removed = change.getChildrenRemoved().length;
+				added = change.getChildrenAdded().length;
+			}
+			else { // only one line changed
+				index = root.getElementIndex(e.getOffset());
+				removed = added = 1;
+			}
+
+			try {
+				List<String> lines = new ArrayList<>(added);
+				for(int i = index; i < index + added; i++) {
+					Element line = root.getElement(i);
+					lines.add(e.getDocument().getText(line.getStartOffset(), line.getEndOffset() - line.getStartOffset() - 1)); // without the newline
+				}
+				source.replaceLines(index, removed, lines);
+			}
+			catch(BadLocationException | IndexOutOfBoundsException ex) {
+				LOG.log(Level.WARNING, "error updating the lines of the code", ex);
+				source = new SourceCode(getText());
+			}
+			codeChanged();
+		}
+	}
 }
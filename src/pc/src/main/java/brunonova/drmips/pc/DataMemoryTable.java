@@ -21,11 +21,13 @@ package brunonova.drmips.pc;
 import brunonova.drmips.simulator.AppInfo;
 import brunonova.drmips.simulator.CPU;
 import brunonova.drmips.simulator.Data;
+import brunonova.drmips.simulator.components.DataMemory;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Font;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.util.Arrays;
 import javax.swing.JOptionPane;
 import javax.swing.JTable;
 import javax.swing.SwingConstants;
@@ -42,6 +44,8 @@ public class DataMemoryTable extends JTable implements MouseListener {
 	private static final int ADDRESS_COLUMN_INDEX = 0;
 	/** The index of the value column. */
 	private static final int VALUE_COLUMN_INDEX = 1;
+	/** Size of each memory position, in bytes. */
+	private static final int WORD = Data.DATA_SIZE / 8;
 
 	/** The model of the table. */
 	private DefaultTableModel model = null;
@@ -51,8 +55,8 @@ public class DataMemoryTable extends JTable implements MouseListener {
 	private CPU cpu = null;
 	/** The datapath panel. */
 	private DatapathPanel datapath = null;
-	/** The number of memory positions. */
-	private int memorySize = 0;
+	/** The indexes of the memory positions displayed in each row. */
+	private int[] indexes = new int[0];
 	/** The format of the data (<tt>Util.BINARYL_FORMAT_INDEX/Util.DECIMAL_FORMAT_INDEX/Util.HEXADECIMAL_FORMAT_INDEX</tt>). */
 	private int dataFormat = DrMIPS.DEFAULT_DATA_MEMORY_FORMAT;
 
@@ -85,19 +89,29 @@ public class DataMemoryTable extends JTable implements MouseListener {
 
 		// Initialize registers table
 		model.setRowCount(0);
+		indexes = new int[0];
 		if(cpu.hasDataMemory()) {
-			memorySize = cpu.getDataMemory().getMemorySize();
-			for(int i = 0; i < memorySize; i++) {
-				Object[] data = new Object[2];
-				data[0] = Util.formatDataAccordingToFormat(new Data(Data.DATA_SIZE, i * (Data.DATA_SIZE / 8)), format);
-				data[1] = "";
-				model.addRow(data);
-			}
-
+			createRows(cpu.getDataMemory().getUsedIndexes(), format);
 			refreshValues(format);
 		}
 	}
 
+	/**
+	 * Creates the rows of the table.
+	 * @param indexes The indexes of the memory positions to display.
+	 * @param format The data format (<tt>Util.BINARYL_FORMAT_INDEX/Util.DECIMAL_FORMAT_INDEX/Util.HEXADECIMAL_FORMAT_INDEX</tt>).
+	 */
+	private void createRows(int[] indexes, int format) {
+		this.indexes = indexes;
+		model.setRowCount(0);
+		for(int index: indexes) {
+			Object[] data = new Object[2];
+			data[0] = Util.formatDataAccordingToFormat(new Data(Data.DATA_SIZE, index * WORD), format);
+			data[1] = "";
+			model.addRow(data);
+		}
+	}
+
 	/**
 	 * Refreshes the values in the table.
 	 * @param format The data format (<tt>Util.BINARYL_FORMAT_INDEX/Util.DECIMAL_FORMAT_INDEX/Util.HEXADECIMAL_FORMAT_INDEX</tt>).
@@ -106,10 +120,15 @@ public class DataMemoryTable extends JTable implements MouseListener {
 		if(model == null || cpu == null || !cpu.hasDataMemory()) return;
 		this.dataFormat = format;
 
-		String data;
-		for(int i = 0; i < memorySize; i++) {
-			model.setValueAt(Util.formatDataAccordingToFormat(new Data(Data.DATA_SIZE, i * (Data.DATA_SIZE / 8)), format), i, ADDRESS_COLUMN_INDEX);
-			model.setValueAt(Util.formatDataAccordingToFormat(new Data(Data.DATA_SIZE, cpu.getDataMemory().getDataInIndex(i)), format), i, VALUE_COLUMN_INDEX);
+		DataMemory memory = cpu.getDataMemory();
+		if(memory.isSparse()) { // pages may have been allocated/freed
+			int[] used = memory.getUsedIndexes();
+			if(!Arrays.equals(used, indexes))
+				createRows(used, format);
+		}
+		for(int i = 0; i < indexes.length; i++) {
+			model.setValueAt(Util.formatDataAccordingToFormat(new Data(Data.DATA_SIZE, indexes[i] * WORD), format), i, ADDRESS_COLUMN_INDEX);
+			model.setValueAt(Util.formatDataAccordingToFormat(new Data(Data.DATA_SIZE, memory.getDataInIndex(indexes[i])), format), i, VALUE_COLUMN_INDEX);
 		}
 		repaint();
 	}
@@ -135,10 +154,13 @@ public class DataMemoryTable extends JTable implements MouseListener {
 	public void mousePressed(MouseEvent e) {
 		if(e.getClickCount() == 2) {
 			int row = rowAtPoint(e.getPoint());
-			String res = (String)JOptionPane.showInputDialog(this.getParent(), Lang.t("edit_value", row * (Data.DATA_SIZE / 8)) + ":", AppInfo.NAME, JOptionPane.QUESTION_MESSAGE, null, null, cpu.getDataMemory().getDataInIndex(row));
+			if(row < 0 || row >= indexes.length) return;
+			int index = indexes[row];
+			String res = (String)JOptionPane.showInputDialog(this.getParent(), Lang.t("edit_value", (long)index * WORD) + ":", AppInfo.NAME, JOptionPane.QUESTION_MESSAGE, null, null, cpu.getDataMemory().getDataInIndex(index));
 			if(res != null) {
 				try {
-					cpu.getDataMemory().setDataInIndex(row, Integer.parseInt(res));
+					cpu.getDataMemory().setDataInIndex(index, Integer.parseInt(res));
+					if(cpu.getTraceRecorder() != null) cpu.getTraceRecorder().requestKeyframe(); // not recorded
 					refreshValues(dataFormat);
 					if(datapath != null)
 						datapath.refresh(); // update datapath
@@ -170,11 +192,12 @@ public class DataMemoryTable extends JTable implements MouseListener {
 			setHorizontalAlignment(column == 1 ? SwingConstants.RIGHT : SwingConstants.LEFT); // align 2nd column to the right
 
 			if(cpu.hasDataMemory()) { // Highlight memory positions being accessed
-				int index = cpu.getDataMemory().getAddress().getValue() / (Data.DATA_SIZE / 8);
+				int index = cpu.getDataMemory().getIndexOfAddress(cpu.getDataMemory().getAddress().getValue());
 				boolean read = cpu.getDataMemory().getMemRead().getValue() == 1;
 				boolean write = cpu.getDataMemory().getMemWrite().getValue() == 1;
+				boolean accessed = row < indexes.length && indexes[row] == index;
 
-				if(write && row == index) {
+				if(write && accessed) {
 					if(read) {
 						setBackground(Util.rwColor);
 						setToolTipText(Lang.t("reading_and_writing_to_mem"));
@@ -184,7 +207,7 @@ public class DataMemoryTable extends JTable implements MouseListener {
 						setToolTipText(Lang.t("writing_to_mem"));
 					}
 				}
-				else if(read && row == index) {
+				else if(read && accessed) {
 					setBackground(Util.readColor);
 					setToolTipText(Lang.t("reading_from_mem"));
 				}
@@ -0,0 +1,301 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.pc;
+
+import brunonova.drmips.simulator.AppInfo;
+import brunonova.drmips.simulator.CPU;
+import brunonova.drmips.simulator.Data;
+import brunonova.drmips.simulator.TraceFile;
+import brunonova.drmips.simulator.TraceReader;
+import java.awt.Font;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.JOptionPane;
+import javax.swing.JTable;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * Dialog that shows the state of the CPU in the cycles of a trace file.
+ * <p>The slider selects the cycle, whose state is reconstructed from the
+ * trace file, without simulating the CPU. The instructions are shown with
+ * the code of the program recorded in the trace, which may not be the one
+ * currently loaded.</p>
+ *
+ * @author Bruno Nova
+ */
+public class DlgTraceViewer extends javax.swing.JDialog {
+	/** Size of each memory position, in bytes. */
+	private static final int WORD = Data.DATA_SIZE / 8;
+	/** Names of the stages of the pipeline. */
+	private static final String[] STAGES = {"IF", "ID", "EX", "MEM", "WB"};
+
+	/** The trace file. */
+	private final TraceFile trace;
+	/** The CPU, used for the names of the registers. */
+	private final CPU cpu;
+	/** The format of the data (<tt>Util.BINARYL_FORMAT_INDEX/Util.DECIMAL_FORMAT_INDEX/Util.HEXADECIMAL_FORMAT_INDEX</tt>). */
+	private final int format;
+	/** The model of the pipeline table. */
+	private DefaultTableModel pipelineModel;
+	/** The model of the registers table. */
+	private DefaultTableModel registersModel;
+	/** The model of the data memory table. */
+	private DefaultTableModel dataMemoryModel;
+	/** The indexes of the memory positions displayed in each row. */
+	private int[] memoryIndexes = new int[0];
+	/** Class logger. */
+	private static final Logger LOG = Logger.getLogger(DlgTraceViewer.class.getName());
+
+	/**
+	 * Creates new form DlgTraceViewer
+	 * @param parent The simulator's main window.
+	 * @param trace The trace file to view.
+	 * @param cpu The CPU, used for the names of the registers.
+	 * @param format The data format (<tt>Util.BINARYL_FORMAT_INDEX/Util.DECIMAL_FORMAT_INDEX/Util.HEXADECIMAL_FORMAT_INDEX</tt>).
+	 */
+	public DlgTraceViewer(FrmSimulator parent, TraceFile trace, CPU cpu, int format) {
+		super(parent, false);
+		this.trace = trace;
+		this.cpu = cpu;
+		this.format = format;
+		initComponents();
+		pipelineModel = createModel(tblPipeline);
+		registersModel = createModel(tblRegisters);
+		dataMemoryModel = createModel(tblDataMemory);
+		translate();
+		sldPosition.setMaximum((int)Math.min(trace.getNumberOfRecords() - 1, Integer.MAX_VALUE));
+		showState(0);
+		getRootPane().setDefaultButton(cmdClose);
+		Util.centerWindow(this);
+		Util.enableCloseWindowWithEscape(this);
+	}
+
+	/**
+	 * This method is called from within the constructor to initialize the form.
+	 * WARNING: Do NOT modify this code. The content of this method is always
+	 * regenerated by the Form Editor.
+	 */
+	@SuppressWarnings("unchecked")
+    // <editor-fold defaultstate="collapsed" desc="Generated Code">//GEN-BEGIN:initComponents
+    private void initComponents() {
+
+        jPanel1 = new javax.swing.JPanel();
+        sldPosition = new javax.swing.JSlider();
+        lblCycle = new javax.swing.JLabel();
+        jPanel3 = new javax.swing.JPanel();
+        jScrollPane1 = new javax.swing.JScrollPane();
+        tblPipeline = new javax.swing.JTable();
+        jScrollPane2 = new javax.swing.JScrollPane();
+        tblRegisters = new javax.swing.JTable();
+        jScrollPane3 = new javax.swing.JScrollPane();
+        tblDataMemory = new javax.swing.JTable();
+        jPanel2 = new javax.swing.JPanel();
+        cmdClose = new javax.swing.JButton();
+
+        setDefaultCloseOperation(javax.swing.WindowConstants.DO_NOTHING_ON_CLOSE);
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            public void windowClosing(java.awt.event.WindowEvent evt) {
+                formWindowClosing(evt);
+            }
+        });
+
+        jPanel1.setBorder(javax.swing.BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        jPanel1.setLayout(new java.awt.BorderLayout(5, 0));
+
+        sldPosition.setMaximum(0);
+        sldPosition.setValue(0);
+        sldPosition.addChangeListener(new javax.swing.event.ChangeListener() {
+            public void stateChanged(javax.swing.event.ChangeEvent evt) {
+                sldPositionStateChanged(evt);
+            }
+        });
+        jPanel1.add(sldPosition, java.awt.BorderLayout.CENTER);
+
+        lblCycle.setText("cycle");
+        jPanel1.add(lblCycle, java.awt.BorderLayout.EAST);
+
+        getContentPane().add(jPanel1, java.awt.BorderLayout.NORTH);
+
+        jPanel3.setBorder(javax.swing.BorderFactory.createEmptyBorder(0, 5, 0, 5));
+        jPanel3.setPreferredSize(new java.awt.Dimension(750, 400));
+        jPanel3.setLayout(new java.awt.GridLayout(1, 3, 5, 0));
+
+        jScrollPane1.setViewportView(tblPipeline);
+
+        jPanel3.add(jScrollPane1);
+
+        jScrollPane2.setViewportView(tblRegisters);
+
+        jPanel3.add(jScrollPane2);
+
+        jScrollPane3.setViewportView(tblDataMemory);
+
+        jPanel3.add(jScrollPane3);
+
+        getContentPane().add(jPanel3, java.awt.BorderLayout.CENTER);
+
+        cmdClose.setText("close");
+        cmdClose.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                cmdCloseActionPerformed(evt);
+            }
+        });
+        jPanel2.add(cmdClose);
+
+        getContentPane().add(jPanel2, java.awt.BorderLayout.SOUTH);
+
+        pack();
+    }// </editor-fold>//GEN-END:initComponents
+
+    private void cmdCloseActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_cmdCloseActionPerformed
+		close();
+    }//GEN-LAST:event_cmdCloseActionPerformed
+
+    private void formWindowClosing(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_formWindowClosing
+		close();
+    }//GEN-LAST:event_formWindowClosing
+
+    private void sldPositionStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_sldPositionStateChanged
+		if(pipelineModel != null) // not during initComponents()
+			showState(sldPosition.getValue());
+    }//GEN-LAST:event_sldPositionStateChanged
+
+	/**
+	 * Closes the window.
+	 */
+	private void close() {
+		dispose();
+	}
+
+	/**
+	 * Translates the dialog's strings.
+	 */
+	protected final void translate() {
+		setTitle(Lang.t("trace_viewer"));
+		Lang.tButton(cmdClose, "close");
+		tblPipeline.getTableHeader().getColumnModel().getColumn(0).setHeaderValue(Lang.t("stage"));
+		tblPipeline.getTableHeader().getColumnModel().getColumn(1).setHeaderValue(Lang.t("instruction"));
+		tblRegisters.getTableHeader().getColumnModel().getColumn(0).setHeaderValue(Lang.t("register"));
+		tblRegisters.getTableHeader().getColumnModel().getColumn(1).setHeaderValue(Lang.t("value"));
+		tblDataMemory.getTableHeader().getColumnModel().getColumn(0).setHeaderValue(Lang.t("address"));
+		tblDataMemory.getTableHeader().getColumnModel().getColumn(1).setHeaderValue(Lang.t("value"));
+	}
+
+	/**
+	 * Creates the (read-only) model of a table with two columns.
+	 * @param table The table.
+	 * @return The model.
+	 */
+	private static DefaultTableModel createModel(JTable table) {
+		DefaultTableModel model = new DefaultTableModel(0, 2) {
+			@Override
+			public boolean isCellEditable(int row, int column) {
+				return false;
+			}
+		};
+		table.setModel(model);
+		table.setFont(new Font("Courier New", Font.BOLD, 12));
+		table.getTableHeader().setReorderingAllowed(false);
+		return model;
+	}
+
+	/**
+	 * Reconstructs and shows the state of a cycle of the trace.
+	 * @param position The position of the cycle in the trace.
+	 */
+	private void showState(long position) {
+		TraceFile.State state;
+		try {
+			state = trace.getState(position);
+		} catch(IOException ex) {
+			JOptionPane.showMessageDialog(this, ex.getMessage(), AppInfo.NAME, JOptionPane.ERROR_MESSAGE);
+			LOG.log(Level.WARNING, "error reading trace", ex);
+			return;
+		}
+		lblCycle.setText(Lang.t("trace_cycle", state.getCycle(), position + 1, trace.getNumberOfRecords()));
+
+		// Pipeline
+		pipelineModel.setRowCount(0);
+		pipelineModel.addRow(new Object[] {"PC", format(state.getPC())});
+		for(int s = 0; s < state.getNumberOfStages(); s++)
+			pipelineModel.addRow(new Object[] {state.getNumberOfStages() > 1 ? STAGES[s] : "", getInstructionCode(state, state.getInstructionIndex(s))});
+		if(state.getNumberOfStages() > 1) {
+			pipelineModel.addRow(new Object[] {Lang.t("stalls"), state.isStall() ? "1" : "0"});
+			pipelineModel.addRow(new Object[] {"ForwardA", state.getForwardA()});
+			pipelineModel.addRow(new Object[] {"ForwardB", state.getForwardB()});
+		}
+
+		// Registers
+		if(registersModel.getRowCount() != state.getNumberOfRegisters()) {
+			registersModel.setRowCount(0);
+			for(int i = 0; i < state.getNumberOfRegisters(); i++)
+				registersModel.addRow(new Object[] {i < cpu.getRegBank().getNumberOfRegisters() ? cpu.getRegisterName(i) : "$" + i, ""});
+		}
+		for(int i = 0; i < state.getNumberOfRegisters(); i++)
+			registersModel.setValueAt(format(state.getRegister(i)), i, 1);
+
+		// Data memory
+		int[] indexes = state.getUsedIndexes();
+		if(!Arrays.equals(indexes, memoryIndexes)) {
+			memoryIndexes = indexes;
+			dataMemoryModel.setRowCount(0);
+			for(int index: indexes)
+				dataMemoryModel.addRow(new Object[] {format(index * WORD), ""});
+		}
+		for(int i = 0; i < indexes.length; i++)
+			dataMemoryModel.setValueAt(format(state.getDataInIndex(indexes[i])), i, 1);
+	}
+
+	/**
+	 * Returns the code of an instruction of the program recorded in the trace.
+	 * @param state The state of the cycle.
+	 * @param index The index of the instruction.
+	 * @return The code of the instruction, or an empty string if none.
+	 */
+	private static String getInstructionCode(TraceFile.State state, int index) {
+		String line = state.getCodeLine(index);
+		return line != null ? index + ": " + line : "";
+	}
+
+	/**
+	 * Formats a value in the selected data format.
+	 * @param value The value.
+	 * @return The formatted value.
+	 */
+	private String format(int value) {
+		return Util.formatDataAccordingToFormat(new Data(Data.DATA_SIZE, value), format);
+	}
+
+    // Variables declaration - do not modify//GEN-BEGIN:variables
+    private javax.swing.JButton cmdClose;
+    private javax.swing.JPanel jPanel1;
+    private javax.swing.JPanel jPanel2;
+    private javax.swing.JPanel jPanel3;
+    private javax.swing.JScrollPane jScrollPane1;
+    private javax.swing.JScrollPane jScrollPane2;
+    private javax.swing.JScrollPane jScrollPane3;
+    private javax.swing.JLabel lblCycle;
+    private javax.swing.JSlider sldPosition;
+    private javax.swing.JTable tblDataMemory;
+    private javax.swing.JTable tblPipeline;
+    private javax.swing.JTable tblRegisters;
+    // End of variables declaration//GEN-END:variables
+}
@@ -19,7 +19,9 @@
 package brunonova.drmips.pc;
 
 import brunonova.drmips.simulator.AppInfo;
+import brunonova.drmips.simulator.CPU;
 import java.io.File;
+import java.io.FilenameFilter;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.List;
@@ -92,6 +94,8 @@ public class DrMIPS {
 	public static final String SCALE_PREF = "scale";
 	public static final String AUTO_SCALE_PREF = "auto_scale";
 	public static final String OPENGL_PREF = "use_opengl";
+	public static final String RUN_MAX_CYCLES_PREF = "run_max_cycles";
+	public static final String RUN_MAX_TIME_PREF = "run_max_time";
 
 	// Default values of the preferences
 	public static final int DEFAULT_REGISTER_FORMAT = Util.DECIMAL_FORMAT_INDEX;
@@ -121,6 +125,8 @@ public class DrMIPS {
 	public static final double DEFAULT_SCALE = 1.0;
 	public static final boolean DEFAULT_AUTO_SCALE = false;
 	public static final boolean DEFAULT_OPENGL = false;
+	public static final int DEFAULT_RUN_MAX_CYCLES = 100000;
+	public static final int DEFAULT_RUN_MAX_TIME = 10000;
 
 	/** "Loading" dialog. */
 	private static DlgLoading dlgLoading = null;
@@ -128,6 +134,8 @@ public class DrMIPS {
 	private static FrmSimulator frmSim = null;
 	/** Optional filename to open. */
 	private static String filename = null;
+	/** Runner used instead of the GUI, if the code should be run in headless mode. */
+	private static HeadlessRunner headlessRunner = null;
 	/** Class logger. */
 	private static final Logger LOG = Logger.getLogger(DrMIPS.class.getName());
 
@@ -159,6 +167,32 @@ public class DrMIPS {
 		System.exit(0);
 	}
 
+	/**
+	 * Loads all the CPU files in the program's <tt>cpu</tt> directory and logs
+	 * the time it took to load each one.
+	 * <p>Only used when debug logging is enabled, as it slows down the startup.</p>
+	 */
+	private static void logCPULoadTimes() {
+		File[] files = new File(path, CPU.FILENAME_PATH).listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".cpu");
+			}
+		});
+		if(files == null) return;
+		Arrays.sort(files);
+		for(File file: files) {
+			long start = System.nanoTime();
+			try {
+				CPU.createFromJSONFile(file.getPath());
+				LOG.log(Level.FINE, "{0} loaded in {1} ms", new Object[] {file.getName(), (System.nanoTime() - start) / 1000000});
+			}
+			catch(Exception ex) {
+				LOG.log(Level.FINE, "error loading " + file.getName(), ex);
+			}
+		}
+	}
+
 	private static void enableOpenGl() {
 		// Hardware acceleration using OpenGL
 		System.setProperty("sun.java2d.opengl", "True");
@@ -181,6 +215,33 @@ public class DrMIPS {
 			parser.accepts("opengl", "enable OpenGL hardware acceleration");
 			parser.accepts("no-opengl", "disable OpenGL hardware acceleration");
 			parser.accepts("reset", "reset all settings to their defaults");
+			OptionSpec<String> runArg = parser.accepts("run", "assemble and run the code file without the GUI, print the results and exit")
+											  .withRequiredArg().describedAs("file");
+			OptionSpec<String> cpuArg = parser.accepts("cpu", "CPU file used by --run")
+											  .withRequiredArg().describedAs("file").defaultsTo(DEFAULT_CPU);
+			OptionSpec<Integer> maxCyclesArg = parser.accepts("max-cycles", "maximum number of cycles executed by --run (0 for no limit)")
+													 .withRequiredArg().ofType(Integer.class).defaultsTo(DEFAULT_RUN_MAX_CYCLES);
+			OptionSpec<String> dumpArg = parser.accepts("dump", "state printed by --run, besides the statistics (regs, mem or none)")
+											   .withRequiredArg().withValuesSeparatedBy(',').defaultsTo("regs", "mem");
+			OptionSpec<String> formatArg = parser.accepts("format", "output format of --run (text or json)")
+												 .withRequiredArg().defaultsTo("text");
+			OptionSpec<String> loadMemArg = parser.accepts("load-mem", "image loaded to the data memory by --run, after assembling the code")
+												  .withRequiredArg().describedAs("file");
+			OptionSpec<String> loadRegsArg = parser.accepts("load-regs", "image loaded to the registers by --run, after assembling the code")
+												   .withRequiredArg().describedAs("file");
+			OptionSpec<String> saveMemArg = parser.accepts("save-mem", "image where --run stores the data memory, after running the code")
+												  .withRequiredArg().describedAs("file");
+			OptionSpec<String> saveRegsArg = parser.accepts("save-regs", "image where --run stores the registers, after running the code")
+												   .withRequiredArg().describedAs("file");
+			OptionSpec<String> imageFormatArg = parser.accepts("image-format", "format of the images (raw, hex or bin; default: from the file extension, .hex, .bin or raw)")
+													  .withRequiredArg();
+			OptionSpec<String> byteOrderArg = parser.accepts("byte-order", "byte order of the raw images (little or big)")
+													.withRequiredArg().defaultsTo("little");
+			OptionSpec<Integer> imageAddressArg = parser.accepts("image-address", "data memory address where the images start")
+														.withRequiredArg().ofType(Integer.class).defaultsTo(0);
+			OptionSpec<Integer> imageWordsArg = parser.accepts("image-words", "number of values stored by --save-mem (default: the data segment)")
+													  .withRequiredArg().ofType(Integer.class).defaultsTo(-1);
+			parser.accepts("machine-code", "the code file of --run is an image of instruction words (in the format of the other images), loaded without assembling");
 
 			OptionSet options = parser.parse(args);
 			List<String> otherArgs = options.valuesOf(fileArg);
@@ -188,6 +249,18 @@ public class DrMIPS {
 				displayHelpAndExit(parser);
 			else if(options.has("version"))
 				displayVersionAndExit();
+			if(options.has(runArg)) {
+				if(!otherArgs.isEmpty()) {
+					System.err.println("The code file should be supplied with --run!");
+					System.exit(1);
+				}
+				headlessRunner = new HeadlessRunner(options.valueOf(cpuArg), options.valueOf(runArg),
+					options.valueOf(maxCyclesArg), options.valuesOf(dumpArg), options.valueOf(formatArg));
+				headlessRunner.setImages(options.valueOf(loadMemArg), options.valueOf(loadRegsArg), options.valueOf(saveMemArg),
+					options.valueOf(saveRegsArg), options.valueOf(imageFormatArg), options.valueOf(byteOrderArg),
+					options.valueOf(imageAddressArg), options.valueOf(imageWordsArg));
+				headlessRunner.setMachineCode(options.has("machine-code"));
+			}
 			if(options.has("reset")) {
 				prefs.clear();
 				useOpenGl = DEFAULT_OPENGL;
@@ -212,10 +285,6 @@ public class DrMIPS {
 			System.exit(1);
 		}
 
-		// Try to enable OpenGL hardware acceleration, unless requested not to
-		if(useOpenGl)
-			enableOpenGl();
-
 		// Find the path to the program
 		try {
 			URI uri = DrMIPS.class.getProtectionDomain().getCodeSource().getLocation().toURI(); // get the path to the jar (if running from a jar)
@@ -232,6 +301,18 @@ public class DrMIPS {
 			LOG.log(Level.WARNING, "error finding the path of the program", ex);
 		}
 
+		// Run in headless mode (no AWT/Swing class must be loaded)
+		if(headlessRunner != null)
+			System.exit(headlessRunner.run(System.out, System.err));
+
+		// Report the load times of the bundled CPUs, when debugging
+		if(LOG.isLoggable(Level.FINE))
+			logCPULoadTimes();
+
+		// Try to enable OpenGL hardware acceleration, unless requested not to
+		if(useOpenGl)
+			enableOpenGl();
+
 		// Start the GUI
 		SwingUtilities.invokeLater(new StartGUIRunnable());
 	}
@@ -283,6 +364,8 @@ public class DrMIPS {
 		@Override
 		public void uncaughtException(Thread t, Throwable ex) {
 			LOG.log(Level.SEVERE, "error starting simulator", ex);
+			if(headlessRunner != null) // don't load Swing in headless mode
+				System.exit(HeadlessRunner.EXIT_ERROR);
 			JOptionPane.showMessageDialog(null, "Fatal error!\n" + ex, AppInfo.NAME, JOptionPane.ERROR_MESSAGE);
 			if(frmSim == null || !frmSim.isVisible())
 				System.exit(1);
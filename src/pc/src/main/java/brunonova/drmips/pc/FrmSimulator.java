@@ -20,13 +20,22 @@ package brunonova.drmips.pc;
 
 import brunonova.drmips.simulator.AppInfo;
 import brunonova.drmips.simulator.CPU;
+import brunonova.drmips.simulator.CancellationToken;
+import brunonova.drmips.simulator.MemoryImage;
+import brunonova.drmips.simulator.RunResult;
+import brunonova.drmips.simulator.TraceFile;
+import brunonova.drmips.simulator.TraceRecorder;
 import brunonova.drmips.simulator.exceptions.*;
 import java.awt.BorderLayout;
 import java.awt.Desktop;
+import java.awt.FlowLayout;
+import java.awt.GridLayout;
 import java.awt.Image;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.beans.PropertyVetoException;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -37,24 +46,35 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.URI;
+import java.nio.ByteOrder;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
+import javax.swing.JButton;
 import javax.swing.JComboBox;
+import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JInternalFrame;
+import javax.swing.JLabel;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JRadioButtonMenuItem;
+import javax.swing.JSpinner;
 import javax.swing.JTabbedPane;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.WindowConstants;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import org.fife.ui.rtextarea.SearchContext;
 import org.fife.ui.rtextarea.SearchEngine;
@@ -75,6 +95,14 @@ public class FrmSimulator extends javax.swing.JFrame {
 	private JFileChooser codeFileChooser = null;
 	/** The file filter of the open/save file chooser. */
 	private FileNameExtensionFilter codeFileFilter = null;
+	/** The file chooser to load/save an image of the data memory. */
+	private JFileChooser imageFileChooser = null;
+	/** The file filters of the image file chooser (raw little-endian, raw big-endian, hex and bin). */
+	private FileNameExtensionFilter[] imageFileFilters = null;
+	/** The file chooser to record/view an execution trace. */
+	private JFileChooser traceFileChooser = null;
+	/** The trace file being recorded (if <tt>null</tt> no trace was recorded). */
+	private File traceFile = null;
 	/** The file currently open (if <tt>null</tt> no file is open). */
 	private File openFile = null;
 	/** The window icon (in different sizes). */
@@ -112,6 +140,9 @@ public class FrmSimulator extends javax.swing.JFrame {
 	/** Internal frame for the data memory table. */
 	private JScrollInternalFrame frmDataMemory = null;
 
+	/** Time that the "run" action executes in the GUI thread before continuing in the background, in ms. */
+	private static final int RUN_FOREGROUND_TIME = 100;
+
 	/** Class logger. */
 	private static final Logger LOG = Logger.getLogger(FrmSimulator.class.getName());
 
@@ -271,6 +302,8 @@ public class FrmSimulator extends javax.swing.JFrame {
         jPanel4 = new javax.swing.JPanel();
         lblDataMemoryFormat = new javax.swing.JLabel();
         cmbDataMemoryFormat = new javax.swing.JComboBox();
+        cmdLoadDataMemoryImage = new javax.swing.JButton();
+        cmdSaveDataMemoryImage = new javax.swing.JButton();
         pnlRight = new javax.swing.JTabbedPane();
         pnlRegisters = new javax.swing.JPanel();
         jPanel1 = new javax.swing.JPanel();
@@ -338,8 +371,12 @@ public class FrmSimulator extends javax.swing.JFrame {
         mnuStep = new javax.swing.JMenuItem();
         mnuRun = new javax.swing.JMenuItem();
         mnuBreak = new javax.swing.JMenuItem();
+        mnuRunLimits = new javax.swing.JMenuItem();
         jSeparator10 = new javax.swing.JPopupMenu.Separator();
         mnuResetDataBeforeAssembling = new javax.swing.JCheckBoxMenuItem();
+        jSeparator20 = new javax.swing.JPopupMenu.Separator();
+        mnuRecordTrace = new javax.swing.JCheckBoxMenuItem();
+        mnuViewTrace = new javax.swing.JMenuItem();
         mnuCPU = new javax.swing.JMenu();
         mnuLoadCPU = new javax.swing.JMenuItem();
         mnuLoadRecentCPU = new javax.swing.JMenu();
@@ -779,6 +816,26 @@ public class FrmSimulator extends javax.swing.JFrame {
         });
         jPanel4.add(cmbDataMemoryFormat);
 
+        cmdLoadDataMemoryImage.setIcon(new javax.swing.ImageIcon(getClass().getResource("/res/icons/x16/open.png"))); // NOI18N
+        cmdLoadDataMemoryImage.setToolTipText("load_image");
+        cmdLoadDataMemoryImage.setFocusable(false);
+        cmdLoadDataMemoryImage.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                cmdLoadDataMemoryImageActionPerformed(evt);
+            }
+        });
+        jPanel4.add(cmdLoadDataMemoryImage);
+
+        cmdSaveDataMemoryImage.setIcon(new javax.swing.ImageIcon(getClass().getResource("/res/icons/x16/save.png"))); // NOI18N
+        cmdSaveDataMemoryImage.setToolTipText("save_image");
+        cmdSaveDataMemoryImage.setFocusable(false);
+        cmdSaveDataMemoryImage.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                cmdSaveDataMemoryImageActionPerformed(evt);
+            }
+        });
+        jPanel4.add(cmdSaveDataMemoryImage);
+
         pnlDataMemory.add(jPanel4, java.awt.BorderLayout.SOUTH);
 
         pnlLeft.addTab("data_memory", pnlDataMemory);
@@ -1246,6 +1303,14 @@ public class FrmSimulator extends javax.swing.JFrame {
             }
         });
         mnuExecute.add(mnuBreak);
+
+        mnuRunLimits.setText("run_limits");
+        mnuRunLimits.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                mnuRunLimitsActionPerformed(evt);
+            }
+        });
+        mnuExecute.add(mnuRunLimits);
         mnuExecute.add(jSeparator10);
 
         mnuResetDataBeforeAssembling.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_R, java.awt.event.InputEvent.CTRL_MASK));
@@ -1253,6 +1318,23 @@ public class FrmSimulator extends javax.swing.JFrame {
         mnuResetDataBeforeAssembling.setText("reset_data_before_assembling");
         mnuResetDataBeforeAssembling.setIcon(new javax.swing.ImageIcon(getClass().getResource("/res/icons/x16/reset_data.png"))); // NOI18N
         mnuExecute.add(mnuResetDataBeforeAssembling);
+        mnuExecute.add(jSeparator20);
+
+        mnuRecordTrace.setText("record_trace");
+        mnuRecordTrace.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                mnuRecordTraceActionPerformed(evt);
+            }
+        });
+        mnuExecute.add(mnuRecordTrace);
+
+        mnuViewTrace.setText("view_trace");
+        mnuViewTrace.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                mnuViewTraceActionPerformed(evt);
+            }
+        });
+        mnuExecute.add(mnuViewTrace);
 
         mnuBar.add(mnuExecute);
 
@@ -1412,6 +1494,14 @@ public class FrmSimulator extends javax.swing.JFrame {
 		tblDataMemory.refreshValues(cmbDataMemoryFormat.getSelectedIndex());
     }//GEN-LAST:event_cmbDataMemoryFormatActionPerformed
 
+    private void cmdLoadDataMemoryImageActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_cmdLoadDataMemoryImageActionPerformed
+		loadDataMemoryImage();
+    }//GEN-LAST:event_cmdLoadDataMemoryImageActionPerformed
+
+    private void cmdSaveDataMemoryImageActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_cmdSaveDataMemoryImageActionPerformed
+		saveDataMemoryImage();
+    }//GEN-LAST:event_cmdSaveDataMemoryImageActionPerformed
+
     private void mnuEditMousePressed(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_mnuEditMousePressed
 		mnuUndo.setEnabled(txtCode.canUndo());
 		mnuRedo.setEnabled(txtCode.canRedo());
@@ -1575,6 +1665,21 @@ public class FrmSimulator extends javax.swing.JFrame {
         addBreakpoint();
     }//GEN-LAST:event_mnuBreakActionPerformed
 
+    private void mnuRunLimitsActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_mnuRunLimitsActionPerformed
+		setRunLimits();
+    }//GEN-LAST:event_mnuRunLimitsActionPerformed
+
+    private void mnuRecordTraceActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_mnuRecordTraceActionPerformed
+		if(mnuRecordTrace.isSelected())
+			startTraceRecording();
+		else
+			stopTraceRecording();
+    }//GEN-LAST:event_mnuRecordTraceActionPerformed
+
+    private void mnuViewTraceActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_mnuViewTraceActionPerformed
+		viewTrace();
+    }//GEN-LAST:event_mnuViewTraceActionPerformed
+
     private void mnuDocsActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_mnuDocsActionPerformed
 		openDocDir();
     }//GEN-LAST:event_mnuDocsActionPerformed
@@ -1930,6 +2035,130 @@ public class FrmSimulator extends javax.swing.JFrame {
 		}
 	}
 
+	/**
+	 * Shows the file chooser to load an image to the data memory.
+	 * <p>The image is loaded at address 0, where the data segment starts.</p>
+	 */
+	private void loadDataMemoryImage() {
+		imageFileChooser.setDialogTitle(Lang.t("load_image"));
+		if(cpu.hasDataMemory() && imageFileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+			File file = imageFileChooser.getSelectedFile();
+			try {
+				MemoryImage.load(file, getImageFormat(file), getImageByteOrder(), cpu.getDataMemory(), 0);
+				if(cpu.getTraceRecorder() != null) cpu.getTraceRecorder().requestKeyframe(); // not recorded
+				refreshValues();
+			} catch(Exception ex) {
+				JOptionPane.showMessageDialog(this, Lang.t("error_opening_file", file.getName()) + "\n" + ex.getMessage(), AppInfo.NAME, JOptionPane.ERROR_MESSAGE);
+				LOG.log(Level.WARNING, "error loading image \"" + file.getName() + "\"", ex);
+			}
+		}
+	}
+
+	/**
+	 * Shows the file chooser to save an image of the data memory.
+	 * <p>The data segment is saved, starting at address 0.</p>
+	 */
+	private void saveDataMemoryImage() {
+		imageFileChooser.setDialogTitle(Lang.t("save_image"));
+		if(cpu.hasDataMemory() && imageFileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+			File file = imageFileChooser.getSelectedFile();
+			FileFilter filter = imageFileChooser.getFileFilter();
+			if(filter instanceof FileNameExtensionFilter && file.getName().lastIndexOf(".") == -1)
+				file = new File(file.getPath() + "." + ((FileNameExtensionFilter)filter).getExtensions()[0]); // append extension if missing
+			if(file.exists() && JOptionPane.showConfirmDialog(this, Lang.t("confirm_replace", file.getName()), AppInfo.NAME, JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE) != JOptionPane.OK_OPTION)
+				return;
+			try {
+				MemoryImage.dump(file, getImageFormat(file), getImageByteOrder(), cpu.getDataMemory(), 0, MemoryImage.getDataSegmentSize(cpu.getDataMemory()));
+			} catch(Exception ex) {
+				JOptionPane.showMessageDialog(this, Lang.t("error_saving_file", file.getName()) + "\n" + ex.getMessage(), AppInfo.NAME, JOptionPane.ERROR_MESSAGE);
+				LOG.log(Level.WARNING, "error saving image \"" + file.getName() + "\"", ex);
+			}
+		}
+	}
+
+	/**
+	 * Shows the file chooser to start recording the executed cycles to a trace file.
+	 */
+	private void startTraceRecording() {
+		traceFileChooser.setDialogTitle(Lang.t("record_trace_to_file"));
+		mnuRecordTrace.setSelected(false);
+		if(traceFileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+			File file = traceFileChooser.getSelectedFile();
+			if(file.getName().lastIndexOf(".") == -1)
+				file = new File(file.getPath() + ".trace"); // append extension if missing
+			if(file.exists() && JOptionPane.showConfirmDialog(this, Lang.t("confirm_replace", file.getName()), AppInfo.NAME, JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE) != JOptionPane.OK_OPTION)
+				return;
+			try {
+				cpu.setTraceRecorder(new TraceRecorder(cpu, new FileOutputStream(file).getChannel(), TraceRecorder.DEFAULT_RING_BLOCKS));
+				traceFile = file;
+				mnuRecordTrace.setSelected(true);
+			} catch(Exception ex) {
+				JOptionPane.showMessageDialog(this, Lang.t("error_saving_file", file.getName()) + "\n" + ex.getMessage(), AppInfo.NAME, JOptionPane.ERROR_MESSAGE);
+				LOG.log(Level.WARNING, "error recording trace \"" + file.getName() + "\"", ex);
+			}
+		}
+	}
+
+	/**
+	 * Stops recording the executed cycles, if recording, and closes the trace file.
+	 */
+	private void stopTraceRecording() {
+		mnuRecordTrace.setSelected(false);
+		if(cpu == null || cpu.getTraceRecorder() == null) return;
+		TraceRecorder recorder = cpu.getTraceRecorder();
+		cpu.setTraceRecorder(null);
+		try {
+			recorder.close();
+		} catch(IOException ex) {
+			JOptionPane.showMessageDialog(this, Lang.t("error_saving_file", traceFile.getName()) + "\n" + ex.getMessage(), AppInfo.NAME, JOptionPane.ERROR_MESSAGE);
+			LOG.log(Level.WARNING, "error closing trace \"" + traceFile.getName() + "\"", ex);
+		}
+	}
+
+	/**
+	 * Shows the file chooser to open a trace file in the trace viewer.
+	 * <p>The trace being recorded can be viewed up to the last executed cycle.</p>
+	 */
+	private void viewTrace() {
+		traceFileChooser.setDialogTitle(Lang.t("open_trace_file"));
+		if(traceFileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+			File file = traceFileChooser.getSelectedFile();
+			try {
+				if(cpu.getTraceRecorder() != null)
+					cpu.getTraceRecorder().flush(); // write the last cycles
+				new DlgTraceViewer(this, new TraceFile(file), cpu, cmbRegFormat.getSelectedIndex()).setVisible(true);
+			} catch(Exception ex) {
+				JOptionPane.showMessageDialog(this, Lang.t("error_opening_file", file.getName()) + "\n" + ex.getMessage(), AppInfo.NAME, JOptionPane.ERROR_MESSAGE);
+				LOG.log(Level.WARNING, "error opening trace \"" + file.getName() + "\"", ex);
+			}
+		}
+	}
+
+	/**
+	 * Returns the format of an image, according to the selected file filter or the file's extension.
+	 * @param file The image file.
+	 * @return The format of the image.
+	 */
+	private MemoryImage.Format getImageFormat(File file) {
+		FileFilter filter = imageFileChooser.getFileFilter();
+		if(filter == imageFileFilters[0] || filter == imageFileFilters[1])
+			return MemoryImage.Format.RAW;
+		else if(filter == imageFileFilters[2])
+			return MemoryImage.Format.HEX;
+		else if(filter == imageFileFilters[3])
+			return MemoryImage.Format.BIN;
+		else
+			return MemoryImage.Format.fromFileName(file.getName());
+	}
+
+	/**
+	 * Returns the byte order of a raw image, according to the selected file filter.
+	 * @return The byte order (little-endian, unless the big-endian filter is selected).
+	 */
+	private ByteOrder getImageByteOrder() {
+		return imageFileChooser.getFileFilter() == imageFileFilters[1] ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+	}
+
 	/**
 	 * Saves the code to the specified file.
 	 * @param path Path to the file to save.
@@ -2019,11 +2248,14 @@ public class FrmSimulator extends javax.swing.JFrame {
 		Lang.tButton(mnuStep, "step");
 		Lang.tButton(mnuRun, "run");
 		Lang.tButton(mnuBreak, "add breakpoint");
+		Lang.tButton(mnuRunLimits, "run_limits");
 		Lang.tButton(mnuZoomIn, "zoom_in");
 		Lang.tButton(mnuZoomOut, "zoom_out");
 		Lang.tButton(mnuZoomNormal, "normal");
 		Lang.tButton(mnuZoomAutoAdjust, "adjust_automatically");
 		Lang.tButton(mnuResetDataBeforeAssembling, "reset_data_before_assembling");
+		Lang.tButton(mnuRecordTrace, "record_trace");
+		Lang.tButton(mnuViewTrace, "view_trace");
 		Lang.tButton(mnuCPU, "cpu");
 		Lang.tButton(mnuLoadCPU, "load");
 		Lang.tButton(mnuLoadRecentCPU, "load_recent");
@@ -2064,6 +2296,18 @@ public class FrmSimulator extends javax.swing.JFrame {
 		cpuFileChooser.setFileFilter(new FileNameExtensionFilter(Lang.t("cpu_files"), CPU.FILENAME_EXTENSION));
 		codeFileChooser = new JFileChooser();
 		codeFileChooser.setFileFilter(codeFileFilter = new FileNameExtensionFilter(Lang.t("assembly_files"), "asm", "s"));
+		imageFileChooser = new JFileChooser();
+		imageFileFilters = new FileNameExtensionFilter[] {
+			new FileNameExtensionFilter(Lang.t("raw_images_little_endian"), "raw"),
+			new FileNameExtensionFilter(Lang.t("raw_images_big_endian"), "raw"),
+			new FileNameExtensionFilter(Lang.t("hex_images"), "hex"),
+			new FileNameExtensionFilter(Lang.t("bin_images"), "bin")
+		};
+		for(FileFilter filter: imageFileFilters)
+			imageFileChooser.addChoosableFileFilter(filter);
+		imageFileChooser.setFileFilter(imageFileFilters[0]);
+		traceFileChooser = new JFileChooser();
+		traceFileChooser.setFileFilter(new FileNameExtensionFilter(Lang.t("trace_files"), "trace"));
 		dlgFindReplace.translate();
 		dlgSupportedInstructions.translate();
 		dlgStatistics.translate();
@@ -2084,6 +2328,8 @@ public class FrmSimulator extends javax.swing.JFrame {
 		cmdZoomOut.setToolTipText(Lang.t("zoom_out"));
 		cmdZoomNormal.setToolTipText(Lang.t("normal"));
 		chkZoomAutoAdjust.setToolTipText(Lang.t("adjust_automatically"));
+		cmdLoadDataMemoryImage.setToolTipText(Lang.t("load_image"));
+		cmdSaveDataMemoryImage.setToolTipText(Lang.t("save_image"));
 		lblZoom.setText(Lang.t("zoom", Math.round(datapath.getScale() * 100) + "%"));
 
 		updateCaretPosition();
@@ -2200,6 +2446,7 @@ public class FrmSimulator extends javax.swing.JFrame {
 			else
 				DrMIPS.prefs.putInt(DrMIPS.DIVIDER_LOCATION_PREF, pnlSplit.getDividerLocation());
 
+			stopTraceRecording();
 			System.exit(0);
 		}
 	}
@@ -2255,6 +2502,7 @@ public class FrmSimulator extends javax.swing.JFrame {
 	 */
 	private void loadCPU(String path) throws IOException, JSONException, InvalidCPUException, ArrayIndexOutOfBoundsException, InvalidInstructionSetException, NumberFormatException {
 		setSimulationControlsEnabled(false);
+		stopTraceRecording(); // the recorder is of the previous CPU
 		cpu = CPU.createFromJSONFile(path); // load CPU from file
 		cpu.setPerformanceInstructionDependent(cmbDatapathPerformance.getSelectedIndex() == Util.INSTRUCTION_PERFORMANCE_TYPE_INDEX);
 		DrMIPS.prefs.put(DrMIPS.LAST_CPU_PREF, path); // save CPU path in preferences
@@ -2262,6 +2510,8 @@ public class FrmSimulator extends javax.swing.JFrame {
 		datapath.setCPU(cpu); // display datapath in the respective tab
 		tblAssembledCode.setCPU(cpu, cmbAssembledCodeFormat.getSelectedIndex()); // display assembled code in the respective tab
 		tblDataMemory.setCPU(cpu, datapath, cmbDataMemoryFormat.getSelectedIndex()); // display data memory in the respective tab
+		cmdLoadDataMemoryImage.setEnabled(cpu.hasDataMemory());
+		cmdSaveDataMemoryImage.setEnabled(cpu.hasDataMemory());
 		tblExec.setCPU(cpu, cmbDatapathDataFormat.getSelectedIndex());
 		lblFileName.setText(cpu.getFile().getName());
 		lblFileName.setToolTipText(cpu.getFile().getAbsolutePath());
@@ -2345,17 +2595,122 @@ public class FrmSimulator extends javax.swing.JFrame {
 
 	/**
 	 * Executes all the instructions at once.
+	 * <p>The program is executed in the GUI thread for up to
+	 * <tt>RUN_FOREGROUND_TIME</tt> ms. If it doesn't finish by then, the
+	 * execution continues in a background thread while a modal dialog, which
+	 * can stop it, blocks the other actions.</p>
 	 */
 	private void run() {
-		try {
-			cpu.executeAll();
+		final int maxCycles = DrMIPS.prefs.getInt(DrMIPS.RUN_MAX_CYCLES_PREF, DrMIPS.DEFAULT_RUN_MAX_CYCLES);
+		final int maxTime = DrMIPS.prefs.getInt(DrMIPS.RUN_MAX_TIME_PREF, DrMIPS.DEFAULT_RUN_MAX_TIME);
+		final int foregroundTime = (maxTime > 0 && maxTime <= RUN_FOREGROUND_TIME) ? maxTime : RUN_FOREGROUND_TIME;
+		final RunResult first = cpu.run(maxCycles, foregroundTime, null);
+		if(first.getReason() != RunResult.Reason.DEADLINE || foregroundTime == maxTime) {
+			runFinished(first, maxCycles, maxTime);
+			return;
 		}
-		catch(InfiniteLoopException e) {
-			JOptionPane.showMessageDialog(this, Lang.t("possible_infinite_loop", CPU.EXECUTE_ALL_LIMIT_CYCLES), AppInfo.NAME, JOptionPane.ERROR_MESSAGE);
+
+		// Continue in the background
+		final CPU runningCPU = cpu;
+		final CancellationToken token = new CancellationToken();
+		final JDialog dialog = createRunningDialog(token);
+		new SwingWorker<RunResult, Void>() {
+			@Override
+			protected RunResult doInBackground() {
+				return runningCPU.run(maxCycles > 0 ? maxCycles - first.getNumberOfExecutedCycles() : 0,
+					maxTime > 0 ? Math.max(1, maxTime - first.getElapsedTime()) : 0, token);
+			}
+
+			@Override
+			protected void done() {
+				dialog.dispose();
+				try {
+					RunResult rest = get();
+					runFinished(new RunResult(rest.getReason(), first.getNumberOfExecutedCycles() + rest.getNumberOfExecutedCycles(),
+						first.getElapsedTime() + rest.getElapsedTime()), maxCycles, maxTime);
+				} catch(InterruptedException | ExecutionException ex) {
+					LOG.log(Level.SEVERE, "error running the program", ex);
+					refreshValues();
+				}
+			}
+		}.execute();
+		dialog.setVisible(true); // returns when disposed in done()
+	}
+
+	/**
+	 * Creates the modal dialog shown while the program is running in the background.
+	 * @param token The token cancelled by the dialog's stop button or by closing it.
+	 * @return The dialog (not visible yet).
+	 */
+	private JDialog createRunningDialog(final CancellationToken token) {
+		final JDialog dialog = new JDialog(this, AppInfo.NAME, true);
+		final JButton cmdStop = new JButton();
+		Lang.tButton(cmdStop, "stop");
+		cmdStop.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				token.cancel();
+				cmdStop.setEnabled(false);
+			}
+		});
+		dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+		dialog.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				token.cancel();
+				cmdStop.setEnabled(false);
+			}
+		});
+
+		JPanel panel = new JPanel(new BorderLayout(5, 5));
+		panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+		panel.add(new JLabel(Lang.t("running_program")), BorderLayout.CENTER);
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.CENTER));
+		buttons.add(cmdStop);
+		panel.add(buttons, BorderLayout.SOUTH);
+		dialog.setContentPane(panel);
+		dialog.getRootPane().setDefaultButton(cmdStop);
+		dialog.pack();
+		dialog.setLocationRelativeTo(this);
+		return dialog;
+	}
+
+	/**
+	 * Shows the reason why the "run" action stopped, if it didn't finish normally, and refreshes the GUI.
+	 * @param result The result of the execution.
+	 * @param maxCycles The maximum number of cycles of the execution.
+	 * @param maxTime The maximum time of the execution, in ms.
+	 */
+	private void runFinished(RunResult result, int maxCycles, int maxTime) {
+		switch(result.getReason()) {
+			case BUDGET:
+				JOptionPane.showMessageDialog(this, Lang.t("possible_infinite_loop", maxCycles), AppInfo.NAME, JOptionPane.ERROR_MESSAGE);
+				break;
+			case DEADLINE:
+				JOptionPane.showMessageDialog(this, Lang.t("time_limit_reached", maxTime, result.getNumberOfExecutedCycles()), AppInfo.NAME, JOptionPane.ERROR_MESSAGE);
+				break;
 		}
 		refreshValues();
 	}
 
+	/**
+	 * Asks the user for the limits of the "run" action (maximum number of cycles and time).
+	 */
+	private void setRunLimits() {
+		JSpinner spnMaxCycles = new JSpinner(new SpinnerNumberModel(DrMIPS.prefs.getInt(DrMIPS.RUN_MAX_CYCLES_PREF, DrMIPS.DEFAULT_RUN_MAX_CYCLES), 0, Integer.MAX_VALUE, 1000));
+		JSpinner spnMaxTime = new JSpinner(new SpinnerNumberModel(DrMIPS.prefs.getInt(DrMIPS.RUN_MAX_TIME_PREF, DrMIPS.DEFAULT_RUN_MAX_TIME), 0, Integer.MAX_VALUE, 1000));
+		JPanel panel = new JPanel(new GridLayout(2, 2, 5, 5));
+		panel.add(new JLabel(Lang.t("max_cycles")));
+		panel.add(spnMaxCycles);
+		panel.add(new JLabel(Lang.t("max_time")));
+		panel.add(spnMaxTime);
+
+		if(JOptionPane.showConfirmDialog(this, panel, AppInfo.NAME, JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) == JOptionPane.OK_OPTION) {
+			DrMIPS.prefs.putInt(DrMIPS.RUN_MAX_CYCLES_PREF, (Integer)spnMaxCycles.getValue());
+			DrMIPS.prefs.putInt(DrMIPS.RUN_MAX_TIME_PREF, (Integer)spnMaxTime.getValue());
+		}
+	}
+
 	/**
 	 * Add a breakpoint.
 	 */
@@ -2390,52 +2745,18 @@ public class FrmSimulator extends javax.swing.JFrame {
 	 * Assembles and loads the code from the Code tab.
 	 */
 	private void assemble() {
-		txtCode.clearErrorIcons();
 		if(mnuResetDataBeforeAssembling.isSelected()) cpu.resetData();
 		try {
-			cpu.assembleCode(txtCode.getText());
+			cpu.loadProgram(txtCode.assemble()); // usually already assembled in the background
 			setSimulationControlsEnabled(true);
 			tblAssembledCode.refresh(cmbAssembledCodeFormat.getSelectedIndex());
 			refreshValues();
 			if(!mnuInternalWindows.isSelected())
 				tabAssembledCode.select();
 		}
-		catch(SyntaxErrorException ex) {
-			String message = getTranslatedSyntaxErrorMessage(ex);
-
-			if(!ex.hasOtherErrors())
-				txtCode.addErrorIcon(ex.getLine(), message);
-			else {
-				for(SyntaxErrorException e: ex.getOtherErrors())
-					txtCode.addErrorIcon(e.getLine(), getTranslatedSyntaxErrorMessage(e));
-			}
-
-			JOptionPane.showMessageDialog(this, message, AppInfo.NAME, JOptionPane.ERROR_MESSAGE);
-		}
-	}
-
-	/**
-	 * Returns the translated message for the given syntax error exception.
-	 * @param ex The exception.
-	 * @return Translated error message.
-	 */
-	private String getTranslatedSyntaxErrorMessage(SyntaxErrorException ex) {
-		String message = Lang.t("line", ex.getLine()) + ": ";
-		switch(ex.getType()) {
-			case DUPLICATED_LABEL: message += Lang.t("duplicated_label", ex.getExtra()); break;
-			case INVALID_DATA_ARG: message += Lang.t("invalid_arg_data", ex.getExtra()); break;
-			case INVALID_INT_ARG: message += Lang.t("invalid_arg_int", ex.getExtra()); break;
-			case INVALID_LABEL: message += Lang.t("invalid_label", ex.getExtra()); break;
-			case INVALID_REG_ARG: message += Lang.t("invalid_arg_reg", ex.getExtra()); break;
-			case UNKNOWN_DATA_DIRECTIVE: message += Lang.t("unknown_data_directive", ex.getExtra()); break;
-			case UNKNOWN_INSTRUCTION: message += Lang.t("unknown_instruction", ex.getExtra()); break;
-			case UNKNOWN_LABEL: message += Lang.t("unknown_label", ex.getExtra()); break;
-			case WRONG_NUMBER_OF_ARGUMENTS: message += Lang.t("wrong_no_args", ex.getExtra(), ex.getExtra2()); break;
-			case INVALID_POSITIVE_INT_ARG: message += Lang.t("invalid_arg_positive_int", ex.getExtra()); break;
-			case DATA_SEGMENT_WITHOUT_DATA_MEMORY: message += Lang.t("data_segment_without_data_memory"); break;
-			default: message = ex.getMessage();
+		catch(SyntaxErrorException ex) { // the error icons are displayed by the editor
+			JOptionPane.showMessageDialog(this, CodeEditor.getTranslatedSyntaxErrorMessage(ex), AppInfo.NAME, JOptionPane.ERROR_MESSAGE);
 		}
-		return message;
 	}
 
 	/**
@@ -2859,12 +3180,14 @@ public class FrmSimulator extends javax.swing.JFrame {
     private javax.swing.JButton cmdAssemble;
     private javax.swing.JButton cmdBackStep;
     private javax.swing.JButton cmdHelp;
+    private javax.swing.JButton cmdLoadDataMemoryImage;
     private javax.swing.JButton cmdNew;
     private javax.swing.JButton cmdOpen;
     private javax.swing.JButton cmdRestart;
     private javax.swing.JButton cmdRun;
     private javax.swing.JButton cmdSave;
     private javax.swing.JButton cmdSaveAs;
+    private javax.swing.JButton cmdSaveDataMemoryImage;
     private javax.swing.JButton cmdStatistics;
     private javax.swing.JButton cmdStep;
     private javax.swing.JButton cmdSupportedInstructions;
@@ -2897,6 +3220,7 @@ public class FrmSimulator extends javax.swing.JFrame {
     private javax.swing.JToolBar.Separator jSeparator18;
     private javax.swing.JToolBar.Separator jSeparator19;
     private javax.swing.JPopupMenu.Separator jSeparator2;
+    private javax.swing.JPopupMenu.Separator jSeparator20;
     private javax.swing.JPopupMenu.Separator jSeparator3;
     private javax.swing.JToolBar.Separator jSeparator4;
     private javax.swing.JPopupMenu.Separator jSeparator5;
@@ -2954,6 +3278,7 @@ public class FrmSimulator extends javax.swing.JFrame {
     private javax.swing.JMenuItem mnuPasteP;
     private javax.swing.JCheckBoxMenuItem mnuPerformanceMode;
     private javax.swing.JMenuItem mnuPrint;
+    private javax.swing.JCheckBoxMenuItem mnuRecordTrace;
     private javax.swing.JMenuItem mnuRedo;
     private javax.swing.JMenuItem mnuRedoP;
     private javax.swing.JMenuItem mnuRemoveLatencies;
@@ -2962,6 +3287,7 @@ public class FrmSimulator extends javax.swing.JFrame {
     private javax.swing.JMenuItem mnuRestoreLatencies;
     private javax.swing.JMenuItem mnuRun;
     private javax.swing.JMenuItem mnuBreak;
+    private javax.swing.JMenuItem mnuRunLimits;
     private javax.swing.JMenuItem mnuSave;
     private javax.swing.JMenuItem mnuSaveAs;
     private javax.swing.JMenuItem mnuSelectAll;
@@ -2976,6 +3302,7 @@ public class FrmSimulator extends javax.swing.JFrame {
     private javax.swing.JMenuItem mnuUndo;
     private javax.swing.JMenuItem mnuUndoP;
     private javax.swing.JMenu mnuView;
+    private javax.swing.JMenuItem mnuViewTrace;
     private javax.swing.JMenu mnuWindows;
     private javax.swing.JCheckBoxMenuItem mnuZoomAutoAdjust;
     private javax.swing.JMenuItem mnuZoomIn;
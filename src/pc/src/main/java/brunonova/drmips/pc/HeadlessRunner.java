@@ -0,0 +1,442 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.pc;
+
+import brunonova.drmips.simulator.CPU;
+import brunonova.drmips.simulator.Data;
+import brunonova.drmips.simulator.MemoryImage;
+import brunonova.drmips.simulator.RunResult;
+import brunonova.drmips.simulator.components.DataMemory;
+import brunonova.drmips.simulator.components.ExtendedALU;
+import brunonova.drmips.simulator.components.RegBank;
+import brunonova.drmips.simulator.exceptions.SyntaxErrorException;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Assembles and runs a program without the graphical interface.
+ * <p>This class is used by the <tt>--run</tt> command-line option. It must
+ * not use any Swing/AWT class (including the other classes of the GUI, like
+ * {@link Util} or {@link Lang}), so that the simulator starts quickly and can
+ * be used in machines without a display.</p>
+ *
+ * @author Bruno Nova
+ */
+class HeadlessRunner {
+	/** The possible output formats. */
+	enum Format {TEXT, JSON}
+
+	/** Exit status when the program finished. */
+	public static final int EXIT_SUCCESS = 0;
+	/** Exit status when an error occurred (invalid CPU, syntax error, etc.). */
+	public static final int EXIT_ERROR = 1;
+	/** Exit status when the maximum number of cycles was reached before the program finished. */
+	public static final int EXIT_LIMIT_REACHED = 2;
+	/** Size of each memory position, in bytes. */
+	private static final int WORD = Data.DATA_SIZE / 8;
+
+	/** Path to the CPU file. */
+	private final String cpuPath;
+	/** Path to the code file. */
+	private final String codePath;
+	/** The maximum number of cycles to execute (<tt>0</tt> for no limit). */
+	private final int maxCycles;
+	/** Whether to print the registers. */
+	private final boolean dumpRegisters;
+	/** Whether to print the data memory. */
+	private final boolean dumpMemory;
+	/** The output format. */
+	private final Format format;
+	/** Path to the image loaded to the data memory (<tt>null</tt> if none). */
+	private String loadMemoryPath = null;
+	/** Path to the image loaded to the registers (<tt>null</tt> if none). */
+	private String loadRegistersPath = null;
+	/** Path to the image where the data memory is stored (<tt>null</tt> if none). */
+	private String saveMemoryPath = null;
+	/** Path to the image where the registers are stored (<tt>null</tt> if none). */
+	private String saveRegistersPath = null;
+	/** The format of the images (<tt>null</tt> to use the extension of each file). */
+	private MemoryImage.Format imageFormat = null;
+	/** The byte order of the raw images. */
+	private ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
+	/** The address of the first value of the data memory images. */
+	private int imageAddress = 0;
+	/** The number of values stored in the data memory image (<tt>-1</tt> for the data segment). */
+	private int imageWords = -1;
+	/** Whether the code file is an image of instruction words (machine code) instead of assembly code. */
+	private boolean machineCode = false;
+
+	/**
+	 * Creates the runner.
+	 * @param cpuPath Path to the CPU file.
+	 * @param codePath Path to the code file.
+	 * @param maxCycles The maximum number of cycles to execute (<tt>0</tt> for no limit).
+	 * @param dump What to print, besides the statistics (<tt>regs</tt> and/or <tt>mem</tt>).
+	 * @param format The output format (<tt>text</tt> or <tt>json</tt>).
+	 * @throws IllegalArgumentException If an argument is invalid.
+	 */
+	HeadlessRunner(String cpuPath, String codePath, int maxCycles, List<String> dump, String format) throws IllegalArgumentException {
+		if(maxCycles < 0)
+			throw new IllegalArgumentException("the maximum number of cycles can't be negative");
+		boolean regs = false, mem = false;
+		for(String d: dump) {
+			switch(d.trim().toLowerCase()) {
+				case "regs": regs = true; break;
+				case "mem": mem = true; break;
+				case "": case "none": break;
+				default: throw new IllegalArgumentException("unknown dump \"" + d + "\" (valid: regs, mem, none)");
+			}
+		}
+		try {
+			this.format = Format.valueOf(format.toUpperCase());
+		}
+		catch(IllegalArgumentException ex) {
+			throw new IllegalArgumentException("unknown format \"" + format + "\" (valid: text, json)");
+		}
+
+		this.cpuPath = cpuPath;
+		this.codePath = codePath;
+		this.maxCycles = maxCycles;
+		this.dumpRegisters = regs;
+		this.dumpMemory = mem;
+	}
+
+	/**
+	 * Sets whether the code file is an image of instruction words (machine code) instead of assembly code.
+	 * <p>The image is in the format of the other images, and is loaded
+	 * without assembling any code.</p>
+	 * @param machineCode Whether the code file is machine code.
+	 */
+	void setMachineCode(boolean machineCode) {
+		this.machineCode = machineCode;
+	}
+
+	/**
+	 * Sets the images loaded before running the code and stored after.
+	 * @param loadMemory Path to the image loaded to the data memory (<tt>null</tt> if none).
+	 * @param loadRegisters Path to the image loaded to the registers (<tt>null</tt> if none).
+	 * @param saveMemory Path to the image where the data memory is stored (<tt>null</tt> if none).
+	 * @param saveRegisters Path to the image where the registers are stored (<tt>null</tt> if none).
+	 * @param format The format of the images (<tt>raw</tt>, <tt>hex</tt> or <tt>bin</tt>, or <tt>null</tt> to use the extension of each file).
+	 * @param order The byte order of the raw images (<tt>little</tt> or <tt>big</tt>).
+	 * @param address The address of the first value of the data memory images.
+	 * @param words The number of values stored in the data memory image (<tt>-1</tt> for the data segment).
+	 * @throws IllegalArgumentException If an argument is invalid.
+	 */
+	void setImages(String loadMemory, String loadRegisters, String saveMemory, String saveRegisters, String format, String order, int address, int words) throws IllegalArgumentException {
+		if(format != null) {
+			try {
+				imageFormat = MemoryImage.Format.valueOf(format.toUpperCase());
+			}
+			catch(IllegalArgumentException ex) {
+				throw new IllegalArgumentException("unknown image format \"" + format + "\" (valid: raw, hex, bin)");
+			}
+		}
+		switch(order.trim().toLowerCase()) {
+			case "little": byteOrder = ByteOrder.LITTLE_ENDIAN; break;
+			case "big": byteOrder = ByteOrder.BIG_ENDIAN; break;
+			default: throw new IllegalArgumentException("unknown byte order \"" + order + "\" (valid: little, big)");
+		}
+		if(address % WORD != 0)
+			throw new IllegalArgumentException("the image address must be a multiple of " + WORD);
+		if(words < -1)
+			throw new IllegalArgumentException("the number of image values can't be negative");
+
+		this.loadMemoryPath = loadMemory;
+		this.loadRegistersPath = loadRegisters;
+		this.saveMemoryPath = saveMemory;
+		this.saveRegistersPath = saveRegisters;
+		this.imageAddress = address;
+		this.imageWords = words;
+	}
+
+	/**
+	 * Loads the CPU, assembles the code, runs it and prints the results.
+	 * @param out Stream where the results are printed.
+	 * @param err Stream where the errors are printed.
+	 * @return The exit status (<tt>EXIT_*</tt> constants).
+	 */
+	int run(PrintStream out, PrintStream err) {
+		long start = System.nanoTime();
+		CPU cpu;
+		try {
+			cpu = CPU.createFromJSONFile(findCPUFile(cpuPath).getPath());
+		}
+		catch(Exception ex) {
+			err.println("Error loading CPU \"" + cpuPath + "\": " + ex.getMessage());
+			return EXIT_ERROR;
+		}
+		long loaded = System.nanoTime();
+
+		try {
+			if(machineCode)
+				MemoryImage.loadProgram(new File(codePath), null, getImageFormat(codePath), byteOrder, cpu);
+			else
+				cpu.assembleCode(new String(Files.readAllBytes(new File(codePath).toPath()), "UTF-8"));
+		}
+		catch(SyntaxErrorException ex) {
+			List<SyntaxErrorException> errors = ex.hasOtherErrors() ? ex.getOtherErrors() : Collections.singletonList(ex);
+			for(SyntaxErrorException e: errors)
+				err.println(codePath + ":" + e.getLine() + ": " + describe(e));
+			return EXIT_ERROR;
+		}
+		catch(Exception ex) {
+			err.println("Error reading code file \"" + codePath + "\": " + ex);
+			return EXIT_ERROR;
+		}
+		long assembled = System.nanoTime();
+
+		if(!loadImages(cpu, err))
+			return EXIT_ERROR;
+		long staged = System.nanoTime();
+
+		RunResult result = cpu.run(maxCycles, 0, null);
+		long executed = System.nanoTime();
+
+		if(!saveImages(cpu, err))
+			return EXIT_ERROR;
+		long saved = System.nanoTime();
+
+		long[] times = {(loaded - start) / 1000000, (assembled - loaded) / 1000000, (executed - staged) / 1000000,
+			(staged - assembled + saved - executed) / 1000000};
+		if(format == Format.JSON)
+			printJSON(out, cpu, result, times);
+		else
+			printText(out, cpu, result, times);
+		out.flush();
+		return result.isCompleted() ? EXIT_SUCCESS : EXIT_LIMIT_REACHED;
+	}
+
+	/**
+	 * Returns the CPU file with the given path.
+	 * <p>If the file doesn't exist, it is searched in the program's directory
+	 * and in its <tt>cpu</tt> subdirectory.</p>
+	 * @param path The path of the file.
+	 * @return The file (may not exist).
+	 */
+	private static File findCPUFile(String path) {
+		File file = new File(path);
+		if(!file.exists() && !file.isAbsolute()) {
+			File[] alternatives = {new File(DrMIPS.path, path), new File(DrMIPS.path + File.separator + CPU.FILENAME_PATH, path)};
+			for(File f: alternatives) {
+				if(f.isFile()) return f;
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Loads the images to the data memory and registers, if requested.
+	 * @param cpu The CPU (with the code already assembled).
+	 * @param err Stream where the errors are printed.
+	 * @return <tt>true</tt> if successful.
+	 */
+	private boolean loadImages(CPU cpu, PrintStream err) {
+		String path = null;
+		try {
+			if((path = loadMemoryPath) != null) {
+				if(!cpu.hasDataMemory())
+					throw new IllegalArgumentException("the CPU has no data memory");
+				MemoryImage.load(new File(path), getImageFormat(path), byteOrder, cpu.getDataMemory(), imageAddress);
+			}
+			if((path = loadRegistersPath) != null)
+				MemoryImage.load(new File(path), getImageFormat(path), byteOrder, cpu.getRegBank());
+			return true;
+		}
+		catch(Exception ex) {
+			err.println("Error loading image \"" + path + "\": " + ex.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Stores the images of the data memory and registers, if requested.
+	 * @param cpu The CPU.
+	 * @param err Stream where the errors are printed.
+	 * @return <tt>true</tt> if successful.
+	 */
+	private boolean saveImages(CPU cpu, PrintStream err) {
+		String path = null;
+		try {
+			if((path = saveMemoryPath) != null) {
+				if(!cpu.hasDataMemory())
+					throw new IllegalArgumentException("the CPU has no data memory");
+				DataMemory memory = cpu.getDataMemory();
+				int words = imageWords >= 0 ? imageWords : MemoryImage.getDataSegmentSize(memory) - Math.max(memory.getIndexOfAddress(imageAddress), 0);
+				MemoryImage.dump(new File(path), getImageFormat(path), byteOrder, memory, imageAddress, words);
+			}
+			if((path = saveRegistersPath) != null)
+				MemoryImage.dump(new File(path), getImageFormat(path), byteOrder, cpu.getRegBank());
+			return true;
+		}
+		catch(Exception ex) {
+			err.println("Error saving image \"" + path + "\": " + ex.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the format of an image file.
+	 * @param path The path of the file.
+	 * @return The format given in the command-line, or the one of the file's extension.
+	 */
+	private MemoryImage.Format getImageFormat(String path) {
+		return imageFormat != null ? imageFormat : MemoryImage.Format.fromFileName(path);
+	}
+
+	/**
+	 * Returns whether images are loaded or stored.
+	 * @return <tt>true</tt> if any image is loaded or stored.
+	 */
+	private boolean hasImages() {
+		return loadMemoryPath != null || loadRegistersPath != null || saveMemoryPath != null || saveRegistersPath != null;
+	}
+
+	/**
+	 * Returns a description of the syntax error (not translated).
+	 * @param ex The syntax error.
+	 * @return The description.
+	 */
+	private static String describe(SyntaxErrorException ex) {
+		String msg = ex.getType().name().toLowerCase().replace('_', ' ');
+		if(ex.getExtra() != null) msg += " \"" + ex.getExtra() + "\"";
+		if(ex.getExtra2() != null) msg += " \"" + ex.getExtra2() + "\"";
+		return msg;
+	}
+
+	/**
+	 * Returns the address of a data memory position.
+	 * @param index The index of the position.
+	 * @return The (unsigned) address.
+	 */
+	private static long address(int index) {
+		return (long)index * WORD;
+	}
+
+	/**
+	 * Prints the results in plain text.
+	 * @param out Stream where the results are printed.
+	 * @param cpu The CPU.
+	 * @param result The result of the execution.
+	 * @param times The times to load, assemble, run and load/store the images, in milliseconds.
+	 */
+	private void printText(PrintStream out, CPU cpu, RunResult result, long[] times) {
+		if(dumpRegisters) {
+			out.println("Registers:");
+			RegBank regbank = cpu.getRegBank();
+			for(int i = 0; i < regbank.getNumberOfRegisters(); i++)
+				out.println("  " + cpu.getRegisterName(i) + " = " + regbank.getRegister(i).getValue());
+			out.println("  pc = " + cpu.getPC().getAddress().getValue());
+			if(cpu.getALU() instanceof ExtendedALU) {
+				out.println("  hi = " + ((ExtendedALU)cpu.getALU()).getHI().getValue());
+				out.println("  lo = " + ((ExtendedALU)cpu.getALU()).getLO().getValue());
+			}
+		}
+		if(dumpMemory && cpu.hasDataMemory()) {
+			out.println("Data memory:");
+			DataMemory memory = cpu.getDataMemory();
+			for(int i: memory.getUsedIndexes()) {
+				int value = memory.getDataInIndex(i);
+				if(value != 0 || !memory.isSparse()) // only the non-zero positions of sparse memories
+					out.println("  " + address(i) + ": " + value);
+			}
+		}
+		out.println("Statistics:");
+		out.println("  result = " + result.getReason().name().toLowerCase());
+		out.println("  cycles = " + cpu.getNumberOfExecutedCycles());
+		out.println("  instructions = " + cpu.getNumberOfExecutedInstructions());
+		out.println("  cpi = " + cpu.getCPIAsString());
+		out.println("  forwards = " + cpu.getNumberOfForwards());
+		out.println("  stalls = " + cpu.getNumberOfStalls());
+		out.println("  clock_period = " + cpu.getClockPeriod() + " " + CPU.LATENCY_UNIT);
+		out.println("  execution_time = " + cpu.getExecutionTime() + " " + CPU.LATENCY_UNIT);
+		out.println("  load_ms = " + times[0]);
+		out.println("  assemble_ms = " + times[1]);
+		out.println("  run_ms = " + times[2]);
+		if(hasImages())
+			out.println("  image_ms = " + times[3]);
+	}
+
+	/**
+	 * Prints the results in JSON.
+	 * <p>The JSON is written by hand so that the fields keep their order.</p>
+	 * @param out Stream where the results are printed.
+	 * @param cpu The CPU.
+	 * @param result The result of the execution.
+	 * @param times The times to load, assemble, run and load/store the images, in milliseconds.
+	 */
+	private void printJSON(PrintStream out, CPU cpu, RunResult result, long[] times) {
+		StringBuilder json = new StringBuilder("{\n");
+		if(dumpRegisters) {
+			json.append("  \"registers\": {");
+			RegBank regbank = cpu.getRegBank();
+			for(int i = 0; i < regbank.getNumberOfRegisters(); i++) {
+				json.append(i > 0 ? ", " : "").append('"').append(cpu.getRegisterName(i))
+					.append("\": ").append(regbank.getRegister(i).getValue());
+			}
+			json.append(", \"pc\": ").append(cpu.getPC().getAddress().getValue());
+			if(cpu.getALU() instanceof ExtendedALU) {
+				json.append(", \"hi\": ").append(((ExtendedALU)cpu.getALU()).getHI().getValue());
+				json.append(", \"lo\": ").append(((ExtendedALU)cpu.getALU()).getLO().getValue());
+			}
+			json.append("},\n");
+		}
+		if(dumpMemory && cpu.hasDataMemory()) {
+			DataMemory memory = cpu.getDataMemory();
+			if(memory.isSparse()) { // object with the non-zero positions, by address
+				json.append("  \"memory\": {");
+				boolean first = true;
+				for(int i: memory.getUsedIndexes()) {
+					int value = memory.getDataInIndex(i);
+					if(value != 0) {
+						json.append(first ? "" : ", ").append('"').append(address(i)).append("\": ").append(value);
+						first = false;
+					}
+				}
+				json.append("},\n");
+			}
+			else {
+				json.append("  \"memory\": [");
+				for(int i = 0; i < memory.getMemorySize(); i++)
+					json.append(i > 0 ? ", " : "").append(memory.getDataInIndex(i));
+				json.append("],\n");
+			}
+		}
+		json.append("  \"statistics\": {")
+			.append("\"result\": \"").append(result.getReason().name().toLowerCase()).append('"')
+			.append(", \"cycles\": ").append(cpu.getNumberOfExecutedCycles())
+			.append(", \"instructions\": ").append(cpu.getNumberOfExecutedInstructions())
+			.append(", \"cpi\": ").append(cpu.getCPI())
+			.append(", \"forwards\": ").append(cpu.getNumberOfForwards())
+			.append(", \"stalls\": ").append(cpu.getNumberOfStalls())
+			.append(", \"clock_period\": ").append(cpu.getClockPeriod())
+			.append(", \"execution_time\": ").append(cpu.getExecutionTime())
+			.append(", \"load_ms\": ").append(times[0])
+			.append(", \"assemble_ms\": ").append(times[1])
+			.append(", \"run_ms\": ").append(times[2]);
+		if(hasImages())
+			json.append(", \"image_ms\": ").append(times[3]);
+		json.append("}\n}");
+		out.println(json);
+	}
+}
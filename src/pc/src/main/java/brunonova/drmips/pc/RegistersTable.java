@@ -168,8 +168,10 @@ public class RegistersTable extends JTable implements MouseListener {
 				else
 					JOptionPane.showMessageDialog(this, Lang.t("invalid_value"), AppInfo.NAME, JOptionPane.ERROR_MESSAGE);
 			}
-			else if(row >= 0 && row < cpu.getRegBank().getNumberOfRegisters()) // register
+			else if(row >= 0 && row < cpu.getRegBank().getNumberOfRegisters()) { // register
 				cpu.getRegBank().setRegister(row, value);
+				if(cpu.getTraceRecorder() != null) cpu.getTraceRecorder().requestKeyframe(); // not recorded
+			}
 
 			if(datapath != null) datapath.refresh(); // update datapath
 			if(tblExec != null) tblExec.refresh(); // update exec table
@@ -0,0 +1,141 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import brunonova.drmips.simulator.components.DataMemory;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A program assembled by the {@link Assembler}, ready to be loaded into the CPU.
+ * <p>The program contains the assembled instructions and the values of the
+ * data segment. It can also be created from machine code by the
+ * {@link Disassembler}. It is created without modifying the CPU, so the code can be
+ * assembled in another thread and loaded later with
+ * {@link CPU#loadProgram(AssembledProgram)}. The program can only be loaded
+ * into the CPU it was assembled for (or into its copies).</p>
+ *
+ * @author Bruno Nova
+ */
+public final class AssembledProgram {
+	/** The assembled instructions. */
+	private final List<AssembledInstruction> instructions;
+	/** The values of the data segment. */
+	private final DataSegment data;
+
+	/**
+	 * Creates the program.
+	 * @param instructions The assembled instructions.
+	 * @param data The values of the data segment.
+	 */
+	AssembledProgram(List<AssembledInstruction> instructions, DataSegment data) {
+		this.instructions = Collections.unmodifiableList(instructions);
+		this.data = data;
+	}
+
+	/**
+	 * Returns the assembled instructions.
+	 * @return The assembled instructions (unmodifiable list).
+	 */
+	public List<AssembledInstruction> getInstructions() {
+		return instructions;
+	}
+
+	/**
+	 * Returns the number of values in the data segment.
+	 * @return The number of words initialized by <tt>.word</tt> directives.
+	 */
+	public int getNumberOfDataValues() {
+		return data.count;
+	}
+
+	/**
+	 * Writes the values of the data segment to the data memory.
+	 * @param memory The data memory.
+	 */
+	void commitData(DataMemory memory) {
+		data.commit(memory);
+	}
+
+	/**
+	 * The values of the data segment, before they are written to the data memory.
+	 */
+	static class DataSegment {
+		/** The indexes of the memory positions, in the order they were added. */
+		private int[] indexes = new int[16];
+		/** The values of the memory positions. */
+		private int[] values = new int[16];
+		/** The number of values. */
+		private int count = 0;
+
+		/**
+		 * Adds a value.
+		 * @param index The index of the memory position (ignored if <tt>-1</tt>).
+		 * @param value The value.
+		 */
+		public void add(int index, int value) {
+			if(index < 0) return; // out of bounds
+			if(count == indexes.length) {
+				indexes = Arrays.copyOf(indexes, count * 2);
+				values = Arrays.copyOf(values, count * 2);
+			}
+			indexes[count] = index;
+			values[count++] = value;
+		}
+
+		/**
+		 * Adds the values of consecutive memory positions.
+		 * <p>The values are read from the buffer's position to its limit, and
+		 * the position is advanced.</p>
+		 * @param index The index of the first memory position.
+		 * @param buffer The buffer with the values.
+		 */
+		public void add(int index, IntBuffer buffer) {
+			int n = buffer.remaining();
+			if(count + n > indexes.length) {
+				indexes = Arrays.copyOf(indexes, Math.max(count * 2, count + n));
+				values = Arrays.copyOf(values, indexes.length);
+			}
+			for(int i = 0; i < n; i++)
+				indexes[count + i] = index + i;
+			buffer.get(values, count, n);
+			count += n;
+		}
+
+		/**
+		 * Writes the values to the data memory.
+		 * <p>Each run of consecutive positions is written in bulk, and the
+		 * new values are propagated to the rest of the circuit only once. The
+		 * positions without values (reserved by <tt>.space</tt>) aren't
+		 * modified.</p>
+		 * @param memory The data memory.
+		 */
+		public void commit(DataMemory memory) {
+			int start = 0;
+			for(int i = 1; i <= count; i++) {
+				if(i == count || indexes[i] != indexes[i - 1] + 1) { // end of the run
+					memory.setDataInIndexes(indexes[start], IntBuffer.wrap(values, start, i - start), i == count);
+					start = i;
+				}
+			}
+		}
+	}
+}
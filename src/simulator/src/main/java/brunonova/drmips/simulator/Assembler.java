@@ -20,6 +20,9 @@ package brunonova.drmips.simulator;
 
 import brunonova.drmips.simulator.exceptions.SyntaxErrorException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +32,13 @@ import java.util.TreeSet;
 
 /**
  * The class that assembles code into MIPS assembled instructions and loads data values from the <tt>.data</tt> section.
+ * <p>An assembler keeps the state of the code being assembled, so it must not
+ * be used by more than one thread at the same time. Other threads can create
+ * their own assembler for the same CPU.</p>
+ * <p>The programs assembled by {@link CPU#assembleCode(String)} are kept in a
+ * small cache, shared by all the assemblers, so that assembling the same code
+ * again for an equivalent CPU (same instruction set, register names and data
+ * memory size) doesn't parse it again.</p>
  *
  * @author Bruno Nova
  */
@@ -37,15 +47,45 @@ public class Assembler {
 	public static final char COMMENT_CHAR = '#';
 	/** The regular expression to validate labels. */
 	public static final String LABEL_REGEX = "^[a-zA-z][a-zA-Z0-9_]*$";
+	/** The default maximum number of programs in the cache of assembled programs. */
+	public static final int DEFAULT_CACHE_SIZE = 16;
 	/** The possible segment types. */
 	private enum Segment {TEXT, DATA}
 
+	/** The maximum number of programs in the cache of assembled programs. */
+	private static int cacheSize = DEFAULT_CACHE_SIZE;
+	/** The cache of assembled programs, from the least to the most recently used. */
+	private static final Map<CacheKey, AssembledProgram> cache = new LinkedHashMap<CacheKey, AssembledProgram>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<CacheKey, AssembledProgram> eldest) {
+			return size() > cacheSize;
+		}
+	};
+	/** The number of programs found in the cache. */
+	private static long cacheHits = 0;
+	/** The number of programs not found in the cache. */
+	private static long cacheMisses = 0;
+
 	/** The CPU this assembler is assembling to. */
 	private final CPU cpu;
 	/** The text segment labels in the code and their lines. */
 	private Map<String, Integer> textLabels;
 	/** The data segment labels in the code and their addresses. */
 	private Map<String, Integer> dataLabels;
+	/** The indexes of the registers by name, with prefix (created when first needed). */
+	private Map<String, Integer> registers = null;
+	/** The names of the registers, by index, used in the keys of the cache (created when first needed). */
+	private String[] registerNames = null;
+	/** The lines of the text segment being assembled (pseudo-instructions already interpreted). */
+	private List<CodeLine> lines;
+	/** The values of the data segment being assembled. */
+	private AssembledProgram.DataSegment data;
+	/** The errors found in the code being assembled. */
+	private List<SyntaxErrorException> errors;
+	/** The current segment of the code being assembled. */
+	private Segment currentSegment;
+	/** The current address in the data segment of the code being assembled. */
+	private int currentDataAddress;
 
 	/**
 	 * Creates the assembler.
@@ -57,130 +97,277 @@ public class Assembler {
 
 	/**
 	 * Assembles the given code and updates the CPU's instruction and data memory-
+	 * <p>The values of the data segment are only written to the data memory
+	 * at the end, in bulk, if the code has no errors.</p>
+	 * <p>If the same code was already assembled for an equivalent CPU, the
+	 * program in the cache is loaded without parsing the code again.</p>
 	 * @param code The code to assemble.
 	 * @throws SyntaxErrorException If the code has a syntax error.
+	 * @see #assemble(String)
 	 */
 	protected void assembleCode(String code) throws SyntaxErrorException {
-		String[] codeLines = code.split("\n");
-		List<CodeLine> lines = new ArrayList<>();
-		List<AssembledInstruction> instructions = new ArrayList<>();
-		int index, lineNumber, currentDataAddress = 0;
-		String codeLine, label, mnemonic, type;
-		String[] split, args, values;
-		List<String> interpretedLines;
-		textLabels = new TreeMap<>();
-		dataLabels = new TreeMap<>();
-		Segment currentSegment = Segment.TEXT;
-		List<SyntaxErrorException> errors = new LinkedList<>();
-
-		// Parse each line
-		for(int i = 0; i < codeLines.length; i++) {
-			try {
-				index = lines.size();
-				lineNumber = i + 1;
-				codeLine = codeLines[i].split("" + COMMENT_CHAR, 2)[0].trim(); // remove comment, if any
-
-				if(codeLine.equals(".text")) // change to text segment
-					currentSegment = Segment.TEXT;
-				else if(codeLine.equals(".data")) { // change to data segment
-					if(!cpu.hasDataMemory())
-						throw new SyntaxErrorException(SyntaxErrorException.Type.DATA_SEGMENT_WITHOUT_DATA_MEMORY, lineNumber);
-					currentSegment = Segment.DATA;
-				}
-				else if(currentSegment == Segment.DATA) { // line in data segment (load data)
-					if(codeLine.contains(":")) { // check if the line has a label
-						split = codeLine.split(":", 2);
-						label = split[0].trim();
-						codeLine = split[1].trim();
-						if(!label.matches(LABEL_REGEX))
-							throw new SyntaxErrorException(SyntaxErrorException.Type.INVALID_LABEL, lineNumber, label);
-						if(textLabels.containsKey(label) || dataLabels.containsKey(label))
-							throw new SyntaxErrorException(SyntaxErrorException.Type.DUPLICATED_LABEL, lineNumber, label);
+		CacheKey key = new CacheKey(code, cpu.getInstructionSet(), getRegisterNames(),
+			cpu.hasDataMemory() ? cpu.getDataMemory().getMemorySize() : 0);
+		AssembledProgram program;
+		synchronized(cache) {
+			program = cache.get(key);
+			if(program != null) cacheHits++; else cacheMisses++;
+		}
+
+		if(program == null) {
+			program = assemble(code); // programs with errors aren't cached
+			synchronized(cache) {
+				cache.put(key, program);
+			}
+		}
+		cpu.loadProgram(program);
+	}
+
+	/**
+	 * Returns the number of times a program was found in the cache of assembled programs.
+	 * @return Number of cache hits.
+	 */
+	public static long getCacheHits() {
+		synchronized(cache) {
+			return cacheHits;
+		}
+	}
+
+	/**
+	 * Returns the number of times a program was not found in the cache of assembled programs.
+	 * @return Number of cache misses.
+	 */
+	public static long getCacheMisses() {
+		synchronized(cache) {
+			return cacheMisses;
+		}
+	}
+
+	/**
+	 * Returns the number of programs in the cache of assembled programs.
+	 * @return Number of cached programs.
+	 */
+	public static int getNumberOfCachedPrograms() {
+		synchronized(cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Returns the maximum number of programs in the cache of assembled programs.
+	 * @return Maximum number of cached programs.
+	 */
+	public static int getCacheSize() {
+		synchronized(cache) {
+			return cacheSize;
+		}
+	}
+
+	/**
+	 * Updates the maximum number of programs in the cache of assembled programs.
+	 * <p>The least recently used programs are removed if needed. A size of 0
+	 * disables the cache.</p>
+	 * @param size The new maximum number of cached programs.
+	 * @throws IllegalArgumentException If the size is negative.
+	 */
+	public static void setCacheSize(int size) throws IllegalArgumentException {
+		if(size < 0) throw new IllegalArgumentException("Invalid cache size: " + size + "!");
+		synchronized(cache) {
+			cacheSize = size;
+			while(cache.size() > size) { // remove the least recently used
+				cache.remove(cache.keySet().iterator().next());
+			}
+		}
+	}
+
+	/**
+	 * Removes all the programs from the cache of assembled programs.
+	 * <p>The hit and miss counters aren't reset.</p>
+	 */
+	public static void clearCache() {
+		synchronized(cache) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Assembles the given code, without modifying the CPU.
+	 * <p>The code is read in a single pass by the {@link Lexer}. Each
+	 * instruction is assembled right away from the tokens of its line if the
+	 * labels it uses are already known; the others (forward references and
+	 * lines with errors) are read and assembled again at the end, after all
+	 * the labels are known.</p>
+	 * @param code The code to assemble.
+	 * @return The assembled program, to be loaded with {@link CPU#loadProgram(AssembledProgram)}.
+	 * @throws SyntaxErrorException If the code has a syntax error.
+	 */
+	public AssembledProgram assemble(String code) throws SyntaxErrorException {
+		Lexer lexer = new Lexer(code);
+		List<Token> tokens = new ArrayList<>();
+		int lineNumber;
+		boolean more;
+
+		startAssembly();
+		do {
+			lineNumber = lexer.getLine();
+			more = lexer.nextLine(tokens);
+			parseLine(tokens, lineNumber);
+		} while(more);
+		return finishAssembly();
+	}
+
+	/**
+	 * Assembles the given code, already split in lines and tokens, without modifying the CPU.
+	 * <p>Only the lines of the code that were modified since the last
+	 * assembly have to be read again, as the tokens of the others are kept in
+	 * the {@link SourceCode}. The labels are resolved again.</p>
+	 * @param code The code to assemble.
+	 * @return The assembled program, to be loaded with {@link CPU#loadProgram(AssembledProgram)}.
+	 * @throws SyntaxErrorException If the code has a syntax error.
+	 * @see #assemble(String)
+	 */
+	public AssembledProgram assemble(SourceCode code) throws SyntaxErrorException {
+		startAssembly();
+		for(int i = 0; i < code.getNumberOfLines(); i++)
+			parseLine(code.getTokens(i), i + 1);
+		return finishAssembly();
+	}
+
+	/**
+	 * Resets the state of the assembler before assembling code.
+	 */
+	private void startAssembly() {
+		textLabels = new HashMap<>();
+		dataLabels = new HashMap<>();
+		if(registers == null) registers = createRegisterMap();
+		lines = new ArrayList<>();
+		data = new AssembledProgram.DataSegment();
+		errors = new LinkedList<>();
+		currentSegment = Segment.TEXT;
+		currentDataAddress = 0;
+	}
+
+	/**
+	 * Parses a line of code: finds its label, loads its data values or
+	 * interprets its (pseudo-)instruction.
+	 * <p>The errors are added to the list of errors.</p>
+	 * @param tokens The tokens of the line.
+	 * @param lineNumber The number of the line.
+	 */
+	private void parseLine(List<Token> tokens, int lineNumber) {
+		if(tokens.isEmpty()) return; // empty line or only a comment
+		int index = lines.size(), colon, start;
+		String label, codeLine, type;
+		Arguments args;
+		PseudoInstruction pseudo;
+
+		try {
+			if(tokens.size() == 1 && tokens.get(0).textEquals(".text")) // change to text segment
+				currentSegment = Segment.TEXT;
+			else if(tokens.size() == 1 && tokens.get(0).textEquals(".data")) { // change to data segment
+				if(!cpu.hasDataMemory())
+					throw new SyntaxErrorException(SyntaxErrorException.Type.DATA_SEGMENT_WITHOUT_DATA_MEMORY, lineNumber);
+				currentSegment = Segment.DATA;
+			}
+			else {
+				colon = findColon(tokens);
+				start = colon + 1; // first token of the directive/instruction
+				if(colon >= 0) { // the line has a label
+					label = parseLabel(tokens, colon, lineNumber);
+					if(currentSegment == Segment.DATA)
 						dataLabels.put(label, currentDataAddress);
-					}
+					else
+						textLabels.put(label, index);
+				}
 
-					if(!codeLine.isEmpty()) { // load values, if any
-						split = codeLine.split("\\s+", 2); // split data type (directive) and values (\\s+ matches whitespace characters)
-						type = split[0].trim().toLowerCase();
-						values = (split.length == 2) ? split[1].trim().split(",") : new String[0]; // split values, if any
-						switch (type) {
+				if(start < tokens.size()) {
+					if(currentSegment == Segment.DATA) { // line in data segment (load data)
+						type = tokens.get(start).getText().toLowerCase();
+						args = new Arguments(tokens, start + 1);
+						switch(type) {
 							case ".word":
-								for(String value: values) {
+								for(int i = 0; i < args.size(); i++) {
 									currentDataAddress = alignAddressToWord(currentDataAddress);
-									cpu.getDataMemory().setData(currentDataAddress, parseIntArg(value.trim(), lineNumber));
+									data.add(cpu.getDataMemory().getIndexOfAddress(currentDataAddress), parseIntArg(args, i, lineNumber));
 									currentDataAddress += 4;
 								}	break;
 							case ".space":
-								if(values.length != 1)
-									throw new SyntaxErrorException(SyntaxErrorException.Type.WRONG_NUMBER_OF_ARGUMENTS, lineNumber, "" + 1, "" + values.length);
+								if(args.size() != 1)
+									throw new SyntaxErrorException(SyntaxErrorException.Type.WRONG_NUMBER_OF_ARGUMENTS, lineNumber, "" + 1, "" + args.size());
 								else {
-									int arg = parseIntArg(values[0].trim(), lineNumber);
-									if(arg < 0) throw new SyntaxErrorException(SyntaxErrorException.Type.INVALID_POSITIVE_INT_ARG, lineNumber, values[0].trim());
+									int arg = parseIntArg(args, 0, lineNumber);
+									if(arg < 0) throw new SyntaxErrorException(SyntaxErrorException.Type.INVALID_POSITIVE_INT_ARG, lineNumber, args.getText(0));
 									currentDataAddress += arg;
 								}	break;
 							default:
 								throw new SyntaxErrorException(SyntaxErrorException.Type.UNKNOWN_DATA_DIRECTIVE, lineNumber, type);
 						}
 					}
-				}
-				else { // line in text segment (replace pseudo-instructions and find labels' line numbers)
-					if(codeLine.contains(":")) { // check if the line has a label
-						split = codeLine.split(":", 2);
-						label = split[0].trim();
-						codeLine = split[1].trim();
-						if(!label.matches(LABEL_REGEX))
-							throw new SyntaxErrorException(SyntaxErrorException.Type.INVALID_LABEL, lineNumber, label);
-						if(textLabels.containsKey(label) || dataLabels.containsKey(label))
-							throw new SyntaxErrorException(SyntaxErrorException.Type.DUPLICATED_LABEL, lineNumber, label);
-						textLabels.put(label, index);
-					}
-
-					if(!codeLine.isEmpty()) {
-						split = codeLine.split("\\s+", 2); // split mnemonic and args
-						mnemonic = split[0].trim();
-						args = (split.length == 2) ? split[1].trim().split(",") : new String[0]; // split args, if any
-
-						if(cpu.getInstructionSet().hasPseudoInstruction(mnemonic)) { // pseudo-instruction
-							interpretedLines = interpretPseudoInstruction(mnemonic, args, lineNumber);
-							if(!interpretedLines.isEmpty()) {
-								interpretedLines.set(0, interpretedLines.get(0) + "  " + COMMENT_CHAR + " " + codeLine);
-								for(String line: interpretedLines)
-									lines.add(new CodeLine(line, lineNumber));
+					else { // line in text segment (replace pseudo-instructions)
+						codeLine = tokens.get(start).getCode().substring(tokens.get(start).getStart(), tokens.get(tokens.size() - 1).getEnd());
+						if((pseudo = getPseudoInstruction(tokens.get(start))) != null) { // pseudo-instruction
+							interpretPseudoInstruction(pseudo, new Arguments(tokens, start + 1), lineNumber, lines);
+							if(lines.size() > index)
+								lines.get(index).line += "  " + COMMENT_CHAR + " " + codeLine;
+							for(int i = index; i < lines.size(); i++) {
+								assembleIfLabelsKnown(lines.get(i), lines.get(i).tokens, 0, i);
+								lines.get(i).tokens = null;
 							}
 						}
-						else
-							lines.add(new CodeLine(codeLine, lineNumber));
+						else {
+							lines.add(new CodeLine(codeLine, null, lineNumber));
+							assembleIfLabelsKnown(lines.get(index), tokens, start, index);
+						}
 					}
 				}
 			}
-			catch(SyntaxErrorException ex) {
-				errors.add(ex);
-			}
 		}
+		catch(SyntaxErrorException ex) {
+			errors.add(ex);
+		}
+	}
 
-		// Assemble the instructions
+	/**
+	 * Assembles the remaining instructions, after all the lines were parsed.
+	 * @return The assembled program.
+	 * @throws SyntaxErrorException If the code has a syntax error.
+	 */
+	private AssembledProgram finishAssembly() throws SyntaxErrorException {
+		List<AssembledInstruction> instructions = new ArrayList<>(lines.size());
+		List<Token> tokens = new ArrayList<>();
+
+		// Assemble the remaining instructions (their tokens are read again)
 		for(int i = 0; i < lines.size(); i++) {
+			CodeLine line = lines.get(i);
 			try {
-				instructions.add(assembleInstruction(lines.get(i).line, i, lines.get(i).number));
+				if(line.instruction == null) {
+					new Lexer(line.line, line.number).nextLine(tokens);
+					line.instruction = assembleInstruction(line, tokens, 0, i);
+				}
+				instructions.add(line.instruction);
 			}
 			catch(SyntaxErrorException ex) {
 				errors.add(ex);
 			}
 		}
 
-		// Add the labels to the instructions
-		for(Map.Entry<String, Integer> e: textLabels.entrySet()) {
+		// Add the labels to the instructions (in alphabetical order)
+		for(Map.Entry<String, Integer> e: new TreeMap<>(textLabels).entrySet()) {
 			if(e.getValue() >= 0 && e.getValue() < instructions.size())
 				instructions.get(e.getValue()).addLabel(e.getKey());
 		}
 
-		if(!errors.isEmpty()) {
-			SyntaxErrorException first = errors.get(0);
-			first.setOtherErrors(errors);
+		AssembledProgram program = new AssembledProgram(instructions, data);
+		List<SyntaxErrorException> errs = errors;
+		lines = null; // release the memory
+		data = null;
+		errors = null;
+		if(!errs.isEmpty()) {
+			SyntaxErrorException first = errs.get(0);
+			first.setOtherErrors(errs);
 			throw first;
 		}
-
-		cpu.loadProgram(instructions);
+		return program;
 	}
 
 	/**
@@ -190,20 +377,24 @@ public class Assembler {
 	 * @return The resulting lines of code, or an empty list if something is wrong.
 	 */
 	public List<String> interpretPseudoInstruction(String line) {
-		String[] split;
-
-		line = line.split("" + COMMENT_CHAR, 2)[0].trim(); // remove comment, if any
-		if(line.contains(":")) line = line.split(":")[1].trim(); // remove label, if any
-		split = line.split("\\s+", 2); // split mnemonic and args
-		String mnemonic = split[0].trim();
-		String[] args = (split.length == 2) ? split[1].trim().split(",") : new String[0]; // split args, if any
+		List<Token> tokens = new ArrayList<>();
+		new Lexer(line).nextLine(tokens);
+		int first = findColon(tokens) + 1; // ignore the label, if any
+		PseudoInstruction pseudo = first < tokens.size() ? getPseudoInstruction(tokens.get(first)) : null;
+		List<String> instructions = new ArrayList<>();
 
-		try {
-			return interpretPseudoInstruction(mnemonic, args, 1);
-		}
-		catch(Exception e) {
-			return new LinkedList<>();
+		if(pseudo != null) {
+			List<CodeLine> lines = new ArrayList<>();
+			try {
+				interpretPseudoInstruction(pseudo, new Arguments(tokens, first + 1), 1, lines);
+			}
+			catch(SyntaxErrorException e) {
+				return instructions;
+			}
+			for(CodeLine l: lines)
+				instructions.add(l.line);
 		}
+		return instructions;
 	}
 
 	/**
@@ -213,79 +404,95 @@ public class Assembler {
 	 */
 	public Set<String> getCodeLabels(String code) {
 		Set<String> labels = new TreeSet<>();
-		String[] lines = code.split("\n");
-		String label;
-		int i;
-
-		for(String line: lines) {
-			i = line.indexOf(':');
-			if(i != -1 && line.lastIndexOf(COMMENT_CHAR, i - 1) == -1) {
-				label = line.substring(0, i).trim();
-				if(label.matches(LABEL_REGEX) && !cpu.getInstructionSet().hasInstructionOrPseudoInstruction(label))
-					labels.add(label);
+		Lexer lexer = new Lexer(code);
+		List<Token> tokens = new ArrayList<>();
+		boolean more;
+
+		do {
+			more = lexer.nextLine(tokens);
+			if(tokens.size() >= 2 && tokens.get(1).getType() == Token.Type.COLON && isValidLabel(tokens.get(0))) {
+				if(getMnemonic(tokens.get(0)) == null)
+					labels.add(tokens.get(0).getText());
 			}
-		}
+		} while(more);
 
 		return labels;
 	}
 
 	/**
 	 * Interprets a pseudo-instruction into instructions.
-	 * @param mnemonic The mnemonic of the pseudo-instruction.
+	 * <p>The arguments replace the placeholders in the instructions of the
+	 * pseudo-instruction, and the resulting lines are tokenized again.</p>
+	 * @param pseudo The pseudo-instruction.
 	 * @param args The arguments of the pseudo-instruction.
 	 * @param lineNumber The number of the line of code.
-	 * @return The replacing instructions.
+	 * @param lines The list where the replacing instructions are added.
+	 * @throws SyntaxErrorException If the number of arguments is wrong.
 	 */
-	private List<String> interpretPseudoInstruction(String mnemonic, String[] args, int lineNumber) throws SyntaxErrorException {
-		List<String> instructions = new ArrayList<>();
-		PseudoInstruction pseudo = cpu.getInstructionSet().getPseudoInstruction(mnemonic);
-		String[] split;
-		String m;
+	private void interpretPseudoInstruction(PseudoInstruction pseudo, Arguments args, int lineNumber, List<CodeLine> lines) throws SyntaxErrorException {
+		if(pseudo.getNumberOfArguments() != args.size())
+			throw new SyntaxErrorException(SyntaxErrorException.Type.WRONG_NUMBER_OF_ARGUMENTS, lineNumber, "" + pseudo.getNumberOfArguments(), "" + args.size());
 
-		if(pseudo.getNumberOfArguments() != args.length)
-			throw new SyntaxErrorException(SyntaxErrorException.Type.WRONG_NUMBER_OF_ARGUMENTS, lineNumber, "" + pseudo.getNumberOfArguments(), "" + args.length);
-
-		for(String instruction: pseudo.getInstructions()) { // assemble pseudo-instruction instructions
-			for(int i = 0; i < args.length; i++)
-				instruction = instruction.replace(InstructionSet.ARGUMENT_CHAR + "" + (i + 1), args[i].trim()).trim();
+		for(String template: pseudo.getInstructions()) { // assemble pseudo-instruction instructions
+			String instruction = replaceArguments(template, args);
+			List<Token> tokens = new ArrayList<>();
+			new Lexer(instruction, lineNumber).nextLine(tokens);
 
 			// Check if the interpreted instruction is another pseudo-instruction
-			split = instruction.split("\\s+", 2); // split mnemonic and args
-			m = split[0].trim();
-			if(cpu.getInstructionSet().hasPseudoInstruction(m)) {
-				String pargs[] = (split.length == 2) ? split[1].trim().split(",") : new String[0]; // split args, if any
-				instructions.addAll(interpretPseudoInstruction(m, pargs, lineNumber));
-			}
+			PseudoInstruction other = tokens.isEmpty() ? null : getPseudoInstruction(tokens.get(0));
+			if(other != null)
+				interpretPseudoInstruction(other, new Arguments(tokens, 1), lineNumber, lines);
 			else
-				instructions.add(instruction);
+				lines.add(new CodeLine(instruction, tokens, lineNumber));
 		}
+	}
 
-		return instructions;
+	/**
+	 * Replaces the placeholders (like <tt>#1</tt>) in an instruction of a pseudo-instruction by the arguments.
+	 * @param template The instruction of the pseudo-instruction.
+	 * @param args The arguments of the pseudo-instruction.
+	 * @return The instruction with the arguments.
+	 */
+	private static String replaceArguments(String template, Arguments args) {
+		if(args.size() == 0) return template;
+		StringBuilder instruction = new StringBuilder(template.length() + 16);
+		int length = template.length();
+		for(int i = 0; i < length; i++) {
+			char c = template.charAt(i);
+			int arg = (c == InstructionSet.ARGUMENT_CHAR && i + 1 < length) ? template.charAt(i + 1) - '1' : -1;
+			if(arg >= 0 && arg < args.size() && arg < 9) {
+				instruction.append(args.getText(arg));
+				i++;
+			}
+			else
+				instruction.append(c);
+		}
+		return instruction.toString().trim();
 	}
 
 	/**
 	 * Assembles an instruction into an assembled instruction.
 	 * @param line The line with the instruction.
+	 * @param tokens The tokens of the line.
+	 * @param first The index of the token with the mnemonic.
 	 * @param index The index of the instruction.
-	 * @param lineNumber The number of the line of code.
 	 * @return The assembled instruction.
 	 * @throws SyntaxErrorException If the code has a syntax error.
 	 */
-	private AssembledInstruction assembleInstruction(String line, int index, int lineNumber) throws SyntaxErrorException {
-		String inst = line.split("" + COMMENT_CHAR, 2)[0].trim(); // remove comment, if any
-		String[] split = inst.split("\\s+", 2); // split mnemonic and args
-		String mnemonic = split[0].trim();
-		String[] args = (split.length == 2) ? split[1].trim().split(",") : new String[0]; // split args, if any
-
-		if(!cpu.getInstructionSet().hasInstruction(mnemonic))
-			throw new SyntaxErrorException(SyntaxErrorException.Type.UNKNOWN_INSTRUCTION, lineNumber, mnemonic);
-
-		Instruction instruction = cpu.getInstructionSet().getInstruction(mnemonic);
+	private AssembledInstruction assembleInstruction(CodeLine line, List<Token> tokens, int first, int index) throws SyntaxErrorException {
+		int lineNumber = line.number;
+		Token mnemonic = first < tokens.size() ? tokens.get(first) : null;
+		InstructionSet.Mnemonic entry = mnemonic != null ? getMnemonic(mnemonic) : null;
+		Instruction instruction = entry != null ? entry.getInstruction() : null;
+		if(instruction == null)
+			throw new SyntaxErrorException(SyntaxErrorException.Type.UNKNOWN_INSTRUCTION, lineNumber, mnemonic != null ? mnemonic.getText() : "");
+
+		Arguments args = new Arguments(tokens, first + 1);
 		Data data = new Data();
 		Instruction.FieldValue f;
 		int value = 0;
-		if(instruction.getNumberOfArguments() != args.length)
-			throw new SyntaxErrorException(SyntaxErrorException.Type.WRONG_NUMBER_OF_ARGUMENTS, lineNumber, "" + instruction.getNumberOfArguments(), "" + args.length);
+		if(instruction.getNumberOfArguments() != args.size())
+			throw new SyntaxErrorException(SyntaxErrorException.Type.WRONG_NUMBER_OF_ARGUMENTS, lineNumber, "" + instruction.getNumberOfArguments(), "" + args.size());
 
 		for(InstructionType.Field field: instruction.getType().getFields()) {
 			f = instruction.getField(field);
@@ -295,23 +502,155 @@ public class Assembler {
 			else if(f instanceof Instruction.FieldFromArgument) {
 				Instruction.FieldFromArgument fa = (Instruction.FieldFromArgument)f;
 				switch(fa.getArgumentType()) {
-					case INT: case LABEL: value = parseIntArg(args[fa.getArgIndex()].trim(), lineNumber); break;
-					case REG: value = parseRegArg(args[fa.getArgIndex()].trim(), lineNumber); break;
-					case TARGET: value = parseTargetArg(args[fa.getArgIndex()].trim(), lineNumber); break;
-					case OFFSET: value = parseOffsetArg(args[fa.getArgIndex()].trim(), lineNumber, index); break;
+					case INT: case LABEL: value = parseIntArg(args, fa.getArgIndex(), lineNumber); break;
+					case REG: value = parseRegArg(args, fa.getArgIndex(), lineNumber); break;
+					case TARGET: value = parseTargetArg(args, fa.getArgIndex(), lineNumber); break;
+					case OFFSET: value = parseOffsetArg(args, fa.getArgIndex(), lineNumber, index); break;
 				}
 			}
 			else if(f instanceof Instruction.FieldDataFromArgument) {
 				Instruction.FieldDataFromArgument fd = (Instruction.FieldDataFromArgument)f;
 				switch(fd.getType()) {
-					case BASE: value = parseBaseDataArg(args[fd.getArgIndex()].trim(), lineNumber); break;
-					case OFFSET: value = parseOffsetDataArg(args[fd.getArgIndex()].trim(), lineNumber); break;
+					case BASE: value = parseBaseDataArg(args, fd.getArgIndex(), lineNumber); break;
+					case OFFSET: value = parseOffsetDataArg(args, fd.getArgIndex(), lineNumber); break;
 				}
 			}
 			data.setValue(data.getValue() | field.getValueInField(value));
 		}
 
-		return new AssembledInstruction(instruction, data, line, lineNumber);
+		return new AssembledInstruction(instruction, data, line.line, lineNumber);
+	}
+
+	/**
+	 * Assembles an instruction in the first pass, if all the labels it uses are already known.
+	 * <p>Otherwise, or if the instruction has an error, it is assembled in
+	 * the second pass (where the errors are reported in order).</p>
+	 * @param line The line with the instruction.
+	 * @param tokens The tokens of the line.
+	 * @param first The index of the token with the mnemonic.
+	 * @param index The index of the instruction.
+	 */
+	private void assembleIfLabelsKnown(CodeLine line, List<Token> tokens, int first, int index) {
+		for(int i = first + 1; i < tokens.size(); i++) {
+			if(tokens.get(i).getType() == Token.Type.IDENTIFIER) {
+				String label = tokens.get(i).getText();
+				if(!textLabels.containsKey(label) && !dataLabels.containsKey(label))
+					return; // forward reference (or unknown label)
+			}
+		}
+		try {
+			line.instruction = assembleInstruction(line, tokens, first, index);
+		}
+		catch(SyntaxErrorException ex) {
+			// reported in the second pass
+		}
+	}
+
+	/**
+	 * Returns the index of the first colon in the tokens of a line.
+	 * @param tokens The tokens of the line.
+	 * @return The index of the colon, or -1 if the line has no label.
+	 */
+	private static int findColon(List<Token> tokens) {
+		for(int i = 0; i < tokens.size(); i++) {
+			if(tokens.get(i).getType() == Token.Type.COLON)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Validates the label of a line.
+	 * @param tokens The tokens of the line.
+	 * @param colon The index of the colon after the label.
+	 * @param lineNumber The number of the line of code.
+	 * @return The label.
+	 * @throws SyntaxErrorException If the label is invalid or duplicated.
+	 */
+	private String parseLabel(List<Token> tokens, int colon, int lineNumber) throws SyntaxErrorException {
+		if(colon != 1 || !isValidLabel(tokens.get(0))) {
+			String label = colon > 0 ? tokens.get(0).getCode().substring(tokens.get(0).getStart(), tokens.get(colon - 1).getEnd()) : "";
+			throw new SyntaxErrorException(SyntaxErrorException.Type.INVALID_LABEL, lineNumber, label);
+		}
+		String label = tokens.get(0).getText();
+		if(textLabels.containsKey(label) || dataLabels.containsKey(label))
+			throw new SyntaxErrorException(SyntaxErrorException.Type.DUPLICATED_LABEL, lineNumber, label);
+		return label;
+	}
+
+	/**
+	 * Returns whether the given token is a valid label.
+	 * @param token The token.
+	 * @return <tt>true</tt> if it's an identifier without dots.
+	 */
+	private static boolean isValidLabel(Token token) {
+		if(token.getType() != Token.Type.IDENTIFIER) return false;
+		String code = token.getCode();
+		for(int i = token.getStart(); i < token.getEnd(); i++) {
+			if(code.charAt(i) == '.')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the pseudo-instruction with the mnemonic in the given token.
+	 * @param token The token with the mnemonic.
+	 * @return The pseudo-instruction, or <tt>null</tt> if it doesn't exist.
+	 */
+	private PseudoInstruction getPseudoInstruction(Token token) {
+		InstructionSet.Mnemonic mnemonic = getMnemonic(token);
+		return mnemonic != null ? mnemonic.getPseudoInstruction() : null;
+	}
+
+	/**
+	 * Returns the instruction or pseudo-instruction with the mnemonic in the given token.
+	 * @param token The token.
+	 * @return The instruction or pseudo-instruction, or <tt>null</tt> if the token isn't a known mnemonic.
+	 */
+	private InstructionSet.Mnemonic getMnemonic(Token token) {
+		if(token.getType() != Token.Type.IDENTIFIER) return null;
+		return cpu.getInstructionSet().getMnemonic(token.getCode(), token.getStart(), token.getEnd());
+	}
+
+	/**
+	 * Creates the map with the indexes of the registers by name.
+	 * @return The indexes of the registers (by name and number, with prefix).
+	 */
+	private Map<String, Integer> createRegisterMap() {
+		int n = cpu.getRegBank().getNumberOfRegisters();
+		Map<String, Integer> map = new HashMap<>(n * 4);
+		for(int i = 0; i < n; i++) {
+			map.put(CPU.REGISTER_PREFIX + "" + i, i);
+			map.put(cpu.getRegisterName(i), i);
+		}
+		return map;
+	}
+
+	/**
+	 * Returns the names of the registers, by index.
+	 * @return The names of the registers.
+	 */
+	private String[] getRegisterNames() {
+		if(registerNames == null) {
+			registerNames = new String[cpu.getRegBank().getNumberOfRegisters()];
+			for(int i = 0; i < registerNames.length; i++)
+				registerNames[i] = cpu.getRegisterName(i);
+		}
+		return registerNames;
+	}
+
+	/**
+	 * Returns the index of the register in the given token.
+	 * @param token The token (may be <tt>null</tt>).
+	 * @return The index of the register, or -1 if it isn't a valid register.
+	 */
+	private int getRegisterIndex(Token token) {
+		if(token == null || token.getType() != Token.Type.REGISTER)
+			return -1;
+		String name = token.getText();
+		Integer index = registers.get(name);
+		return index != null ? index : cpu.getRegisterIndex(name); // other spellings, like $T0 or $08
 	}
 
 	/**
@@ -325,127 +664,254 @@ public class Assembler {
 
 	/**
 	 * Parses an integer from an instruction argument.
-	 * @param arg The instruction argument.
+	 * @param args The instruction arguments.
+	 * @param i The index of the argument.
 	 * @param lineNumber The number of the line of code.
 	 * @return The parsed integer.
 	 * @throws SyntaxErrorException If the argument is invalid.
 	 */
-	private int parseIntArg(String arg, int lineNumber) throws SyntaxErrorException {
-		try { // integer?
-			return Long.decode(arg).intValue();
-		}
-		catch(NumberFormatException e) { // a label? (for la)
-			Integer label;
-			if((label = textLabels.get(arg)) != null)
+	private int parseIntArg(Arguments args, int i, int lineNumber) throws SyntaxErrorException {
+		Token token = args.getSingle(i);
+		Integer label;
+		if(token != null && token.getType() == Token.Type.INTEGER) // integer?
+			return (int)token.getValue();
+		else if(token != null && token.getType() == Token.Type.IDENTIFIER) { // a label? (for la)
+			if((label = textLabels.get(token.getText())) != null)
 				return label * (Data.DATA_SIZE / 8);
-			else if((label = dataLabels.get(arg)) != null)
+			else if((label = dataLabels.get(token.getText())) != null)
 				return label;
-			else
-				throw new SyntaxErrorException(SyntaxErrorException.Type.INVALID_INT_ARG, lineNumber, arg);
 		}
+		throw new SyntaxErrorException(SyntaxErrorException.Type.INVALID_INT_ARG, lineNumber, args.getText(i));
 	}
 
 	/**
 	 * Parses a register identifier from an instruction argument.
-	 * @param arg The instruction argument.
+	 * @param args The instruction arguments.
+	 * @param i The index of the argument.
 	 * @param lineNumber The number of the line of code.
 	 * @return The parsed register identifier.
 	 * @throws SyntaxErrorException If the argument is invalid.
 	 */
-	private int parseRegArg(String arg, int lineNumber) throws SyntaxErrorException {
-		int index = cpu.getRegisterIndex(arg);
+	private int parseRegArg(Arguments args, int i, int lineNumber) throws SyntaxErrorException {
+		int index = getRegisterIndex(args.getSingle(i));
 		if(index >= 0)
 			return index;
 		else
-			throw new SyntaxErrorException(SyntaxErrorException.Type.INVALID_REG_ARG, lineNumber, arg);
+			throw new SyntaxErrorException(SyntaxErrorException.Type.INVALID_REG_ARG, lineNumber, args.getText(i));
 	}
 
 	/**
 	 * Parses a target address from an instruction argument.
-	 * @param arg The instruction argument.
+	 * @param args The instruction arguments.
+	 * @param i The index of the argument.
 	 * @param lineNumber The number of the line of code.
 	 * @return The parsed target address.
 	 * @throws SyntaxErrorException If the argument is invalid.
 	 */
-	private int parseTargetArg(String arg, int lineNumber) throws SyntaxErrorException {
-		try { // direct address?
-			return Long.decode(arg).intValue();
-		}
-		catch(NumberFormatException e) { // label
-			Integer target;
-			if((target = textLabels.get(arg)) != null)
-				return target;
-			else
-				throw new SyntaxErrorException(SyntaxErrorException.Type.UNKNOWN_LABEL, lineNumber, arg);
-		}
+	private int parseTargetArg(Arguments args, int i, int lineNumber) throws SyntaxErrorException {
+		Token token = args.getSingle(i);
+		Integer target;
+		if(token != null && token.getType() == Token.Type.INTEGER) // direct address?
+			return (int)token.getValue();
+		else if(token != null && token.getType() == Token.Type.IDENTIFIER && (target = textLabels.get(token.getText())) != null) // label
+			return target;
+		else
+			throw new SyntaxErrorException(SyntaxErrorException.Type.UNKNOWN_LABEL, lineNumber, args.getText(i));
 	}
 
 	/**
 	 * Parses an address offset from an instruction argument.
-	 * @param arg The instruction argument.
+	 * @param args The instruction arguments.
+	 * @param i The index of the argument.
 	 * @param lineNumber The number of the line of code.
 	 * @param index The index of the instruction.
 	 * @return The parsed address offset.
 	 * @throws SyntaxErrorException If the argument is invalid.
 	 */
-	private int parseOffsetArg(String arg, int lineNumber, int index) throws SyntaxErrorException {
-		try { // direct offset?
-			return Long.decode(arg).intValue();
-		}
-		catch(NumberFormatException e) { // label
-			Integer target;
-			if((target = textLabels.get(arg)) != null) {
-				return target - index - 1;
-			}
-			else
-				throw new SyntaxErrorException(SyntaxErrorException.Type.UNKNOWN_LABEL, lineNumber, arg);
-		}
+	private int parseOffsetArg(Arguments args, int i, int lineNumber, int index) throws SyntaxErrorException {
+		Token token = args.getSingle(i);
+		Integer target;
+		if(token != null && token.getType() == Token.Type.INTEGER) // direct offset?
+			return (int)token.getValue();
+		else if(token != null && token.getType() == Token.Type.IDENTIFIER && (target = textLabels.get(token.getText())) != null) // label
+			return target - index - 1;
+		else
+			throw new SyntaxErrorException(SyntaxErrorException.Type.UNKNOWN_LABEL, lineNumber, args.getText(i));
 	}
 
 	/**
 	 * Parses the data base address from an instruction argument.
-	 * @param arg The instruction argument.
+	 * @param args The instruction arguments.
+	 * @param i The index of the argument.
 	 * @param lineNumber The number of the line of code.
 	 * @return The parsed base address.
 	 * @throws SyntaxErrorException If the argument is invalid.
 	 */
-	private int parseBaseDataArg(String arg, int lineNumber) throws SyntaxErrorException {
-		int i = arg.indexOf("(");
-		if(i >= 0) arg = arg.substring(0, i); // remove "($offset)" part, if it exists
-
-		try { // direct address?
-			return Long.decode(arg).intValue();
-		}
-		catch(NumberFormatException e) { // label
-			Integer target;
-			if((target = dataLabels.get(arg)) != null)
-				return target;
-			else
-				throw new SyntaxErrorException(SyntaxErrorException.Type.UNKNOWN_LABEL, lineNumber, arg);
-		}
+	private int parseBaseDataArg(Arguments args, int i, int lineNumber) throws SyntaxErrorException {
+		int start = args.getStart(i);
+		int end = args.find(i, Token.Type.LEFT_PARENTHESIS); // ignore the "($offset)" part, if it exists
+		Token token = (end == start + 1) ? args.get(start) : null;
+		Integer target;
+
+		if(token != null && token.getType() == Token.Type.INTEGER) // direct address?
+			return (int)token.getValue();
+		else if(token != null && token.getType() == Token.Type.IDENTIFIER && (target = dataLabels.get(token.getText())) != null) // label
+			return target;
+		else
+			throw new SyntaxErrorException(SyntaxErrorException.Type.UNKNOWN_LABEL, lineNumber, args.getText(start, end));
 	}
 
 	/**
 	 * Parses the data offset register from an instruction argument.
-	 * @param arg The instruction argument.
+	 * @param args The instruction arguments.
+	 * @param i The index of the argument.
 	 * @param lineNumber The number of the line of code.
 	 * @return The parsed offset register.
 	 * @throws SyntaxErrorException If the argument is invalid.
 	 */
-	private int parseOffsetDataArg(String arg, int lineNumber) throws SyntaxErrorException {
-		int i = arg.indexOf("(");
-		if(i < 0) // only "address", so offset is 0 from the register $0
+	private int parseOffsetDataArg(Arguments args, int i, int lineNumber) throws SyntaxErrorException {
+		int p = args.find(i, Token.Type.LEFT_PARENTHESIS);
+		int end = args.getEnd(i);
+		if(p == end) // only "address", so offset is 0 from the register $0
 			return 0;
 		else { // base($offset)
-			int j = arg.indexOf(")", i);
-			if(j < 0 || j != arg.length() - 1) throw new SyntaxErrorException(SyntaxErrorException.Type.INVALID_DATA_ARG, lineNumber, arg);
-
-			String reg = arg.substring(i + 1, j);
-			int index = cpu.getRegisterIndex(reg);
+			int index = -1;
+			if(p + 3 == end && args.get(p + 2).getType() == Token.Type.RIGHT_PARENTHESIS)
+				index = getRegisterIndex(args.get(p + 1));
 			if(index >= 0)
 				return index;
 			else
-				throw new SyntaxErrorException(SyntaxErrorException.Type.INVALID_DATA_ARG, lineNumber, arg);
+				throw new SyntaxErrorException(SyntaxErrorException.Type.INVALID_DATA_ARG, lineNumber, args.getText(i));
+		}
+	}
+
+	/**
+	 * The arguments of an instruction or directive: the tokens between the commas.
+	 * <p>Like in <tt>String.split(",")</tt>, the empty arguments at the end are
+	 * ignored.</p>
+	 */
+	private static class Arguments {
+		/** The tokens of the line. */
+		private final List<Token> tokens;
+		/** The index of the first token of each argument. */
+		private int[] starts = new int[4];
+		/** The index after the last token of each argument. */
+		private int[] ends = new int[4];
+		/** The number of arguments. */
+		private int count = 0;
+
+		/**
+		 * Splits the arguments.
+		 * @param tokens The tokens of the line.
+		 * @param from The index of the first token of the arguments.
+		 */
+		public Arguments(List<Token> tokens, int from) {
+			this.tokens = tokens;
+			int size = tokens.size();
+			if(from < size) {
+				int start = from;
+				for(int i = from; i <= size; i++) {
+					if(i == size || tokens.get(i).getType() == Token.Type.COMMA) {
+						add(start, i);
+						start = i + 1;
+					}
+				}
+				while(count > 0 && starts[count - 1] == ends[count - 1]) // drop the empty arguments at the end
+					count--;
+			}
+		}
+
+		/**
+		 * Adds an argument.
+		 * @param start The index of the first token of the argument.
+		 * @param end The index after the last token of the argument.
+		 */
+		private void add(int start, int end) {
+			if(count == starts.length) {
+				starts = Arrays.copyOf(starts, count * 2);
+				ends = Arrays.copyOf(ends, count * 2);
+			}
+			starts[count] = start;
+			ends[count++] = end;
+		}
+
+		/**
+		 * Returns the number of arguments.
+		 * @return The number of arguments.
+		 */
+		public int size() {
+			return count;
+		}
+
+		/**
+		 * Returns the index of the first token of an argument.
+		 * @param i The index of the argument.
+		 * @return The index of the first token.
+		 */
+		public int getStart(int i) {
+			return starts[i];
+		}
+
+		/**
+		 * Returns the index after the last token of an argument.
+		 * @param i The index of the argument.
+		 * @return The index after the last token.
+		 */
+		public int getEnd(int i) {
+			return ends[i];
+		}
+
+		/**
+		 * Returns the token with the given index in the line.
+		 * @param index The index of the token.
+		 * @return The token.
+		 */
+		public Token get(int index) {
+			return tokens.get(index);
+		}
+
+		/**
+		 * Returns the token of an argument with only one token.
+		 * @param i The index of the argument.
+		 * @return The token, or <tt>null</tt> if the argument is empty or has more than one token.
+		 */
+		public Token getSingle(int i) {
+			return ends[i] == starts[i] + 1 ? tokens.get(starts[i]) : null;
+		}
+
+		/**
+		 * Returns the index of the first token of the given type in an argument.
+		 * @param i The index of the argument.
+		 * @param type The type of the token.
+		 * @return The index of the token, or the index after the argument if not found.
+		 */
+		public int find(int i, Token.Type type) {
+			for(int j = starts[i]; j < ends[i]; j++) {
+				if(tokens.get(j).getType() == type)
+					return j;
+			}
+			return ends[i];
+		}
+
+		/**
+		 * Returns the text of an argument, as written in the code.
+		 * @param i The index of the argument.
+		 * @return The text, without the surrounding whitespace.
+		 */
+		public String getText(int i) {
+			return getText(starts[i], ends[i]);
+		}
+
+		/**
+		 * Returns the text of a range of tokens, as written in the code.
+		 * @param start The index of the first token.
+		 * @param end The index after the last token.
+		 * @return The text, without the surrounding whitespace.
+		 */
+		public String getText(int start, int end) {
+			if(start >= end) return "";
+			Token first = tokens.get(start);
+			return first.getCode().substring(first.getStart(), tokens.get(end - 1).getEnd());
 		}
 	}
 
@@ -455,17 +921,71 @@ public class Assembler {
 	private class CodeLine {
 		/** The line of code. */
 		public String line;
+		/** The tokens of an instruction of a pseudo-instruction, until it is assembled in the first pass. */
+		public List<Token> tokens;
 		/** The original number of the line. */
 		public int number;
+		/** The assembled instruction (<tt>null</tt> if not assembled yet). */
+		public AssembledInstruction instruction = null;
 
 		/**
 		 * Constructor
 		 * @param line The line of code.
+		 * @param tokens The tokens of an instruction of a pseudo-instruction (or <tt>null</tt>).
 		 * @param lineNumber The original number of the line.
 		 */
-		public CodeLine(String line, int lineNumber) {
+		public CodeLine(String line, List<Token> tokens, int lineNumber) {
 			this.line = line;
+			this.tokens = tokens;
 			this.number = lineNumber;
 		}
 	}
+
+	/**
+	 * The key of a program in the cache of assembled programs.
+	 * <p>Two keys are equal if the code is the same and the CPUs are
+	 * equivalent for the assembler.</p>
+	 */
+	private static final class CacheKey {
+		/** The assembled code. */
+		private final String code;
+		/** The instruction set of the CPU (compared by identity). */
+		private final InstructionSet instructionSet;
+		/** The names of the registers of the CPU. */
+		private final String[] registerNames;
+		/** The size of the data memory of the CPU (0 if it has none). */
+		private final int dataMemorySize;
+		/** The hash code of the key. */
+		private final int hash;
+
+		/**
+		 * Creates the key.
+		 * @param code The assembled code.
+		 * @param instructionSet The instruction set of the CPU.
+		 * @param registerNames The names of the registers of the CPU.
+		 * @param dataMemorySize The size of the data memory of the CPU (0 if it has none).
+		 */
+		public CacheKey(String code, InstructionSet instructionSet, String[] registerNames, int dataMemorySize) {
+			this.code = code;
+			this.instructionSet = instructionSet;
+			this.registerNames = registerNames;
+			this.dataMemorySize = dataMemorySize;
+			hash = ((code.hashCode() * 31 + System.identityHashCode(instructionSet)) * 31
+				+ Arrays.hashCode(registerNames)) * 31 + dataMemorySize;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof CacheKey)) return false;
+			CacheKey other = (CacheKey)obj;
+			return hash == other.hash && instructionSet == other.instructionSet
+				&& dataMemorySize == other.dataMemorySize && code.equals(other.code)
+				&& Arrays.equals(registerNames, other.registerNames);
+		}
+	}
 }
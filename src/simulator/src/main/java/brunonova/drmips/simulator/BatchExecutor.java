@@ -0,0 +1,592 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import brunonova.drmips.simulator.components.DataMemory;
+import brunonova.drmips.simulator.components.ExtendedALU;
+import brunonova.drmips.simulator.components.RegBank;
+import brunonova.drmips.simulator.exceptions.InvalidCPUException;
+import brunonova.drmips.simulator.exceptions.InvalidInstructionSetException;
+import brunonova.drmips.simulator.exceptions.SyntaxErrorException;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONException;
+
+/**
+ * Runs several programs in parallel in the same CPU.
+ *
+ * <p>CPU instances are mutable and can't be shared between threads, so each
+ * worker thread of the pool creates its own copy of the CPU (see
+ * {@link CPU#copy}) the first time it runs a job, and reuses it for the next
+ * jobs (the registers and data memory are reset before each job).</p>
+ *
+ * <p>Usage example:</p>
+ * <pre>
+ * BatchExecutor executor = new BatchExecutor("cpu/pipeline.cpu", 4);
+ * List&lt;BatchExecutor.Result&gt; results = executor.runAll(jobs);
+ * executor.shutdown();
+ * </pre>
+ *
+ * @author Bruno Nova
+ */
+public class BatchExecutor {
+	/** The default maximum number of cycles executed in each job. */
+	public static final int DEFAULT_MAX_CYCLES = 100000;
+
+	/** The possible final statuses of a job. */
+	public enum Status {
+		/** The program finished executing. */
+		FINISHED,
+		/** The maximum number of cycles of the job was executed (possible infinite loop). */
+		CYCLE_LIMIT,
+		/** The timeout of the job was reached. */
+		TIMEOUT,
+		/** The job was cancelled because the executor was shut down. */
+		CANCELLED,
+		/** The code has syntax errors. */
+		SYNTAX_ERROR,
+		/** An unexpected error occurred. */
+		ERROR
+	}
+
+	/** Path to the CPU file. */
+	private final String cpuPath;
+	/** The CPU loaded from the file, copied by the worker threads (never modified). */
+	private final CPU prototype;
+	/** The thread pool. */
+	private final ExecutorService pool;
+	/** The CPU instance of each worker thread. */
+	private final ThreadLocal<CPU> workerCPU = new ThreadLocal<>();
+	/** Token used to stop the running jobs when the executor is shut down. */
+	private final CancellationToken token = new CancellationToken();
+
+	/**
+	 * Creates an executor with one thread per available processor.
+	 * @param cpuPath Path to the CPU file.
+	 * @throws IOException If the file doesn't exist or an I/O error occurs.
+	 * @throws JSONException If the JSON file is malformed.
+	 * @throws InvalidCPUException If the CPU is invalid or incomplete.
+	 * @throws InvalidInstructionSetException If the instruction set is invalid.
+	 */
+	public BatchExecutor(String cpuPath) throws IOException, JSONException, InvalidCPUException, InvalidInstructionSetException {
+		this(cpuPath, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates an executor with the given number of threads.
+	 * <p>The CPU file is loaded only once, here.</p>
+	 * @param cpuPath Path to the CPU file.
+	 * @param threads The number of worker threads.
+	 * @throws IOException If the file doesn't exist or an I/O error occurs.
+	 * @throws JSONException If the JSON file is malformed.
+	 * @throws InvalidCPUException If the CPU is invalid or incomplete.
+	 * @throws InvalidInstructionSetException If the instruction set is invalid.
+	 * @throws IllegalArgumentException If the number of threads is not positive.
+	 */
+	public BatchExecutor(String cpuPath, int threads) throws IOException, JSONException, InvalidCPUException, InvalidInstructionSetException, IllegalArgumentException {
+		if(threads < 1)
+			throw new IllegalArgumentException("The number of threads must be positive!");
+		this.cpuPath = cpuPath;
+		prototype = CPU.createFromJSONFile(cpuPath);
+		pool = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+	}
+
+	/**
+	 * Submits a job to be executed.
+	 * @param job The job.
+	 * @return The future result of the job.
+	 * @throws java.util.concurrent.RejectedExecutionException If the executor was shut down.
+	 */
+	public Future<Result> submit(final Job job) {
+		return pool.submit(new Callable<Result>() {
+			@Override
+			public Result call() {
+				return execute(job);
+			}
+		});
+	}
+
+	/**
+	 * Executes all the given jobs and waits for them to finish.
+	 * @param jobs The jobs.
+	 * @return The results, in the same order as the jobs.
+	 * @throws InterruptedException If the current thread is interrupted while waiting.
+	 */
+	public List<Result> runAll(List<Job> jobs) throws InterruptedException {
+		List<Future<Result>> futures = new ArrayList<>(jobs.size());
+		for(Job job: jobs)
+			futures.add(submit(job));
+
+		List<Result> results = new ArrayList<>(jobs.size());
+		for(int i = 0; i < futures.size(); i++) {
+			try {
+				results.add(futures.get(i).get());
+			}
+			catch(ExecutionException ex) { // shouldn't happen, execute() catches everything
+				results.add(new Result(jobs.get(i).getName(), Status.ERROR, String.valueOf(ex.getCause()), 0));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Stops the executor.
+	 * <p>The running jobs are cancelled and the pending jobs aren't executed.</p>
+	 */
+	public void shutdown() {
+		token.cancel();
+		pool.shutdown();
+	}
+
+	/**
+	 * Returns whether the executor was shut down.
+	 * @return <tt>True</tt> if shut down.
+	 */
+	public boolean isShutdown() {
+		return pool.isShutdown();
+	}
+
+	/**
+	 * Returns the path to the CPU file.
+	 * @return Path to the CPU file.
+	 */
+	public String getCPUPath() {
+		return cpuPath;
+	}
+
+	/**
+	 * Executes a job in the CPU of the current thread.
+	 * @param job The job.
+	 * @return The result of the job.
+	 */
+	private Result execute(Job job) {
+		long start = System.nanoTime();
+		try {
+			CPU cpu = workerCPU.get();
+			if(cpu == null) {
+				cpu = prototype.copy();
+				workerCPU.set(cpu);
+			}
+
+			cpu.resetData();
+			try {
+				cpu.assembleCode(job.getCode());
+			}
+			catch(SyntaxErrorException ex) {
+				return new Result(job.getName(), Status.SYNTAX_ERROR, "line " + ex.getLine() + ": " + ex.getType()
+					+ (ex.getExtra() != null ? " " + ex.getExtra() : ""), elapsed(start));
+			}
+			loadImages(cpu, job);
+
+			RunResult run = cpu.run(job.getMaxCycles(), job.getTimeout(), token);
+			Status status;
+			switch(run.getReason()) {
+				case BUDGET:    status = Status.CYCLE_LIMIT; break;
+				case DEADLINE:  status = Status.TIMEOUT; break;
+				case CANCELLED: status = Status.CANCELLED; break;
+				default:        status = Status.FINISHED;
+			}
+			return new Result(job.getName(), status, getStateDigest(cpu), cpu.getNumberOfExecutedCycles(),
+				cpu.getNumberOfExecutedInstructions(), cpu.getCPI(), cpu.getNumberOfForwards(),
+				cpu.getNumberOfStalls(), elapsed(start));
+		}
+		catch(Exception ex) {
+			return new Result(job.getName(), Status.ERROR, ex.toString(), elapsed(start));
+		}
+	}
+
+	/**
+	 * Writes the initial register and data memory images of the job to the CPU.
+	 * @param cpu The CPU.
+	 * @param job The job.
+	 */
+	private static void loadImages(CPU cpu, Job job) {
+		int[] registers = job.getRegisters();
+		if(registers != null) {
+			RegBank regbank = cpu.getRegBank();
+			int n = Math.min(registers.length, regbank.getNumberOfRegisters());
+			for(int i = 0; i < n; i++)
+				regbank.setRegister(i, registers[i], false);
+			regbank.execute(); // propagate the new values
+		}
+
+		int[] memory = job.getMemory();
+		if(memory != null && cpu.hasDataMemory()) {
+			DataMemory dataMemory = cpu.getDataMemory();
+			int n = Math.min(memory.length, dataMemory.getMemorySize());
+			for(int i = 0; i < n; i++)
+				dataMemory.setDataInIndex(i, memory[i], false);
+			dataMemory.execute();
+		}
+	}
+
+	/**
+	 * Returns the number of milliseconds since the given time.
+	 * @param start The start time, from <tt>System.nanoTime()</tt>.
+	 * @return Elapsed milliseconds.
+	 */
+	private static long elapsed(long start) {
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	/**
+	 * Returns a digest of the architectural state of the CPU.
+	 * <p>The digest is the SHA-256 (in hexadecimal) of the values of the
+	 * registers, of the <tt>HI</tt> and <tt>LO</tt> registers (if the ALU is
+	 * extended) and of the data memory (only the non-zero positions and their
+	 * indexes, if the memory is sparse). The PC and the pipeline aren't
+	 * included, so the same program gives the same digest in different CPUs
+	 * with the same register bank and data memory.</p>
+	 * @param cpu The CPU.
+	 * @return The digest, in hexadecimal.
+	 */
+	public static String getStateDigest(CPU cpu) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		}
+		catch(NoSuchAlgorithmException ex) { // all Java platforms must support SHA-256
+			throw new IllegalStateException(ex);
+		}
+
+		RegBank regbank = cpu.getRegBank();
+		for(int i = 0; i < regbank.getNumberOfRegisters(); i++)
+			update(md, regbank.getRegister(i).getValue());
+		if(cpu.hasALU() && cpu.getALU() instanceof ExtendedALU) {
+			update(md, ((ExtendedALU)cpu.getALU()).getHI().getValue());
+			update(md, ((ExtendedALU)cpu.getALU()).getLO().getValue());
+		}
+		if(cpu.hasDataMemory()) {
+			DataMemory memory = cpu.getDataMemory();
+			if(memory.isSparse()) { // only the non-zero positions (and their indexes)
+				for(int i: memory.getUsedIndexes()) {
+					int value = memory.getDataInIndex(i);
+					if(value != 0) {
+						update(md, i);
+						update(md, value);
+					}
+				}
+			}
+			else {
+				for(int i = 0; i < memory.getMemorySize(); i++)
+					update(md, memory.getDataInIndex(i));
+			}
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for(byte b: md.digest())
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	/**
+	 * Adds the bytes of the value (big-endian) to the digest.
+	 * @param md The digest.
+	 * @param value The value.
+	 */
+	private static void update(MessageDigest md, int value) {
+		md.update((byte)(value >>> 24));
+		md.update((byte)(value >>> 16));
+		md.update((byte)(value >>> 8));
+		md.update((byte)value);
+	}
+
+	/**
+	 * Creates the worker threads (daemon threads, so they don't prevent the program from exiting).
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+		/** Number of threads created, used in their names. */
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "BatchExecutor-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+	/**
+	 * A program to run in the executor.
+	 */
+	public static final class Job {
+		/** The name of the job (used to identify the result). */
+		private final String name;
+		/** The assembly code. */
+		private final String code;
+		/** The initial values of the registers (or <tt>null</tt>). */
+		private final int[] registers;
+		/** The initial values of the data memory (or <tt>null</tt>). */
+		private final int[] memory;
+		/** The maximum number of cycles to execute (<tt>0</tt> for no limit). */
+		private final int maxCycles;
+		/** The maximum execution time in milliseconds (<tt>0</tt> for no limit). */
+		private final long timeout;
+
+		/**
+		 * Creates a job with no initial images, <tt>DEFAULT_MAX_CYCLES</tt> and no timeout.
+		 * @param name The name of the job (used to identify the result).
+		 * @param code The assembly code.
+		 */
+		public Job(String name, String code) {
+			this(name, code, null, null, DEFAULT_MAX_CYCLES, 0);
+		}
+
+		/**
+		 * Creates a job.
+		 * <p>The images are written after the code is assembled (so they
+		 * overwrite the values of the <tt>.data</tt> section). Values beyond the
+		 * size of the register bank/data memory are ignored.</p>
+		 * @param name The name of the job (used to identify the result).
+		 * @param code The assembly code.
+		 * @param registers The initial values of the registers, by index (or <tt>null</tt>).
+		 * @param memory The initial values of the data memory, by index (or <tt>null</tt>).
+		 * @param maxCycles The maximum number of cycles to execute (<tt>0</tt> for no limit).
+		 * @param timeout The maximum execution time in milliseconds (<tt>0</tt> for no limit).
+		 */
+		public Job(String name, String code, int[] registers, int[] memory, int maxCycles, long timeout) {
+			this.name = name;
+			this.code = code;
+			this.registers = registers != null ? registers.clone() : null;
+			this.memory = memory != null ? memory.clone() : null;
+			this.maxCycles = maxCycles;
+			this.timeout = timeout;
+		}
+
+		/**
+		 * Returns the name of the job.
+		 * @return The name of the job.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the assembly code.
+		 * @return The assembly code.
+		 */
+		public String getCode() {
+			return code;
+		}
+
+		/**
+		 * Returns the initial values of the registers.
+		 * @return The initial values of the registers (or <tt>null</tt>).
+		 */
+		private int[] getRegisters() {
+			return registers;
+		}
+
+		/**
+		 * Returns the initial values of the data memory.
+		 * @return The initial values of the data memory (or <tt>null</tt>).
+		 */
+		private int[] getMemory() {
+			return memory;
+		}
+
+		/**
+		 * Returns the maximum number of cycles to execute.
+		 * @return The maximum number of cycles (<tt>0</tt> for no limit).
+		 */
+		public int getMaxCycles() {
+			return maxCycles;
+		}
+
+		/**
+		 * Returns the maximum execution time.
+		 * @return The maximum execution time in milliseconds (<tt>0</tt> for no limit).
+		 */
+		public long getTimeout() {
+			return timeout;
+		}
+	}
+
+	/**
+	 * The result of a job.
+	 */
+	public static final class Result {
+		/** The name of the job. */
+		private final String name;
+		/** The final status of the job. */
+		private final Status status;
+		/** The digest of the final state (<tt>null</tt> if not executed). */
+		private final String stateDigest;
+		/** The number of executed cycles. */
+		private final int cycles;
+		/** The number of executed instructions. */
+		private final int instructions;
+		/** The CPI. */
+		private final double cpi;
+		/** The number of forwards. */
+		private final int forwards;
+		/** The number of stalls. */
+		private final int stalls;
+		/** The error message (<tt>null</tt> if executed). */
+		private final String error;
+		/** The time spent in the job (assembling and executing), in milliseconds. */
+		private final long time;
+
+		/**
+		 * Creates the result of an executed job.
+		 * @param name The name of the job.
+		 * @param status The final status of the job.
+		 * @param stateDigest The digest of the final state.
+		 * @param cycles The number of executed cycles.
+		 * @param instructions The number of executed instructions.
+		 * @param cpi The CPI.
+		 * @param forwards The number of forwards.
+		 * @param stalls The number of stalls.
+		 * @param time The time spent in the job, in milliseconds.
+		 */
+		private Result(String name, Status status, String stateDigest, int cycles, int instructions, double cpi, int forwards, int stalls, long time) {
+			this.name = name;
+			this.status = status;
+			this.stateDigest = stateDigest;
+			this.cycles = cycles;
+			this.instructions = instructions;
+			this.cpi = cpi;
+			this.forwards = forwards;
+			this.stalls = stalls;
+			this.error = null;
+			this.time = time;
+		}
+
+		/**
+		 * Creates the result of a job that couldn't be executed.
+		 * @param name The name of the job.
+		 * @param status The final status of the job.
+		 * @param error The error message.
+		 * @param time The time spent in the job, in milliseconds.
+		 */
+		private Result(String name, Status status, String error, long time) {
+			this.name = name;
+			this.status = status;
+			this.stateDigest = null;
+			this.cycles = this.instructions = this.forwards = this.stalls = 0;
+			this.cpi = 0.0;
+			this.error = error;
+			this.time = time;
+		}
+
+		/**
+		 * Returns the name of the job.
+		 * @return The name of the job.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the final status of the job.
+		 * @return The final status.
+		 */
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * Returns whether the program finished executing.
+		 * @return <tt>True</tt> if the status is <tt>FINISHED</tt>.
+		 */
+		public boolean isFinished() {
+			return status == Status.FINISHED;
+		}
+
+		/**
+		 * Returns the digest of the final state (see {@link BatchExecutor#getStateDigest}).
+		 * <p>The digest is also available if the execution was interrupted.</p>
+		 * @return The digest, or <tt>null</tt> if the program wasn't executed.
+		 */
+		public String getStateDigest() {
+			return stateDigest;
+		}
+
+		/**
+		 * Returns the number of executed cycles.
+		 * @return Number of executed cycles.
+		 */
+		public int getNumberOfExecutedCycles() {
+			return cycles;
+		}
+
+		/**
+		 * Returns the number of executed instructions.
+		 * @return Number of executed instructions.
+		 */
+		public int getNumberOfExecutedInstructions() {
+			return instructions;
+		}
+
+		/**
+		 * Returns the CPI.
+		 * @return Cycles Per Instruction.
+		 */
+		public double getCPI() {
+			return cpi;
+		}
+
+		/**
+		 * Returns the number of forwards.
+		 * @return Number of forwards.
+		 */
+		public int getNumberOfForwards() {
+			return forwards;
+		}
+
+		/**
+		 * Returns the number of stalls.
+		 * @return Number of stalls.
+		 */
+		public int getNumberOfStalls() {
+			return stalls;
+		}
+
+		/**
+		 * Returns the error message.
+		 * @return The error message, or <tt>null</tt> if the program was executed.
+		 */
+		public String getError() {
+			return error;
+		}
+
+		/**
+		 * Returns the time spent in the job (assembling and executing).
+		 * @return Time in milliseconds.
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + status + (error != null ? " (" + error + ")" : ", " + cycles + " cycles, digest " + stateDigest);
+		}
+	}
+}
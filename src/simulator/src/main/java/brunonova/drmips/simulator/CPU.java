@@ -21,22 +21,23 @@ package brunonova.drmips.simulator;
 import brunonova.drmips.simulator.components.*;
 import brunonova.drmips.simulator.exceptions.*;
 import brunonova.drmips.simulator.util.Dimension;
+import brunonova.drmips.simulator.util.JSONLoader;
 import brunonova.drmips.simulator.util.Point;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.logging.Logger;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -65,11 +66,17 @@ public class CPU {
 	public static final int LATENCY_EXPONENT = -12;
 	/** The number of clock cycles executed in <tt>executeAll()</tt> after which it throws an exception. */
 	public static final int EXECUTE_ALL_LIMIT_CYCLES = 1000;
+	/** The number of clock cycles executed in <tt>run()</tt> between checks of the time limit and cancellation token. */
+	public static final int RUN_CHECK_INTERVAL = 256;
 
 	/** The file of the CPU. */
 	private File file = null;
 	/** The components that the CPU contains. */
 	private Map<String, Component> components;
+	/** The input(s) with the highest accumulated latency (reused by <tt>findHighetsAccumulatedLatencyInputs()</tt>). */
+	private final List<Input> highestLatencyInputs = new ArrayList<>();
+	/** The components that the CPU contains, in the same order as the map (convenience array, <tt>null</tt> if out of date). */
+	private Component[] componentArray = new Component[0];
 	/** The components that are synchronous (convenience list). */
 	private List<Component> synchronousComponents;
 	/** The names of the registers (without the prefix). */
@@ -121,13 +128,29 @@ public class CPU {
 	private boolean performanceInstructionDependent = false;
 	/** Breakpoint addr . */
 	private int breakpointAddr = -1;
+	/** Executes the components in topological order (<tt>null</tt> if the CPU has combinational loops). */
+	private LevelizedEvaluator levelizedEvaluator = null;
+	/** Whether the components should be executed in topological order, if possible. */
+	private boolean levelized = true;
+	/** Whether the compiled datapath should be used, if possible. */
+	private boolean compiled = false;
+	/** Manages the history of executed cycles (<tt>null</tt> if a synchronous component doesn't support checkpoints). */
+	private HistoryManager history = null;
+	/** Records the executed cycles (<tt>null</tt> if not recording). */
+	private TraceRecorder traceRecorder = null;
+	/** Executes the instructions without the datapath (<tt>null</tt> if the CPU isn't supported). */
+	private FunctionalInterpreter functionalInterpreter = null;
+	/** The parsed CPU file, shared with the copies of the CPU (see {@link #copy}). */
+	private Prototype prototype = null;
+	/** Class logger. */
+	private static final Logger LOG = Logger.getLogger(CPU.class.getName());
 
 	/**
 	 * Constructor that should by called by other constructors.
 	 */
 	protected CPU() {
 		components = new TreeMap<>();
-		synchronousComponents = new LinkedList<>();
+		synchronousComponents = new ArrayList<>();
 		assembler = new Assembler(this);
 	}
 
@@ -142,6 +165,11 @@ public class CPU {
 
 	/**
 	 * Creates a CPU from a JSON file.
+	 * <p>If the CPU file has an up to date precompiled file
+	 * ({@link PrecompiledCPU}), it is loaded from it instead, skipping the
+	 * parsing of the JSON files and the validations. Otherwise, the
+	 * precompiled file is written after the CPU is loaded successfully (if
+	 * possible).</p>
 	 * <p><b>Don't forget to call <tt>setPerformanceInstructionDependent()</tt> on the CPU!</b></p>.
 	 * @param path Path to the JSON file.
 	 * @return CPU created from the file.
@@ -153,46 +181,183 @@ public class CPU {
 	 * @throws NumberFormatException If an opcode is not a number.
 	 */
 	public static CPU createFromJSONFile(String path) throws IOException, JSONException, InvalidCPUException, ArrayIndexOutOfBoundsException, InvalidInstructionSetException, NumberFormatException {
-		CPU cpu = new CPU(new File(path));
-		BufferedReader reader = null;
-		String file = "", line, parentPath = ".";
+		return createFromJSONFile(path, true);
+	}
+
+	/**
+	 * Creates a CPU from a JSON file.
+	 * @param path Path to the JSON file.
+	 * @param precompiled Whether to use/write the precompiled file.
+	 * @return CPU created from the file.
+	 * @throws IOException If the file doesn't exist or an I/O error occurs.
+	 * @throws JSONException If the JSON file is malformed.
+	 * @throws InvalidCPUException If the CPU is invalid or incomplete
+	 * @throws ArrayIndexOutOfBoundsException If an array index is invalid somewhere (like an invalid register).
+	 * @throws InvalidInstructionSetException If the instruction set is invalid.
+	 * @throws NumberFormatException If an opcode is not a number.
+	 */
+	static CPU createFromJSONFile(String path, boolean precompiled) throws IOException, JSONException, InvalidCPUException, ArrayIndexOutOfBoundsException, InvalidInstructionSetException, NumberFormatException {
+		long start = System.nanoTime();
+		File f = new File(path);
+		CPU cpu = new CPU(f);
+		String parentPath = f.getAbsoluteFile().getParentFile().getPath();
+
+		// Parse the JSON file (or read the precompiled file, already validated)
+		PrecompiledCPU pre = precompiled ? PrecompiledCPU.read(f) : null;
+		boolean validate = pre == null;
+		JSONObject json = validate ? JSONLoader.load(f) : pre.getCPU();
+		JSONObject components = json.getJSONObject("components");
+		cpu.prototype = new Prototype(json, loadComponentClasses(components, parentPath));
+		parseJSONComponents(cpu, components, cpu.prototype.constructors);
+		if(validate) cpu.checkRequiredComponents();
+		if(json.has("reg_names")) parseJSONRegNames(cpu, json.getJSONArray("reg_names"), validate);
+		String setPath = parentPath + File.separator + json.getString("instructions");
+		cpu.instructionSet = validate ? InstructionSet.createFromJSONFile(setPath) : InstructionSet.createFromJSON(setPath, pre.getInstructionSet());
+		cpu.finishCreation(null);
+
+		LOG.fine("CPU " + path + " loaded in " + (System.nanoTime() - start) / 1000000 + " ms" + (validate ? "" : " (precompiled)"));
+
+		if(precompiled && (validate || pre.needsRewrite())) { // valid CPU, precompile it for the next time
+			try {
+				PrecompiledCPU.write(f);
+			}
+			catch(IOException | JSONException ex) { // read-only directory, for example
+				LOG.fine("couldn't write the precompiled file of " + path + ": " + ex);
+			}
+		}
+		return cpu;
+	}
 
-		// Read file to String
+	/**
+	 * Creates a copy of this CPU, without parsing the CPU and instruction set files again.
+	 * <p>Each component is copied with {@link Component#copy} and the copies are
+	 * connected by the indexes of the inputs/outputs, like the originals. The
+	 * copy has the same components, wires, control path, register names
+	 * and latencies, and shares the (immutable) instruction set with this CPU.
+	 * The levelized/compiled execution and the performance mode are also
+	 * copied; if the datapath of this CPU is compiled, the copy reuses the
+	 * compiled class. The copy is in the initial state, like a CPU just loaded
+	 * from the file: no program, registers and data memory with zeros, no
+	 * statistics and no history.</p>
+	 * <p>Several threads can create copies of the same CPU at the same time, as
+	 * long as this CPU isn't being modified (by loading a program, executing it
+	 * or changing latencies) meanwhile. The copies are independent of each other
+	 * and of this CPU.</p>
+	 * @return The new CPU.
+	 * @throws IllegalStateException If the CPU wasn't loaded from a file or couldn't be copied.
+	 */
+	public CPU copy() throws IllegalStateException {
+		if(prototype == null)
+			throw new IllegalStateException("Only the CPUs loaded from a file can be copied!");
+		CPU cpu = new CPU(getFile());
+		cpu.prototype = prototype;
+		cpu.registerNames = registerNames;
+		cpu.instructionSet = instructionSet;
 		try {
-			File f = new File(path);
-			parentPath = f.getParentFile().getAbsolutePath();
-			reader = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF8"));
-			while((line = reader.readLine()) != null)
-				file += line + "\n";
-			reader.close();
+			// Copy the components (custom components that can't be copied are created again)
+			Component[] comps = getComponentArray();
+			for(Component c: comps) {
+				Component copy = c.copy();
+				if(copy == null) {
+					copy = createComponent(c.getId(), prototype.json.getJSONObject("components"), prototype.constructors.get(c.getId()));
+					copy.setLatency(c.getLatency());
+					copyPortPositions(c, copy);
+				}
+				cpu.addComponent(copy);
+			}
+
+			// Connect the copies like the original components, by the indexes of the inputs/outputs
+			Component[] copies = cpu.getComponentArray(); // same order (sorted by identifier)
+			for(int i = 0; i < comps.length; i++) {
+				Output[] outs = comps[i].getOutputArray();
+				for(int j = 0; j < outs.length; j++) {
+					if(outs[j].isConnected()) {
+						Input in = outs[j].getConnectedInput();
+						Component target = cpu.getComponent(in.getComponent().getId());
+						cpu.connectComponents(copies[i].getOutputArray()[j], target.getInputArray()[in.getIndex()]);
+					}
+				}
+			}
+			cpu.finishCreation(this);
 		}
-		catch(IOException e) {
-			throw e;
+		catch(InvalidCPUException | JSONException ex) {
+			throw new IllegalStateException("Failed to copy the CPU!", ex);
 		}
-		finally {
-			if(reader != null) reader.close();
+		return cpu;
+	}
+
+	/**
+	 * Copies the positions of the inputs/outputs and the intermediate points
+	 * of the wires of a component to a new instance of the same component.
+	 * @param from The original component.
+	 * @param to The new component (not connected yet).
+	 */
+	private static void copyPortPositions(Component from, Component to) {
+		Input[] ins = from.getInputArray();
+		for(int i = 0; i < ins.length; i++)
+			if(ins[i].hasPositionDefined()) to.getInputArray()[i].setPosition(new Point(ins[i].getPosition()));
+		Output[] outs = from.getOutputArray();
+		for(int i = 0; i < outs.length; i++) {
+			if(outs[i].hasPositionDefined()) to.getOutputArray()[i].setPosition(new Point(outs[i].getPosition()));
+			for(Point p: outs[i].getIntermediatePoints())
+				to.getOutputArray()[i].addIntermediatePoint(new Point(p));
+		}
+	}
+
+	/**
+	 * Initializes the CPU, after the components, register names and
+	 * instruction set are created.
+	 * <p>The components created from the file are connected here. The
+	 * components of a copy are already connected.</p>
+	 * @param original The CPU being copied, whose configuration is also copied (<tt>null</tt> if not a copy).
+	 * @throws JSONException If the JSON file is malformed.
+	 * @throws InvalidCPUException If the CPU is invalid.
+	 */
+	private void finishCreation(CPU original) throws JSONException, InvalidCPUException {
+		if(hasForwardingUnit()) forwardingUnit.setRegbank(getRegBank());
+		if(hasHazardDetectionUnit()) hazardDetectionUnit.setRegbank(getRegBank());
+		if(original == null) {
+			controlUnit.setControl(getInstructionSet().getControl(), getInstructionSet().getOpCodeSize());
+			if(hasALUControl()) aluControl.setControlALU(getInstructionSet().getControlALU());
+			if(hasALU()) alu.setControlALU(getInstructionSet().getControlALU());
+			parseJSONWires(this, prototype.json.getJSONArray("wires"));
+		}
+		determineControlPath();
+		if(original == null) {
+			levelizedEvaluator = LevelizedEvaluator.create(getComponents());
+			if(levelizedEvaluator == null)
+				LOG.info("the CPU has combinational loops; changes will be propagated automatically");
+		}
+		else if(original.levelizedEvaluator != null)
+			levelizedEvaluator = original.levelizedEvaluator.copy(this);
+		history = HistoryManager.create(this, synchronousComponents);
+		if(history == null && original == null)
+			LOG.info("the CPU has synchronous components without checkpoints; all the history will be kept");
+		functionalInterpreter = FunctionalInterpreter.create(this);
+
+		if(original != null) { // copy the configuration
+			performanceInstructionDependent = original.performanceInstructionDependent;
+			levelized = original.levelized;
+			if(history != null && original.history != null) {
+				history.setCheckpointInterval(original.history.getCheckpointInterval());
+				history.setMemoryLimit(original.history.getMemoryLimit());
+			}
 		}
 
-		// Parse the JSON file
-		JSONObject json = new JSONObject(file);
-		parseJSONComponents(cpu, json.getJSONObject("components"), parentPath);
-		cpu.checkRequiredComponents();
-		if(cpu.hasForwardingUnit()) cpu.forwardingUnit.setRegbank(cpu.getRegBank());
-		if(cpu.hasHazardDetectionUnit()) cpu.hazardDetectionUnit.setRegbank(cpu.getRegBank());
-		if(json.has("reg_names")) parseJSONRegNames(cpu, json.getJSONArray("reg_names"));
-		cpu.instructionSet = new InstructionSet(parentPath + File.separator + json.getString("instructions"));
-		cpu.controlUnit.setControl(cpu.getInstructionSet().getControl(), cpu.getInstructionSet().getOpCodeSize());
-		if(cpu.hasALUControl()) cpu.aluControl.setControlALU(cpu.getInstructionSet().getControlALU());
-		if(cpu.hasALU()) cpu.alu.setControlALU(cpu.getInstructionSet().getControlALU());
-		parseJSONWires(cpu, json.getJSONArray("wires"));
-		cpu.determineControlPath();
-
-		for(Component c: cpu.getComponents()) // "execute" all components (initialize all outputs/inputs)
-			c.execute();
-
-		cpu.calculatePerformance();
+		executeComponents(); // "execute" all components (initialize all outputs/inputs)
 
-		return cpu;
+		if(original != null && original.compiled) { // reuse the compiled class, if possible
+			if(canBeLevelized() && original.levelizedEvaluator != null) {
+				try {
+					levelizedEvaluator.compile(original.levelizedEvaluator);
+				} catch(LinkageError ex) { // javax.tools not available (Android)
+					LOG.info("the datapath can't be compiled: " + ex);
+				}
+			}
+			compiled = true;
+		}
+
+		calculatePerformance();
 	}
 
 	private void checkRequiredComponents() throws InvalidCPUException {
@@ -236,7 +401,7 @@ public class CPU {
 	 * @param instructionDependent If <tt>true</tt>, the latencies will depend on the current instruction.
 	 */
 	protected final void calculateAccumulatedLatencies(boolean instructionDependent) {
-		for(Component c: getComponents()) // reset latencies and critical path
+		for(Component c: getComponentArray()) // reset latencies and critical path
 			c.resetPerformance();
 
 		for(Component c: synchronousComponents) // calculate latencies
@@ -267,10 +432,10 @@ public class CPU {
 	 */
 	private int findHighestAccumulatedLatency() {
 		int maxLatency = 0;
-		for(Component c: getComponents()) {
+		for(Component c: getComponentArray()) {
 			if(c.getAccumulatedLatency() > maxLatency)
 				maxLatency = c.getAccumulatedLatency();
-			for(Input i: c.getInputs()) {
+			for(Input i: c.getInputArray()) {
 				if(i.getAccumulatedLatency() > maxLatency)
 					maxLatency = i.getAccumulatedLatency();
 			}
@@ -284,12 +449,13 @@ public class CPU {
 	 * @return Input(s) with the highest accumulated latency.
 	 */
 	private List<Input> findHighetsAccumulatedLatencyInputs(boolean instructionDependent) {
-		List<Input> maxIns = new LinkedList<>();
+		List<Input> maxIns = highestLatencyInputs;
 		int maxLatency = -1;
+		maxIns.clear();
 		Collection<Component> comps = isPerformanceInstructionDependent() ? synchronousComponents : components.values();
 		for(Component c: comps) {
 			if(!isPerformanceInstructionDependent() || ((Synchronous)c).isWritingState()) {
-				for(Input in: c.getInputs()) {
+				for(Input in: c.getInputArray()) {
 					if(in.isConnected()) {
 						if(in.getAccumulatedLatency() > maxLatency) {
 							maxIns.clear();
@@ -442,6 +608,25 @@ public class CPU {
 		stalls = 0;
 	}
 
+	/**
+	 * Returns a copy of the execution statistics (for the checkpoints of the history).
+	 * @return The number of executed cycles, executed instructions, forwards and stalls.
+	 */
+	int[] saveStatistics() {
+		return new int[] {executedCycles, executedInstructions, forwards, stalls};
+	}
+
+	/**
+	 * Restores the execution statistics (from a checkpoint of the history).
+	 * @param statistics The statistics returned by <tt>saveStatistics()</tt>.
+	 */
+	void restoreStatistics(int[] statistics) {
+		executedCycles = statistics[0];
+		executedInstructions = statistics[1];
+		forwards = statistics[2];
+		stalls = statistics[3];
+	}
+
 	/**
 	 * Determines the CPU's critical path
 	 */
@@ -462,7 +647,7 @@ public class CPU {
 	 */
 	private void determineCriticalPath(Component component) {
 		int lat = component.getAccumulatedLatency() - component.getLatency();
-		for(Input i: component.getInputs()) {
+		for(Input i: component.getInputArray()) {
 			if(i.canChangeComponentAccumulatedLatency() && i.getAccumulatedLatency() == lat
 				&& i.isConnected() && !i.getConnectedOutput().isInCriticalPath()) {
 				i.getConnectedOutput().setInCriticalPath(true);
@@ -503,6 +688,91 @@ public class CPU {
 		return ifIdReg != null;
 	}
 
+	/**
+	 * Returns whether the components can be executed in topological order
+	 * (i.e. if the CPU has no combinational loops).
+	 * @return <tt>True</tt> if the CPU can be levelized.
+	 */
+	public boolean canBeLevelized() {
+		return levelizedEvaluator != null;
+	}
+
+	/**
+	 * Returns whether each component is executed once per clock cycle, in
+	 * topological order.
+	 * <p>Otherwise, the components are executed whenever one of their inputs
+	 * changes, which may happen several times per clock cycle.</p>
+	 * @return <tt>True</tt> if the CPU is levelized.
+	 */
+	public boolean isLevelized() {
+		return levelized && canBeLevelized();
+	}
+
+	/**
+	 * Sets whether each component should be executed once per clock cycle, in
+	 * topological order.
+	 * <p>This is enabled by default, and is ignored if the CPU has combinational
+	 * loops.</p>
+	 * @param levelized Whether the CPU should be levelized.
+	 */
+	public void setLevelized(boolean levelized) {
+		if(!levelized && canBeLevelized()) levelizedEvaluator.sync();
+		this.levelized = levelized;
+	}
+
+	/**
+	 * Returns whether the components are executed by a class generated and
+	 * compiled for this CPU.
+	 * @return <tt>True</tt> if the compiled datapath is used.
+	 * @see #setCompiled
+	 */
+	public boolean isCompiled() {
+		return compiled && isLevelized() && levelizedEvaluator.isCompiled();
+	}
+
+	/**
+	 * Sets whether the components should be executed by a class generated and
+	 * compiled for this CPU.
+	 * <p>The simple components (adders, multiplexers, distributors, etc.) are
+	 * replaced by inlined code in the generated class, and the values of their
+	 * wires are kept in fields of that class. Their inputs and outputs are only
+	 * updated at the end of the methods that execute cycles (like
+	 * <tt>executeCycle()</tt> and <tt>run()</tt>), not in every cycle. The
+	 * class is compiled the first time this mode is enabled, which can take
+	 * some time.<br>
+	 * This is disabled by default, and is ignored if the CPU can't be
+	 * levelized, has custom components or if no Java compiler is available
+	 * (i.e. not running on a JDK). Use {@link #isCompiled} to check if the
+	 * compiled datapath is used.</p>
+	 * @param compiled Whether the compiled datapath should be used.
+	 */
+	public void setCompiled(boolean compiled) {
+		if(compiled && canBeLevelized()) {
+			try {
+				levelizedEvaluator.compile();
+			} catch(LinkageError ex) { // javax.tools not available (Android)
+				LOG.info("the datapath can't be compiled: " + ex);
+			}
+		}
+		else if(!compiled && canBeLevelized())
+			levelizedEvaluator.sync();
+		this.compiled = compiled;
+	}
+
+	/**
+	 * Executes all the components, propagating the changes of the outputs.
+	 */
+	private void executeComponents() {
+		if(isLevelized())
+			levelizedEvaluator.evaluate(isCompiled());
+		else {
+			for(Component c: synchronousComponents) // execute normal actions, propagating output changes
+				c.execute();
+			for(Component c: getComponents()) // "execute" all components, just to be safe
+				c.execute();
+		}
+	}
+
 	/**
 	 * Sets the file of the CPU.
 	 * @param file The file.
@@ -528,7 +798,7 @@ public class CPU {
 		int x, y, width, height;
 		width = height = 0;
 
-		for(Component c: getComponents()) { // check each component's position + size and output wires points
+		for(Component c: getComponentArray()) { // check each component's position + size and output wires points
 			// Component's position + size
 			x = c.getPosition().x + c.getSize().width;
 			y = c.getPosition().y + c.getSize().height;
@@ -536,7 +806,7 @@ public class CPU {
 			if(y > height) height = y;
 
 			// Component's outputs points
-			for(Output o: c.getOutputs()) {
+			for(Output o: c.getOutputArray()) {
 				if(o.isConnected()) {
 					o.getPosition();
 					if(o.getPosition() != null) { // start point
@@ -571,6 +841,19 @@ public class CPU {
 		getAssembler().assembleCode(code);
 	}
 
+	/**
+	 * Loads an assembled program: writes its data segment to the data memory,
+	 * loads its instructions into the instruction memory and starts the
+	 * simulation.
+	 * @param program The program, assembled by the assembler of this CPU (or of a copy of this CPU).
+	 * @see Assembler#assemble(String)
+	 */
+	public void loadProgram(AssembledProgram program) {
+		if(hasDataMemory())
+			program.commitData(getDataMemory());
+		loadProgram(program.getInstructions());
+	}
+
 	/**
 	 * Loads the given assembled instructions into the instruction memory and
 	 * starts the simulation.
@@ -607,21 +890,116 @@ public class CPU {
 	/**
 	 * Executes the currently loaded program until the end.
 	 * Or until we hit the breakpoint
+	 * <p>This is the same as <tt>run(EXECUTE_ALL_LIMIT_CYCLES, 0, null)</tt>.</p>
 	 * @throws InfiniteLoopException If the <tt>EXECUTE_ALL_LIMIT_CYCLES</tt> limit has been reached (possible infinite loop).
+	 * @see #run
 	 */
 	public void executeAll() throws InfiniteLoopException {
+		if(run(EXECUTE_ALL_LIMIT_CYCLES, 0, null).getReason() == RunResult.Reason.BUDGET)
+			throw new InfiniteLoopException();
+	}
+
+	/**
+	 * Executes the currently loaded program until the end, the breakpoint or
+	 * until one of the given limits is reached.
+	 * <p>The number of cycles is checked every cycle, but the time limit and
+	 * the cancellation token are only checked every
+	 * <tt>RUN_CHECK_INTERVAL</tt> cycles.</p>
+	 * @param maxCycles The maximum number of cycles to execute (<tt>0</tt> for no limit).
+	 * @param maxTime The maximum time to execute, in milliseconds (<tt>0</tt> for no limit).
+	 * @param token Token used to cancel the execution from another thread (can be <tt>null</tt>).
+	 * @return The reason why the execution stopped and the number of cycles executed.
+	 */
+	public RunResult run(int maxCycles, long maxTime, CancellationToken token) {
+		long start = System.nanoTime();
+		long deadline = start + maxTime * 1000000L;
 		int cycles = 0;
-		while(!isProgramFinished()) {
-			if(cycles++ > EXECUTE_ALL_LIMIT_CYCLES) // prevent possible infinite cycles
-				throw new InfiniteLoopException();
-			executeCycle();
+		RunResult.Reason reason;
+
+		while(true) {
+			if(isProgramFinished()) {
+				reason = RunResult.Reason.FINISHED;
+				break;
+			}
+			if(maxCycles > 0 && cycles >= maxCycles) { // prevent possible infinite cycles
+				reason = RunResult.Reason.BUDGET;
+				break;
+			}
+			if(cycles % RUN_CHECK_INTERVAL == 0) { // check the slower conditions only once in a while
+				if(token != null && token.isCancelled()) {
+					reason = RunResult.Reason.CANCELLED;
+					break;
+				}
+				if(maxTime > 0 && System.nanoTime() - deadline >= 0) {
+					reason = RunResult.Reason.DEADLINE;
+					break;
+				}
+			}
+
+			step();
+			cycles++;
 
 			// check if we have hit the breakpoint
-			if (getPC().getAddress().getValue() == breakpointAddr)
-			{
+			if(getPC().getAddress().getValue() == breakpointAddr) {
+				reason = RunResult.Reason.BREAKPOINT;
 				break;
 			}
 		}
+
+		refreshState();
+		return new RunResult(reason, cycles, (System.nanoTime() - start) / 1000000);
+	}
+
+	/**
+	 * Returns whether the program can be executed by the functional
+	 * interpreter (see {@link #runFunctional}).
+	 * <p>The CPU must be supported by the interpreter and, if it is pipelined,
+	 * there can't be instructions in the pipeline (for example, at the start of
+	 * the program).</p>
+	 * @return <tt>True</tt> if <tt>runFunctional()</tt> can be called.
+	 */
+	public boolean canRunFunctional() {
+		if(functionalInterpreter == null)
+			return false;
+		else if(isPipeline())
+			return ifIdReg.getCurrentInstructionIndex() == -1 && idExReg.getCurrentInstructionIndex() == -1
+				&& exMemReg.getCurrentInstructionIndex() == -1 && memWbReg.getCurrentInstructionIndex() == -1;
+		else
+			return true;
+	}
+
+	/**
+	 * Executes the currently loaded program directly, at the instruction level,
+	 * without simulating the datapath, and then hands off to the datapath.
+	 * <p>This is much faster than <tt>run()</tt> and is useful to skip to an
+	 * interesting part of a long program. The execution stops at the end of the
+	 * program, at the breakpoint, after <tt>maxInstructions</tt> instructions
+	 * or when cancelled. The registers, data memory and PC are then updated and
+	 * the datapath continues from the next instruction (a pipeline starts
+	 * empty).</p>
+	 * <p>Each instruction counts as a clock cycle in the statistics. The saved
+	 * states are cleared, so it isn't possible to step back to a cycle before
+	 * the hand-off.</p>
+	 * @param maxInstructions The maximum number of instructions to execute (<tt>0</tt> for no limit).
+	 * @param token Token used to cancel the execution from another thread (can be <tt>null</tt>).
+	 * @return The reason why the execution stopped and the number of instructions executed.
+	 * @throws IllegalStateException If <tt>canRunFunctional() == false</tt>.
+	 */
+	public RunResult runFunctional(int maxInstructions, CancellationToken token) throws IllegalStateException {
+		if(!canRunFunctional())
+			throw new IllegalStateException("The program can't be executed by the functional interpreter!");
+
+		clearPreviousCycles(); // the changes of the interpreter aren't saved (can't step back past them)
+		RunResult result = functionalInterpreter.run(maxInstructions, breakpointAddr, token);
+		executedCycles += result.getNumberOfExecutedCycles();
+		executedInstructions += result.getNumberOfExecutedCycles();
+
+		// Hand off to the datapath
+		clearPreviousCycles(); // also empties the pipeline
+		setPCAddress(getPC().getAddress().getValue());
+		executeComponents();
+		refreshState();
+		return result;
 	}
 
 	/**
@@ -635,6 +1013,16 @@ public class CPU {
 	 * "Executes" a clock cycle (a step).
 	 */
 	public void executeCycle() {
+		step();
+		refreshState();
+	}
+
+	/**
+	 * Executes a clock cycle, without refreshing the state that is only needed
+	 * by the user (see {@link #refreshState}).
+	 */
+	private void step() {
+		if(history != null) history.beforeCycle();
 		executedCycles++;
 		if(!isPipeline() || memWbReg.getCurrentInstructionIndex() >= 0)
 			executedInstructions++;
@@ -644,8 +1032,11 @@ public class CPU {
 		}
 		if(hasHazardDetectionUnit() && getHazardDetectionUnit().getStall().getValue() != 0)
 			stalls++;
+		if(traceRecorder != null) traceRecorder.record();
 
 		saveCycleState();
+		if(isLevelized()) // propagate output changes only after all the synchronous actions
+			levelizedEvaluator.defer();
 		for(Component c: synchronousComponents) // execute synchronous actions without propagating output changes
 			((Synchronous)c).executeSynchronous();
 
@@ -661,11 +1052,19 @@ public class CPU {
 		}
 		getPC().setCurrentInstructionIndex(index);
 
-		for(Component c: synchronousComponents) // execute normal actions, propagating output changes
-			c.execute();
-		for(Component c: getComponents()) // "execute" all components, just to be safe
-			c.execute();
+		executeComponents();
+
+		if(history != null) history.afterCycle();
+	}
 
+	/**
+	 * Updates the inputs and outputs not updated by the compiled datapath and
+	 * refreshes the critical path.
+	 * <p>This is done once at the end of the public methods that execute
+	 * cycles, not in every cycle.</p>
+	 */
+	private void refreshState() {
+		if(isLevelized()) levelizedEvaluator.sync();
 		calculateInstructionPerformance(); // Refresh critical path
 	}
 
@@ -709,12 +1108,14 @@ public class CPU {
 	 */
 	public void restorePreviousCycle() {
 		if(hasPreviousCycle()) {
+			if(history != null && !history.hasSavedStates()) { // reconstruct from a checkpoint
+				goToCycle(history.getCurrentCycle() - 1);
+				return;
+			}
+
 			for(Component c: synchronousComponents) // restore previous states
 				((Synchronous)c).popState();
-			for(Component c: synchronousComponents) // execute normal actions, propagating output changes
-				c.execute();
-			for(Component c: getComponents()) // "execute" all components
-				c.execute();
+			executeComponents();
 
 			executedCycles--;
 			if(!isPipeline() || memWbReg.getCurrentInstructionIndex() >= 0)
@@ -726,8 +1127,29 @@ public class CPU {
 			if(hasHazardDetectionUnit() && getHazardDetectionUnit().getStall().getValue() != 0)
 				stalls--;
 
-			calculateInstructionPerformance(); // Refresh critical path
+			refreshState();
+			if(history != null) history.afterRestore();
+		}
+	}
+
+	/**
+	 * Restores the given cycle from the nearest previous checkpoint of the
+	 * history, executing the cycles after it again.
+	 * @param cycle The cycle to restore.
+	 */
+	private void goToCycle(int cycle) {
+		TraceRecorder recorder = traceRecorder;
+		traceRecorder = null; // don't record the cycles executed again
+		try {
+			history.restoreCheckpoint(cycle);
+			executeComponents();
+			while(history.getCurrentCycle() < cycle)
+				step();
+		}
+		finally {
+			traceRecorder = recorder;
 		}
+		refreshState();
 	}
 
 	/**
@@ -735,7 +1157,9 @@ public class CPU {
 	 * @return <tt>True</tt> if a "step back" is possible (<tt>getPc().hasSavedStates() == true</tt>).
 	 */
 	public boolean hasPreviousCycle() {
-		if(pc != null)
+		if(history != null)
+			return history.getCurrentCycle() > 0;
+		else if(pc != null)
 			return pc.hasSavedStates();
 		else
 			return false;
@@ -747,22 +1171,51 @@ public class CPU {
 	public void clearPreviousCycles() {
 		for(Component c: synchronousComponents)
 			((Synchronous)c).clearSavedStates();
+		if(history != null) history.clear();
+	}
+
+	/**
+	 * Returns the manager of the history of executed cycles.
+	 * <p>The manager can be used to configure the checkpoints and the memory
+	 * limit, and to obtain statistics on the memory used by the history.</p>
+	 * @return The history manager, or <tt>null</tt> if a synchronous component
+	 * doesn't support checkpoints (in which case all the history is kept).
+	 */
+	public HistoryManager getHistory() {
+		return history;
+	}
+
+	/**
+	 * Returns the recorder of the executed cycles.
+	 * @return The trace recorder, or <tt>null</tt> if not recording.
+	 */
+	public TraceRecorder getTraceRecorder() {
+		return traceRecorder;
+	}
+
+	/**
+	 * Starts or stops recording the executed cycles.
+	 * <p>The cycles executed again when restoring a previous cycle from a
+	 * checkpoint aren't recorded. Stopping doesn't close the recorder.</p>
+	 * @param recorder The trace recorder of this CPU, or <tt>null</tt> to stop recording.
+	 */
+	public void setTraceRecorder(TraceRecorder recorder) {
+		traceRecorder = recorder;
 	}
 
 	/**
 	 * Resets the states of the CPU's components to the first cycle.
 	 */
 	public void resetToFirstCycle() {
-		if(hasPreviousCycle()) {
+		if(hasPreviousCycle() && history != null)
+			goToCycle(0);
+		else if(hasPreviousCycle()) {
 			for(Component c: synchronousComponents) // restore first state
 				((Synchronous)c).resetFirstState();
-			for(Component c: synchronousComponents) // execute normal actions, propagating output changes
-				c.execute();
-			for(Component c: getComponents()) // "execute" all components
-				c.execute();
+			executeComponents();
 			resetStatistics();
 
-			calculateInstructionPerformance(); // Refresh critical path
+			refreshState();
 		}
 	}
 
@@ -834,8 +1287,17 @@ public class CPU {
 	 * @return Array with all components.
 	 */
 	public Component[] getComponents() {
-		Component[] c = new Component[components.size()];
-		return components.values().toArray(c);
+		return getComponentArray().clone();
+	}
+
+	/**
+	 * Returns the convenience array with all the components, rebuilding it if needed.
+	 * @return Array with all components (must not be modified).
+	 */
+	private Component[] getComponentArray() {
+		if(componentArray == null)
+			componentArray = components.values().toArray(new Component[components.size()]);
+		return componentArray;
 	}
 
 	/**
@@ -846,6 +1308,7 @@ public class CPU {
 	protected final void addComponent(Component component) throws InvalidCPUException {
 		if(hasComponent(component.getId())) throw new InvalidCPUException("Duplicated ID " + component.getId() + "!");
 		components.put(component.getId(), component);
+		componentArray = null; // rebuilt when needed
 		if(component instanceof Synchronous)
 			synchronousComponents.add(component);
 		if(component instanceof PC) {
@@ -1071,21 +1534,23 @@ public class CPU {
 		if(name.length() < 2 || name.charAt(0) != REGISTER_PREFIX)
 			return -1;
 		name = name.substring(1);
-		try {
-			int index = Integer.parseInt(name);
-			// Numeric name (like $0)
-			if(index >= 0 && index < regbank.getNumberOfRegisters())
-				return index;
-			else
-				return -1;
-		}
-		catch(NumberFormatException e) {
-			// Register name (like $zero)
-			if(registerNames != null)
-				return registerNames.indexOf(name);
-			else
+		char c = name.charAt(0);
+		if((c >= '0' && c <= '9') || c == '+' || c == '-') { // numeric name (like $0)
+			try {
+				int index = Integer.parseInt(name);
+				if(index >= 0 && index < regbank.getNumberOfRegisters())
+					return index;
+				else
+					return -1;
+			}
+			catch(NumberFormatException e) {
 				return -1;
+			}
 		}
+		else if(registerNames != null) // register name (like $zero)
+			return registerNames.indexOf(name);
+		else
+			return -1;
 	}
 
 	/**
@@ -1119,18 +1584,17 @@ public class CPU {
 	}
 
 	/**
-	 * Parses and creates the components from the given JSON array.
-	 * @param cpu The CPU to add the components to.
+	 * Loads the classes of the components in the given JSON object.
 	 * @param components JSONObject that contains the components array.
-	 * @param parentPath Path to the cpu file's parent directory.
+	 * @param parentPath The path of the parent directory of the CPU file (where custom components may be).
+	 * @return The <tt>(String, JSONObject)</tt> constructor of each component, by identifier.
 	 * @throws JSONException If the JSON file is malformed.
-	 * @throws InvalidCPUException If the CPU is invalid or incomplete.
+	 * @throws InvalidCPUException If a component type doesn't exist or is invalid.
 	 */
-	private static void parseJSONComponents(CPU cpu, JSONObject components, String parentPath) throws JSONException, InvalidCPUException {
-		JSONObject json;
+	private static Map<String, Constructor<? extends Component>> loadComponentClasses(JSONObject components, String parentPath) throws JSONException, InvalidCPUException {
+		Map<String, Constructor<? extends Component>> constructors = new LinkedHashMap<>();
 		String type, id;
-		Class cl;
-		Component comp;
+		Class<?> cl;
 
 		// ClassLoader to load the built-in components
 		ClassLoader loader = CPU.class.getClassLoader();
@@ -1145,12 +1609,10 @@ public class CPU {
 			customLoader = null;
 		}
 
-		// Parse the components
 		Iterator<String> i = components.keys();
 		while(i.hasNext()) {
 			id = i.next();
-			json = components.getJSONObject(id);
-			type = json.getString("type");
+			type = components.getJSONObject(id).getString("type");
 
 			// Load the class with the name specified by "type"
 			try {
@@ -1170,29 +1632,54 @@ public class CPU {
 				}
 			}
 
-			// Create the component with the (String, JSONObject) contructor
-			// and add it to the CPU
+			// Find the (String, JSONObject) contructor
 			try {
-				comp = (Component)cl.asSubclass(Component.class)
-				                    .getConstructor(String.class, JSONObject.class)
-				                    .newInstance(id, json);
-				cpu.addComponent(comp);
+				constructors.put(id, cl.asSubclass(Component.class).getConstructor(String.class, JSONObject.class));
 			} catch(ClassCastException ex) {
 				throw new InvalidCPUException("The " + type + " class is not a subclass of Component!", ex);
 			} catch(NoSuchMethodException ex) {
 				throw new InvalidCPUException("The " + type + " class is missing the (String, JSONObject) constructor!", ex);
-			} catch(InvocationTargetException ex) {
-				Throwable target = ex.getCause();
-				if(target instanceof InvalidCPUException) {
-					throw (InvalidCPUException)target;
-				} else if(target instanceof JSONException) {
-					throw (JSONException)target;
-				} else {
-					throw new InvalidCPUException("Failed to create the component " + id + "!", ex);
-				}
-			} catch(InstantiationException | IllegalAccessException | IllegalArgumentException ex) {
+			}
+		}
+		return constructors;
+	}
+
+	/**
+	 * Creates the components and adds them to the CPU.
+	 * @param cpu The CPU to add components to.
+	 * @param components JSONObject that contains the components array.
+	 * @param constructors The constructor of each component, by identifier (from <tt>loadComponentClasses()</tt>).
+	 * @throws JSONException If the JSON file is malformed.
+	 * @throws InvalidCPUException If a component is invalid.
+	 */
+	private static void parseJSONComponents(CPU cpu, JSONObject components, Map<String, Constructor<? extends Component>> constructors) throws JSONException, InvalidCPUException {
+		for(Map.Entry<String, Constructor<? extends Component>> e: constructors.entrySet())
+			cpu.addComponent(createComponent(e.getKey(), components, e.getValue()));
+	}
+
+	/**
+	 * Creates a component with its <tt>(String, JSONObject)</tt> constructor.
+	 * @param id The identifier of the component.
+	 * @param components JSONObject that contains the components array.
+	 * @param constructor The constructor of the component (from <tt>loadComponentClasses()</tt>).
+	 * @return The new component.
+	 * @throws JSONException If the JSON file is malformed.
+	 * @throws InvalidCPUException If the component is invalid.
+	 */
+	private static Component createComponent(String id, JSONObject components, Constructor<? extends Component> constructor) throws JSONException, InvalidCPUException {
+		try {
+			return constructor.newInstance(id, components.getJSONObject(id));
+		} catch(InvocationTargetException ex) {
+			Throwable target = ex.getCause();
+			if(target instanceof InvalidCPUException) {
+				throw (InvalidCPUException)target;
+			} else if(target instanceof JSONException) {
+				throw (JSONException)target;
+			} else {
 				throw new InvalidCPUException("Failed to create the component " + id + "!", ex);
 			}
+		} catch(InstantiationException | IllegalAccessException | IllegalArgumentException ex) {
+			throw new InvalidCPUException("Failed to create the component " + id + "!", ex);
 		}
 	}
 
@@ -1230,10 +1717,11 @@ public class CPU {
 	 * Parses and sets the identifiers of the registers.
 	 * @param cpu The CPU to set the registers informations.
 	 * @param regs JSONArray that contains the registers.
+	 * @param validate Whether to validate the names (<tt>false</tt> if already validated).
 	 * @throws JSONException If the JSON file is malformed.
 	 * @throws InvalidCPUException If not all registers are specified or a register is invalid.
 	 */
-	private static void parseJSONRegNames(CPU cpu, JSONArray regs) throws JSONException, InvalidCPUException {
+	private static void parseJSONRegNames(CPU cpu, JSONArray regs, boolean validate) throws JSONException, InvalidCPUException {
 		if(regs.length() != cpu.getRegBank().getNumberOfRegisters())
 			throw new InvalidCPUException("Not all registers have been specified in the registers block!");
 		cpu.registerNames = new ArrayList<>(cpu.getRegBank().getNumberOfRegisters());
@@ -1242,14 +1730,38 @@ public class CPU {
 		for(int i = 0; i < regs.length(); i++) {
 			id = regs.getString(i).trim().toLowerCase();
 
-			if(id.isEmpty())
-				throw new InvalidCPUException("Invalid name " + id + "!");
-			if(!id.matches(REGNAME_REGEX)) // has only letters and digits and starts with a letter?
-				throw new InvalidCPUException("Invalid name " + id + "!");
-			if(cpu.hasRegister(REGISTER_PREFIX + id))
-				throw new InvalidCPUException("Invalid name " + id + "!");
+			if(validate) {
+				if(id.isEmpty())
+					throw new InvalidCPUException("Invalid name " + id + "!");
+				if(!id.matches(REGNAME_REGEX)) // has only letters and digits and starts with a letter?
+					throw new InvalidCPUException("Invalid name " + id + "!");
+				if(cpu.hasRegister(REGISTER_PREFIX + id))
+					throw new InvalidCPUException("Invalid name " + id + "!");
+			}
 
 			cpu.registerNames.add(id);
 		}
+		cpu.registerNames = Collections.unmodifiableList(cpu.registerNames); // shared with the copies
+	}
+
+	/**
+	 * The parsed contents of a CPU file, shared by a CPU and its copies.
+	 * <p>It must not be modified after the CPU is created.</p>
+	 */
+	private static final class Prototype {
+		/** The contents of the CPU file. */
+		private final JSONObject json;
+		/** The constructor of each component, by identifier. */
+		private final Map<String, Constructor<? extends Component>> constructors;
+
+		/**
+		 * Creates the prototype.
+		 * @param json The contents of the CPU file.
+		 * @param constructors The constructor of each component, by identifier.
+		 */
+		private Prototype(JSONObject json, Map<String, Constructor<? extends Component>> constructors) {
+			this.json = json;
+			this.constructors = Collections.unmodifiableMap(constructors);
+		}
 	}
 }
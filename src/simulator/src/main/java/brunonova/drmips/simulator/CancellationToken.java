@@ -0,0 +1,48 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package brunonova.drmips.simulator;
+
+/**
+ * Token used to cancel a running simulation from another thread.
+ *
+ * <p>Pass the token to {@link CPU#run} and call {@link #cancel} to stop it.
+ * The CPU only checks the token once in a while (see
+ * {@link CPU#RUN_CHECK_INTERVAL}), so the simulation may execute a few more
+ * cycles after it is cancelled.</p>
+ *
+ * @author Bruno Nova
+ */
+public final class CancellationToken {
+	/** Whether the simulation was cancelled. */
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Requests the cancellation of the simulation.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Returns whether the cancellation of the simulation was requested.
+	 * @return <tt>True</tt> if cancelled.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package brunonova.drmips.simulator;
+
+/**
+ * Interface implemented by synchronous components whose whole internal state
+ * can be saved and restored (a checkpoint).
+ *
+ * <p>This allows the {@link HistoryManager} to discard old saved states (see
+ * {@link Synchronous}) and reconstruct old clock cycles from a checkpoint.
+ * If a synchronous component of a CPU doesn't implement this interface, the
+ * CPU keeps all the saved states.</p>
+ *
+ * @author Bruno Nova
+ */
+public interface Checkpointable {
+	/**
+	 * Returns a copy of the whole internal state of the component.
+	 * <p>The state is usually an <tt>int[]</tt>, but may be any object that
+	 * isn't changed afterwards (it may share data with other checkpoints of the
+	 * same component, though).</p>
+	 * @return The state of the component.
+	 */
+	public Object saveCheckpoint();
+
+	/**
+	 * Restores the internal state of the component from a checkpoint and
+	 * removes all the saved states.
+	 * <p>The checkpoint can be restored several times.</p>
+	 * @param checkpoint A state returned by {@link #saveCheckpoint}.
+	 */
+	public void restoreCheckpoint(Object checkpoint);
+
+	/**
+	 * Returns the approximate memory used by a checkpoint.
+	 * @param checkpoint A state returned by {@link #saveCheckpoint}.
+	 * @return Memory used, in bytes.
+	 */
+	public long getCheckpointMemoryUsage(Object checkpoint);
+
+	/**
+	 * Removes all the saved states, without changing the current state.
+	 */
+	public void discardSavedStates();
+
+	/**
+	 * Returns the approximate memory used by the saved states.
+	 * @return Memory used, in bytes.
+	 */
+	public long getSavedStatesMemoryUsage();
+
+	/**
+	 * Returns whether the state was changed outside of a clock cycle (for
+	 * example, by the user) since it was last saved or restored.
+	 * <p>The changes must also be saved with the state of the last cycle (see
+	 * {@link Synchronous#pushState}), so that restoring that cycle undoes them.
+	 * The {@link HistoryManager} saves a checkpoint after the changes, so
+	 * that they aren't lost when the cycles after them are reconstructed.</p>
+	 * @return <tt>True</tt> if the state was changed.
+	 */
+	public boolean isEdited();
+}
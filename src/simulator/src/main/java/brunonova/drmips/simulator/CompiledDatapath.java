@@ -0,0 +1,47 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+/**
+ * Interface implemented by the datapath classes generated for a CPU.
+ *
+ * <p>The classes are generated and compiled at runtime (see
+ * {@link CPU#setCompiled}), and must not be implemented by other classes. It is
+ * public only because the generated classes are loaded by a different class
+ * loader.</p>
+ *
+ * @author Bruno Nova
+ */
+public interface CompiledDatapath {
+	/**
+	 * Executes all the components of the CPU once, in topological order.
+	 * <p>Only the outputs of the inlined components that are read by other
+	 * components are updated.<br>The automatic execution of the components must be disabled while this
+	 * method is executed.</p>
+	 */
+	void evaluate();
+
+	/**
+	 * Updates the outputs of the inlined components that aren't updated by
+	 * {@link #evaluate}, and the relevance of their inputs and outputs.
+	 * <p>The automatic execution of the components must be disabled while this
+	 * method is executed.</p>
+	 */
+	void sync();
+}
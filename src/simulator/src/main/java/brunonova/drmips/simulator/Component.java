@@ -21,7 +21,8 @@ package brunonova.drmips.simulator;
 import brunonova.drmips.simulator.exceptions.InvalidCPUException;
 import brunonova.drmips.simulator.util.Dimension;
 import brunonova.drmips.simulator.util.Point;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -50,6 +51,10 @@ import org.json.JSONObject;
  * the instruction dependent CPU performance calculation and critical path is
  * correct.</p>
  *
+ * <p>The {@link #copy} method should also be overridden with a copy
+ * constructor, so that copies of the CPU don't need to create the component
+ * from the CPU file again.</p>
+ *
  * <h3>Adding new components</h3>
  * <p>Adding a new component to the simulator should be as simple as adding
  * its class to the {@code brunonova.drmips.simulator.components} package
@@ -72,6 +77,14 @@ public abstract class Component {
 	protected Map<String, Input> in;
 	/** The outputs of the component. */
 	protected Map<String, Output> out;
+	/** The inputs of the component, in the same order as the map (rebuilt when an input is added). */
+	private Input[] inputArray = new Input[0];
+	/** The outputs of the component, in the same order as the map (rebuilt when an output is added). */
+	private Output[] outputArray = new Output[0];
+	/** Immutable view of <tt>inputArray</tt>. */
+	private List<Input> inputList = Collections.emptyList();
+	/** Immutable view of <tt>outputArray</tt>. */
+	private List<Output> outputList = Collections.emptyList();
 	/** The name displayed on the GUI. */
 	private String displayName;
 	/** The key of the component's description on the language file. */
@@ -96,6 +109,8 @@ public abstract class Component {
 	private Map<String, String> customDescriptions = null;
 	/** Whether this component is in the control path. */
 	private boolean inControlPath = false;
+	/** Whether the component is executed automatically when one of its inputs changes. */
+	private boolean executedOnInputChange = true;
 
 	/**
 	 * Component constructor that must be called by subclasses.
@@ -149,6 +164,61 @@ public abstract class Component {
 		}
 	}
 
+	/**
+	 * Constructor that copies another component, to be called by the copy
+	 * constructors of subclasses (see {@link #copy}).
+	 * <p>The configuration (identifier, names, position, size, latencies and
+	 * descriptions) and the inputs/outputs are copied.
+	 * The inputs/outputs have the same indexes but are not connected.</p>
+	 * @param original The component being copied.
+	 */
+	protected Component(Component original) {
+		id = original.id;
+		latency = original.latency;
+		originalLatency = original.originalLatency;
+		displayName = original.displayName;
+		descriptionKey = original.descriptionKey;
+		nameKey = original.nameKey;
+		defaultName = original.defaultName;
+		defaultDescription = original.defaultDescription;
+		position = new Point(original.position);
+		size = new Dimension(original.size);
+		if(original.customDescriptions != null)
+			customDescriptions = new TreeMap<>(original.customDescriptions);
+
+		in = new TreeMap<>();
+		inputArray = new Input[original.inputArray.length];
+		for(int i = 0; i < inputArray.length; i++) {
+			inputArray[i] = new Input(this, original.inputArray[i]);
+			in.put(inputArray[i].getId(), inputArray[i]);
+		}
+		inputList = Collections.unmodifiableList(Arrays.asList(inputArray));
+
+		out = new TreeMap<>();
+		outputArray = new Output[original.outputArray.length];
+		for(int i = 0; i < outputArray.length; i++) {
+			outputArray[i] = new Output(this, original.outputArray[i]);
+			out.put(outputArray[i].getId(), outputArray[i]);
+		}
+		outputList = Collections.unmodifiableList(Arrays.asList(outputArray));
+	}
+
+	/**
+	 * Creates a copy of this component, for a copy of the CPU.
+	 * <p>The copy has the same configuration and inputs/outputs as this
+	 * component, but isn't connected to other components and is in the initial
+	 * state (like a component just created from the CPU file). Subclasses
+	 * implement this with a copy constructor that calls
+	 * {@link #Component(Component)}.</p>
+	 * <p>By default returns <tt>null</tt>, in which case the CPU creates the
+	 * component from the CPU file again (so custom components don't need to
+	 * implement this).</p>
+	 * @return The copy, or <tt>null</tt> if the component doesn't support copies.
+	 */
+	protected Component copy() {
+		return null;
+	}
+
 	/**
 	 * "Executes" the normal action of the component in a clock cycle.
 	 * <p>Subclasses must implement this method.<br>
@@ -156,6 +226,40 @@ public abstract class Component {
 	 */
 	public abstract void execute();
 
+	/**
+	 * Returns whether the value of the given input is used by {@link #execute}
+	 * to calculate the outputs in the same clock cycle.
+	 * <p>By default, all inputs of combinational components are, while the
+	 * inputs of synchronous components that don't change the component's
+	 * accumulated latency are only used at the end of the clock cycle.<br>
+	 * This is used to sort the components when the CPU is levelized, so
+	 * subclasses that use such inputs in {@link #execute} must override this
+	 * method.</p>
+	 * @param input One of the component's inputs.
+	 * @return <tt>True</tt> if the outputs may depend on the input in the same cycle.
+	 */
+	protected boolean isCombinationalInput(Input input) {
+		return !(this instanceof Synchronous) || input.canChangeComponentAccumulatedLatency();
+	}
+
+	/**
+	 * Returns whether the component is executed automatically when one of its inputs changes.
+	 * @return <tt>True</tt> if changing an input executes the component.
+	 */
+	public final boolean isExecutedOnInputChange() {
+		return executedOnInputChange;
+	}
+
+	/**
+	 * Sets whether the component is executed automatically when one of its inputs changes.
+	 * <p>This is disabled by the CPU while it executes the components itself in
+	 * a levelized order.</p>
+	 * @param executedOnInputChange Whether changing an input executes the component.
+	 */
+	final void setExecutedOnInputChange(boolean executedOnInputChange) {
+		this.executedOnInputChange = executedOnInputChange;
+	}
+
 	/**
 	 * Adds a custom description to the component for the specified language.
 	 * <p>The language is the language code (like en, pt, pt_PT) or "default" for
@@ -420,12 +524,15 @@ public abstract class Component {
 	 */
 	protected void updateAccumulatedLatency(boolean instructionDependent) {
 		accumulatedLatency = 0;
-		List<Input> inputs = instructionDependent ? getLatencyInputs() : getInputs();
-		for(Input i: inputs) // get highest accumulated latency from inputs
+		List<Input> inputs = instructionDependent ? getLatencyInputs() : inputList;
+		Input i;
+		for(int x = 0; x < inputs.size(); x++) { // get highest accumulated latency from inputs
+			i = inputs.get(x);
 			if(i.canChangeComponentAccumulatedLatency() && i.getAccumulatedLatency() > accumulatedLatency)
 				accumulatedLatency = i.getAccumulatedLatency();
+		}
 		accumulatedLatency += latency; // add the component's own latency
-		for(Output o: getOutputs()) // propagate accumulated latency
+		for(Output o: outputArray) // propagate accumulated latency
 			if(o.isConnected())
 				o.getConnectedInput().setAccumulatedLatency(accumulatedLatency, instructionDependent);
 	}
@@ -442,9 +549,9 @@ public abstract class Component {
 	 */
 	public void resetPerformance() {
 		accumulatedLatency = 0;
-		for(Input i: getInputs())
+		for(Input i: inputArray)
 			i.resetAccumulatedLatency();
-		for(Output o: getOutputs())
+		for(Output o: outputArray)
 			o.setInCriticalPath(false);
 	}
 
@@ -498,6 +605,10 @@ public abstract class Component {
 		if(hasInput(id)) throw new InvalidCPUException("Duplicated ID " + id + "!");
 		Input input = new Input(this, id, data, direction, changesComponentAccumulatedLatency, showTip);
 		in.put(id, input);
+		inputArray = in.values().toArray(new Input[in.size()]);
+		inputList = Collections.unmodifiableList(Arrays.asList(inputArray));
+		for(int i = 0; i < inputArray.length; i++)
+			inputArray[i].setIndex(i);
 		return input;
 	}
 
@@ -521,20 +632,33 @@ public abstract class Component {
 
 	/**
 	 * Returns the list of inputs.
+	 * <p>The list is immutable and isn't copied in each call.</p>
 	 * @return List of inputs.
 	 */
 	public final List<Input> getInputs() {
-		return new ArrayList<>(in.values());
+		return inputList;
+	}
+
+	/**
+	 * Returns the inputs, ordered by their indexes (see {@link IOPort#getIndex}).
+	 * <p>The array is shared by all calls, so it <b>must not be modified</b>.</p>
+	 * @return Array of inputs.
+	 */
+	protected final Input[] getInputArray() {
+		return inputArray;
 	}
 
 	/**
 	 * Returns the list of inputs for latency calculations. By default, does the
 	 * same as getInputs()
+	 * <p>This method is called in every cycle, so subclasses should reuse the
+	 * same list instead of allocating a new one. The list <b>must not be
+	 * modified</b> by the callers.</p>
 	 *
 	 * @return List of inputs.
 	 */
 	protected List<Input> getLatencyInputs() {
-		return new ArrayList<>(in.values());
+		return inputList;
 	}
 	/**
 	 * Adds an output with an initial value.
@@ -572,6 +696,10 @@ public abstract class Component {
 		if(hasOutput(id)) throw new InvalidCPUException("Duplicated ID " + id + "!");
 		Output output = new Output(this, id, data, direction, showTip);
 		out.put(id, output);
+		outputArray = out.values().toArray(new Output[out.size()]);
+		outputList = Collections.unmodifiableList(Arrays.asList(outputArray));
+		for(int i = 0; i < outputArray.length; i++)
+			outputArray[i].setIndex(i);
 		return output;
 	}
 
@@ -595,10 +723,20 @@ public abstract class Component {
 
 	/**
 	 * Returns the list of outputs.
+	 * <p>The list is immutable and isn't copied in each call.</p>
 	 * @return List of outputs.
 	 */
 	public final List<Output> getOutputs() {
-		return new ArrayList<>(out.values());
+		return outputList;
+	}
+
+	/**
+	 * Returns the outputs, ordered by their indexes (see {@link IOPort#getIndex}).
+	 * <p>The array is shared by all calls, so it <b>must not be modified</b>.</p>
+	 * @return Array of outputs.
+	 */
+	protected final Output[] getOutputArray() {
+		return outputArray;
 	}
 
 	/**
@@ -609,10 +747,10 @@ public abstract class Component {
 	public final List<IOPort> getIOPortsInDirection(IOPort.Direction direction) {
 		List<IOPort> ports = new LinkedList<>();
 
-		for(Input i: getInputs())
+		for(Input i: inputArray)
 			if(i.getDirection() == direction)
 				ports.add(i);
-		for(Output o: getOutputs())
+		for(Output o: outputArray)
 			if(o.getDirection() == direction)
 				ports.add(o);
 
@@ -19,6 +19,7 @@
 package brunonova.drmips.simulator;
 
 import brunonova.drmips.simulator.exceptions.InvalidInstructionSetException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -26,6 +27,10 @@ import java.util.TreeMap;
 /**
  * Class with the information of the values of the outputs for each opcode for the control unit.
  *
+ * <p>After {@link #finishCreation} is called, the values are also stored in a
+ * dense table indexed by opcode and output index, which is used by the control
+ * unit to avoid map lookups in each clock cycle.</p>
+ *
  * @author Bruno Nova
  */
 public class Control {
@@ -33,6 +38,10 @@ public class Control {
 	private final Map<Integer, Map<String, Integer>> map;
 	/** The sizes of each output. */
 	private final Map<String, Integer> out;
+	/** The identifiers of the outputs, in the order of the columns of the table. */
+	private String[] outputIds = new String[0];
+	/** The value of each output (column) for each opcode (row), or <tt>null</tt> if not created yet. */
+	private int[][] table = null;
 
 	/**
 	 * Creates a new control object.
@@ -48,6 +57,7 @@ public class Control {
 	 */
 	public void addOpcode(int opcode) {
 		map.put(opcode, new TreeMap<String, Integer>());
+		table = null;
 	}
 
 	/**
@@ -71,6 +81,7 @@ public class Control {
 		if(!hasOpcode(opcode)) addOpcode(opcode);
 		map.get(opcode).put(id, value);
 		out.put(id, 0);
+		table = null;
 	}
 
 	/**
@@ -84,6 +95,49 @@ public class Control {
 		return map.get(opcode).get(id);
 	}
 
+	/**
+	 * Returns the value of the output with the given index for the given opcode.
+	 * <p>This is the fast version of {@link #getOutOfOpcode(int, String)}, and
+	 * can only be used after {@link #finishCreation} is called.</p>
+	 * @param opcode The opcode.
+	 * @param index The index of the output (see {@link #getOutputIndex}).
+	 * @return Value of the output (0 if the opcode doesn't exist).
+	 */
+	public int getOutOfOpcode(int opcode, int index) {
+		int[] row = (opcode >= 0 && opcode < table.length) ? table[opcode] : null;
+		return (row != null) ? row[index] : 0;
+	}
+
+	/**
+	 * Returns the number of outputs.
+	 * @return Number of outputs.
+	 */
+	public int getNumberOfOutputs() {
+		return outputIds.length;
+	}
+
+	/**
+	 * Returns the identifier of the output with the given index.
+	 * @param index The index of the output.
+	 * @return The identifier of the output.
+	 * @throws ArrayIndexOutOfBoundsException If the index is invalid.
+	 */
+	public String getOutputId(int index) throws ArrayIndexOutOfBoundsException {
+		return outputIds[index];
+	}
+
+	/**
+	 * Returns the index of the specified output (its column in the table).
+	 * <p>The outputs are indexed in alphabetical order, after
+	 * {@link #finishCreation} is called.</p>
+	 * @param id The identifier of the output.
+	 * @return The index of the output, or <tt>-1</tt> if it doesn't exist.
+	 */
+	public int getOutputIndex(String id) {
+		int index = Arrays.binarySearch(outputIds, id);
+		return (index >= 0) ? index : -1;
+	}
+
 	/**
 	 * Returns whether the control has the specified output.
 	 * @param id The identifier of the output to check.
@@ -136,5 +190,18 @@ public class Control {
 
 			out.put(id, size); // update output size
 		}
+
+		// Create the table
+		outputIds = out.keySet().toArray(new String[out.size()]);
+		int rows = 0;
+		for(int opcode: map.keySet())
+			rows = Math.max(rows, opcode + 1);
+		table = new int[rows][];
+		for(int opcode: map.keySet()) {
+			if(opcode < 0) continue; // not representable in the table (invalid anyway)
+			table[opcode] = new int[outputIds.length];
+			for(int i = 0; i < outputIds.length; i++)
+				table[opcode][i] = getOutOfOpcode(opcode, outputIds[i]);
+		}
 	}
 }
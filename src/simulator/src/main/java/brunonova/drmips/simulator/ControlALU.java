@@ -20,6 +20,7 @@ package brunonova.drmips.simulator;
 
 import brunonova.drmips.simulator.components.ALU;
 import brunonova.drmips.simulator.components.ExtendedALU;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -29,6 +30,11 @@ import java.util.logging.Logger;
 /**
  * Class with the information of how the ALU Control and ALU should work for the instruction set.
  *
+ * <p>After {@link #finishCreation} is called, the values of the outputs are
+ * also stored in a dense table indexed by the combination of <tt>ALUOp</tt> and
+ * <tt>func</tt> and by the output index, and the operations in an array indexed
+ * by the control signal, which are used in each clock cycle instead of the maps.</p>
+ *
  * @author Bruno Nova
  */
 public class ControlALU {
@@ -48,6 +54,16 @@ public class ControlALU {
 	private Map<String, Integer> out;
 	/** Mapping of ALU control input options and their respective operations. */
 	private Map<Integer, Operation> operations;
+	/** The identifiers of the outputs, in the order of the columns of the table. */
+	private String[] outputIds = new String[0];
+	/** The value of each output (column) for each <tt>(ALUOp &lt;&lt; funcSize) | func</tt> (row), or <tt>null</tt> if not created. */
+	private int[][] table = null;
+	/** The operation of each ALU control signal, or <tt>null</tt> if not created. */
+	private Operation[] operationTable = null;
+	/** The maximum number of bits of <tt>ALUOp</tt> and <tt>func</tt> combined for the table to be created. */
+	private static final int MAX_TABLE_BITS = 16;
+	/** The maximum size of the ALU control output for the operations array to be created. */
+	private static final int MAX_OPERATION_TABLE_BITS = 16;
 	/** Class logger. */
 	private static final Logger LOG = Logger.getLogger(ControlALU.class.getName());
 
@@ -85,6 +101,7 @@ public class ControlALU {
 			control.put(i, o);
 		}
 		updateOutSize(outId, Data.requiredNumberOfBits(outValue));
+		table = null;
 	}
 
 	/**
@@ -107,6 +124,7 @@ public class ControlALU {
 			control.put(i, o);
 		}
 		updateOutSize(outId, Data.requiredNumberOfBits(outValue));
+		table = null;
 	}
 
 	/**
@@ -116,6 +134,7 @@ public class ControlALU {
 	 */
 	public void addOperation(int control, Operation operation) {
 		operations.put(control, operation);
+		operationTable = null;
 	}
 
 	/**
@@ -148,13 +167,65 @@ public class ControlALU {
 			return 0;
 	}
 
+	/**
+	 * Returns the value of the ALU Control output with the given index for the specified ALUOp and func.
+	 * <p>This is the fast version of {@link #getControlValue(int, int, String)},
+	 * and can only be used after {@link #finishCreation} is called.</p>
+	 * @param aluOp The value of the ALUOp signal.
+	 * @param func The value of the instruction func field.
+	 * @param index The index of the output (see {@link #getOutputIndex}).
+	 * @return Value of the control signal for the ALU.
+	 */
+	public int getControlValue(int aluOp, int func, int index) {
+		if(table != null && aluOp >= 0 && func >= 0 && func >> funcSize == 0) {
+			int key = (aluOp << funcSize) | func;
+			if(key < table.length) {
+				int[] row = table[key];
+				return (row != null) ? row[index] : 0;
+			}
+		}
+		return getControlValue(aluOp, func, outputIds[index]); // outside the table
+	}
+
+	/**
+	 * Returns the number of outputs.
+	 * @return Number of outputs.
+	 */
+	public int getNumberOfOutputs() {
+		return outputIds.length;
+	}
+
+	/**
+	 * Returns the identifier of the output with the given index.
+	 * @param index The index of the output.
+	 * @return The identifier of the output.
+	 * @throws ArrayIndexOutOfBoundsException If the index is invalid.
+	 */
+	public String getOutputId(int index) throws ArrayIndexOutOfBoundsException {
+		return outputIds[index];
+	}
+
+	/**
+	 * Returns the index of the specified output (its column in the table).
+	 * <p>The outputs are indexed in alphabetical order, after
+	 * {@link #finishCreation} is called.</p>
+	 * @param id The identifier of the output.
+	 * @return The index of the output, or <tt>-1</tt> if it doesn't exist.
+	 */
+	public int getOutputIndex(String id) {
+		int index = Arrays.binarySearch(outputIds, id);
+		return (index >= 0) ? index : -1;
+	}
+
 	/**
 	 * Returns the operation that corresponds to the specifield ALU control signal.
 	 * @param control The control signal.
 	 * @return The corresponding operation.
 	 */
 	public Operation getOperation(int control) {
-		if(operations.containsKey(control))
+		if(operationTable != null && control >= 0 && control < operationTable.length)
+			return operationTable[control];
+		else if(operations.containsKey(control))
 			return operations.get(control);
 		else
 			return Operation.ADD;
@@ -251,6 +322,44 @@ public class ControlALU {
 		return op == Operation.MULT || op == Operation.DIV;
 	}
 
+	/**
+	 * Creates the tables used to find the outputs and operations quickly.
+	 * <p>This method should be called after all the information is added.
+	 * The tables are filled using the maps, so the results are the same. If
+	 * <tt>ALUOp</tt> and <tt>func</tt> are too big for the table, the maps
+	 * continue to be used.</p>
+	 */
+	public void finishCreation() {
+		outputIds = out.keySet().toArray(new String[out.size()]);
+
+		// Create the outputs table
+		if(aluOpSize >= 0 && funcSize >= 0 && aluOpSize + funcSize <= MAX_TABLE_BITS) {
+			table = new int[1 << (aluOpSize + funcSize)][];
+			for(int aluOp = 0; aluOp < 1 << aluOpSize; aluOp++) {
+				for(int func = 0; func < 1 << funcSize; func++) {
+					int[] row = new int[outputIds.length];
+					boolean empty = true;
+					for(int i = 0; i < outputIds.length; i++) {
+						row[i] = getControlValue(aluOp, func, outputIds[i]);
+						if(row[i] != 0) empty = false;
+					}
+					if(!empty) table[(aluOp << funcSize) | func] = row;
+				}
+			}
+		}
+		else
+			table = null;
+
+		// Create the operations array
+		if(controlSize >= 0 && controlSize <= MAX_OPERATION_TABLE_BITS) {
+			operationTable = new Operation[1 << controlSize];
+			for(int c = 0; c < operationTable.length; c++)
+				operationTable[c] = operations.containsKey(c) ? operations.get(c) : Operation.ADD;
+		}
+		else
+			operationTable = null;
+	}
+
 	/**
 	 * Updates the size of the output with the specified identifier, if bigger.
 	 * @param id Identifier of the output.
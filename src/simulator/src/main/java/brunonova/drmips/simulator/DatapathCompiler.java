@@ -0,0 +1,584 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import brunonova.drmips.simulator.components.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Logger;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates and compiles a Java class that executes the components of a CPU.
+ *
+ * <p>The generated class executes the components in topological order, like
+ * {@link LevelizedEvaluator}, but the simple components (adders, logic gates,
+ * multiplexers, distributors, forks, etc.) are replaced by inlined expressions
+ * over <tt>int</tt> fields that hold the values of the wires. The other
+ * components are executed normally.</p>
+ *
+ * <p>The outputs of the inlined components are only updated in each
+ * evaluation if they are connected to a component that is executed normally
+ * (which reads the value from its input). The other outputs, and the
+ * relevance of the inputs of the multiplexers, are only updated by
+ * {@link CompiledDatapath#sync}.</p>
+ *
+ * <p>The class is compiled in memory with the system Java compiler, which is
+ * only available if running on a JDK.</p>
+ *
+ * @author Bruno Nova
+ */
+final class DatapathCompiler {
+	/** The package of the generated classes. */
+	private static final String PACKAGE = "brunonova.drmips.simulator.generated";
+	/** Class logger. */
+	private static final Logger LOG = Logger.getLogger(DatapathCompiler.class.getName());
+	/** Number of classes generated so far (used to name them). */
+	private static int counter = 0;
+	/** The source code of each generated class (weak keys, so the classes can be unloaded). */
+	private static final Map<Class<?>, String> sources = Collections.synchronizedMap(new WeakHashMap<Class<?>, String>());
+
+	/** The components, in topological order. */
+	private final Component[] order;
+	/** The synchronous components. */
+	private final Component[] synchronousComponents;
+	/** The components referenced by the generated code. */
+	private final List<Component> components = new ArrayList<>();
+	/** The inputs referenced by the generated code. */
+	private final List<Input> inputs = new ArrayList<>();
+	/** The outputs referenced by the generated code. */
+	private final List<Output> outputs = new ArrayList<>();
+	/** Indexes of the components, inputs and outputs in the lists above. */
+	private final Map<Object, Integer> indexes = new IdentityHashMap<>();
+	/** The outputs whose values are kept in fields of the generated class. */
+	private final Map<Output, Boolean> wires = new IdentityHashMap<>();
+
+	/**
+	 * Creates the compiler.
+	 * @param order The components, in topological order.
+	 * @param synchronousComponents The synchronous components.
+	 */
+	private DatapathCompiler(Component[] order, Component[] synchronousComponents) {
+		this.order = order;
+		this.synchronousComponents = synchronousComponents;
+	}
+
+	/**
+	 * Generates and compiles the datapath class for the given components.
+	 * @param order The components, in topological order.
+	 * @param synchronousComponents The synchronous components.
+	 * @return The compiled datapath, or <tt>null</tt> if it is not possible to compile it.
+	 */
+	static CompiledDatapath compile(Component[] order, Component[] synchronousComponents) {
+		for(Component c: order) {
+			if(c.getClass().getClassLoader() != DatapathCompiler.class.getClassLoader()) {
+				LOG.info("the CPU has custom components; the datapath won't be compiled");
+				return null;
+			}
+		}
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if(compiler == null) {
+			LOG.info("no Java compiler available; the datapath won't be compiled");
+			return null;
+		}
+
+		long start = System.nanoTime();
+		String className;
+		synchronized(DatapathCompiler.class) {
+			className = "Datapath" + (counter++);
+		}
+		DatapathCompiler generator = new DatapathCompiler(order, synchronousComponents);
+		String source = generator.generateSource(className);
+
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		MemoryFileManager fileManager = new MemoryFileManager(compiler.getStandardFileManager(diagnostics, null, null));
+		try {
+			List<String> options = Arrays.asList("-classpath", getClassPath(), "-g:none");
+			JavaFileObject file = new SourceFile(PACKAGE + "." + className, source);
+			boolean success = compiler.getTask(null, fileManager, diagnostics, options, null, Collections.singletonList(file)).call();
+			if(!success) {
+				StringBuilder msg = new StringBuilder("failed to compile the datapath:");
+				for(Diagnostic<? extends JavaFileObject> d: diagnostics.getDiagnostics())
+					msg.append("\n").append(d.getMessage(null));
+				LOG.warning(msg.toString());
+				return null;
+			}
+
+			try {
+				ClassLoader loader = new MemoryClassLoader(DatapathCompiler.class.getClassLoader(), fileManager.classes);
+				Class<?> cl = loader.loadClass(PACKAGE + "." + className);
+				CompiledDatapath datapath = (CompiledDatapath)cl.getConstructor(Component[].class, Input[].class, Output[].class)
+					.newInstance(generator.components.toArray(new Component[generator.components.size()]),
+						generator.inputs.toArray(new Input[generator.inputs.size()]),
+						generator.outputs.toArray(new Output[generator.outputs.size()]));
+				sources.put(cl, source);
+				LOG.fine("datapath compiled in " + (System.nanoTime() - start) / 1000000 + " ms");
+				return datapath;
+			} catch(ReflectiveOperationException | ClassCastException ex) {
+				LOG.warning("failed to load the compiled datapath: " + ex);
+				return null;
+			}
+		}
+		finally {
+			try {
+				fileManager.close(); // releases the class path files opened by the compiler
+			} catch(IOException ex) {
+				LOG.warning("failed to close the compiler's file manager: " + ex);
+			}
+		}
+	}
+
+	/**
+	 * Creates a new instance of an already compiled datapath class for the given components.
+	 * <p>The source code is generated again for the components and compared
+	 * with the source of the class, so the class is only reused if the
+	 * components have the same structure (for example, in copies of a CPU).</p>
+	 * @param template An instance of the compiled class.
+	 * @param order The components, in topological order.
+	 * @param synchronousComponents The synchronous components.
+	 * @return The new instance, or <tt>null</tt> if the class can't be reused.
+	 */
+	static CompiledDatapath instantiate(CompiledDatapath template, Component[] order, Component[] synchronousComponents) {
+		Class<?> cl = template.getClass();
+		String source = sources.get(cl);
+		DatapathCompiler generator = new DatapathCompiler(order, synchronousComponents);
+		if(source == null || !source.equals(generator.generateSource(cl.getSimpleName())))
+			return null;
+
+		try {
+			return (CompiledDatapath)cl.getConstructor(Component[].class, Input[].class, Output[].class)
+				.newInstance(generator.components.toArray(new Component[generator.components.size()]),
+					generator.inputs.toArray(new Input[generator.inputs.size()]),
+					generator.outputs.toArray(new Output[generator.outputs.size()]));
+		} catch(ReflectiveOperationException | ClassCastException ex) {
+			LOG.warning("failed to reuse the compiled datapath: " + ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether the given component is replaced by inlined code.
+	 * <p>Only the exact classes are inlined, not their subclasses.</p>
+	 * @param c The component.
+	 * @return <tt>True</tt> if the component is inlined.
+	 */
+	static boolean isInlined(Component c) {
+		Class<?> cl = c.getClass();
+		return cl == Add.class || cl == And.class || cl == Or.class || cl == Xor.class
+			|| cl == Not.class || cl == Constant.class || cl == Fork.class || cl == Distributor.class
+			|| cl == Concatenator.class || cl == ShiftLeft.class || cl == SignExtend.class
+			|| cl == ZeroExtend.class || cl == Multiplexer.class;
+	}
+
+	/**
+	 * Generates the source code of the datapath class.
+	 * @param className The simple name of the class.
+	 * @return The source code.
+	 */
+	String generateSource(String className) {
+		// Determine the wires that need a field
+		for(Component c: order) {
+			if(isInlined(c)) {
+				for(Output o: c.getOutputs())
+					wires.put(o, true);
+				for(Input i: c.getInputs())
+					if(i.isConnected()) wires.put(i.getConnectedOutput(), true);
+			}
+		}
+
+		StringBuilder body = new StringBuilder();
+		StringBuilder sync = new StringBuilder();
+		for(Component c: order) {
+			body.append("\t\t// ").append(c.getId()).append("\n");
+			if(isInlined(c)) {
+				generateInlined(body, c);
+				generateSync(sync, c);
+			}
+			else {
+				body.append("\t\t").append(component(c)).append(".execute();\n");
+				for(Output o: c.getOutputs())
+					if(wires.containsKey(o)) body.append("\t\t").append(wire(o)).append(" = ").append(output(o)).append(".getValue();\n");
+			}
+		}
+		sync.append("\t\t// refresh the synchronous components\n");
+		for(Component c: synchronousComponents)
+			sync.append("\t\t").append(component(c)).append(".execute();\n");
+
+		StringBuilder src = new StringBuilder();
+		src.append("package ").append(PACKAGE).append(";\n\n")
+			.append("import brunonova.drmips.simulator.*;\n\n")
+			.append("public final class ").append(className).append(" implements CompiledDatapath {\n")
+			.append("\tprivate final Component[] c;\n")
+			.append("\tprivate final Input[] in;\n")
+			.append("\tprivate final Output[] out;\n");
+		for(Output o: outputs)
+			if(wires.containsKey(o)) src.append("\tprivate int ").append(wire(o)).append(";\n");
+		src.append("\n\tpublic ").append(className).append("(Component[] c, Input[] in, Output[] out) {\n")
+			.append("\t\tthis.c = c;\n")
+			.append("\t\tthis.in = in;\n")
+			.append("\t\tthis.out = out;\n")
+			.append("\t}\n\n")
+			.append("\t@Override\n")
+			.append("\tpublic void evaluate() {\n")
+			.append(body)
+			.append("\t}\n\n")
+			.append("\t@Override\n")
+			.append("\tpublic void sync() {\n")
+			.append(sync)
+			.append("\t}\n")
+			.append("}\n");
+		return src.toString();
+	}
+
+	/**
+	 * Generates the code of an inlined component.
+	 * @param body Where to append the code.
+	 * @param c The component.
+	 */
+	private void generateInlined(StringBuilder body, Component c) {
+		Map<Output, String> values = new HashMap<>();
+
+		if(c instanceof SimpleBinaryOperationComponent) {
+			SimpleBinaryOperationComponent b = (SimpleBinaryOperationComponent)c;
+			String op = c instanceof Add ? "+" : c instanceof And ? "&" : c instanceof Or ? "|" : "^";
+			values.put(b.getOutput(), read(b.getInput1()) + " " + op + " " + read(b.getInput2()));
+		}
+		else if(c instanceof Not) {
+			Not n = (Not)c;
+			values.put(n.getOutput(), "~" + read(n.getInput()));
+		}
+		else if(c instanceof Constant) {
+			Constant k = (Constant)c;
+			values.put(k.getOutput(), hex(k.getOutput().getValue()));
+		}
+		else if(c instanceof Fork) {
+			Fork f = (Fork)c;
+			for(Output o: c.getOutputs())
+				values.put(o, read(f.getInput()));
+		}
+		else if(c instanceof Distributor) {
+			Distributor d = (Distributor)c;
+			for(Output o: c.getOutputs()) {
+				int msb = d.getOutputMSB(o.getId()), lsb = d.getOutputLSB(o.getId());
+				values.put(o, "(" + read(d.getInput()) + " & " + hex(Data.createMask(msb, lsb)) + ") >>> " + lsb);
+			}
+		}
+		else if(c instanceof Concatenator) {
+			Concatenator k = (Concatenator)c;
+			values.put(k.getOutput(), "(" + read(k.getInput1()) + " << " + k.getInput2().getSize() + ") | " + read(k.getInput2()));
+		}
+		else if(c instanceof ShiftLeft) {
+			ShiftLeft s = (ShiftLeft)c;
+			values.put(s.getOutput(), read(s.getInput()) + " << " + s.getAmount());
+		}
+		else if(c instanceof SignExtend) {
+			SignExtend s = (SignExtend)c;
+			int sa = Data.DATA_SIZE - s.getInput().getSize();
+			values.put(s.getOutput(), "(" + read(s.getInput()) + " << " + sa + ") >> " + sa);
+		}
+		else if(c instanceof ZeroExtend) {
+			ZeroExtend z = (ZeroExtend)c;
+			values.put(z.getOutput(), read(z.getInput()));
+		}
+		else if(c instanceof Multiplexer) {
+			generateMultiplexer(body, (Multiplexer)c);
+			return;
+		}
+
+		for(Output o: c.getOutputs()) {
+			body.append("\t\t").append(wire(o)).append(" = ").append(mask("(" + values.get(o) + ")", o.getSize())).append(";\n");
+			if(isReadByPort(o))
+				body.append("\t\t").append(output(o)).append(".setValue(").append(wire(o)).append(");\n");
+		}
+	}
+
+	/**
+	 * Generates the code that updates the outputs of an inlined component
+	 * with the values of the fields.
+	 * <p>The outputs are all updated (and, for multiplexers, the relevance of
+	 * the inputs) in the same order as in the interpreted execution, because
+	 * updating a single bit output also changes its relevance.</p>
+	 * @param sync Where to append the code.
+	 * @param c The inlined component.
+	 */
+	private void generateSync(StringBuilder sync, Component c) {
+		for(Output o: c.getOutputs())
+			sync.append("\t\t").append(output(o)).append(".setValue(").append(wire(o)).append(");\n");
+		if(c instanceof Multiplexer) {
+			Multiplexer m = (Multiplexer)c;
+			String sel = read(m.getSelector());
+			for(int i = 0; i < m.getNumberOfInputs(); i++)
+				sync.append("\t\t").append(input(m.getInput(i))).append(".setRelevant(").append(sel)
+					.append(" == ").append(i).append(");\n");
+		}
+	}
+
+	/**
+	 * Returns whether the value of an output of an inlined component must be
+	 * written to the output in every evaluation.
+	 * <p>This is the case if the output is connected to a component that is
+	 * executed normally, and for the multiplexers that keep their previous
+	 * value when the selector doesn't select any input (the previous value is
+	 * read from the output).</p>
+	 * @param o The output.
+	 * @return <tt>True</tt> if the output must always be written.
+	 */
+	private static boolean isReadByPort(Output o) {
+		Component c = o.getComponent();
+		if(c instanceof Multiplexer && !isComplete((Multiplexer)c))
+			return true;
+		return o.isConnected() && !isInlined(o.getConnectedInput().getComponent());
+	}
+
+	/**
+	 * Returns whether every value of the selector of a multiplexer selects an input.
+	 * @param m The multiplexer.
+	 * @return <tt>True</tt> if the multiplexer has an input for every selector value.
+	 */
+	private static boolean isComplete(Multiplexer m) {
+		return m.getNumberOfInputs() == 1 << m.getSelector().getSize();
+	}
+
+	/**
+	 * Generates the code of an inlined multiplexer.
+	 * @param body Where to append the code.
+	 * @param m The multiplexer.
+	 */
+	private void generateMultiplexer(StringBuilder body, Multiplexer m) {
+		Output o = m.getOutput();
+		String sel = read(m.getSelector());
+		body.append("\t\tswitch(").append(sel).append(") {\n");
+		for(int i = 0; i < m.getNumberOfInputs(); i++)
+			body.append("\t\t\tcase ").append(i).append(": ").append(wire(o)).append(" = ")
+				.append(read(m.getInput(i))).append("; break;\n");
+		if(!isComplete(m)) // keep the previous value
+			body.append("\t\t\tdefault: ").append(wire(o)).append(" = ").append(output(o)).append(".getValue();\n");
+		body.append("\t\t}\n");
+		if(isReadByPort(o))
+			body.append("\t\t").append(output(o)).append(".setValue(").append(wire(o)).append(");\n");
+	}
+
+	/**
+	 * Returns the expression that reads the value of an input.
+	 * @param i The input.
+	 * @return The field of the connected output, or the value of the input if not connected.
+	 */
+	private String read(Input i) {
+		return i.isConnected() ? wire(i.getConnectedOutput()) : input(i) + ".getValue()";
+	}
+
+	/**
+	 * Returns the name of the field that holds the value of an output.
+	 * @param o The output.
+	 * @return The name of the field.
+	 */
+	private String wire(Output o) {
+		return "w" + index(o, outputs);
+	}
+
+	/**
+	 * Returns the expression that references a component.
+	 * @param c The component.
+	 * @return The expression.
+	 */
+	private String component(Component c) {
+		return "c[" + index(c, components) + "]";
+	}
+
+	/**
+	 * Returns the expression that references an input.
+	 * @param i The input.
+	 * @return The expression.
+	 */
+	private String input(Input i) {
+		return "in[" + index(i, inputs) + "]";
+	}
+
+	/**
+	 * Returns the expression that references an output.
+	 * @param o The output.
+	 * @return The expression.
+	 */
+	private String output(Output o) {
+		return "out[" + index(o, outputs) + "]";
+	}
+
+	/**
+	 * Returns the index of the given object in the given list, adding it if needed.
+	 * @param obj The object.
+	 * @param list The list where the object is (or will be).
+	 * @return The index.
+	 */
+	private <T> int index(T obj, List<T> list) {
+		Integer index = indexes.get(obj);
+		if(index == null) {
+			index = list.size();
+			list.add(obj);
+			indexes.put(obj, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the expression masked to the given number of bits.
+	 * @param expr The expression.
+	 * @param size Number of bits.
+	 * @return The masked expression.
+	 */
+	private static String mask(String expr, int size) {
+		return size >= Data.DATA_SIZE ? expr : "(" + expr + " & " + hex(Data.createMask(size - 1, 0)) + ")";
+	}
+
+	/**
+	 * Returns the given value as a hexadecimal literal.
+	 * @param value The value.
+	 * @return The literal.
+	 */
+	private static String hex(int value) {
+		return "0x" + Integer.toHexString(value);
+	}
+
+	/**
+	 * Returns the class path used to compile the generated classes.
+	 * @return The class path.
+	 */
+	private static String getClassPath() {
+		String cp = System.getProperty("java.class.path", "");
+		try {
+			File file = new File(DatapathCompiler.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			cp = file.getPath() + File.pathSeparator + cp;
+		} catch(Exception ex) {
+			LOG.fine("couldn't determine the location of the simulator: " + ex);
+		}
+		return cp;
+	}
+
+	/**
+	 * The source code of a generated class, in memory.
+	 */
+	private static class SourceFile extends SimpleJavaFileObject {
+		/** The source code. */
+		private final String source;
+
+		/**
+		 * Creates the source file.
+		 * @param className The fully qualified name of the class.
+		 * @param source The source code.
+		 */
+		public SourceFile(String className, String source) {
+			super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.source = source;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return source;
+		}
+	}
+
+	/**
+	 * The bytecode of a compiled class, in memory.
+	 */
+	private static class ClassFile extends SimpleJavaFileObject {
+		/** The bytecode. */
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		/**
+		 * Creates the class file.
+		 * @param className The fully qualified name of the class.
+		 */
+		public ClassFile(String className) {
+			super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+		}
+
+		@Override
+		public OutputStream openOutputStream() {
+			return bytes;
+		}
+	}
+
+	/**
+	 * File manager that keeps the compiled classes in memory.
+	 */
+	private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+		/** The compiled classes, by name. */
+		private final Map<String, ClassFile> classes = new HashMap<>();
+
+		/**
+		 * Creates the file manager.
+		 * @param fileManager The standard file manager.
+		 */
+		public MemoryFileManager(StandardJavaFileManager fileManager) {
+			super(fileManager);
+		}
+
+		@Override
+		public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+			ClassFile file = new ClassFile(className);
+			classes.put(className, file);
+			return file;
+		}
+	}
+
+	/**
+	 * Class loader that loads the classes compiled in memory.
+	 */
+	private static class MemoryClassLoader extends ClassLoader {
+		/** The compiled classes, by name. */
+		private final Map<String, ClassFile> classes;
+
+		/**
+		 * Creates the class loader.
+		 * @param parent The parent class loader.
+		 * @param classes The compiled classes, by name.
+		 */
+		public MemoryClassLoader(ClassLoader parent, Map<String, ClassFile> classes) {
+			super(parent);
+			this.classes = classes;
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			ClassFile file = classes.get(name);
+			if(file == null) throw new ClassNotFoundException(name);
+			byte[] b = file.bytes.toByteArray();
+			return defineClass(name, b, 0, b.length);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The class that converts instruction words (machine code) back to assembly code.
+ * <p>The code of a disassembled instruction is assembled by the
+ * {@link Assembler} of the same CPU back to the same word. Registers are
+ * written with their names, offsets and targets as numbers (there are no
+ * labels in machine code).</p>
+ * <p>The disassembler can also create a program directly from machine code,
+ * without assembling any code (see {@link #createProgram(IntBuffer, IntBuffer)}).</p>
+ *
+ * @author Bruno Nova
+ */
+public class Disassembler {
+	/** The CPU this disassembler is disassembling for. */
+	private final CPU cpu;
+
+	/**
+	 * Creates the disassembler.
+	 * @param cpu The CPU this disassembler is disassembling for.
+	 */
+	public Disassembler(CPU cpu) {
+		this.cpu = cpu;
+	}
+
+	/**
+	 * Returns the assembly code of the given instruction word.
+	 * @param word The instruction word.
+	 * @return The code of the instruction, or <tt>null</tt> if the word isn't a valid instruction.
+	 */
+	public String disassemble(int word) {
+		InstructionDecoder.DecodedInstruction decoded = cpu.getInstructionSet().getDecoder().decode(word);
+		return decoded != null ? disassemble(decoded) : null;
+	}
+
+	/**
+	 * Returns the assembly code of the given decoded instruction.
+	 * @param decoded The decoded instruction.
+	 * @return The code of the instruction.
+	 */
+	public String disassemble(InstructionDecoder.DecodedInstruction decoded) {
+		Instruction instruction = decoded.getInstruction();
+		StringBuilder code = new StringBuilder(instruction.getMnemonic());
+		for(int i = 0; i < decoded.getNumberOfArguments(); i++) {
+			code.append(i == 0 ? " " : ", ");
+			switch(instruction.getArgument(i)) {
+				case REG:
+					code.append(getRegisterName(decoded.getArgument(i)));
+					break;
+				case DATA:
+					code.append(decoded.getArgument(i)).append('(').append(getRegisterName(decoded.getOffsetRegister(i))).append(')');
+					break;
+				default: // INT, LABEL, TARGET, OFFSET
+					code.append(decoded.getArgument(i));
+			}
+		}
+		return code.toString();
+	}
+
+	/**
+	 * Creates a program from machine code, to be loaded with {@link CPU#loadProgram(AssembledProgram)}.
+	 * <p>Each instruction word is decoded into an assembled instruction whose
+	 * line of code is the disassembled instruction, and whose line number is
+	 * the index of the word plus 1. The data values are loaded to the start
+	 * of the data memory (address 0), like the <tt>.data</tt> segment.</p>
+	 * @param code The instruction words (read from the buffer's position to its limit).
+	 * @param data The values of the data segment (read from the buffer's position to its limit), or <tt>null</tt> if none.
+	 * @return The program.
+	 * @throws IllegalArgumentException If a word isn't a valid instruction or the data doesn't fit in the data memory.
+	 */
+	public AssembledProgram createProgram(IntBuffer code, IntBuffer data) throws IllegalArgumentException {
+		InstructionDecoder decoder = cpu.getInstructionSet().getDecoder();
+		List<AssembledInstruction> instructions = new ArrayList<>(code.remaining());
+		for(int i = 1; code.hasRemaining(); i++) {
+			int word = code.get();
+			InstructionDecoder.DecodedInstruction decoded = decoder.decode(word);
+			if(decoded == null)
+				throw new IllegalArgumentException("Invalid instruction 0x" + Integer.toHexString(word) + " at address " + (i - 1) * (Data.DATA_SIZE / 8) + "!");
+			instructions.add(new AssembledInstruction(decoded.getInstruction(), new Data(Data.DATA_SIZE, word), disassemble(decoded), i));
+		}
+
+		AssembledProgram.DataSegment segment = new AssembledProgram.DataSegment();
+		if(data != null && data.hasRemaining()) {
+			if(!cpu.hasDataMemory())
+				throw new IllegalArgumentException("The CPU has no data memory!");
+			if(data.remaining() > cpu.getDataMemory().getMemorySize())
+				throw new IllegalArgumentException("The data has " + data.remaining() + " values, which don't fit in the data memory!");
+			segment.add(0, data);
+		}
+		return new AssembledProgram(instructions, segment);
+	}
+
+	/**
+	 * Returns the name of the register with the given index.
+	 * @param index The index of the register.
+	 * @return The name of the register (with prefix).
+	 */
+	private String getRegisterName(int index) {
+		if(index < cpu.getRegBank().getNumberOfRegisters())
+			return cpu.getRegisterName(index);
+		else
+			return CPU.REGISTER_PREFIX + "" + index;
+	}
+}
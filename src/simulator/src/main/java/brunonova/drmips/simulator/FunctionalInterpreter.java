@@ -0,0 +1,321 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import brunonova.drmips.simulator.components.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Executes the instructions of the program directly, without simulating the datapath.
+ *
+ * <p>The instructions in the instruction memory are decoded once, using the
+ * control information of the instruction set (the values of the control
+ * signals for each opcode, the ALU control and the ALU operations), and are then
+ * executed against copies of the registers, data memory and <tt>HI</tt>/<tt>LO</tt>.
+ * At the end, the values are written back to the components, so that the
+ * simulation can continue in the datapath.</p>
+ *
+ * <p>The control signals are interpreted as in the reference datapaths
+ * (<tt>RegDst</tt>, <tt>RegWrite</tt>, <tt>ALUOp</tt>, <tt>ALUSrc</tt>,
+ * <tt>MemRead</tt>, <tt>MemWrite</tt>, <tt>MemToReg</tt>, <tt>Branch</tt>
+ * and <tt>Jump</tt>) and the instructions are assumed to have the fields in
+ * the standard MIPS positions. Use {@link #create} to check if a CPU is
+ * supported.</p>
+ *
+ * @author Bruno Nova
+ */
+class FunctionalInterpreter {
+	/** Flag of the decoded instructions that write to a register. */
+	private static final int REG_WRITE = 1;
+	/** Flag of the decoded instructions that use the immediate value as second ALU operand. */
+	private static final int ALU_SRC = 2;
+	/** Flag of the decoded instructions that read from the data memory. */
+	private static final int MEM_READ = 4;
+	/** Flag of the decoded instructions that write to the data memory. */
+	private static final int MEM_WRITE = 8;
+	/** Flag of the decoded instructions that write the value read from memory to the register. */
+	private static final int MEM_TO_REG = 16;
+	/** Flag of the decoded instructions that branch if the ALU result is zero. */
+	private static final int BRANCH = 32;
+	/** Flag of the decoded instructions that jump. */
+	private static final int JUMP = 64;
+	/** Size of each instruction/memory position, in bytes. */
+	private static final int WORD = Data.DATA_SIZE / 8;
+	/** The control signals known by the interpreter (all of 1 bit except <tt>ALUOp</tt>). */
+	private static final Set<String> KNOWN_SIGNALS = new HashSet<>(Arrays.asList(
+		"RegDst", "RegWrite", "ALUOp", "ALUSrc", "MemRead", "MemWrite", "MemToReg", "Branch", "Jump"));
+
+	/** The CPU. */
+	private final CPU cpu;
+	/** The control information of the control unit. */
+	private final Control control;
+	/** The control information of the ALU control and ALU. */
+	private final ControlALU controlALU;
+	/** The identifier of the ALU control output connected to the ALU. */
+	private final String operationId;
+	/** Whether the ALU has the <tt>HI</tt> and <tt>LO</tt> registers. */
+	private final boolean extended;
+
+	/** Decoded flags of each instruction. */
+	private int[] flags;
+	/** Decoded first source register of each instruction. */
+	private int[] rs;
+	/** Decoded second source register of each instruction. */
+	private int[] rt;
+	/** Decoded destination register of each instruction. */
+	private int[] dest;
+	/** Decoded sign-extended immediate value of each instruction. */
+	private int[] imm;
+	/** Decoded jump target of each instruction (already shifted). */
+	private int[] target;
+	/** Decoded ALU operation of each instruction. */
+	private ControlALU.Operation[] operations;
+
+	/**
+	 * Creates the interpreter.
+	 * @param cpu The CPU.
+	 * @param operationId The identifier of the ALU control output connected to the ALU.
+	 */
+	private FunctionalInterpreter(CPU cpu, String operationId) {
+		this.cpu = cpu;
+		this.control = cpu.getInstructionSet().getControl();
+		this.controlALU = cpu.getInstructionSet().getControlALU();
+		this.operationId = operationId;
+		this.extended = cpu.getALU() instanceof ExtendedALU;
+	}
+
+	/**
+	 * Creates an interpreter for the given CPU, if it is supported.
+	 * <p>The CPU must have a control unit, a register bank and an ALU controlled
+	 * by an ALU control, and the instruction set must use only the control
+	 * signals of the reference datapaths (a signal with any other meaning, like
+	 * <tt>BranchNE</tt>, wouldn't be executed). The register bank must have a
+	 * power of 2 number of registers, up to 32. Pipelined CPUs must also have a
+	 * forwarding unit and a hazard detection unit, or else their results
+	 * wouldn't match the sequential execution of the instructions.</p>
+	 * @param cpu The CPU, already loaded.
+	 * @return The interpreter, or <tt>null</tt> if the CPU isn't supported.
+	 */
+	static FunctionalInterpreter create(CPU cpu) {
+		if(cpu.getControlUnit() == null || cpu.getRegBank() == null || !cpu.hasALU() || !cpu.hasALUControl())
+			return null;
+		if(cpu.isPipeline() && (!cpu.hasForwardingUnit() || !cpu.hasHazardDetectionUnit()))
+			return null;
+		if(cpu.getInstructionSet().getOpCodeSize() != 6)
+			return null;
+
+		Control c = cpu.getInstructionSet().getControl();
+		if(!c.hasOut("RegWrite") || !c.hasOut("ALUOp") || !c.hasOut("ALUSrc"))
+			return null;
+		for(String id: c.getOutputsIds()) {
+			if(!KNOWN_SIGNALS.contains(id) || (!id.equals("ALUOp") && c.getOutSize(id) != 1))
+				return null;
+		}
+		int numRegs = cpu.getRegBank().getNumberOfRegisters();
+		if(!Data.isPowerOf2(numRegs) || numRegs > 32) // the register fields are masked
+			return null;
+		Input in = cpu.getALU().getControl();
+		if(!in.isConnected() || !(in.getConnectedOutput().getComponent() instanceof ALUControl))
+			return null;
+
+		return new FunctionalInterpreter(cpu, in.getConnectedOutput().getId());
+	}
+
+	/**
+	 * Decodes all the instructions in the instruction memory.
+	 */
+	private void decode() {
+		InstructionMemory memory = cpu.getInstructionMemory();
+		int n = memory.getNumberOfInstructions();
+		int regMask = cpu.getRegBank().getNumberOfRegisters() - 1;
+		int funcMask = (1 << controlALU.getFuncSize()) - 1;
+		int aluOpIndex = control.getOutputIndex("ALUOp");
+		int operationIndex = controlALU.getOutputIndex(operationId);
+		flags = new int[n];
+		rs = new int[n];
+		rt = new int[n];
+		dest = new int[n];
+		imm = new int[n];
+		target = new int[n];
+		operations = new ControlALU.Operation[n];
+
+		for(int i = 0; i < n; i++) {
+			int word = memory.getInstruction(i).getData().getValue();
+			int opcode = word >>> 26;
+			int f = 0;
+			if(signal(opcode, "RegWrite")) f |= REG_WRITE;
+			if(signal(opcode, "ALUSrc"))   f |= ALU_SRC;
+			if(signal(opcode, "MemRead"))  f |= MEM_READ;
+			if(signal(opcode, "MemWrite")) f |= MEM_WRITE;
+			if(signal(opcode, "MemToReg")) f |= MEM_TO_REG;
+			if(signal(opcode, "Branch"))   f |= BRANCH;
+			if(signal(opcode, "Jump"))     f |= JUMP;
+			flags[i] = f;
+
+			rs[i] = (word >>> 21) & regMask;
+			rt[i] = (word >>> 16) & regMask;
+			dest[i] = signal(opcode, "RegDst") ? ((word >>> 11) & regMask) : rt[i];
+			imm[i] = (short)word; // sign extension
+			target[i] = (word & 0x03FFFFFF) << 2;
+			int aluOp = control.getOutOfOpcode(opcode, aluOpIndex);
+			operations[i] = controlALU.getOperation(controlALU.getControlValue(aluOp, word & funcMask, operationIndex));
+		}
+	}
+
+	/**
+	 * Returns whether the given control signal is active for the opcode.
+	 * @param opcode The opcode.
+	 * @param id The identifier of the control signal.
+	 * @return <tt>True</tt> if the signal is not 0.
+	 */
+	private boolean signal(int opcode, String id) {
+		int index = control.getOutputIndex(id);
+		return index >= 0 && control.getOutOfOpcode(opcode, index) != 0;
+	}
+
+	/**
+	 * Executes the instructions from the current address of the PC.
+	 * <p>The execution stops at the end of the program, when the PC reaches the
+	 * breakpoint, when the maximum number of instructions is executed or when
+	 * cancelled. The final values of the registers, data memory,
+	 * <tt>HI</tt>/<tt>LO</tt> and PC are then written to the components (the
+	 * components are not executed).</p>
+	 * @param maxInstructions The maximum number of instructions to execute (<tt>0</tt> for no limit).
+	 * @param breakpointAddr The address of the breakpoint (<tt>-1</tt> for none).
+	 * @param token Token used to cancel the execution from another thread (can be <tt>null</tt>).
+	 * @return The reason why the execution stopped and the number of instructions executed.
+	 */
+	RunResult run(int maxInstructions, int breakpointAddr, CancellationToken token) {
+		long start = System.nanoTime();
+		decode();
+
+		// Copy the state
+		RegBank regbank = cpu.getRegBank();
+		int numRegs = regbank.getNumberOfRegisters();
+		int[] regs = new int[numRegs];
+		boolean[] constant = new boolean[numRegs];
+		for(int i = 0; i < numRegs; i++) {
+			regs[i] = regbank.getRegister(i).getValue();
+			constant[i] = regbank.isRegisterConstant(i);
+		}
+		DataMemory dataMemory = cpu.hasDataMemory() ? cpu.getDataMemory() : null;
+		boolean sparse = dataMemory != null && dataMemory.isSparse(); // accessed directly
+		int[] mem = new int[dataMemory != null && !sparse ? dataMemory.getMemorySize() : 0];
+		for(int i = 0; i < mem.length; i++)
+			mem[i] = dataMemory.getDataInIndex(i);
+		ExtendedALU alu = extended ? (ExtendedALU)cpu.getALU() : null;
+		int hi = extended ? alu.getHI().getValue() : 0;
+		int lo = extended ? alu.getLO().getValue() : 0;
+		int pc = cpu.getPC().getAddress().getValue();
+
+		int n = flags.length;
+		int count = 0;
+		RunResult.Reason reason;
+		while(true) {
+			int index = pc / WORD;
+			if(index < 0 || index >= n) {
+				reason = RunResult.Reason.FINISHED;
+				break;
+			}
+			if(maxInstructions > 0 && count >= maxInstructions) {
+				reason = RunResult.Reason.BUDGET;
+				break;
+			}
+			if(count % CPU.RUN_CHECK_INTERVAL == 0 && token != null && token.isCancelled()) {
+				reason = RunResult.Reason.CANCELLED;
+				break;
+			}
+
+			int f = flags[index];
+			int val1 = regs[rs[index]];
+			int val2 = regs[rt[index]];
+			int in2 = (f & ALU_SRC) != 0 ? imm[index] : val2;
+			int result;
+			switch(operations[index]) {
+				case MULT:
+					if(extended) {
+						long res = (long)val1 * (long)in2;
+						lo = (int)res;
+						hi = (int)(res >>> 32);
+					}
+					result = 0;
+					break;
+				case DIV:
+					if(extended) {
+						lo = (in2 != 0) ? val1 / in2 : Integer.MIN_VALUE;
+						hi = (in2 != 0) ? val1 % in2 : Integer.MIN_VALUE;
+					}
+					result = 0;
+					break;
+				case MFHI: result = hi; break;
+				case MFLO: result = lo; break;
+				default:   result = controlALU.doOperation(val1, in2, null, operations[index]);
+			}
+
+			int value = result;
+			if((f & (MEM_READ | MEM_WRITE)) != 0) {
+				if(sparse) {
+					int i = dataMemory.getIndexOfAddress(result);
+					if((f & MEM_WRITE) != 0)
+						dataMemory.setDataInIndex(i, val2, false);
+					value = ((f & MEM_READ) != 0) ? dataMemory.getDataInIndex(i) : 0;
+				}
+				else {
+					int i = result / WORD; // same as DataMemory.getIndexOfAddress()
+					boolean valid = i >= 0 && i < mem.length;
+					if((f & MEM_WRITE) != 0 && valid)
+						mem[i] = val2;
+					value = ((f & MEM_READ) != 0 && valid) ? mem[i] : 0;
+				}
+				if((f & MEM_TO_REG) == 0) value = result;
+			}
+			else if((f & MEM_TO_REG) != 0)
+				value = 0;
+			if((f & REG_WRITE) != 0 && !constant[dest[index]])
+				regs[dest[index]] = value;
+
+			pc += WORD;
+			if((f & BRANCH) != 0 && result == 0)
+				pc += imm[index] << 2;
+			if((f & JUMP) != 0)
+				pc = (pc & 0xF0000000) | target[index];
+			count++;
+
+			if(pc == breakpointAddr) {
+				reason = RunResult.Reason.BREAKPOINT;
+				break;
+			}
+		}
+
+		// Write the state back
+		for(int i = 0; i < numRegs; i++)
+			regbank.setRegister(i, regs[i], false);
+		for(int i = 0; i < mem.length; i++)
+			dataMemory.setDataInIndex(i, mem[i], false);
+		if(extended) {
+			alu.getHI().setValue(hi);
+			alu.getLO().setValue(lo);
+		}
+		cpu.getPC().setAddress(pc, false);
+
+		return new RunResult(reason, count, (System.nanoTime() - start) / 1000000);
+	}
+}
@@ -0,0 +1,355 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package brunonova.drmips.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Manages the history of the executed clock cycles, used to "step back".
+ *
+ * <p>The synchronous components save the values they overwrite in each clock
+ * cycle (see {@link Synchronous}). Keeping them all would use memory
+ * proportional to the number of executed cycles, so this class saves a full
+ * checkpoint of the CPU every <tt>getCheckpointInterval()</tt> cycles, and
+ * the components only keep the saved states since the last checkpoint.<br>
+ * Older cycles are reconstructed by restoring the nearest previous checkpoint
+ * and executing the CPU forward again.</p>
+ *
+ * <p>If the memory used exceeds <tt>getMemoryLimit()</tt>, every other old
+ * checkpoint is removed (the first one is always kept), so the older
+ * cycles take longer to reconstruct.</p>
+ *
+ * <p>The changes made outside of the clock cycles (like the values edited by
+ * the user) can't be reconstructed by executing the CPU, so a checkpoint is
+ * always saved after them, before the next cycle, and is never removed to
+ * save memory. The changes are also saved with the state of the last cycle,
+ * so restoring any earlier cycle undoes them, like before the checkpoints
+ * existed.</p>
+ *
+ * <p>The history is only managed like this if all the synchronous components
+ * of the CPU implement {@link Checkpointable}. Use {@link CPU#getHistory} to
+ * obtain the manager of a CPU.</p>
+ *
+ * @author Bruno Nova
+ */
+public final class HistoryManager {
+	/** The default number of cycles between checkpoints. */
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+	/** The default maximum memory used by the history, in bytes. */
+	public static final long DEFAULT_MEMORY_LIMIT = 32L * 1024 * 1024;
+
+	/** The CPU. */
+	private final CPU cpu;
+	/** The synchronous components of the CPU. */
+	private final Checkpointable[] components;
+	/** The saved checkpoints, sorted by cycle. */
+	private final List<Checkpoint> checkpoints = new ArrayList<>();
+	/** The number of cycles between checkpoints. */
+	private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+	/** The maximum memory used by the history, in bytes. */
+	private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+	/** The memory used by the checkpoints, in bytes. */
+	private long checkpointsMemoryUsage = 0;
+	/** The current cycle (number of cycles executed since the program was loaded). */
+	private int currentCycle = 0;
+	/** The cycle of the last checkpoint (the saved states of the components start here). */
+	private int savedStatesStart = 0;
+	/** The number of cycles executed again to reconstruct older cycles. */
+	private long replayedCycles = 0;
+
+	/**
+	 * Creates the history manager.
+	 * @param cpu The CPU.
+	 * @param components The synchronous components of the CPU.
+	 */
+	private HistoryManager(CPU cpu, Checkpointable[] components) {
+		this.cpu = cpu;
+		this.components = components;
+	}
+
+	/**
+	 * Creates the history manager for the given CPU, if possible.
+	 * @param cpu The CPU.
+	 * @param synchronousComponents The synchronous components of the CPU.
+	 * @return The history manager, or <tt>null</tt> if a synchronous component doesn't implement {@link Checkpointable}.
+	 */
+	static HistoryManager create(CPU cpu, List<Component> synchronousComponents) {
+		Checkpointable[] components = new Checkpointable[synchronousComponents.size()];
+		for(int i = 0; i < components.length; i++) {
+			Component c = synchronousComponents.get(i);
+			if(!(c instanceof Checkpointable)) return null;
+			components[i] = (Checkpointable)c;
+		}
+		return new HistoryManager(cpu, components);
+	}
+
+	/**
+	 * Returns the number of cycles between checkpoints.
+	 * @return The number of cycles between checkpoints.
+	 */
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/**
+	 * Sets the number of cycles between checkpoints.
+	 * <p>Higher values use less memory for checkpoints, but more for the saved
+	 * states, and reconstructing older cycles takes longer.</p>
+	 * @param checkpointInterval The number of cycles between checkpoints.
+	 * @throws IllegalArgumentException If the interval is not positive.
+	 */
+	public void setCheckpointInterval(int checkpointInterval) throws IllegalArgumentException {
+		if(checkpointInterval <= 0)
+			throw new IllegalArgumentException("The checkpoint interval must be positive!");
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Returns the maximum memory used by the history.
+	 * @return The memory limit, in bytes.
+	 */
+	public long getMemoryLimit() {
+		return memoryLimit;
+	}
+
+	/**
+	 * Sets the maximum memory used by the history.
+	 * <p>The first checkpoint, the checkpoint of the current saved states and
+	 * the checkpoints saved after changes made outside of the clock cycles are
+	 * always kept, so the limit may be exceeded in some cases.</p>
+	 * @param memoryLimit The memory limit, in bytes.
+	 */
+	public void setMemoryLimit(long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+		enforceMemoryLimit();
+	}
+
+	/**
+	 * Returns the current cycle.
+	 * @return Number of cycles executed since the program was loaded.
+	 */
+	public int getCurrentCycle() {
+		return currentCycle;
+	}
+
+	/**
+	 * Returns the number of saved checkpoints.
+	 * @return The number of checkpoints.
+	 */
+	public int getNumberOfCheckpoints() {
+		return checkpoints.size();
+	}
+
+	/**
+	 * Returns the approximate memory used by the checkpoints.
+	 * @return Memory used, in bytes.
+	 */
+	public long getCheckpointsMemoryUsage() {
+		return checkpointsMemoryUsage;
+	}
+
+	/**
+	 * Returns the approximate memory used by the saved states of the components.
+	 * @return Memory used, in bytes.
+	 */
+	public long getSavedStatesMemoryUsage() {
+		long size = 0;
+		for(Checkpointable c: components)
+			size += c.getSavedStatesMemoryUsage();
+		return size;
+	}
+
+	/**
+	 * Returns the approximate memory used by the history.
+	 * @return Memory used, in bytes.
+	 */
+	public long getMemoryUsage() {
+		return getCheckpointsMemoryUsage() + getSavedStatesMemoryUsage();
+	}
+
+	/**
+	 * Returns the number of cycles executed again to reconstruct older cycles.
+	 * @return The number of replayed cycles.
+	 */
+	public long getNumberOfReplayedCycles() {
+		return replayedCycles;
+	}
+
+	/**
+	 * Returns whether the previous cycle can be restored with the saved states
+	 * of the components (without restoring a checkpoint).
+	 * @return <tt>True</tt> if the components have saved states for the previous cycle.
+	 */
+	boolean hasSavedStates() {
+		return currentCycle > savedStatesStart;
+	}
+
+	/**
+	 * Removes all the history.
+	 * <p>Called when the saved states of the components are cleared.</p>
+	 */
+	void clear() {
+		checkpoints.clear();
+		checkpointsMemoryUsage = 0;
+		currentCycle = 0;
+		savedStatesStart = 0;
+	}
+
+	/**
+	 * Saves a checkpoint if needed.
+	 * <p>Called at the start of each clock cycle, before any change.</p>
+	 */
+	void beforeCycle() {
+		boolean edited = isEdited();
+		if(edited || currentCycle % checkpointInterval == 0 || checkpoints.isEmpty()) {
+			Checkpoint last = checkpoints.isEmpty() ? null : checkpoints.get(checkpoints.size() - 1);
+			if(last != null && last.cycle == currentCycle) {
+				if(!edited) return; // already saved
+				checkpoints.remove(checkpoints.size() - 1); // saved before the changes, replace it
+				checkpointsMemoryUsage -= last.getMemoryUsage();
+			}
+
+			Checkpoint checkpoint = new Checkpoint(currentCycle, cpu.saveStatistics(), components.length, edited);
+			for(int i = 0; i < components.length; i++) {
+				checkpoint.states[i] = components[i].saveCheckpoint();
+				components[i].discardSavedStates();
+			}
+			checkpoint.calculateMemoryUsage(components);
+			checkpoints.add(checkpoint);
+			checkpointsMemoryUsage += checkpoint.getMemoryUsage();
+			savedStatesStart = currentCycle;
+			enforceMemoryLimit();
+		}
+	}
+
+	/**
+	 * Returns whether a component was changed outside of the clock cycles.
+	 * @return <tt>True</tt> if a component was edited since its state was last saved or restored.
+	 */
+	private boolean isEdited() {
+		for(Checkpointable c: components) {
+			if(c.isEdited()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Updates the current cycle after a clock cycle is executed.
+	 */
+	void afterCycle() {
+		currentCycle++;
+	}
+
+	/**
+	 * Updates the current cycle after the previous cycle is restored with the saved states.
+	 */
+	void afterRestore() {
+		currentCycle--;
+	}
+
+	/**
+	 * Restores the last checkpoint at or before the given cycle.
+	 * <p>The checkpoints after it are removed. The CPU must then execute the
+	 * components and the cycles until the given cycle is reached.</p>
+	 * @param cycle The desired cycle.
+	 */
+	void restoreCheckpoint(int cycle) {
+		int i = checkpoints.size() - 1;
+		while(i > 0 && checkpoints.get(i).cycle > cycle)
+			i--;
+		Checkpoint checkpoint = checkpoints.get(i);
+		while(checkpoints.size() > i + 1)
+			checkpointsMemoryUsage -= checkpoints.remove(checkpoints.size() - 1).getMemoryUsage();
+
+		for(int j = 0; j < components.length; j++)
+			components[j].restoreCheckpoint(checkpoint.states[j]);
+		cpu.restoreStatistics(checkpoint.statistics);
+		currentCycle = savedStatesStart = checkpoint.cycle;
+		replayedCycles += cycle - checkpoint.cycle;
+	}
+
+	/**
+	 * Removes every other old checkpoint while the memory limit is exceeded.
+	 * <p>The first and last checkpoints, and the checkpoints saved after
+	 * changes made outside of the clock cycles, are always kept.</p>
+	 */
+	private void enforceMemoryLimit() {
+		boolean removed = true;
+		while(removed && getMemoryUsage() > memoryLimit && checkpoints.size() > 2) {
+			removed = false;
+			int last = checkpoints.size() - 1;
+			for(int i = last - 1; i > 0; i--) {
+				if(i % 2 == 1 && !checkpoints.get(i).edited) {
+					checkpointsMemoryUsage -= checkpoints.remove(i).getMemoryUsage();
+					removed = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The full state of the CPU at the start of a clock cycle.
+	 */
+	private static class Checkpoint {
+		/** The cycle. */
+		private final int cycle;
+		/** The statistics of the CPU. */
+		private final int[] statistics;
+		/** The states of the synchronous components. */
+		private final Object[] states;
+		/** Whether the checkpoint was saved after changes made outside of the clock cycles. */
+		private final boolean edited;
+		/** The approximate memory used by the checkpoint. */
+		private long memoryUsage = 0;
+
+		/**
+		 * Creates a checkpoint.
+		 * @param cycle The cycle.
+		 * @param statistics The statistics of the CPU.
+		 * @param numComponents Number of synchronous components.
+		 * @param edited Whether the checkpoint is saved after changes made outside of the clock cycles.
+		 */
+		public Checkpoint(int cycle, int[] statistics, int numComponents, boolean edited) {
+			this.cycle = cycle;
+			this.statistics = statistics;
+			this.states = new Object[numComponents];
+			this.edited = edited;
+		}
+
+		/**
+		 * Calculates the approximate memory used by the checkpoint.
+		 * <p>Called after the states of the components are saved.</p>
+		 * @param components The synchronous components.
+		 */
+		public void calculateMemoryUsage(Checkpointable[] components) {
+			long size = 40 + 16 + statistics.length * 4 + 16 + states.length * 8;
+			for(int i = 0; i < states.length; i++)
+				size += components[i].getCheckpointMemoryUsage(states[i]);
+			memoryUsage = size;
+		}
+
+		/**
+		 * Returns the approximate memory used by the checkpoint.
+		 * @return Memory used, in bytes.
+		 */
+		public long getMemoryUsage() {
+			return memoryUsage;
+		}
+	}
+}
@@ -47,6 +47,8 @@ public abstract class IOPort {
 	private boolean inControlPath = false;
 	/** Whether a balloon tip with the value of the input/output should be displayed. */
 	private boolean showTip = false;
+	/** The index of the input/output in the component's inputs/outputs. */
+	private int index = -1;
 
 	/**
 	 * Creates an input/output with the given parameters.
@@ -67,6 +69,24 @@ public abstract class IOPort {
 		this.showTip = showTip;
 	}
 
+	/**
+	 * Creates a copy of an input/output of another component (see {@link Component#copy}).
+	 * <p>The copy has the same identifier, size, direction, position and index.
+	 * The value is only kept if the original is not connected (it is constant),
+	 * otherwise it starts at 0.</p>
+	 * @param component The component that the copy belongs to.
+	 * @param original The input/output being copied.
+	 */
+	IOPort(Component component, IOPort original) {
+		this.component = component;
+		this.id = original.id;
+		this.data = new Data(original.getSize(), original.isConnected() ? 0 : original.getValue());
+		this.direction = original.direction;
+		this.position = (original.position != null) ? new Point(original.position) : null;
+		this.showTip = original.showTip;
+		this.index = original.index;
+	}
+
 	/**
 	 * Returns the component this input/output belongs to.
 	 * @return Component this input/output belongs to.
@@ -89,6 +109,25 @@ public abstract class IOPort {
 		return id;
 	}
 
+	/**
+	 * Returns the index of this input/output in the inputs/outputs of its component.
+	 * <p>The index is assigned when the input/output is added to the
+	 * component, and is the position of the input/output in the array returned
+	 * by <tt>getInputArray()</tt>/<tt>getOutputArray()</tt>.</p>
+	 * @return The index of this input/output.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Updates the index of this input/output (called by the component).
+	 * @param index The new index.
+	 */
+	void setIndex(int index) {
+		this.index = index;
+	}
+
 	/**
 	 * Returns the data of this input/output.
 	 * @return The data of this input/output
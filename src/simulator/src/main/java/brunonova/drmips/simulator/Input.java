@@ -91,6 +91,16 @@ public final class Input extends IOPort {
 		this.changesComponentAccumulatedLatency = changesComponentAccumulatedLatency;
 	}
 
+	/**
+	 * Creates a copy of an input of another component, not connected (see {@link Component#copy}).
+	 * @param component The component that the copy belongs to.
+	 * @param original The input being copied.
+	 */
+	Input(Component component, Input original) {
+		super(component, original);
+		this.changesComponentAccumulatedLatency = original.changesComponentAccumulatedLatency;
+	}
+
 	/**
 	 * Connect this input to another component's output.
 	 * @param output The output to connect to.
@@ -115,7 +125,8 @@ public final class Input extends IOPort {
 
 	/**
 	 * Updates the value of this inouts's data.
-	 * <p>It also executes the component's normal action, so call this method
+	 * <p>It also executes the component's normal action (unless the CPU is
+	 * executing the components in levelized order), so call this method
 	 * instead of <tt>getData().setValue()</tt> directly!</p>
 	 * @param value New value.
 	 */
@@ -123,7 +134,7 @@ public final class Input extends IOPort {
 	public void setValue(int value) {
 		int oldValue = getValue();
 		super.setValue(value);
-		if(getValue() != oldValue)
+		if(getValue() != oldValue && getComponent().isExecutedOnInputChange())
 			getComponent().execute(); // input changed, so execute the component's normal action
 	}
 
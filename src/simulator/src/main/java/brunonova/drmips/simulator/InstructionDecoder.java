@@ -0,0 +1,388 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decodes instruction words (machine code) back to the instructions of an instruction set.
+ * <p>The decoder is a tree built from the constant fields of the
+ * instructions: the root switches on the opcode field, and each node with
+ * more than one possible instruction switches on another constant field
+ * (like <tt>func</tt> in R-type instructions). So a word is decoded in
+ * constant time, regardless of the number of instructions. If several
+ * instructions still match a word (like <tt>nop</tt>, whose fields are all
+ * constant), the most specific one (more constant bits) is chosen.</p>
+ * <p>The decoder is immutable and can be used by several threads at the
+ * same time. It is usually obtained with {@link InstructionSet#getDecoder()}.</p>
+ *
+ * @author Bruno Nova
+ */
+public final class InstructionDecoder {
+	/** The maximum size of a field used to switch in the tree (larger fields aren't indexed). */
+	private static final int MAX_SWITCH_FIELD_SIZE = 10;
+
+	/** The root of the decode tree. */
+	private final Node root;
+
+	/**
+	 * Creates the decoder for the given instruction set.
+	 * @param set The instruction set.
+	 */
+	public InstructionDecoder(InstructionSet set) {
+		List<Candidate> candidates = new ArrayList<>();
+		for(Instruction instruction: set.getInstructions())
+			candidates.add(new Candidate(instruction));
+		Collections.sort(candidates, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate c1, Candidate c2) { // most specific first
+				return Integer.bitCount(c2.mask) - Integer.bitCount(c1.mask);
+			}
+		});
+		root = createNode(candidates, new ArrayList<InstructionType.Field>());
+	}
+
+	/**
+	 * Returns the instruction encoded in the given word.
+	 * <p>This method doesn't create any object.</p>
+	 * @param word The instruction word.
+	 * @return The instruction, or <tt>null</tt> if the word isn't a valid instruction.
+	 */
+	public Instruction getInstruction(int word) {
+		Candidate candidate = find(word);
+		return candidate != null ? candidate.instruction : null;
+	}
+
+	/**
+	 * Decodes the given word into its instruction and arguments.
+	 * @param word The instruction word.
+	 * @return The decoded instruction, or <tt>null</tt> if the word isn't a valid instruction.
+	 */
+	public DecodedInstruction decode(int word) {
+		Candidate candidate = find(word);
+		return candidate != null ? candidate.decode(word) : null;
+	}
+
+	/**
+	 * Finds the instruction encoded in the given word.
+	 * @param word The instruction word.
+	 * @return The instruction, or <tt>null</tt> if not found.
+	 */
+	private Candidate find(int word) {
+		Node node = root;
+		while(node != null && node.children != null)
+			node = node.children[node.field.getValueFromField(word)];
+		if(node != null) {
+			for(Candidate candidate: node.candidates) {
+				if((word & candidate.mask) == candidate.value)
+					return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a node of the decode tree.
+	 * @param candidates The instructions that can be decoded from the node (the most specific first).
+	 * @param used The fields already used to switch in the parent nodes.
+	 * @return The node.
+	 */
+	private static Node createNode(List<Candidate> candidates, List<InstructionType.Field> used) {
+		InstructionType.Field field = candidates.size() > 1 ? findSwitchField(candidates, used) : null;
+		if(field == null) // leaf
+			return new Node(null, null, candidates.toArray(new Candidate[candidates.size()]));
+
+		// Group the candidates by the value of the field
+		List<List<Candidate>> groups = new ArrayList<>(1 << field.getSize());
+		for(int i = 0; i < (1 << field.getSize()); i++)
+			groups.add(null);
+		for(Candidate candidate: candidates) {
+			int value = candidate.getConstant(field);
+			if(groups.get(value) == null) groups.set(value, new ArrayList<Candidate>());
+			groups.get(value).add(candidate);
+		}
+
+		List<InstructionType.Field> usedChildren = new ArrayList<>(used);
+		usedChildren.add(field);
+		Node[] children = new Node[groups.size()];
+		for(int i = 0; i < children.length; i++) {
+			if(groups.get(i) != null)
+				children[i] = createNode(groups.get(i), usedChildren);
+		}
+		return new Node(field, children, null);
+	}
+
+	/**
+	 * Returns the best field to switch on to distinguish the given instructions.
+	 * <p>The field must have a constant value in all the instructions. The
+	 * one with more distinct values is chosen.</p>
+	 * @param candidates The instructions.
+	 * @param used The fields already used to switch in the parent nodes.
+	 * @return The field, or <tt>null</tt> if none distinguishes the instructions.
+	 */
+	private static InstructionType.Field findSwitchField(List<Candidate> candidates, List<InstructionType.Field> used) {
+		InstructionType.Field best = null;
+		int bestCount = 1;
+		for(InstructionType.Field field: candidates.get(0).instruction.getType().getFields()) {
+			if(field.getSize() > MAX_SWITCH_FIELD_SIZE || isUsed(field, used))
+				continue;
+			boolean[] values = new boolean[1 << field.getSize()];
+			int count = 0;
+			for(Candidate candidate: candidates) {
+				int value = candidate.getConstant(field);
+				if(value < 0) { // not constant in this instruction
+					count = 0;
+					break;
+				}
+				if(!values[value]) {
+					values[value] = true;
+					count++;
+				}
+			}
+			if(count > bestCount) {
+				best = field;
+				bestCount = count;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns whether a field with the same bits as the given field was already used.
+	 * @param field The field.
+	 * @param used The fields already used.
+	 * @return <tt>True</tt> if already used.
+	 */
+	private static boolean isUsed(InstructionType.Field field, List<InstructionType.Field> used) {
+		for(InstructionType.Field f: used) {
+			if(f.getMSB() == field.getMSB() && f.getLSB() == field.getLSB())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the value of a field of an instruction word as an argument.
+	 * <p>Integer arguments in fields with at least 16 bits (immediate values,
+	 * offsets and base addresses) are sign-extended.</p>
+	 * @param field The field.
+	 * @param word The instruction word.
+	 * @param signed Whether the argument is a signed integer.
+	 * @return The value of the argument.
+	 */
+	private static int getArgumentValue(InstructionType.Field field, int word, boolean signed) {
+		int value = field.getValueFromField(word);
+		if(signed && field.getSize() >= 16 && field.getSize() < 32) {
+			int shift = 32 - field.getSize();
+			value = (value << shift) >> shift;
+		}
+		return value;
+	}
+
+	/**
+	 * A node of the decode tree.
+	 */
+	private static final class Node {
+		/** The field to switch on (<tt>null</tt> in leaves). */
+		private final InstructionType.Field field;
+		/** The child nodes, by value of the field (<tt>null</tt> in leaves). */
+		private final Node[] children;
+		/** The instructions of a leaf, the most specific first (<tt>null</tt> in other nodes). */
+		private final Candidate[] candidates;
+
+		/**
+		 * Creates the node.
+		 * @param field The field to switch on (<tt>null</tt> in leaves).
+		 * @param children The child nodes, by value of the field (<tt>null</tt> in leaves).
+		 * @param candidates The instructions of a leaf (<tt>null</tt> in other nodes).
+		 */
+		private Node(InstructionType.Field field, Node[] children, Candidate[] candidates) {
+			this.field = field;
+			this.children = children;
+			this.candidates = candidates;
+		}
+	}
+
+	/**
+	 * An instruction in the decode tree, with the information needed to decode it.
+	 */
+	private static final class Candidate {
+		/** The instruction. */
+		private final Instruction instruction;
+		/** The mask of the bits of the constant fields. */
+		private final int mask;
+		/** The value of the bits of the constant fields. */
+		private final int value;
+		/** The field with the value of each argument (the base address for data arguments). */
+		private final InstructionType.Field[] argumentFields;
+		/** The field with the offset register of each data argument (<tt>null</tt> for other arguments). */
+		private final InstructionType.Field[] offsetFields;
+
+		/**
+		 * Creates the candidate.
+		 * @param instruction The instruction.
+		 */
+		private Candidate(Instruction instruction) {
+			this.instruction = instruction;
+			argumentFields = new InstructionType.Field[instruction.getNumberOfArguments()];
+			offsetFields = new InstructionType.Field[instruction.getNumberOfArguments()];
+			int m = 0, v = 0;
+			for(InstructionType.Field field: instruction.getType().getFields()) {
+				Instruction.FieldValue f = instruction.getField(field);
+				if(f instanceof Instruction.FieldConstant) {
+					m |= field.getValueInField(-1);
+					v |= field.getValueInField(((Instruction.FieldConstant)f).getValue());
+				}
+				else if(f instanceof Instruction.FieldFromArgument) {
+					int arg = ((Instruction.FieldFromArgument)f).getArgIndex();
+					if(argumentFields[arg] == null) argumentFields[arg] = field;
+				}
+				else if(f instanceof Instruction.FieldDataFromArgument) {
+					Instruction.FieldDataFromArgument fd = (Instruction.FieldDataFromArgument)f;
+					if(fd.getType() == Instruction.FieldDataFromArgument.Type.BASE) {
+						if(argumentFields[fd.getArgIndex()] == null) argumentFields[fd.getArgIndex()] = field;
+					}
+					else if(offsetFields[fd.getArgIndex()] == null)
+						offsetFields[fd.getArgIndex()] = field;
+				}
+			}
+			mask = m;
+			value = v;
+		}
+
+		/**
+		 * Returns the constant value of a field with the same bits as the given field.
+		 * @param field The field.
+		 * @return The constant value, or -1 if the field isn't constant in this instruction.
+		 */
+		private int getConstant(InstructionType.Field field) {
+			for(InstructionType.Field f: instruction.getType().getFields()) {
+				if(f.getMSB() == field.getMSB() && f.getLSB() == field.getLSB()) {
+					Instruction.FieldValue v = instruction.getField(f);
+					return (v instanceof Instruction.FieldConstant) ? f.getValueFromField(f.getValueInField(((Instruction.FieldConstant)v).getValue())) : -1;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Extracts the arguments of this instruction from a word.
+		 * @param word The instruction word.
+		 * @return The decoded instruction.
+		 */
+		private DecodedInstruction decode(int word) {
+			int[] arguments = new int[argumentFields.length];
+			int[] offsets = new int[argumentFields.length];
+			for(int i = 0; i < arguments.length; i++) {
+				AbstractInstruction.ArgumentType type = instruction.getArgument(i);
+				boolean signed = type != AbstractInstruction.ArgumentType.REG && type != AbstractInstruction.ArgumentType.TARGET;
+				if(argumentFields[i] != null)
+					arguments[i] = getArgumentValue(argumentFields[i], word, signed);
+				if(offsetFields[i] != null)
+					offsets[i] = offsetFields[i].getValueFromField(word);
+			}
+			return new DecodedInstruction(instruction, word, arguments, offsets);
+		}
+	}
+
+	/**
+	 * An instruction word decoded into its instruction and arguments.
+	 */
+	public static final class DecodedInstruction {
+		/** The instruction. */
+		private final Instruction instruction;
+		/** The instruction word. */
+		private final int word;
+		/** The values of the arguments. */
+		private final int[] arguments;
+		/** The offset registers of the data arguments. */
+		private final int[] offsets;
+
+		/**
+		 * Creates the decoded instruction.
+		 * @param instruction The instruction.
+		 * @param word The instruction word.
+		 * @param arguments The values of the arguments.
+		 * @param offsets The offset registers of the data arguments.
+		 */
+		private DecodedInstruction(Instruction instruction, int word, int[] arguments, int[] offsets) {
+			this.instruction = instruction;
+			this.word = word;
+			this.arguments = arguments;
+			this.offsets = offsets;
+		}
+
+		/**
+		 * Returns the instruction.
+		 * @return The instruction.
+		 */
+		public Instruction getInstruction() {
+			return instruction;
+		}
+
+		/**
+		 * Returns the instruction word.
+		 * @return The instruction word.
+		 */
+		public int getWord() {
+			return word;
+		}
+
+		/**
+		 * Returns the number of arguments of the instruction.
+		 * @return The number of arguments.
+		 */
+		public int getNumberOfArguments() {
+			return arguments.length;
+		}
+
+		/**
+		 * Returns the value of an argument.
+		 * <p>The value depends on the type of the argument: the index of the
+		 * register, the integer value (sign-extended if the field has at least
+		 * 16 bits), the index of the target instruction, the offset in
+		 * instructions, or the base address of a data argument.</p>
+		 * @param index The index of the argument.
+		 * @return The value of the argument.
+		 * @throws ArrayIndexOutOfBoundsException If the argument doesn't exist.
+		 */
+		public int getArgument(int index) throws ArrayIndexOutOfBoundsException {
+			return arguments[index];
+		}
+
+		/**
+		 * Returns the index of the offset register of a data argument (<tt>base($offset)</tt>).
+		 * @param index The index of the argument.
+		 * @return The index of the register (0 if the argument isn't a data argument).
+		 * @throws ArrayIndexOutOfBoundsException If the argument doesn't exist.
+		 */
+		public int getOffsetRegister(int index) throws ArrayIndexOutOfBoundsException {
+			return offsets[index];
+		}
+
+		@Override
+		public String toString() {
+			return instruction.getMnemonic() + " " + Arrays.toString(arguments);
+		}
+	}
+}
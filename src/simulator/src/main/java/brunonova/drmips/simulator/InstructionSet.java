@@ -19,15 +19,17 @@
 package brunonova.drmips.simulator;
 
 import brunonova.drmips.simulator.exceptions.InvalidInstructionSetException;
-import java.io.BufferedReader;
-import java.io.FileInputStream;
+import brunonova.drmips.simulator.util.JSONLoader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.logging.Logger;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -41,12 +43,23 @@ public class InstructionSet {
 	/** The character used to reference arguments in the JSON file. */
 	public static final char ARGUMENT_CHAR = '#';
 
+	/** The logger. */
+	private static final Logger LOG = Logger.getLogger(InstructionSet.class.getName());
+	/** The instruction sets loaded with <tt>createFromJSONFile()</tt>, by canonical path. */
+	private static final Map<String, CacheEntry> cache = new HashMap<>();
+
 	/** The instruction types. */
 	private final List<InstructionType> types;
 	/** The available instructions. */
 	private final Map<String, Instruction> instructions;
 	/** The available pseudo-instructions. */
 	private final Map<String, PseudoInstruction> pseudoInstructions;
+	/** Hash table with the instructions and pseudo-instructions by lower-case mnemonic (open addressing). */
+	private Mnemonic[] mnemonics = new Mnemonic[64];
+	/** The number of entries in <tt>mnemonics</tt>. */
+	private int numberOfMnemonics = 0;
+	/** The decoder of instruction words (created when first needed). */
+	private InstructionDecoder decoder = null;
 	/** How the control unit should work. */
 	private Control control = null;
 	/** How the ALU Control and ALU should work. */
@@ -62,11 +75,90 @@ public class InstructionSet {
 	 * @throws NumberFormatException If an opcode is not a number.
 	 */
 	public InstructionSet(String path) throws IOException, JSONException, InvalidInstructionSetException, ArrayIndexOutOfBoundsException, NumberFormatException {
+		this(JSONLoader.load(path));
+	}
+
+	/**
+	 * Creates an instruction set from the contents of a JSON file.
+	 * @param json The contents of the file.
+	 * @throws JSONException If the JSON file is malformed.
+	 * @throws InvalidInstructionSetException If the instruction set is invalid.
+	 * @throws ArrayIndexOutOfBoundsException If an array index is invalid somewhere.
+	 * @throws NumberFormatException If an opcode is not a number.
+	 */
+	InstructionSet(JSONObject json) throws JSONException, InvalidInstructionSetException, ArrayIndexOutOfBoundsException, NumberFormatException {
 		types = new ArrayList<>();
 		instructions = new TreeMap<>();
 		pseudoInstructions = new TreeMap<>();
 		control = new Control();
-		parseFile(path);
+		parseJSON(json);
+	}
+
+	/**
+	 * Returns the instruction set in the given JSON file, parsing it only if needed.
+	 * <p>The parsed instruction sets are cached by the canonical path of the
+	 * file, so several CPUs that use the same file share the same instruction
+	 * set. The file is parsed again if its modification time or size changed.
+	 * The returned instruction set must not be modified.</p>
+	 * <p>This method is thread-safe.</p>
+	 * @param path The path of the file to load.
+	 * @return The instruction set.
+	 * @throws IOException If the file doesn't exist or an I/O error occurs.
+	 * @throws JSONException If the JSON file is malformed.
+	 * @throws InvalidInstructionSetException If the instruction set is invalid.
+	 * @throws ArrayIndexOutOfBoundsException If an array index is invalid somewhere.
+	 * @throws NumberFormatException If an opcode is not a number.
+	 */
+	public static InstructionSet createFromJSONFile(String path) throws IOException, JSONException, InvalidInstructionSetException, ArrayIndexOutOfBoundsException, NumberFormatException {
+		return createFromJSON(path, null);
+	}
+
+	/**
+	 * Returns the instruction set in the given JSON file, using the given
+	 * contents of the file if it isn't in the cache.
+	 * <p>Used with precompiled CPU files. The instruction set is also cached.</p>
+	 * @param path The path of the file.
+	 * @param json The contents of the file (<tt>null</tt> to parse the file).
+	 * @return The instruction set.
+	 * @throws IOException If the file doesn't exist or an I/O error occurs.
+	 * @throws JSONException If the JSON file is malformed.
+	 * @throws InvalidInstructionSetException If the instruction set is invalid.
+	 * @throws ArrayIndexOutOfBoundsException If an array index is invalid somewhere.
+	 * @throws NumberFormatException If an opcode is not a number.
+	 */
+	static InstructionSet createFromJSON(String path, JSONObject json) throws IOException, JSONException, InvalidInstructionSetException, ArrayIndexOutOfBoundsException, NumberFormatException {
+		File file = new File(path).getCanonicalFile();
+		String key = file.getPath();
+		long lastModified = file.lastModified(), length = file.length();
+
+		synchronized(cache) {
+			CacheEntry entry = cache.get(key);
+			if(entry != null) {
+				InstructionSet set = entry.set.get();
+				if(set != null && entry.lastModified == lastModified && entry.length == length) {
+					LOG.fine("instruction set " + key + " found in the cache");
+					return set;
+				}
+				cache.remove(key);
+			}
+		}
+
+		long start = System.nanoTime();
+		InstructionSet set = json != null ? new InstructionSet(json) : new InstructionSet(key);
+		LOG.fine("instruction set " + key + " parsed in " + (System.nanoTime() - start) / 1000000 + " ms");
+		synchronized(cache) {
+			cache.put(key, new CacheEntry(set, lastModified, length));
+		}
+		return set;
+	}
+
+	/**
+	 * Removes all the instruction sets from the cache used by <tt>createFromJSONFile()</tt>.
+	 */
+	public static void clearCache() {
+		synchronized(cache) {
+			cache.clear();
+		}
 	}
 
 	/**
@@ -136,52 +228,127 @@ public class InstructionSet {
 		if(hasInstructionOrPseudoInstruction(mnemonic)) throw new InvalidInstructionSetException("Duplicated mnemonic " + mnemonic + "!");
 		Instruction i = new Instruction(mnemonic, getType(type));
 		instructions.put(mnemonic, i);
+		addMnemonic(new Mnemonic(mnemonic, i, null));
+		synchronized(this) {
+			decoder = null; // must be created again
+		}
 		return i;
 	}
 
 	/**
 	 * Returns the instruction with the specified mnemonic.
-	 * @param mnemonic Mnemonic of the instruction.
+	 * @param mnemonic Mnemonic of the instruction (case-insensitive).
 	 * @return The desired instruction, or <tt>null</tt> if it doesn't exist.
 	 */
 	public Instruction getInstruction(String mnemonic) {
-		return instructions.get(mnemonic.toLowerCase());
+		Mnemonic m = getMnemonic(mnemonic, 0, mnemonic.length());
+		return m != null ? m.getInstruction() : null;
 	}
 
 	/**
 	 * Returns whether the instruction set contains the specified instruction.
-	 * @param mnemonic Mnemonic of the instruction.
+	 * @param mnemonic Mnemonic of the instruction (case-insensitive).
 	 * @return <tt>True</tt> if the instruction exists.
 	 */
 	public boolean hasInstruction(String mnemonic) {
-		return instructions.containsKey(mnemonic.toLowerCase());
+		return getInstruction(mnemonic) != null;
 	}
 
 	/**
 	 * Returns the pseudo-instruction with the specified mnemonic.
-	 * @param mnemonic Mnemonic of the pseudo-instruction.
+	 * @param mnemonic Mnemonic of the pseudo-instruction (case-insensitive).
 	 * @return The desired pseudo-instruction, or <tt>null</tt> if it doesn't exist.
 	 */
 	public PseudoInstruction getPseudoInstruction(String mnemonic) {
-		return pseudoInstructions.get(mnemonic.toLowerCase());
+		Mnemonic m = getMnemonic(mnemonic, 0, mnemonic.length());
+		return m != null ? m.getPseudoInstruction() : null;
 	}
 
 	/**
 	 * Returns whether the instruction set contains the specified pseudo-instruction.
-	 * @param mnemonic Mnemonic of the pseudo-instruction.
+	 * @param mnemonic Mnemonic of the pseudo-instruction (case-insensitive).
 	 * @return <tt>True</tt> if the pseudo-instruction exists.
 	 */
 	public boolean hasPseudoInstruction(String mnemonic) {
-		return pseudoInstructions.containsKey(mnemonic.toLowerCase());
+		return getPseudoInstruction(mnemonic) != null;
 	}
 
 	/**
 	 * Returns whether the instruction set contains the specified instruction or pseudo-instruction.
-	 * @param mnemonic Mnemonic of the instruction or pseudo-instruction.
+	 * @param mnemonic Mnemonic of the instruction or pseudo-instruction (case-insensitive).
 	 * @return <tt>True</tt> if the instruction or pseudo-instruction exists.
 	 */
 	public boolean hasInstructionOrPseudoInstruction(String mnemonic) {
-		return hasInstruction(mnemonic) || hasPseudoInstruction(mnemonic);
+		return getMnemonic(mnemonic, 0, mnemonic.length()) != null;
+	}
+
+	/**
+	 * Returns the instruction or pseudo-instruction with the mnemonic in the specified part of a text.
+	 * <p>The mnemonic is compared ignoring the case, without creating new
+	 * strings, so the assembler can look up the mnemonics directly in the
+	 * code.</p>
+	 * @param text The text with the mnemonic.
+	 * @param start The index of the first character of the mnemonic.
+	 * @param end The index after the last character of the mnemonic.
+	 * @return The instruction or pseudo-instruction, or <tt>null</tt> if it doesn't exist.
+	 */
+	public Mnemonic getMnemonic(CharSequence text, int start, int end) {
+		int mask = mnemonics.length - 1;
+		for(int i = hashMnemonic(text, start, end) & mask; mnemonics[i] != null; i = (i + 1) & mask) {
+			if(mnemonics[i].matches(text, start, end))
+				return mnemonics[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Adds an instruction or pseudo-instruction to the table of mnemonics.
+	 * <p>The table is doubled when it becomes half full.</p>
+	 * @param mnemonic The instruction or pseudo-instruction.
+	 */
+	private void addMnemonic(Mnemonic mnemonic) {
+		if((numberOfMnemonics + 1) * 2 > mnemonics.length) {
+			Mnemonic[] old = mnemonics;
+			mnemonics = new Mnemonic[old.length * 2];
+			numberOfMnemonics = 0;
+			for(Mnemonic m: old) {
+				if(m != null) addMnemonic(m);
+			}
+		}
+
+		String key = mnemonic.getMnemonic();
+		int mask = mnemonics.length - 1;
+		int i = hashMnemonic(key, 0, key.length()) & mask;
+		while(mnemonics[i] != null)
+			i = (i + 1) & mask;
+		mnemonics[i] = mnemonic;
+		numberOfMnemonics++;
+	}
+
+	/**
+	 * Returns the hash code of a mnemonic, ignoring the case.
+	 * @param text The text with the mnemonic.
+	 * @param start The index of the first character of the mnemonic.
+	 * @param end The index after the last character of the mnemonic.
+	 * @return The hash code.
+	 */
+	private static int hashMnemonic(CharSequence text, int start, int end) {
+		int hash = 0;
+		for(int i = start; i < end; i++)
+			hash = 31 * hash + Character.toLowerCase(text.charAt(i));
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Returns the decoder of instruction words of this instruction set.
+	 * <p>The decoder is created the first time this method is called. This
+	 * method is thread-safe.</p>
+	 * @return The decoder.
+	 */
+	public synchronized InstructionDecoder getDecoder() {
+		if(decoder == null)
+			decoder = new InstructionDecoder(this);
+		return decoder;
 	}
 
 	/**
@@ -219,32 +386,13 @@ public class InstructionSet {
 	}
 
 	/**
-	 * Parses the specified JSON file, loading the instruction set from it.
-	 * @param path The path of the file to load.
-	 * @throws IOException If the file doesn't exist or an I/O error occurs.
+	 * Parses the contents of the JSON file, loading the instruction set from it.
+	 * @param json The contents of the file.
 	 * @throws JSONException If the JSON file is malformed.
 	 * @throws InvalidInstructionSetException If the instruction set is invalid.
 	 * @throws ArrayIndexOutOfBoundsException If an array index is invalid somewhere.
 	 */
-	private void parseFile(String path) throws IOException, JSONException, InvalidInstructionSetException, ArrayIndexOutOfBoundsException {
-		BufferedReader reader = null;
-		String file = "", line;
-
-		// Read file to String
-		try {
-			reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF8"));
-			while((line = reader.readLine()) != null)
-				file += line + "\n";
-			reader.close();
-		}
-		catch(IOException e) {
-			throw e;
-		}
-		finally {
-			if(reader != null) reader.close();
-		}
-
-		JSONObject json = new JSONObject(file);
+	private void parseJSON(JSONObject json) throws JSONException, InvalidInstructionSetException, ArrayIndexOutOfBoundsException {
 		parseTypes(json.getJSONObject("types"));
 		parseInstructions(json.getJSONObject("instructions"));
 		if(json.has("pseudo")) parsePseudo(json.getJSONObject("pseudo"));
@@ -364,6 +512,7 @@ public class InstructionSet {
 				throw new InvalidInstructionSetException("Pseudo-instruction " + p.getMnemonic() + " has no instructions!");
 
 			pseudoInstructions.put(p.getMnemonic(), p);
+			addMnemonic(new Mnemonic(p.getMnemonic(), null, p));
 		}
 	}
 
@@ -445,5 +594,97 @@ public class InstructionSet {
 					controlALU.addALUOpControl(aluOp, id, out.getInt(id));
 			}
 		}
+
+		controlALU.finishCreation();
+	}
+
+	/**
+	 * An instruction set in the cache.
+	 */
+	private static final class CacheEntry {
+		/** The instruction set (may be garbage collected if memory is needed). */
+		private final SoftReference<InstructionSet> set;
+		/** The modification time of the file when it was parsed. */
+		private final long lastModified;
+		/** The size of the file when it was parsed. */
+		private final long length;
+
+		/**
+		 * Creates the entry.
+		 * @param set The instruction set.
+		 * @param lastModified The modification time of the file when it was parsed.
+		 * @param length The size of the file when it was parsed.
+		 */
+		private CacheEntry(InstructionSet set, long lastModified, long length) {
+			this.set = new SoftReference<>(set);
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * An instruction or pseudo-instruction in the table of mnemonics.
+	 */
+	public static final class Mnemonic {
+		/** The mnemonic, as stored in the instruction set. */
+		private final String mnemonic;
+		/** The instruction (<tt>null</tt> if it's a pseudo-instruction). */
+		private final Instruction instruction;
+		/** The pseudo-instruction (<tt>null</tt> if it's an instruction). */
+		private final PseudoInstruction pseudoInstruction;
+
+		/**
+		 * Creates the entry.
+		 * @param mnemonic The mnemonic, as stored in the instruction set.
+		 * @param instruction The instruction (<tt>null</tt> if it's a pseudo-instruction).
+		 * @param pseudoInstruction The pseudo-instruction (<tt>null</tt> if it's an instruction).
+		 */
+		private Mnemonic(String mnemonic, Instruction instruction, PseudoInstruction pseudoInstruction) {
+			this.mnemonic = mnemonic;
+			this.instruction = instruction;
+			this.pseudoInstruction = pseudoInstruction;
+		}
+
+		/**
+		 * Returns whether the specified part of a text is this mnemonic.
+		 * <p>The characters of the text are converted to lower case before
+		 * being compared, like <tt>text.toLowerCase().equals(mnemonic)</tt>.</p>
+		 * @param text The text with the mnemonic.
+		 * @param start The index of the first character of the mnemonic.
+		 * @param end The index after the last character of the mnemonic.
+		 * @return <tt>True</tt> if it is this mnemonic.
+		 */
+		private boolean matches(CharSequence text, int start, int end) {
+			if(end - start != mnemonic.length()) return false;
+			for(int i = start; i < end; i++) {
+				if(Character.toLowerCase(text.charAt(i)) != mnemonic.charAt(i - start))
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the mnemonic.
+		 * @return The mnemonic.
+		 */
+		public String getMnemonic() {
+			return mnemonic;
+		}
+
+		/**
+		 * Returns the instruction.
+		 * @return The instruction, or <tt>null</tt> if it's a pseudo-instruction.
+		 */
+		public Instruction getInstruction() {
+			return instruction;
+		}
+
+		/**
+		 * Returns the pseudo-instruction.
+		 * @return The pseudo-instruction, or <tt>null</tt> if it's an instruction.
+		 */
+		public PseudoInstruction getPseudoInstruction() {
+			return pseudoInstruction;
+		}
 	}
 }
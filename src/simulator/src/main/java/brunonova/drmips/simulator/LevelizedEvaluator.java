@@ -0,0 +1,233 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executes the components of a CPU in topological (levelized) order.
+ *
+ * <p>By default, changing an input executes the respective component, which
+ * changes its outputs and executes the next components, and so on. A component
+ * may be executed several times in the same clock cycle this way.</p>
+ *
+ * <p>This class sorts the components once so that each component is executed
+ * after all the components that drive its combinational inputs (see
+ * {@link Component#isCombinationalInput}). While the components are being
+ * executed in this order, the automatic execution is disabled, so each
+ * component is executed exactly once.<br>
+ * This is only possible if the CPU has no combinational loops. Use
+ * {@link #create} to check that.</p>
+ *
+ * @author Bruno Nova
+ */
+class LevelizedEvaluator {
+	/** All the components, in topological order. */
+	private final Component[] order;
+	/** The synchronous components (executed again at the end, to refresh the irrelevant inputs/outputs). */
+	private final Component[] synchronousComponents;
+	/** The generated class that executes the components (<tt>null</tt> if not compiled). */
+	private CompiledDatapath compiledDatapath = null;
+	/** Whether the compiled datapath was used in the last evaluation and not synchronized yet. */
+	private boolean outOfSync = false;
+
+	/**
+	 * Creates the evaluator.
+	 * @param order All the components, in topological order.
+	 * @param synchronousComponents The synchronous components.
+	 */
+	private LevelizedEvaluator(Component[] order, Component[] synchronousComponents) {
+		this.order = order;
+		this.synchronousComponents = synchronousComponents;
+	}
+
+	/**
+	 * Sorts the given components and creates an evaluator for them.
+	 * @param components All the components of the CPU, already connected.
+	 * @return The evaluator, or <tt>null</tt> if the components have a combinational loop.
+	 */
+	static LevelizedEvaluator create(Component[] components) {
+		Map<Component, Integer> pending = new IdentityHashMap<>(); // number of combinational inputs not sorted yet
+		Map<Component, List<Component>> next = new IdentityHashMap<>(); // components driven by each component
+		List<Component> sync = new ArrayList<>();
+		LinkedList<Component> ready = new LinkedList<>();
+		List<Component> sorted = new ArrayList<>(components.length);
+
+		for(Component c: components) {
+			pending.put(c, 0);
+			next.put(c, new ArrayList<Component>());
+			if(c instanceof Synchronous) sync.add(c);
+		}
+
+		for(Component c: components) {
+			for(Output o: c.getOutputs()) {
+				if(o.isConnected()) {
+					Input i = o.getConnectedInput();
+					Component d = i.getComponent();
+					if(d.isCombinationalInput(i) && next.containsKey(d)) {
+						next.get(c).add(d);
+						pending.put(d, pending.get(d) + 1);
+					}
+				}
+			}
+		}
+
+		// Kahn's algorithm
+		for(Component c: components)
+			if(pending.get(c) == 0) ready.add(c);
+		while(!ready.isEmpty()) {
+			Component c = ready.removeFirst();
+			sorted.add(c);
+			for(Component d: next.get(c)) {
+				int p = pending.get(d) - 1;
+				pending.put(d, p);
+				if(p == 0) ready.add(d);
+			}
+		}
+
+		if(sorted.size() != components.length) // some components were never ready: loop
+			return null;
+		else
+			return new LevelizedEvaluator(sorted.toArray(new Component[sorted.size()]),
+				sync.toArray(new Component[sync.size()]));
+	}
+
+	/**
+	 * Creates an evaluator for a copy of the CPU, with the components in the
+	 * same order (not compiled).
+	 * @param cpu The copy of the CPU, with the same components (by identifier).
+	 * @return The new evaluator.
+	 */
+	LevelizedEvaluator copy(CPU cpu) {
+		Component[] o = new Component[order.length];
+		for(int i = 0; i < o.length; i++)
+			o[i] = cpu.getComponent(order[i].getId());
+		Component[] sync = new Component[synchronousComponents.length];
+		for(int i = 0; i < sync.length; i++)
+			sync[i] = cpu.getComponent(synchronousComponents[i].getId());
+		return new LevelizedEvaluator(o, sync);
+	}
+
+	/**
+	 * Disables the automatic execution of the components when their inputs change.
+	 * <p>Call this before the synchronous actions of a clock cycle, so that the
+	 * changes are only propagated in {@link #evaluate}.</p>
+	 */
+	void defer() {
+		for(Component c: order)
+			c.setExecutedOnInputChange(false);
+	}
+
+	/**
+	 * Executes all the components once in topological order and enables the
+	 * automatic execution of the components again.
+	 * @param useCompiled Whether to use the compiled datapath, if it exists.
+	 */
+	void evaluate(boolean useCompiled) {
+		defer();
+		try {
+			if(useCompiled && compiledDatapath != null) {
+				compiledDatapath.evaluate();
+				outOfSync = true;
+			}
+			else {
+				for(Component c: order)
+					c.execute();
+				for(Component c: synchronousComponents) // refresh inputs/outputs that only change the relevance
+					c.execute();
+				outOfSync = false;
+			}
+		}
+		finally {
+			resume();
+		}
+	}
+
+	/**
+	 * Updates the inputs and outputs that the compiled datapath didn't update
+	 * in the last evaluation.
+	 * <p>Call this before the values of all the inputs and outputs are needed
+	 * (for example, to show them to the user). Does nothing if the compiled
+	 * datapath wasn't used.</p>
+	 */
+	void sync() {
+		if(outOfSync) {
+			defer();
+			try {
+				compiledDatapath.sync();
+				outOfSync = false;
+			}
+			finally {
+				resume();
+			}
+		}
+	}
+
+	/**
+	 * Enables the automatic execution of the components again.
+	 */
+	private void resume() {
+		for(Component c: order)
+			c.setExecutedOnInputChange(true);
+	}
+
+	/**
+	 * Generates and compiles the datapath class, if not compiled yet.
+	 * @return <tt>True</tt> if the datapath was compiled successfully.
+	 * @see DatapathCompiler
+	 */
+	boolean compile() {
+		if(compiledDatapath == null)
+			compiledDatapath = DatapathCompiler.compile(order, synchronousComponents);
+		return compiledDatapath != null;
+	}
+
+	/**
+	 * Compiles the datapath reusing the class already compiled for another
+	 * evaluator with the same structure (of a copy of the same CPU).
+	 * <p>If the class can't be reused, it is compiled normally.</p>
+	 * @param template The evaluator of the original CPU.
+	 * @return <tt>True</tt> if the datapath was compiled successfully.
+	 */
+	boolean compile(LevelizedEvaluator template) {
+		if(compiledDatapath == null && template.compiledDatapath != null)
+			compiledDatapath = DatapathCompiler.instantiate(template.compiledDatapath, order, synchronousComponents);
+		return compile();
+	}
+
+	/**
+	 * Returns whether the datapath was compiled.
+	 * @return <tt>True</tt> if the datapath was compiled.
+	 */
+	boolean isCompiled() {
+		return compiledDatapath != null;
+	}
+
+	/**
+	 * Returns the components in the order they are executed.
+	 * @return The components in topological order.
+	 */
+	Component[] getOrder() {
+		return order;
+	}
+}
@@ -0,0 +1,244 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hand-written lexer of assembly code.
+ * <p>The code is read in a single pass, character by character, and split in
+ * {@link Token}s with their line and column. Comments (from {@link Assembler#COMMENT_CHAR}
+ * to the end of the line) and whitespace are skipped. A "word" is a sequence
+ * of characters delimited by whitespace, comments, commas, colons or
+ * parenthesis; a word that isn't a valid identifier, directive, register or
+ * integer is returned as an {@link Token.Type#INVALID} token (no exceptions
+ * are thrown).</p>
+ *
+ * @author Bruno Nova
+ */
+public final class Lexer {
+	/** The code being read. */
+	private final String code;
+	/** The length of the code. */
+	private final int length;
+	/** The index of the next character to read. */
+	private int position = 0;
+	/** The number of the current line. */
+	private int line;
+	/** The index of the first character of the current line. */
+	private int lineStart = 0;
+
+	/**
+	 * Creates a lexer for the given code, starting at line 1.
+	 * @param code The assembly code.
+	 */
+	public Lexer(String code) {
+		this(code, 1);
+	}
+
+	/**
+	 * Creates a lexer for the given code.
+	 * @param code The assembly code.
+	 * @param firstLine The number of the first line of the code.
+	 */
+	public Lexer(String code, int firstLine) {
+		this.code = code;
+		this.length = code.length();
+		this.line = firstLine;
+	}
+
+	/**
+	 * Reads the next token.
+	 * @return The next token, or a {@link Token.Type#END} token at the end of the code.
+	 */
+	public Token next() {
+		// Skip whitespace and comments
+		char c = 0;
+		while(position < length) {
+			c = code.charAt(position);
+			if(c == Assembler.COMMENT_CHAR) {
+				while(position < length && code.charAt(position) != '\n')
+					position++;
+			}
+			else if(c <= ' ' && c != '\n')
+				position++;
+			else
+				break;
+		}
+		int start = position;
+		if(start >= length)
+			return token(Token.Type.END, start, start, 0);
+
+		Token token;
+		switch(c) {
+			case '\n':
+				token = token(Token.Type.NEWLINE, start, ++position, 0);
+				line++;
+				lineStart = position;
+				return token;
+			case ',': return token(Token.Type.COMMA, start, ++position, 0);
+			case ':': return token(Token.Type.COLON, start, ++position, 0);
+			case '(': return token(Token.Type.LEFT_PARENTHESIS, start, ++position, 0);
+			case ')': return token(Token.Type.RIGHT_PARENTHESIS, start, ++position, 0);
+			default: return word(start);
+		}
+	}
+
+	/**
+	 * Reads the tokens of the next line.
+	 * @param tokens The list where the tokens are added (it is cleared first).
+	 * @return <tt>false</tt> if the end of the code was reached.
+	 */
+	public boolean nextLine(List<Token> tokens) {
+		tokens.clear();
+		Token token;
+		while((token = next()).getType() != Token.Type.NEWLINE) {
+			if(token.getType() == Token.Type.END)
+				return false;
+			tokens.add(token);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of the current line.
+	 * @return The number of the line of the next token.
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * Splits the given code in tokens.
+	 * <p>The final {@link Token.Type#END} token is not included.</p>
+	 * @param code The assembly code.
+	 * @return The tokens.
+	 */
+	public static List<Token> tokenize(String code) {
+		Lexer lexer = new Lexer(code);
+		List<Token> tokens = new ArrayList<>();
+		Token token;
+		while((token = lexer.next()).getType() != Token.Type.END)
+			tokens.add(token);
+		return tokens;
+	}
+
+	/**
+	 * Returns whether the given character ends a word.
+	 * @param c The character.
+	 * @return <tt>true</tt> if it's whitespace, a comment or punctuation.
+	 */
+	private static boolean isDelimiter(char c) {
+		return c <= ' ' || c == ',' || c == ':' || c == '(' || c == ')' || c == Assembler.COMMENT_CHAR;
+	}
+
+	/**
+	 * Returns whether the given character can be part of an identifier.
+	 * @param c The character.
+	 * @return <tt>true</tt> if it's an ASCII letter or digit or <tt>_</tt>.
+	 */
+	private static boolean isIdentifierChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	/**
+	 * Reads a word and determines its type.
+	 * @param start The index of the first character of the word.
+	 * @return The token.
+	 */
+	private Token word(int start) {
+		char first = code.charAt(start);
+		if(first == '$' || first == '.') { // register or directive
+			position++;
+			boolean valid = position < length && !isDelimiter(code.charAt(position));
+			for(; position < length && !isDelimiter(code.charAt(position)); position++) {
+				if(!isIdentifierChar(code.charAt(position)))
+					valid = false;
+			}
+			Token.Type type = first == '$' ? Token.Type.REGISTER : Token.Type.DIRECTIVE;
+			return token(valid ? type : Token.Type.INVALID, start, position, 0);
+		}
+		else if((first >= '0' && first <= '9') || first == '-' || first == '+') // integer
+			return integer(start);
+		else { // identifier
+			boolean valid = isIdentifierChar(first) && (first < '0' || first > '9');
+			for(; position < length && !isDelimiter(code.charAt(position)); position++) {
+				char c = code.charAt(position);
+				if(!isIdentifierChar(c) && c != '.')
+					valid = false;
+			}
+			return token(valid ? Token.Type.IDENTIFIER : Token.Type.INVALID, start, position, 0);
+		}
+	}
+
+	/**
+	 * Reads an integer, with the same syntax as {@link Long#decode(String)}
+	 * (except <tt>#</tt>, which starts a comment).
+	 * @param start The index of the first character of the integer.
+	 * @return The integer token, or an invalid token.
+	 */
+	private Token integer(int start) {
+		int p = start;
+		boolean negative = false;
+		char c = code.charAt(p);
+		if(c == '-' || c == '+') {
+			negative = c == '-';
+			p++;
+		}
+
+		int radix = 10;
+		if(p + 1 < length && code.charAt(p) == '0' && (code.charAt(p + 1) == 'x' || code.charAt(p + 1) == 'X')) {
+			radix = 16;
+			p += 2;
+		}
+		else if(p + 1 < length && code.charAt(p) == '0' && !isDelimiter(code.charAt(p + 1))) {
+			radix = 8;
+			p++;
+		}
+
+		boolean valid = p < length && !isDelimiter(code.charAt(p));
+		long value = 0;
+		long limit = Long.MAX_VALUE / radix;
+		for(; p < length && !isDelimiter(code.charAt(p)); p++) {
+			int digit = Character.digit(code.charAt(p), radix);
+			if(digit < 0 || value > limit || value * radix > Long.MAX_VALUE - digit)
+				valid = false;
+			else
+				value = value * radix + digit;
+		}
+		position = p;
+		if(!valid)
+			return token(Token.Type.INVALID, start, p, 0);
+		else
+			return token(Token.Type.INTEGER, start, p, negative ? -value : value);
+	}
+
+	/**
+	 * Creates a token in the current line.
+	 * @param type The type of the token.
+	 * @param start The index of the first character.
+	 * @param end The index after the last character.
+	 * @param value The value of an integer token.
+	 * @return The token.
+	 */
+	private Token token(Token.Type type, int start, int end, long value) {
+		return new Token(type, code, start, end, line, start - lineStart + 1, value);
+	}
+}
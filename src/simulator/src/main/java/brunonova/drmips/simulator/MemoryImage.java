@@ -0,0 +1,376 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import brunonova.drmips.simulator.components.DataMemory;
+import brunonova.drmips.simulator.components.RegBank;
+import brunonova.drmips.simulator.util.PagedMemory;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Loads and stores images of the data memory and of the registers, and loads programs in machine code.
+ * <p>The images are read and written through memory-mapped files, and the
+ * values are copied to/from the components in bulk, being propagated to the
+ * rest of the circuit only once. This allows large datasets to be loaded
+ * quickly.</p>
+ * <p>The supported formats are:</p>
+ * <ul>
+ * <li><b>raw</b>: the 32-bit values in binary, little-endian or big-endian
+ * (an incomplete last value is padded with zeros);</li>
+ * <li><b>hex</b>: text with one value per line in hexadecimal (up to 8 digits,
+ * like Verilog's <tt>$readmemh</tt>);</li>
+ * <li><b>bin</b>: text with one value per line in binary (up to 32 digits,
+ * like Verilog's <tt>$readmemb</tt>).</li>
+ * </ul>
+ * <p>In the text formats, the values may be separated by any whitespace,
+ * the character <tt>_</tt> inside a value is ignored, and the text from
+ * <tt>//</tt> or <tt>#</tt> to the end of the line is a comment.</p>
+ *
+ * @author Bruno Nova
+ */
+public final class MemoryImage {
+	/** The formats of the images. */
+	public enum Format {
+		/** Binary values (the byte order must be specified). */
+		RAW(0, 0),
+		/** Text values in hexadecimal. */
+		HEX(4, 8),
+		/** Text values in binary. */
+		BIN(1, 32);
+
+		/** Number of bits of each digit (<tt>0</tt> if not a text format). */
+		private final int bitsPerDigit;
+		/** Number of digits of each value (<tt>0</tt> if not a text format). */
+		private final int digits;
+
+		/**
+		 * Constructor.
+		 * @param bitsPerDigit Number of bits of each digit.
+		 * @param digits Number of digits of each value.
+		 */
+		private Format(int bitsPerDigit, int digits) {
+			this.bitsPerDigit = bitsPerDigit;
+			this.digits = digits;
+		}
+
+		/**
+		 * Returns the format of an image file from its extension.
+		 * <p>Files ending in <tt>.hex</tt> and <tt>.bin</tt> are in the text
+		 * formats, and all the others are raw.</p>
+		 * @param name The name of the file.
+		 * @return The format of the file.
+		 */
+		public static Format fromFileName(String name) {
+			String lower = name.toLowerCase();
+			if(lower.endsWith(".hex"))
+				return HEX;
+			else if(lower.endsWith(".bin"))
+				return BIN;
+			else
+				return RAW;
+		}
+	}
+
+	/** Size of each value, in bytes. */
+	private static final int WORD = Data.DATA_SIZE / 8;
+	/** The characters of the digits written in the text formats. */
+	private static final byte[] DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+	/**
+	 * Private constructor (static class).
+	 */
+	private MemoryImage() {}
+
+	/**
+	 * Loads an image to the data memory.
+	 * @param file The image file.
+	 * @param format The format of the image.
+	 * @param order The byte order of a raw image.
+	 * @param memory The data memory.
+	 * @param address The address where the image is loaded (multiple of 4).
+	 * @return The number of values loaded.
+	 * @throws IOException If the file can't be read, is invalid or doesn't fit in the memory.
+	 * @throws IllegalArgumentException If the address is invalid.
+	 */
+	public static int load(File file, Format format, ByteOrder order, DataMemory memory, int address) throws IOException, IllegalArgumentException {
+		int index = getIndex(memory, address);
+		IntBuffer values = read(file, format, order);
+		int count = values.remaining();
+		if(count > memory.getMemorySize() - index)
+			throw new IOException("The image has " + count + " values, which don't fit in the data memory after address " + address + "!");
+		memory.setDataInIndexes(index, values);
+		return count;
+	}
+
+	/**
+	 * Stores an image of the data memory.
+	 * @param file The image file (replaced if it exists).
+	 * @param format The format of the image.
+	 * @param order The byte order of a raw image.
+	 * @param memory The data memory.
+	 * @param address The address of the first value stored (multiple of 4).
+	 * @param count The number of values stored.
+	 * @throws IOException If the file can't be written.
+	 * @throws IllegalArgumentException If the address or number of values is invalid.
+	 */
+	public static void dump(File file, Format format, ByteOrder order, DataMemory memory, int address, int count) throws IOException, IllegalArgumentException {
+		int index = getIndex(memory, address);
+		if(count < 0 || count > memory.getMemorySize() - index)
+			throw new IllegalArgumentException("Invalid number of values: " + count + "!");
+		IntBuffer values = IntBuffer.allocate(count);
+		memory.getDataInIndexes(index, values);
+		values.flip();
+		write(file, format, order, values);
+	}
+
+	/**
+	 * Loads an image to the registers, starting with the first register.
+	 * <p>The constant registers aren't updated.</p>
+	 * @param file The image file.
+	 * @param format The format of the image.
+	 * @param order The byte order of a raw image.
+	 * @param regbank The register bank.
+	 * @return The number of values loaded.
+	 * @throws IOException If the file can't be read, is invalid or has more values than registers.
+	 */
+	public static int load(File file, Format format, ByteOrder order, RegBank regbank) throws IOException {
+		IntBuffer values = read(file, format, order);
+		int count = values.remaining();
+		if(count > regbank.getNumberOfRegisters())
+			throw new IOException("The image has " + count + " values, but there are only " + regbank.getNumberOfRegisters() + " registers!");
+		regbank.setRegisters(values);
+		return count;
+	}
+
+	/**
+	 * Stores an image of all the registers.
+	 * @param file The image file (replaced if it exists).
+	 * @param format The format of the image.
+	 * @param order The byte order of a raw image.
+	 * @param regbank The register bank.
+	 * @throws IOException If the file can't be written.
+	 */
+	public static void dump(File file, Format format, ByteOrder order, RegBank regbank) throws IOException {
+		IntBuffer values = IntBuffer.allocate(regbank.getNumberOfRegisters());
+		regbank.getRegisters(values);
+		values.flip();
+		write(file, format, order, values);
+	}
+
+	/**
+	 * Loads a program in machine code into the CPU, without assembling any code.
+	 * <p>The instruction words are decoded by the {@link Disassembler}, and
+	 * the values of the data image, if any, are loaded to the start of the
+	 * data memory. The program is loaded like an assembled program, so the
+	 * simulation starts from the beginning.</p>
+	 * @param code The image with the instruction words.
+	 * @param data The image with the values of the data segment (<tt>null</tt> if none).
+	 * @param format The format of the images.
+	 * @param order The byte order of raw images.
+	 * @param cpu The CPU.
+	 * @return The number of instructions loaded.
+	 * @throws IOException If a file can't be read or is invalid, a word isn't a valid instruction, or the data doesn't fit in the data memory.
+	 * @see Disassembler#createProgram(IntBuffer, IntBuffer)
+	 */
+	public static int loadProgram(File code, File data, Format format, ByteOrder order, CPU cpu) throws IOException {
+		IntBuffer words = read(code, format, order);
+		IntBuffer values = data != null ? read(data, format, order) : null;
+		AssembledProgram program;
+		try {
+			program = new Disassembler(cpu).createProgram(words, values);
+		}
+		catch(IllegalArgumentException ex) {
+			throw new IOException(ex.getMessage(), ex);
+		}
+		cpu.loadProgram(program);
+		return program.getInstructions().size();
+	}
+
+	/**
+	 * Returns the number of positions of the data memory that are usually stored in an image.
+	 * <p>This is the whole memory, if it isn't sparse. If it is sparse, these
+	 * are the positions of the consecutive allocated pages that start at
+	 * address 0, where the data segment is (at least one page), as the higher
+	 * addresses are usually used by the stack.</p>
+	 * @param memory The data memory.
+	 * @return The number of positions, starting at address 0.
+	 */
+	public static int getDataSegmentSize(DataMemory memory) {
+		if(!memory.isSparse())
+			return memory.getMemorySize();
+		int[] indexes = memory.getUsedIndexes(); // whole pages, in ascending order
+		int size = PagedMemory.PAGE_SIZE;
+		while(size < indexes.length && indexes[size] == size)
+			size += PagedMemory.PAGE_SIZE;
+		return size;
+	}
+
+	/**
+	 * Reads the values of an image file.
+	 * @param file The image file.
+	 * @param format The format of the image.
+	 * @param order The byte order of a raw image.
+	 * @return The values (a view of the mapped file, for raw images).
+	 * @throws IOException If the file can't be read or is invalid.
+	 */
+	public static IntBuffer read(File file, Format format, ByteOrder order) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE)
+				throw new IOException("The image is too large!");
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if(format == Format.RAW)
+				return readRaw(buffer, order);
+			else
+				return readText(buffer, format);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes values to an image file.
+	 * @param file The image file (replaced if it exists).
+	 * @param format The format of the image.
+	 * @param order The byte order of a raw image.
+	 * @param values The values (from the buffer's position to its limit).
+	 * @throws IOException If the file can't be written or the image is too large.
+	 */
+	public static void write(File file, Format format, ByteOrder order, IntBuffer values) throws IOException {
+		long size = (long)values.remaining() * (format == Format.RAW ? WORD : format.digits + 1);
+		if(size > Integer.MAX_VALUE)
+			throw new IOException("The image is too large!");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(size);
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			if(format == Format.RAW)
+				buffer.order(order).asIntBuffer().put(values);
+			else
+				writeText(buffer, format, values);
+			buffer.force();
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the index of the data memory position at the given address.
+	 * @param memory The data memory.
+	 * @param address The address.
+	 * @return The index of the position.
+	 * @throws IllegalArgumentException If the address isn't a multiple of 4 or is out of bounds.
+	 */
+	private static int getIndex(DataMemory memory, int address) throws IllegalArgumentException {
+		int index = memory.getIndexOfAddress(address);
+		if(address % WORD != 0 || index < 0)
+			throw new IllegalArgumentException("Invalid data memory address: " + address + "!");
+		return index;
+	}
+
+	/**
+	 * Reads the values of a raw image.
+	 * @param buffer The contents of the file.
+	 * @param order The byte order.
+	 * @return The values.
+	 */
+	private static IntBuffer readRaw(ByteBuffer buffer, ByteOrder order) {
+		buffer.order(order);
+		int rest = buffer.remaining() % WORD;
+		if(rest == 0)
+			return buffer.asIntBuffer(); // no copy
+		else { // pad the last value with zeros
+			ByteBuffer padded = ByteBuffer.allocate(buffer.remaining() - rest + WORD).order(order);
+			padded.put(buffer).rewind();
+			return padded.asIntBuffer();
+		}
+	}
+
+	/**
+	 * Reads the values of an image in a text format.
+	 * @param buffer The contents of the file.
+	 * @param format The format.
+	 * @return The values.
+	 * @throws IOException If the file has an invalid value.
+	 */
+	private static IntBuffer readText(ByteBuffer buffer, Format format) throws IOException {
+		int[] values = new int[buffer.remaining() / (format.digits + 1) + 1];
+		int count = 0, line = 1;
+		while(buffer.hasRemaining()) {
+			byte c = buffer.get();
+			if(c == '\n')
+				line++;
+			else if(c == '#' || (c == '/' && buffer.hasRemaining() && buffer.get(buffer.position()) == '/')) {
+				while(buffer.hasRemaining() && buffer.get(buffer.position()) != '\n')
+					buffer.get(); // skip the comment
+			}
+			else if(c != ' ' && c != '\t' && c != '\r') { // a value
+				int value = 0, digits = 0;
+				while(true) {
+					if(c != '_') {
+						int digit = Character.digit((char)c, 1 << format.bitsPerDigit);
+						if(digit < 0 || ++digits > format.digits)
+							throw new IOException("Invalid value in line " + line + "!");
+						value = (value << format.bitsPerDigit) | digit;
+					}
+					if(!buffer.hasRemaining()) break;
+					c = buffer.get(buffer.position());
+					if(c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '#' || c == '/') break;
+					buffer.get();
+				}
+				if(count == values.length)
+					values = Arrays.copyOf(values, values.length * 2);
+				values[count++] = value;
+			}
+		}
+		return IntBuffer.wrap(values, 0, count);
+	}
+
+	/**
+	 * Writes values in a text format, one per line.
+	 * @param buffer The buffer where the text is written.
+	 * @param format The format.
+	 * @param values The values.
+	 */
+	private static void writeText(ByteBuffer buffer, Format format, IntBuffer values) {
+		byte[] line = new byte[format.digits + 1];
+		line[format.digits] = '\n';
+		int mask = (1 << format.bitsPerDigit) - 1;
+		while(values.hasRemaining()) {
+			int value = values.get();
+			for(int i = format.digits - 1; i >= 0; i--) {
+				line[i] = DIGITS[value & mask];
+				value >>>= format.bitsPerDigit;
+			}
+			buffer.put(line);
+		}
+	}
+}
@@ -86,6 +86,19 @@ public final class Output extends IOPort {
 		points = new LinkedList<>();
 	}
 
+	/**
+	 * Creates a copy of an output of another component, not connected (see {@link Component#copy}).
+	 * <p>The intermediate points of the wire are also copied.</p>
+	 * @param component The component that the copy belongs to.
+	 * @param original The output being copied.
+	 */
+	Output(Component component, Output original) {
+		super(component, original);
+		points = new LinkedList<>();
+		for(Point p: original.points)
+			points.add(new Point(p));
+	}
+
 	/**
 	 * Connect this output to another component's input.
 	 * @param input The input to connect to.
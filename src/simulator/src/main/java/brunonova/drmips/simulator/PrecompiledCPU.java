@@ -0,0 +1,529 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import brunonova.drmips.simulator.util.JSONLoader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Precompiled (binary) version of a CPU file and its instruction set file.
+ * <p>A <tt>.cpub</tt> file contains the already parsed and validated contents
+ * of a <tt>.cpu</tt> file and of the instruction set file it references, in a
+ * compact binary form that is much faster to load than the JSON text. It is
+ * written next to the CPU file after the CPU is loaded successfully for the
+ * first time (and at build time for the bundled CPUs), and is read on the
+ * following loads.</p>
+ * <p>The file stores the sizes and modification times of the source files,
+ * and a SHA-256 hash of their contents. The sources are only hashed if their
+ * sizes or modification times changed. If their contents changed, the
+ * precompiled file is ignored (and replaced on the next successful load).</p>
+ * <p>Format (big-endian): magic number, format version, hash of the sources,
+ * name of the instruction set file, sizes and modification times of the
+ * sources, table of strings, contents of the CPU file and contents of the
+ * instruction set file. The JSON values are written as a tag byte followed by
+ * the value; strings are indexes in the table.</p>
+ *
+ * @author Bruno Nova
+ */
+public final class PrecompiledCPU {
+	/** The extension of the precompiled files. */
+	public static final String EXTENSION = ".cpub";
+	/** The extension of the CPU files. */
+	private static final String CPU_EXTENSION = ".cpu";
+	/** The "magic number" at the beginning of the precompiled files ("DRMB"). */
+	private static final int MAGIC = 0x44524D42;
+	/** The version of the format (must be incremented whenever the format changes). */
+	private static final int VERSION = 2;
+	/** The algorithm used to hash the source files. */
+	private static final String HASH_ALGORITHM = "SHA-256";
+	/** The size of the hash, in bytes. */
+	private static final int HASH_SIZE = 32;
+	/** Minimum age of a source file for its modification time to be stored, in milliseconds. */
+	private static final long MIN_AGE = 2000;
+
+	/** Tag of a <tt>null</tt> value. */
+	private static final byte TAG_NULL = 0;
+	/** Tag of a <tt>false</tt> value. */
+	private static final byte TAG_FALSE = 1;
+	/** Tag of a <tt>true</tt> value. */
+	private static final byte TAG_TRUE = 2;
+	/** Tag of an <tt>int</tt> value. */
+	private static final byte TAG_INT = 3;
+	/** Tag of a <tt>long</tt> value. */
+	private static final byte TAG_LONG = 4;
+	/** Tag of a <tt>double</tt> value. */
+	private static final byte TAG_DOUBLE = 5;
+	/** Tag of a string. */
+	private static final byte TAG_STRING = 6;
+	/** Tag of an object. */
+	private static final byte TAG_OBJECT = 7;
+	/** Tag of an array. */
+	private static final byte TAG_ARRAY = 8;
+	/** Tag of another type of number (stored as a string). */
+	private static final byte TAG_NUMBER = 9;
+
+	/** The logger. */
+	private static final Logger LOG = Logger.getLogger(PrecompiledCPU.class.getName());
+
+	/** The contents of the CPU file. */
+	private final JSONObject cpu;
+	/** The contents of the instruction set file. */
+	private final JSONObject instructionSet;
+	/** Whether the sources had to be hashed (their sizes or modification times changed). */
+	private final boolean hashed;
+
+	/**
+	 * Creates the precompiled CPU.
+	 * @param cpu The contents of the CPU file.
+	 * @param instructionSet The contents of the instruction set file.
+	 * @param hashed Whether the sources had to be hashed.
+	 */
+	private PrecompiledCPU(JSONObject cpu, JSONObject instructionSet, boolean hashed) {
+		this.cpu = cpu;
+		this.instructionSet = instructionSet;
+		this.hashed = hashed;
+	}
+
+	/**
+	 * Returns the contents of the CPU file.
+	 * @return The contents of the CPU file.
+	 */
+	public JSONObject getCPU() {
+		return cpu;
+	}
+
+	/**
+	 * Returns the contents of the instruction set file.
+	 * @return The contents of the instruction set file.
+	 */
+	public JSONObject getInstructionSet() {
+		return instructionSet;
+	}
+
+	/**
+	 * Returns whether the precompiled file should be written again.
+	 * <p>This happens when the sizes or modification times of the source files
+	 * changed but not their contents, so the sources had to be hashed. Writing
+	 * the file again avoids hashing them in the next loads.</p>
+	 * @return <tt>True</tt> if the file should be written again.
+	 */
+	public boolean needsRewrite() {
+		return hashed;
+	}
+
+	/**
+	 * Returns the precompiled file of a CPU file.
+	 * @param cpuFile The CPU file.
+	 * @return The precompiled file (in the same directory).
+	 */
+	public static File getFile(File cpuFile) {
+		return new File(cpuFile.getParentFile(), getFileName(cpuFile));
+	}
+
+	/**
+	 * Returns the name of the precompiled file of a CPU file.
+	 * @param cpuFile The CPU file.
+	 * @return The name of the precompiled file.
+	 */
+	private static String getFileName(File cpuFile) {
+		String name = cpuFile.getName();
+		if(name.endsWith(CPU_EXTENSION))
+			name = name.substring(0, name.length() - CPU_EXTENSION.length());
+		return name + EXTENSION;
+	}
+
+	/**
+	 * Reads the precompiled file of a CPU file, if it exists and is up to date.
+	 * @param cpuFile The CPU file.
+	 * @return The precompiled CPU, or <tt>null</tt> if the precompiled file
+	 *         doesn't exist, is outdated or is invalid.
+	 */
+	public static PrecompiledCPU read(File cpuFile) {
+		File file = getFile(cpuFile);
+		if(!file.isFile()) return null;
+
+		try {
+			// Read the whole file (not memory-mapped, so that it can be replaced later)
+			ByteBuffer buffer = ByteBuffer.wrap(readBytes(file));
+			if(buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				LOG.fine(file + " has an unknown format");
+				return null;
+			}
+			byte[] hash = new byte[HASH_SIZE];
+			buffer.get(hash);
+			String setName = readString(buffer);
+			File setFile = new File(cpuFile.getAbsoluteFile().getParentFile(), setName);
+			long cpuSize = buffer.getLong(), cpuModified = buffer.getLong();
+			long setSize = buffer.getLong(), setModified = buffer.getLong();
+			boolean hashed = false;
+			if(cpuSize != cpuFile.length() || cpuModified != cpuFile.lastModified()
+				|| setSize != setFile.length() || setModified != setFile.lastModified()) {
+				// The sources may have changed, compare their contents
+				if(!Arrays.equals(hash, hash(readBytes(cpuFile), setName, readBytes(setFile)))) {
+					LOG.fine(file + " is outdated");
+					return null;
+				}
+				hashed = true;
+			}
+
+			String[] strings = new String[buffer.getInt()];
+			for(int i = 0; i < strings.length; i++)
+				strings[i] = readString(buffer);
+			JSONObject cpu = (JSONObject)readValue(buffer, strings);
+			JSONObject set = (JSONObject)readValue(buffer, strings);
+			return new PrecompiledCPU(cpu, set, hashed);
+		}
+		catch(Exception ex) { // corrupted or truncated file
+			LOG.fine("error reading " + file + ": " + ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the precompiled file of a CPU file, in the same directory.
+	 * <p>The CPU should have been loaded successfully from the file before.</p>
+	 * @param cpuFile The CPU file.
+	 * @throws IOException If an I/O error occurs.
+	 * @throws JSONException If the CPU or instruction set file is malformed.
+	 */
+	public static void write(File cpuFile) throws IOException, JSONException {
+		write(cpuFile, getFile(cpuFile));
+	}
+
+	/**
+	 * Writes the precompiled file of a CPU file.
+	 * <p>The CPU should have been loaded successfully from the file before.
+	 * The file is written atomically (a temporary file is written first).</p>
+	 * @param cpuFile The CPU file.
+	 * @param file The precompiled file to write.
+	 * @throws IOException If an I/O error occurs.
+	 * @throws JSONException If the CPU or instruction set file is malformed.
+	 */
+	public static void write(File cpuFile, File file) throws IOException, JSONException {
+		// Parse the same bytes that are hashed (the sizes and modification times
+		// are obtained before, so a change while reading is detected later)
+		long cpuSize = cpuFile.length(), cpuModified = getModificationTime(cpuFile);
+		byte[] cpuBytes = readBytes(cpuFile);
+		JSONObject cpu = new JSONObject(new String(cpuBytes, JSONLoader.ENCODING));
+		String setName = cpu.getString("instructions");
+		File setFile = new File(cpuFile.getAbsoluteFile().getParentFile(), setName);
+		long setSize = setFile.length(), setModified = getModificationTime(setFile);
+		byte[] setBytes = readBytes(setFile);
+		JSONObject set = new JSONObject(new String(setBytes, JSONLoader.ENCODING));
+
+		// Table of strings
+		Map<String, Integer> strings = new LinkedHashMap<>();
+		collectStrings(cpu, strings);
+		collectStrings(set, strings);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(cpuBytes.length + setBytes.length);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.write(hash(cpuBytes, setName, setBytes));
+		writeString(out, setName);
+		out.writeLong(cpuSize);
+		out.writeLong(cpuModified);
+		out.writeLong(setSize);
+		out.writeLong(setModified);
+		out.writeInt(strings.size());
+		for(String s: strings.keySet())
+			writeString(out, s);
+		writeValue(out, cpu, strings);
+		writeValue(out, set, strings);
+		out.flush();
+
+		File tmp = File.createTempFile("drmips", ".tmp", file.getAbsoluteFile().getParentFile());
+		OutputStream os = null;
+		try {
+			os = new FileOutputStream(tmp);
+			bytes.writeTo(os);
+			os.close();
+			os = null;
+			if(!tmp.renameTo(file)) { // some systems don't replace existing files
+				file.delete();
+				if(!tmp.renameTo(file))
+					throw new IOException("Failed to rename " + tmp + " to " + file + "!");
+			}
+		}
+		finally {
+			if(os != null) os.close();
+			if(tmp.exists()) tmp.delete();
+		}
+	}
+
+	/**
+	 * Validates and precompiles all the CPU files in a directory.
+	 * <p>Used at build time, to precompile the bundled CPUs.</p>
+	 * @param args The directory with the CPU files and the output directory.
+	 * @throws Exception If a CPU is invalid or an I/O error occurs.
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length != 2) {
+			System.err.println("Usage: PrecompiledCPU <cpu directory> <output directory>");
+			System.exit(1);
+		}
+		File[] files = new File(args[0]).listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(CPU_EXTENSION);
+			}
+		});
+		if(files == null)
+			throw new IOException("Directory " + args[0] + " not found!");
+		File outputDir = new File(args[1]);
+		if(!outputDir.isDirectory() && !outputDir.mkdirs())
+			throw new IOException("Failed to create directory " + outputDir + "!");
+
+		Arrays.sort(files);
+		for(File file: files) {
+			CPU.createFromJSONFile(file.getPath(), false); // validate
+			write(file, new File(outputDir, getFileName(file)));
+		}
+	}
+
+	/**
+	 * Returns the modification time of a source file, to be stored in the
+	 * precompiled file.
+	 * <p>If the file was modified very recently, it could still be modified
+	 * again without changing its modification time (depending on the
+	 * resolution of the file system's clock). In that case, <tt>-1</tt> is
+	 * returned, so the file is hashed in the next load.</p>
+	 * @param file The source file.
+	 * @return The modification time, or <tt>-1</tt> if too recent.
+	 */
+	private static long getModificationTime(File file) {
+		long modified = file.lastModified();
+		return (System.currentTimeMillis() - modified >= MIN_AGE) ? modified : -1;
+	}
+
+	/**
+	 * Reads all the bytes of a file.
+	 * @param file The file.
+	 * @return The contents of the file.
+	 * @throws IOException If the file doesn't exist or an I/O error occurs.
+	 */
+	private static byte[] readBytes(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			long size = in.getChannel().size();
+			if(size > Integer.MAX_VALUE)
+				throw new IOException("File " + file + " is too big!");
+			byte[] bytes = new byte[(int)size];
+			int n, offset = 0;
+			while(offset < bytes.length && (n = in.read(bytes, offset, bytes.length - offset)) >= 0)
+				offset += n;
+			return offset == bytes.length ? bytes : Arrays.copyOf(bytes, offset);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Calculates the hash of the source files.
+	 * @param cpu The contents of the CPU file.
+	 * @param setName The name of the instruction set file.
+	 * @param set The contents of the instruction set file.
+	 * @return The hash.
+	 */
+	private static byte[] hash(byte[] cpu, String setName, byte[] set) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+			digest.update(cpu);
+			digest.update((byte)0);
+			digest.update(setName.getBytes(JSONLoader.ENCODING));
+			digest.update((byte)0);
+			digest.update(set);
+			return digest.digest();
+		}
+		catch(NoSuchAlgorithmException | UnsupportedEncodingException ex) { // shouldn't happen
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Adds all the strings in a JSON value (including the keys) to the table.
+	 * @param value The JSON value.
+	 * @param strings The table of strings and their indexes.
+	 */
+	private static void collectStrings(Object value, Map<String, Integer> strings) {
+		if(value instanceof JSONObject) {
+			JSONObject obj = (JSONObject)value;
+			Iterator<String> keys = obj.keys();
+			while(keys.hasNext()) {
+				String key = keys.next();
+				addString(key, strings);
+				collectStrings(obj.opt(key), strings);
+			}
+		}
+		else if(value instanceof JSONArray) {
+			JSONArray array = (JSONArray)value;
+			for(int i = 0; i < array.length(); i++)
+				collectStrings(array.opt(i), strings);
+		}
+		else if(value instanceof String)
+			addString((String)value, strings);
+	}
+
+	/**
+	 * Adds a string to the table, if it isn't there yet.
+	 * @param s The string.
+	 * @param strings The table of strings and their indexes.
+	 */
+	private static void addString(String s, Map<String, Integer> strings) {
+		if(!strings.containsKey(s))
+			strings.put(s, strings.size());
+	}
+
+	/**
+	 * Writes a JSON value.
+	 * @param out The output stream.
+	 * @param value The JSON value.
+	 * @param strings The table of strings and their indexes.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	private static void writeValue(DataOutputStream out, Object value, Map<String, Integer> strings) throws IOException {
+		if(value instanceof JSONObject) {
+			JSONObject obj = (JSONObject)value;
+			out.writeByte(TAG_OBJECT);
+			out.writeInt(obj.length());
+			Iterator<String> keys = obj.keys();
+			while(keys.hasNext()) {
+				String key = keys.next();
+				out.writeInt(strings.get(key));
+				writeValue(out, obj.opt(key), strings);
+			}
+		}
+		else if(value instanceof JSONArray) {
+			JSONArray array = (JSONArray)value;
+			out.writeByte(TAG_ARRAY);
+			out.writeInt(array.length());
+			for(int i = 0; i < array.length(); i++)
+				writeValue(out, array.opt(i), strings);
+		}
+		else if(value instanceof String) {
+			out.writeByte(TAG_STRING);
+			out.writeInt(strings.get((String)value));
+		}
+		else if(value instanceof Integer) {
+			out.writeByte(TAG_INT);
+			out.writeInt((Integer)value);
+		}
+		else if(value instanceof Long) {
+			out.writeByte(TAG_LONG);
+			out.writeLong((Long)value);
+		}
+		else if(value instanceof Double) {
+			out.writeByte(TAG_DOUBLE);
+			out.writeDouble((Double)value);
+		}
+		else if(value instanceof Boolean)
+			out.writeByte((Boolean)value ? TAG_TRUE : TAG_FALSE);
+		else if(value instanceof Number) { // BigInteger, BigDecimal, etc.
+			out.writeByte(TAG_NUMBER);
+			writeString(out, value.toString());
+		}
+		else // JSONObject.NULL
+			out.writeByte(TAG_NULL);
+	}
+
+	/**
+	 * Reads a JSON value.
+	 * @param in The buffer.
+	 * @param strings The table of strings.
+	 * @return The JSON value.
+	 * @throws IOException If the value is invalid.
+	 */
+	private static Object readValue(ByteBuffer in, String[] strings) throws IOException {
+		byte tag = in.get();
+		switch(tag) {
+			case TAG_NULL: return JSONObject.NULL;
+			case TAG_FALSE: return Boolean.FALSE;
+			case TAG_TRUE: return Boolean.TRUE;
+			case TAG_INT: return in.getInt();
+			case TAG_LONG: return in.getLong();
+			case TAG_DOUBLE: return in.getDouble();
+			case TAG_STRING: return strings[in.getInt()];
+			case TAG_NUMBER: return JSONObject.stringToValue(readString(in));
+			case TAG_OBJECT:
+				int n = in.getInt();
+				JSONObject obj = new JSONObject();
+				for(int i = 0; i < n; i++) {
+					String key = strings[in.getInt()];
+					obj.put(key, readValue(in, strings));
+				}
+				return obj;
+			case TAG_ARRAY:
+				n = in.getInt();
+				JSONArray array = new JSONArray();
+				for(int i = 0; i < n; i++)
+					array.put(readValue(in, strings));
+				return array;
+			default:
+				throw new IOException("Invalid tag " + tag + "!");
+		}
+	}
+
+	/**
+	 * Writes a string (size in bytes followed by the UTF-8 bytes).
+	 * @param out The output stream.
+	 * @param s The string.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(JSONLoader.ENCODING);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string (size in bytes followed by the UTF-8 bytes).
+	 * @param in The buffer.
+	 * @return The string.
+	 * @throws IOException If the string is invalid.
+	 */
+	private static String readString(ByteBuffer in) throws IOException {
+		int size = in.getInt();
+		if(size < 0 || size > in.remaining())
+			throw new IOException("Invalid string size " + size + "!");
+		byte[] bytes = new byte[size];
+		in.get(bytes);
+		return new String(bytes, JSONLoader.ENCODING);
+	}
+}
@@ -0,0 +1,95 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package brunonova.drmips.simulator;
+
+/**
+ * The result of a call to {@link CPU#run}.
+ *
+ * @author Bruno Nova
+ */
+public final class RunResult {
+	/** The reasons why the simulation stopped. */
+	public enum Reason {
+		/** The program finished executing. */
+		FINISHED,
+		/** The breakpoint was hit. */
+		BREAKPOINT,
+		/** The maximum number of cycles was executed (possible infinite loop). */
+		BUDGET,
+		/** The maximum execution time was reached. */
+		DEADLINE,
+		/** The simulation was cancelled through the cancellation token. */
+		CANCELLED
+	}
+
+	/** The reason why the simulation stopped. */
+	private final Reason reason;
+	/** The number of cycles executed. */
+	private final int cycles;
+	/** The time the simulation took, in milliseconds. */
+	private final long time;
+
+	/**
+	 * Creates the result.
+	 * @param reason The reason why the simulation stopped.
+	 * @param cycles The number of cycles executed.
+	 * @param time The time the simulation took, in milliseconds.
+	 */
+	public RunResult(Reason reason, int cycles, long time) {
+		this.reason = reason;
+		this.cycles = cycles;
+		this.time = time;
+	}
+
+	/**
+	 * Returns the reason why the simulation stopped.
+	 * @return The reason.
+	 */
+	public Reason getReason() {
+		return reason;
+	}
+
+	/**
+	 * Returns whether the simulation stopped because the program finished or the breakpoint was hit.
+	 * @return <tt>True</tt> if the simulation wasn't interrupted.
+	 */
+	public boolean isCompleted() {
+		return reason == Reason.FINISHED || reason == Reason.BREAKPOINT;
+	}
+
+	/**
+	 * Returns the number of cycles executed.
+	 * @return The number of cycles executed.
+	 */
+	public int getNumberOfExecutedCycles() {
+		return cycles;
+	}
+
+	/**
+	 * Returns the time the simulation took.
+	 * @return The elapsed time, in milliseconds.
+	 */
+	public long getElapsedTime() {
+		return time;
+	}
+
+	@Override
+	public String toString() {
+		return reason + " after " + cycles + " cycles (" + time + " ms)";
+	}
+}
@@ -52,6 +52,18 @@ public abstract class SimpleBinaryOperationComponent extends Component {
 		output = addOutput(json.getString("out"), new Data(dataSize), IOPort.Direction.EAST, showTip);
 	}
 
+	/**
+	 * Constructor that copies another component, to be called by the copy
+	 * constructors of subclasses (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected SimpleBinaryOperationComponent(SimpleBinaryOperationComponent original) {
+		super(original);
+		input1 = getInput(original.input1.getId());
+		input2 = getInput(original.input2.getId());
+		output = getOutput(original.output.getId());
+	}
+
 	@Override
 	public void execute() {
 		getOutput().setValue(operation(getInput1().getValue(), getInput2().getValue()));
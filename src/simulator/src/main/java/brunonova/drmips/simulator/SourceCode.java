@@ -0,0 +1,157 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assembly code split in lines, with the tokens of each line.
+ * <p>Each line is read by the {@link Lexer} when it is added or replaced, so
+ * an editor can keep a <tt>SourceCode</tt> updated as the code is edited and
+ * only the modified lines are read again before
+ * {@link Assembler#assemble(SourceCode)}. The lines are read alone, so the
+ * positions of their tokens are relative to the line (the line number of the
+ * tokens is always 1).</p>
+ * <p>The lists of tokens are shared with the copies and must not be
+ * modified.</p>
+ *
+ * @author Bruno Nova
+ */
+public final class SourceCode {
+	/** The lines of the code (without the newline characters). */
+	private final List<String> lines;
+	/** The tokens of each line. */
+	private final List<List<Token>> tokens;
+
+	/**
+	 * Creates an empty code (with one empty line).
+	 */
+	public SourceCode() {
+		this("");
+	}
+
+	/**
+	 * Creates the code, splitting it in lines.
+	 * @param code The assembly code.
+	 */
+	public SourceCode(String code) {
+		List<String> split = split(code);
+		lines = new ArrayList<>(split.size());
+		tokens = new ArrayList<>(split.size());
+		replaceLines(0, 0, split);
+	}
+
+	/**
+	 * Creates a copy of the given code.
+	 * @param code The code to copy.
+	 */
+	private SourceCode(SourceCode code) {
+		lines = new ArrayList<>(code.lines);
+		tokens = new ArrayList<>(code.tokens);
+	}
+
+	/**
+	 * Returns a copy of the code.
+	 * <p>The lines and tokens are shared, so the copy is fast; it can be
+	 * assembled in another thread while this code is modified.</p>
+	 * @return The copy.
+	 */
+	public SourceCode copy() {
+		return new SourceCode(this);
+	}
+
+	/**
+	 * Replaces lines of the code.
+	 * @param index The index of the first line to replace (starts on 0).
+	 * @param count The number of lines to remove.
+	 * @param newLines The lines to insert in their place (without newline characters).
+	 * @throws IndexOutOfBoundsException If the lines don't exist.
+	 */
+	public void replaceLines(int index, int count, List<String> newLines) throws IndexOutOfBoundsException {
+		if(index < 0 || count < 0 || index + count > lines.size())
+			throw new IndexOutOfBoundsException("Invalid lines " + index + "-" + (index + count) + "!");
+		List<List<Token>> newTokens = new ArrayList<>(newLines.size());
+		for(String line: newLines) {
+			List<Token> t = new ArrayList<>();
+			new Lexer(line).nextLine(t);
+			newTokens.add(t);
+		}
+
+		lines.subList(index, index + count).clear();
+		lines.addAll(index, newLines);
+		tokens.subList(index, index + count).clear();
+		tokens.addAll(index, newTokens);
+	}
+
+	/**
+	 * Returns the number of lines.
+	 * @return The number of lines.
+	 */
+	public int getNumberOfLines() {
+		return lines.size();
+	}
+
+	/**
+	 * Returns a line of the code.
+	 * @param index The index of the line (starts on 0).
+	 * @return The line (without the newline character).
+	 */
+	public String getLine(int index) {
+		return lines.get(index);
+	}
+
+	/**
+	 * Returns the tokens of a line of the code.
+	 * @param index The index of the line (starts on 0).
+	 * @return The tokens of the line (without the newline), which must not be modified.
+	 */
+	public List<Token> getTokens(int index) {
+		return tokens.get(index);
+	}
+
+	/**
+	 * Returns the whole code.
+	 * @return The lines, separated by newline characters.
+	 */
+	public String getText() {
+		StringBuilder code = new StringBuilder();
+		for(int i = 0; i < lines.size(); i++) {
+			if(i > 0) code.append('\n');
+			code.append(lines.get(i));
+		}
+		return code.toString();
+	}
+
+	/**
+	 * Splits code in lines.
+	 * @param code The code.
+	 * @return The lines, without the newline characters (the last line may be empty).
+	 */
+	public static List<String> split(String code) {
+		List<String> split = new ArrayList<>();
+		int start = 0, end;
+		while((end = code.indexOf('\n', start)) >= 0) {
+			split.add(code.substring(start, end));
+			start = end + 1;
+		}
+		split.add(code.substring(start));
+		return split;
+	}
+}
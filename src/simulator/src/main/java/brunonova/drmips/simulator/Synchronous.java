@@ -27,7 +27,10 @@ package brunonova.drmips.simulator;
  * <tt>pushState()</tt>, <tt>popState()</tt>, <tt>hasSavedStates()</tt>,
  * <tt>clearSavedStates()</tt> and <tt>resetFirstState()</tt>.<br>
  * These methods are called automatically to save the internal state of the component
- * (to a stack, for example) or to restore the previous state.</p>
+ * (to a stack, for example) or to restore the previous state.<br>
+ * <tt>pushState()</tt> is called right before <tt>executeSynchronous()</tt>, so
+ * components only need to save the parts of the state that are about to be
+ * written (a journal of the overwritten values).</p>
  *
  * @author Bruno Nova
  */
@@ -40,7 +43,9 @@ public interface Synchronous {
 
 	/**
 	 * Saves the state of the component in the stack of states.
-	 * <p>Subclasses that have an internal state must implement this method to
+	 * <p>This method is called right before <tt>executeSynchronous()</tt>, so it
+	 * is enough to save the values that will be overwritten in this clock cycle.<br>
+	 * Subclasses that have an internal state must implement this method to
 	 * allow the "back step" function to work.</p>
 	 */
 	public void pushState();
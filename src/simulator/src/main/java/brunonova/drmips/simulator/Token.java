@@ -0,0 +1,168 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+/**
+ * A token of assembly code, produced by the {@link Lexer}.
+ * <p>The token references the code it was read from, so its text is only
+ * created when requested.</p>
+ *
+ * @author Bruno Nova
+ */
+public final class Token {
+	/** The types of tokens. */
+	public enum Type {
+		/** A mnemonic or a label (letters, digits, <tt>_</tt> and <tt>.</tt>, starting with a letter or <tt>_</tt>). */
+		IDENTIFIER,
+		/** A directive (like <tt>.data</tt> or <tt>.word</tt>). */
+		DIRECTIVE,
+		/** A register (like <tt>$t0</tt> or <tt>$8</tt>). */
+		REGISTER,
+		/** An integer (decimal, hexadecimal with <tt>0x</tt> or octal with a leading <tt>0</tt>, with an optional sign). */
+		INTEGER,
+		/** A comma (<tt>,</tt>). */
+		COMMA,
+		/** A colon (<tt>:</tt>). */
+		COLON,
+		/** A left parenthesis (<tt>(</tt>). */
+		LEFT_PARENTHESIS,
+		/** A right parenthesis (<tt>)</tt>). */
+		RIGHT_PARENTHESIS,
+		/** The end of a line. */
+		NEWLINE,
+		/** Any other sequence of characters. */
+		INVALID,
+		/** The end of the code. */
+		END
+	}
+
+	/** The type of the token. */
+	private final Type type;
+	/** The code the token was read from. */
+	private final String code;
+	/** The index of the first character of the token in the code. */
+	private final int start;
+	/** The index after the last character of the token in the code. */
+	private final int end;
+	/** The number of the line of the token (starting at 1). */
+	private final int line;
+	/** The column of the first character of the token (starting at 1). */
+	private final int column;
+	/** The value of an integer token. */
+	private final long value;
+
+	/**
+	 * Creates a token.
+	 * @param type The type of the token.
+	 * @param code The code the token was read from.
+	 * @param start The index of the first character of the token in the code.
+	 * @param end The index after the last character of the token in the code.
+	 * @param line The number of the line of the token (starting at 1).
+	 * @param column The column of the first character of the token (starting at 1).
+	 * @param value The value of an integer token (<tt>0</tt> for the other types).
+	 */
+	Token(Type type, String code, int start, int end, int line, int column, long value) {
+		this.type = type;
+		this.code = code;
+		this.start = start;
+		this.end = end;
+		this.line = line;
+		this.column = column;
+		this.value = value;
+	}
+
+	/**
+	 * Returns the type of the token.
+	 * @return The type of the token.
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the text of the token.
+	 * @return The text of the token.
+	 */
+	public String getText() {
+		return code.substring(start, end);
+	}
+
+	/**
+	 * Returns whether the text of the token is equal to the given text.
+	 * <p>The text of the token isn't created.</p>
+	 * @param text The text to compare to.
+	 * @return <tt>true</tt> if the text is equal.
+	 */
+	public boolean textEquals(String text) {
+		return text.length() == end - start && code.startsWith(text, start);
+	}
+
+	/**
+	 * Returns the code the token was read from.
+	 * @return The code.
+	 */
+	public String getCode() {
+		return code;
+	}
+
+	/**
+	 * Returns the index of the first character of the token in the code.
+	 * @return The index of the first character.
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * Returns the index after the last character of the token in the code.
+	 * @return The index after the last character.
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * Returns the number of the line of the token.
+	 * @return The number of the line (starting at 1).
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * Returns the column of the first character of the token.
+	 * @return The column (starting at 1).
+	 */
+	public int getColumn() {
+		return column;
+	}
+
+	/**
+	 * Returns the value of an integer token.
+	 * @return The value of the integer, or <tt>0</tt> if the token isn't an integer.
+	 */
+	public long getValue() {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return type + "(" + getText() + ")@" + line + ":" + column;
+	}
+}
@@ -0,0 +1,549 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import brunonova.drmips.simulator.util.PagedMemory;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Random access to a trace file written by a {@link TraceRecorder}.
+ * <p>The file is memory-mapped, and the state of the CPU in any recorded
+ * cycle is reconstructed from the nearest previous keyframe, applying the
+ * register and data memory writes of the cycles between them. The code of
+ * the instructions comes from the program recorded in the keyframes, not
+ * from the CPU that opens the trace. The keyframes are found through the index at the end of the file or, if the
+ * recorder wasn't closed, by skipping through the blocks (the records of an
+ * incomplete block at the end are ignored).</p>
+ * <p>The cycles are identified by their position in the trace (0 for the
+ * first record), as the same cycle may be recorded more than once if the
+ * execution was stepped back. The methods can be called by several threads
+ * simultaneously. The file can't be larger than 2 GiB.</p>
+ *
+ * @author Bruno Nova
+ */
+public final class TraceFile {
+	/** The contents of the file. */
+	private final ByteBuffer buffer;
+	/** The number of instruction indexes of each record. */
+	private final int stages;
+	/** The number of records. */
+	private long numberOfRecords = 0;
+	/** The number of keyframes. */
+	private int numberOfKeyframes = 0;
+	/** The number of records before each keyframe. */
+	private long[] keyframeRecords = new long[16];
+	/** The position of each keyframe in the file. */
+	private int[] keyframeOffsets = new int[16];
+	/** The code lines of the program of each keyframe (<tt>null</tt> if not read yet). */
+	private final String[][] programs;
+
+	/**
+	 * Opens a trace file.
+	 * @param file The trace file.
+	 * @throws IOException If an I/O error occurs or the file isn't a valid trace with keyframes.
+	 */
+	public TraceFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Trace file too big!");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid after closed
+		}
+		finally {
+			raf.close();
+		}
+
+		if(buffer.limit() < TraceRecorder.HEADER_SIZE)
+			throw new IOException("Not a trace file!");
+		stages = TraceReader.readHeader(buffer.duplicate());
+		if(!readIndex()) scanBlocks();
+		if(numberOfKeyframes == 0 || keyframeRecords[0] != 0)
+			throw new IOException("The trace has no keyframes!");
+		programs = new String[numberOfKeyframes][];
+	}
+
+	/**
+	 * Returns the number of instruction indexes of each cycle.
+	 * @return 5 if the trace is of a pipelined CPU, or 1 otherwise.
+	 */
+	public int getNumberOfStages() {
+		return stages;
+	}
+
+	/**
+	 * Returns the number of recorded cycles.
+	 * @return The number of records.
+	 */
+	public long getNumberOfRecords() {
+		return numberOfRecords;
+	}
+
+	/**
+	 * Returns the number of keyframes.
+	 * @return The number of keyframes.
+	 */
+	public int getNumberOfKeyframes() {
+		return numberOfKeyframes;
+	}
+
+	/**
+	 * Reconstructs the state of the CPU in a recorded cycle.
+	 * @param position The position of the cycle in the trace (between 0 and <tt>getNumberOfRecords() - 1</tt>).
+	 * @return The state of the cycle.
+	 * @throws IndexOutOfBoundsException If the position is invalid.
+	 * @throws IOException If the trace is corrupted.
+	 */
+	public State getState(long position) throws IndexOutOfBoundsException, IOException {
+		if(position < 0 || position >= numberOfRecords)
+			throw new IndexOutOfBoundsException("Invalid position: " + position + "!");
+		int k = Arrays.binarySearch(keyframeRecords, 0, numberOfKeyframes, position);
+		if(k < 0) k = -k - 2; // the previous keyframe
+
+		ByteBuffer b = buffer.duplicate();
+		State state;
+		try {
+			b.position(keyframeOffsets[k]);
+			state = readKeyframe(b);
+			state.program = getProgram(k);
+		}
+		catch(RuntimeException ex) { // BufferUnderflowException, IllegalArgumentException...
+			throw new IOException("Corrupted trace keyframe!", ex);
+		}
+
+		TraceReader reader = new TraceReader(stages, b);
+		for(long r = keyframeRecords[k]; ; r++) {
+			if(!reader.next())
+				throw new IOException("Truncated trace!");
+			if(r == position) break;
+			state.apply(reader);
+		}
+		state.set(position, reader);
+		return state;
+	}
+
+	/**
+	 * Reads the keyframe block at the current position of the buffer.
+	 * @param b The buffer, which is left after the keyframe.
+	 * @return The state with the values of the keyframe.
+	 * @throws IOException If the block isn't a valid keyframe.
+	 */
+	private State readKeyframe(ByteBuffer b) throws IOException {
+		int size = b.getInt();
+		b.getLong(); // cycle
+		if(b.getInt() != TraceRecorder.KEYFRAME)
+			throw new IOException("Invalid trace keyframe!");
+		int end = b.position() + size;
+		b.getLong(); // number of records before
+		int lines = b.getInt(); // the program is read by getProgram()
+		for(int i = 0; i < lines; i++) {
+			int length = b.getInt();
+			b.position(b.position() + length);
+		}
+
+		int[] registers = new int[b.getInt()];
+		for(int i = 0; i < registers.length; i++)
+			registers[i] = b.getInt();
+		int memorySize = b.getInt();
+		boolean sparse = b.getInt() != 0;
+		PagedMemory memory = new PagedMemory();
+		int runs = b.getInt();
+		for(int i = 0; i < runs; i++) {
+			int index = b.getInt();
+			int count = b.getInt();
+			IntBuffer values = b.asIntBuffer();
+			values.limit(count);
+			memory.set(index, values);
+			b.position(b.position() + count * 4);
+		}
+		if(b.position() != end)
+			throw new IOException("Invalid trace keyframe!");
+		return new State(stages, registers, memory, memorySize, sparse);
+	}
+
+	/**
+	 * Returns the code lines of the program of a keyframe.
+	 * <p>If the program is the same as in the previous keyframe, the previous
+	 * keyframes are searched for the one that has it.</p>
+	 * @param k The index of the keyframe.
+	 * @return The code lines.
+	 * @throws IOException If the program is invalid.
+	 */
+	private synchronized String[] getProgram(int k) throws IOException {
+		int first = k;
+		while(programs[first] == null) {
+			ByteBuffer b = buffer.duplicate();
+			b.position(keyframeOffsets[first] + TraceRecorder.BLOCK_HEADER_SIZE + 8);
+			int lines = b.getInt();
+			if(lines >= 0) {
+				String[] program = new String[lines];
+				for(int i = 0; i < lines; i++) {
+					int size = b.getInt();
+					if(size < 0 || size > b.remaining())
+						throw new IOException("Invalid trace program!");
+					byte[] bytes = new byte[size];
+					b.get(bytes);
+					program[i] = new String(bytes, TraceRecorder.CHARSET);
+				}
+				programs[first] = program;
+			}
+			else if(lines == TraceRecorder.SAME_PROGRAM && first > 0)
+				first--;
+			else
+				throw new IOException("Invalid trace program!");
+		}
+		for(int i = first + 1; i <= k; i++)
+			programs[i] = programs[first];
+		return programs[k];
+	}
+
+	/**
+	 * Reads the index of the keyframes at the end of the file, if any.
+	 * @return <tt>False</tt> if the file doesn't have an index.
+	 * @throws IOException If the index is invalid.
+	 */
+	private boolean readIndex() throws IOException {
+		int length = buffer.limit();
+		if(length < TraceRecorder.HEADER_SIZE + TraceRecorder.BLOCK_HEADER_SIZE + TraceRecorder.TRAILER_SIZE
+			|| buffer.getInt(length - 4) != TraceRecorder.INDEX_MAGIC)
+			return false;
+
+		long offset = buffer.getLong(length - TraceRecorder.TRAILER_SIZE);
+		if(offset < TraceRecorder.HEADER_SIZE || offset > length - TraceRecorder.TRAILER_SIZE - TraceRecorder.BLOCK_HEADER_SIZE)
+			throw new IOException("Invalid trace index!");
+		ByteBuffer b = buffer.duplicate();
+		b.position((int)offset);
+		int size = b.getInt();
+		b.getLong();
+		if(b.getInt() != TraceRecorder.INDEX || size != length - TraceRecorder.TRAILER_SIZE - b.position())
+			throw new IOException("Invalid trace index!");
+		numberOfRecords = b.getLong();
+		int n = b.getInt();
+		if(n < 0 || n * 24L != size - 12)
+			throw new IOException("Invalid trace index!");
+		for(int i = 0; i < n; i++) {
+			long records = b.getLong();
+			b.getLong(); // cycle
+			long keyframeOffset = b.getLong();
+			if(keyframeOffset < TraceRecorder.HEADER_SIZE || keyframeOffset >= offset)
+				throw new IOException("Invalid trace index!");
+			addKeyframe(records, (int)keyframeOffset);
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the keyframes and counts the records going through all the blocks.
+	 */
+	private void scanBlocks() {
+		int length = buffer.limit();
+		int offset = TraceRecorder.HEADER_SIZE;
+		while(offset + TraceRecorder.BLOCK_HEADER_SIZE <= length) {
+			int size = buffer.getInt(offset);
+			int count = buffer.getInt(offset + 12);
+			int end = offset + TraceRecorder.BLOCK_HEADER_SIZE + size;
+			if(size < 0 || end < 0 || end > length) // incomplete
+				break;
+			if(count == TraceRecorder.KEYFRAME) {
+				if(size < 8) break;
+				addKeyframe(buffer.getLong(offset + TraceRecorder.BLOCK_HEADER_SIZE), offset);
+			}
+			else if(count >= 0)
+				numberOfRecords += count;
+			else
+				break; // index or invalid block
+			offset = end;
+		}
+	}
+
+	/**
+	 * Adds a keyframe to the list.
+	 * @param records The number of records before the keyframe.
+	 * @param offset The position of the keyframe in the file.
+	 */
+	private void addKeyframe(long records, int offset) {
+		if(numberOfKeyframes == keyframeRecords.length) {
+			keyframeRecords = Arrays.copyOf(keyframeRecords, numberOfKeyframes * 2);
+			keyframeOffsets = Arrays.copyOf(keyframeOffsets, numberOfKeyframes * 2);
+		}
+		keyframeRecords[numberOfKeyframes] = records;
+		keyframeOffsets[numberOfKeyframes] = offset;
+		numberOfKeyframes++;
+	}
+
+	/**
+	 * The state of the CPU in a recorded cycle.
+	 * <p>The values of the registers and data memory are the ones at the
+	 * start of the cycle (the writes of the cycle happen at the end).</p>
+	 */
+	public static final class State {
+		/** The values of the registers. */
+		private final int[] registers;
+		/** The values of the data memory. */
+		private final PagedMemory memory;
+		/** The size of the data memory. */
+		private final int memorySize;
+		/** Whether the data memory is sparse. */
+		private final boolean sparse;
+		/** The instruction indexes of each stage. */
+		private final int[] indexes;
+		/** The code lines of the program. */
+		private String[] program;
+		/** The position of the cycle in the trace. */
+		private long position;
+		/** The number of the cycle. */
+		private long cycle;
+		/** The address in the PC. */
+		private int pc;
+		/** Whether the pipeline was stalled. */
+		private boolean stall;
+		/** The values of the ForwardA and ForwardB signals. */
+		private int forwardA, forwardB;
+
+		/**
+		 * Creates the state.
+		 * @param stages The number of instruction indexes.
+		 * @param registers The values of the registers.
+		 * @param memory The values of the data memory.
+		 * @param memorySize The size of the data memory.
+		 * @param sparse Whether the data memory is sparse.
+		 */
+		private State(int stages, int[] registers, PagedMemory memory, int memorySize, boolean sparse) {
+			this.indexes = new int[stages];
+			this.registers = registers;
+			this.memory = memory;
+			this.memorySize = memorySize;
+			this.sparse = sparse;
+		}
+
+		/**
+		 * Applies the writes of a record.
+		 * @param reader The reader at the record.
+		 */
+		private void apply(TraceReader reader) {
+			int reg = reader.getWrittenRegister();
+			if(reg >= 0 && reg < registers.length)
+				registers[reg] = reader.getWrittenRegisterValue();
+			if(reader.hasMemoryWrite()) {
+				int index = getIndexOfAddress(reader.getMemoryWriteAddress());
+				if(index >= 0) memory.set(index, reader.getMemoryWriteValue());
+			}
+		}
+
+		/**
+		 * Sets the values of the cycle of a record.
+		 * @param position The position of the record.
+		 * @param reader The reader at the record.
+		 */
+		private void set(long position, TraceReader reader) {
+			this.position = position;
+			cycle = reader.getCycle();
+			pc = reader.getPC();
+			for(int i = 0; i < indexes.length; i++)
+				indexes[i] = reader.getInstructionIndex(i);
+			stall = reader.isStall();
+			forwardA = reader.getForwardA();
+			forwardB = reader.getForwardB();
+		}
+
+		/**
+		 * Returns the position of the cycle in the trace.
+		 * @return The position.
+		 */
+		public long getPosition() {
+			return position;
+		}
+
+		/**
+		 * Returns the number of the cycle.
+		 * @return The cycle number.
+		 */
+		public long getCycle() {
+			return cycle;
+		}
+
+		/**
+		 * Returns the address in the PC.
+		 * @return The address of the fetched instruction.
+		 */
+		public int getPC() {
+			return pc;
+		}
+
+		/**
+		 * Returns the number of instruction indexes.
+		 * @return 5 if the CPU is pipelined, or 1 otherwise.
+		 */
+		public int getNumberOfStages() {
+			return indexes.length;
+		}
+
+		/**
+		 * Returns the index of the instruction in a stage.
+		 * @param stage The stage ({@link TraceReader#IF} to {@link TraceReader#WB}, only {@link TraceReader#IF} in unicycle CPUs).
+		 * @return The index of the instruction, or -1 if none.
+		 * @throws ArrayIndexOutOfBoundsException If the stage is invalid.
+		 */
+		public int getInstructionIndex(int stage) throws ArrayIndexOutOfBoundsException {
+			return indexes[stage];
+		}
+
+		/**
+		 * Returns the number of instructions of the recorded program.
+		 * @return The number of instructions.
+		 */
+		public int getNumberOfInstructions() {
+			return program.length;
+		}
+
+		/**
+		 * Returns the code line of an instruction of the recorded program.
+		 * @param index The index of the instruction.
+		 * @return The code line, or <tt>null</tt> if the index is invalid.
+		 */
+		public String getCodeLine(int index) {
+			return (index >= 0 && index < program.length) ? program[index] : null;
+		}
+
+		/**
+		 * Returns the number of registers.
+		 * @return The number of registers.
+		 */
+		public int getNumberOfRegisters() {
+			return registers.length;
+		}
+
+		/**
+		 * Returns the value of a register.
+		 * @param index The index of the register.
+		 * @return The value of the register.
+		 * @throws ArrayIndexOutOfBoundsException If the index is invalid.
+		 */
+		public int getRegister(int index) throws ArrayIndexOutOfBoundsException {
+			return registers[index];
+		}
+
+		/**
+		 * Returns the size of the data memory.
+		 * @return The number of 32 bits positions, or 0 if the CPU has no data memory.
+		 */
+		public int getMemorySize() {
+			return memorySize;
+		}
+
+		/**
+		 * Returns whether the data memory is sparse (covers the whole 32-bit address space).
+		 * @return <tt>True</tt> if the data memory is sparse.
+		 */
+		public boolean isSparse() {
+			return sparse;
+		}
+
+		/**
+		 * Returns the value in the specified data memory address.
+		 * @param address The address of the memory position.
+		 * @return The value, or 0 if the address is out of bounds.
+		 */
+		public int getData(int address) {
+			return getDataInIndex(getIndexOfAddress(address));
+		}
+
+		/**
+		 * Returns the value in the specified data memory index.
+		 * @param index The index of the memory position.
+		 * @return The value, or 0 if the index is out of bounds.
+		 */
+		public int getDataInIndex(int index) {
+			if(index < 0 || index >= memorySize) return 0;
+			return memory.get(index);
+		}
+
+		/**
+		 * Returns the indexes of the data memory positions that are in use.
+		 * <p>Like {@link brunonova.drmips.simulator.components.DataMemory#getUsedIndexes()},
+		 * all the positions are in use if the memory isn't sparse. If it is, the
+		 * positions of the allocated pages and of the first page are in use.</p>
+		 * @return The indexes of the positions in use, in ascending order.
+		 */
+		public int[] getUsedIndexes() {
+			if(!sparse) {
+				int[] used = new int[memorySize];
+				for(int i = 0; i < used.length; i++)
+					used[i] = i;
+				return used;
+			}
+
+			int[] pages = memory.getPages();
+			boolean firstPage = pages.length > 0 && pages[0] == 0;
+			int[] used = new int[(pages.length + (firstPage ? 0 : 1)) * PagedMemory.PAGE_SIZE];
+			int n = 0;
+			if(!firstPage) {
+				for(int i = 0; i < PagedMemory.PAGE_SIZE; i++)
+					used[n++] = i;
+			}
+			for(int page: pages) {
+				for(int i = 0; i < PagedMemory.PAGE_SIZE; i++)
+					used[n++] = page * PagedMemory.PAGE_SIZE + i;
+			}
+			return used;
+		}
+
+		/**
+		 * Returns whether the hazard detection unit stalled the pipeline.
+		 * @return <tt>True</tt> if the pipeline was stalled.
+		 */
+		public boolean isStall() {
+			return stall;
+		}
+
+		/**
+		 * Returns the value of the ForwardA signal of the forwarding unit.
+		 * @return The value (0 if there was no forwarding).
+		 */
+		public int getForwardA() {
+			return forwardA;
+		}
+
+		/**
+		 * Returns the value of the ForwardB signal of the forwarding unit.
+		 * @return The value (0 if there was no forwarding).
+		 */
+		public int getForwardB() {
+			return forwardB;
+		}
+
+		/**
+		 * Returns the index of the data memory position in the specified address.
+		 * @param address The address of the memory position.
+		 * @return The index of the position, or -1 if out of bounds.
+		 */
+		private int getIndexOfAddress(int address) {
+			if(sparse)
+				return (int)((address & 0xFFFFFFFFL) / (Data.DATA_SIZE / 8));
+			int index = address / (Data.DATA_SIZE / 8);
+			return (index >= 0 && index < memorySize) ? index : -1;
+		}
+	}
+}
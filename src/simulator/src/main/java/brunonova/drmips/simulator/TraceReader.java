@@ -0,0 +1,466 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads the cycles recorded by a {@link TraceRecorder}.
+ * <p>The reader is a cursor: {@link #next()} advances to the next cycle, and
+ * the other methods return the values of the current cycle.</p>
+ * <pre>
+ * TraceReader reader = new TraceReader(channel);
+ * while(reader.next())
+ *     System.out.println(reader.getCycle() + ": " + reader.getPC());
+ * </pre>
+ *
+ * @author Bruno Nova
+ */
+public final class TraceReader implements Closeable {
+	/** Index of the instruction fetch stage (the only one in unicycle CPUs). */
+	public static final int IF = 0;
+	/** Index of the instruction decode stage. */
+	public static final int ID = 1;
+	/** Index of the execute stage. */
+	public static final int EX = 2;
+	/** Index of the memory access stage. */
+	public static final int MEM = 3;
+	/** Index of the write back stage. */
+	public static final int WB = 4;
+
+	/** Maximum number of registers supported. */
+	private static final int MAX_REGISTERS = 1 << 16;
+
+	/** The channel from where the blocks are read (<tt>null</tt> if reading from memory). */
+	private final ReadableByteChannel channel;
+	/** The buffer from where the blocks are read (<tt>null</tt> if not reading from a buffer). */
+	private final ByteBuffer source;
+	/** The blocks in memory (<tt>null</tt> if reading from a channel). */
+	private final Iterator<byte[]> blocks;
+	/** The number of instruction indexes of each record. */
+	private final int stages;
+	/** Buffer for the header of the blocks read from the channel. */
+	private final ByteBuffer blockHeader = ByteBuffer.allocate(TraceRecorder.BLOCK_HEADER_SIZE);
+	/** The current block. */
+	private byte[] block = new byte[0];
+	/** The position of the next record in the block. */
+	private int position = 0;
+	/** The position after the last record of the block. */
+	private int limit = 0;
+	/** The number of records left in the block. */
+	private int remaining = 0;
+	/** Whether the index of the keyframes (the end of the records) was reached. */
+	private boolean ended = false;
+
+	/** The flags of the current record. */
+	private int flags = 0;
+	/** The cycle of the current record. */
+	private long cycle = 0;
+	/** The PC address of the current record. */
+	private int pc = 0;
+	/** The instruction indexes of the current record. */
+	private final int[] indexes;
+	/** The register written in the current record. */
+	private int register = -1;
+	/** The last value written to each register in the current block. */
+	private int[] registers = new int[32];
+	/** The data memory address written in the current record (or by the last record with a memory write). */
+	private int address = 0;
+	/** The value written to the data memory. */
+	private int memoryValue = 0;
+
+	/**
+	 * Creates a reader of a trace written to a channel.
+	 * <p>The header of the trace is read immediately.</p>
+	 * @param channel The channel with the trace.
+	 * @throws IOException If an I/O error occurs or the channel doesn't have a valid trace.
+	 */
+	public TraceReader(ReadableByteChannel channel) throws IOException {
+		this.channel = channel;
+		this.source = null;
+		this.blocks = null;
+		ByteBuffer header = ByteBuffer.allocate(TraceRecorder.HEADER_SIZE);
+		if(!readFully(header))
+			throw new EOFException("Empty trace!");
+		stages = readHeader(header);
+		indexes = new int[stages];
+	}
+
+	/**
+	 * Creates a reader of the blocks in a buffer.
+	 * @param stages The number of instruction indexes of each record.
+	 * @param source The buffer, at the position of the first block (its position is advanced).
+	 */
+	TraceReader(int stages, ByteBuffer source) {
+		this.channel = null;
+		this.source = source;
+		this.blocks = null;
+		this.stages = stages;
+		indexes = new int[stages];
+	}
+
+	/**
+	 * Creates a reader of blocks in memory.
+	 * @param stages The number of instruction indexes of each record.
+	 * @param blocks The blocks, each with its header.
+	 */
+	TraceReader(int stages, List<byte[]> blocks) {
+		this.channel = null;
+		this.source = null;
+		this.blocks = blocks.iterator();
+		this.stages = stages;
+		indexes = new int[stages];
+	}
+
+	/**
+	 * Advances to the next recorded cycle.
+	 * @return <tt>True</tt> if there is a next cycle, or <tt>false</tt> if the end of the trace was reached.
+	 * @throws IOException If an I/O error occurs or the trace is corrupted.
+	 */
+	public boolean next() throws IOException {
+		while(remaining == 0) {
+			if(!nextBlock()) return false;
+		}
+
+		if(position >= limit) throw new IOException("Corrupted trace block!");
+		flags = block[position++] & 0xFF;
+		if((flags & TraceRecorder.FLAG_CYCLE) != 0)
+			cycle += getLong();
+		else
+			cycle++;
+		pc += getInt();
+		if(position >= limit) throw new IOException("Corrupted trace block!");
+		int mask = block[position++];
+		for(int s = stages - 1; s >= 0; s--) { // see TraceRecorder.putIndexes()
+			indexes[s] = s > 0 ? indexes[s - 1] : pc / (Data.DATA_SIZE / 8);
+			if((mask & (1 << s)) != 0)
+				indexes[s] += getInt();
+		}
+		if((flags & TraceRecorder.FLAG_REGISTER_WRITE) != 0) {
+			register = getUnsigned();
+			if(register >= MAX_REGISTERS) throw new IOException("Corrupted trace block!");
+			if(register >= registers.length)
+				registers = Arrays.copyOf(registers, Math.max(register + 1, registers.length * 2));
+			registers[register] += getInt();
+		}
+		else
+			register = -1;
+		if((flags & TraceRecorder.FLAG_MEMORY_WRITE) != 0) {
+			address += getInt();
+			memoryValue += getInt();
+		}
+		remaining--;
+		return true;
+	}
+
+	/**
+	 * Returns the number of instruction indexes of each cycle.
+	 * @return 5 if the trace is of a pipelined CPU, or 1 otherwise.
+	 */
+	public int getNumberOfStages() {
+		return stages;
+	}
+
+	/**
+	 * Returns the number of the current cycle.
+	 * @return The cycle number (the first cycle of a program is 1).
+	 */
+	public long getCycle() {
+		return cycle;
+	}
+
+	/**
+	 * Returns the address in the PC in the current cycle.
+	 * @return The address of the fetched instruction.
+	 */
+	public int getPC() {
+		return pc;
+	}
+
+	/**
+	 * Returns the index of the instruction in a stage in the current cycle.
+	 * @param stage The stage ({@link #IF} to {@link #WB}, only {@link #IF} in unicycle CPUs).
+	 * @return The index of the instruction, or -1 if none.
+	 * @throws ArrayIndexOutOfBoundsException If the stage is invalid.
+	 */
+	public int getInstructionIndex(int stage) throws ArrayIndexOutOfBoundsException {
+		return indexes[stage];
+	}
+
+	/**
+	 * Returns whether a register is written at the end of the current cycle.
+	 * @return <tt>True</tt> if a register is written.
+	 */
+	public boolean hasRegisterWrite() {
+		return (flags & TraceRecorder.FLAG_REGISTER_WRITE) != 0;
+	}
+
+	/**
+	 * Returns the register written at the end of the current cycle.
+	 * @return The index of the register, or -1 if none.
+	 */
+	public int getWrittenRegister() {
+		return register;
+	}
+
+	/**
+	 * Returns the value written to the register at the end of the current cycle.
+	 * @return The value (only valid if <tt>hasRegisterWrite()</tt>).
+	 */
+	public int getWrittenRegisterValue() {
+		return register >= 0 ? registers[register] : 0;
+	}
+
+	/**
+	 * Returns whether the data memory is written at the end of the current cycle.
+	 * @return <tt>True</tt> if the data memory is written.
+	 */
+	public boolean hasMemoryWrite() {
+		return (flags & TraceRecorder.FLAG_MEMORY_WRITE) != 0;
+	}
+
+	/**
+	 * Returns the data memory address written at the end of the current cycle.
+	 * @return The address (only valid if <tt>hasMemoryWrite()</tt>).
+	 */
+	public int getMemoryWriteAddress() {
+		return address;
+	}
+
+	/**
+	 * Returns the value written to the data memory at the end of the current cycle.
+	 * @return The value (only valid if <tt>hasMemoryWrite()</tt>).
+	 */
+	public int getMemoryWriteValue() {
+		return memoryValue;
+	}
+
+	/**
+	 * Returns whether the hazard detection unit stalled the pipeline in the current cycle.
+	 * @return <tt>True</tt> if the pipeline was stalled.
+	 */
+	public boolean isStall() {
+		return (flags & TraceRecorder.FLAG_STALL) != 0;
+	}
+
+	/**
+	 * Returns the value of the ForwardA signal of the forwarding unit in the current cycle.
+	 * @return The value (0 if there was no forwarding).
+	 */
+	public int getForwardA() {
+		return (flags >> TraceRecorder.FORWARD_A_SHIFT) & 3;
+	}
+
+	/**
+	 * Returns the value of the ForwardB signal of the forwarding unit in the current cycle.
+	 * @return The value (0 if there was no forwarding).
+	 */
+	public int getForwardB() {
+		return (flags >> TraceRecorder.FORWARD_B_SHIFT) & 3;
+	}
+
+	/**
+	 * Closes the channel, if any.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(channel != null) channel.close();
+	}
+
+	/**
+	 * Loads the next block and resets the delta-encoded values.
+	 * @return <tt>True</tt> if there is a next block.
+	 * @throws IOException If an I/O error occurs or the block is invalid.
+	 */
+	private boolean nextBlock() throws IOException {
+		int size, count;
+		long first;
+		if(blocks != null) {
+			if(!blocks.hasNext()) return false;
+			block = blocks.next();
+			ByteBuffer header = ByteBuffer.wrap(block);
+			size = header.getInt();
+			first = header.getLong();
+			count = header.getInt();
+			position = TraceRecorder.BLOCK_HEADER_SIZE;
+		}
+		else {
+			while(true) {
+				if(ended) return false;
+				blockHeader.clear();
+				if(!readFully(blockHeader)) return false;
+				size = blockHeader.getInt();
+				first = blockHeader.getLong();
+				count = blockHeader.getInt();
+				if(size < 0)
+					throw new IOException("Invalid trace block!");
+				if(count >= 0) break;
+
+				if(count == TraceRecorder.INDEX) // end of the records
+					ended = true;
+				else if(count == TraceRecorder.KEYFRAME)
+					skip(size);
+				else
+					throw new IOException("Invalid trace block!");
+			}
+			if(size > TraceRecorder.BLOCK_SIZE + TraceRecorder.MAX_RECORD_SIZE)
+				throw new IOException("Invalid trace block!");
+			if(block.length < size)
+				block = new byte[TraceRecorder.BLOCK_SIZE + TraceRecorder.MAX_RECORD_SIZE];
+			ByteBuffer payload = ByteBuffer.wrap(block, 0, size);
+			if(!readFully(payload) && size > 0)
+				throw new EOFException("Truncated trace!");
+			position = 0;
+		}
+		limit = position + size;
+		remaining = count;
+		cycle = first - 1;
+		pc = 0;
+		for(int i = 0; i < stages; i++)
+			indexes[i] = 0;
+		Arrays.fill(registers, 0);
+		address = 0;
+		memoryValue = 0;
+		return true;
+	}
+
+	/**
+	 * Skips bytes of the channel or buffer.
+	 * @param size The number of bytes to skip.
+	 * @throws IOException If an I/O error occurs or the end is reached.
+	 */
+	private void skip(int size) throws IOException {
+		if(source != null) {
+			if(source.remaining() < size) throw new EOFException("Truncated trace!");
+			source.position(source.position() + size);
+			return;
+		}
+		if(block.length == 0)
+			block = new byte[TraceRecorder.BLOCK_SIZE + TraceRecorder.MAX_RECORD_SIZE];
+		while(size > 0) {
+			int n = Math.min(size, block.length);
+			if(!readFully(ByteBuffer.wrap(block, 0, n)))
+				throw new EOFException("Truncated trace!");
+			size -= n;
+		}
+	}
+
+	/**
+	 * Reads from the channel or buffer until the buffer is full.
+	 * @param buffer The buffer, which is flipped after.
+	 * @return <tt>False</tt> if the end of the channel was reached before reading anything.
+	 * @throws IOException If an I/O error occurs or the channel ends before the buffer is full.
+	 */
+	private boolean readFully(ByteBuffer buffer) throws IOException {
+		int start = buffer.position();
+		while(buffer.hasRemaining()) {
+			if(read(buffer) < 0) {
+				if(buffer.position() == start) return false;
+				throw new EOFException("Truncated trace!");
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+
+	/**
+	 * Reads bytes from the channel or buffer.
+	 * @param buffer The buffer that receives the bytes.
+	 * @return The number of bytes read, or -1 if the end was reached.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	private int read(ByteBuffer buffer) throws IOException {
+		if(channel != null) return channel.read(buffer);
+		if(!source.hasRemaining()) return -1;
+		int n = Math.min(source.remaining(), buffer.remaining());
+		ByteBuffer bytes = source.duplicate();
+		bytes.limit(bytes.position() + n);
+		buffer.put(bytes);
+		source.position(source.position() + n);
+		return n;
+	}
+
+	/**
+	 * Validates the header of a trace.
+	 * @param header The header.
+	 * @return The number of instruction indexes of each record.
+	 * @throws IOException If the header is invalid.
+	 */
+	static int readHeader(ByteBuffer header) throws IOException {
+		if(header.getInt() != TraceRecorder.MAGIC)
+			throw new IOException("Not a trace file!");
+		int version = header.getInt();
+		if(version != TraceRecorder.VERSION)
+			throw new IOException("Unsupported trace version: " + version + "!");
+		int stages = header.getInt();
+		if(stages != 1 && stages != 5)
+			throw new IOException("Invalid number of stages: " + stages + "!");
+		return stages;
+	}
+
+	/**
+	 * Reads a signed int (zigzag encoded variable-length integer).
+	 * @return The value.
+	 * @throws IOException If the end of the block is reached.
+	 */
+	private int getInt() throws IOException {
+		int value = getUnsigned();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Reads an unsigned int (variable-length integer).
+	 * @return The value.
+	 * @throws IOException If the end of the block is reached or the value is too long.
+	 */
+	private int getUnsigned() throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			if(position >= limit) throw new IOException("Corrupted trace block!");
+			int b = block[position++];
+			value |= (b & 0x7F) << shift;
+			if(b >= 0) return value;
+		}
+		throw new IOException("Corrupted trace block!");
+	}
+
+	/**
+	 * Reads a signed long (zigzag encoded variable-length integer).
+	 * @return The value.
+	 * @throws IOException If the end of the block is reached or the value is too long.
+	 */
+	private long getLong() throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < 70; shift += 7) {
+			if(position >= limit) throw new IOException("Corrupted trace block!");
+			int b = block[position++];
+			value |= (long)(b & 0x7F) << shift;
+			if(b >= 0) return (value >>> 1) ^ -(value & 1);
+		}
+		throw new IOException("Corrupted trace block!");
+	}
+}
@@ -0,0 +1,777 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import brunonova.drmips.simulator.components.DataMemory;
+import brunonova.drmips.simulator.components.InstructionMemory;
+import brunonova.drmips.simulator.components.RegBank;
+import brunonova.drmips.simulator.util.JSONLoader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records a compact binary trace of the executed clock cycles.
+ * <p>When attached to a CPU with {@link CPU#setTraceRecorder}, a record is
+ * appended for each cycle executed by {@link CPU#executeCycle()} (including
+ * the cycles executed by <tt>run()</tt>, but not by <tt>runFunctional()</tt>).
+ * Each record has the cycle number, the address in the PC, the indexes of
+ * the instructions in each stage (only IF in unicycle CPUs), the register
+ * and data memory written at the end of the cycle, and the forwarding and
+ * stall signals. The records are read with {@link TraceReader}.</p>
+ * <p>The values are delta-encoded (relative to the previous record, or to the
+ * previous value written to the same register or to the data memory) and
+ * written as variable-length integers, so a typical cycle takes only a few
+ * bytes. The records are grouped in blocks of about {@link #BLOCK_SIZE}
+ * bytes, each starting with values relative to 0, so a reader can start at
+ * any block. Each full block is written to the channel, if any, and kept in
+ * a bounded ring of recent blocks in memory (the oldest are discarded).</p>
+ * <p>When writing to a channel, a keyframe with the values of all the
+ * registers and data memory positions is also written every
+ * {@link #getKeyframeInterval()} cycles, when the executed cycle isn't the
+ * one after the previous (a step back or a new program), and when requested
+ * with {@link #requestKeyframe()}. When closed, an index of the keyframes is
+ * written at the end, so {@link TraceFile} can reconstruct the state of any
+ * recorded cycle from the nearest previous keyframe. The keyframes also
+ * have the code of the program when it changes, so the recorded instruction
+ * indexes can be shown without the CPU that executed them.</p>
+ * <p>The blocks and keyframes are copied and written to the channel by a
+ * background thread, so the simulation doesn't wait for the channel (unless
+ * {@link #MAX_PENDING_WRITES} writes are already waiting). The recorder must
+ * only be used by the thread that executes the CPU. If the channel fails,
+ * the recording to the channel stops and the error is thrown by
+ * {@link #flush()} or {@link #close()}.</p>
+ *
+ * @author Bruno Nova
+ */
+public final class TraceRecorder implements Closeable {
+	/** The approximate size of the records of each block, in bytes. */
+	public static final int BLOCK_SIZE = 16 * 1024;
+	/** The default number of blocks kept in memory. */
+	public static final int DEFAULT_RING_BLOCKS = 64;
+	/** The default number of cycles between keyframes. */
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 10000;
+	/** The maximum number of blocks/keyframes waiting to be written to the channel. */
+	public static final int MAX_PENDING_WRITES = 16;
+
+	/** The first bytes of a trace file ("DRMT"). */
+	static final int MAGIC = 0x44524D54;
+	/** The version of the trace format. */
+	static final int VERSION = 2;
+	/** Size of the header of the trace (magic, version and number of stages). */
+	static final int HEADER_SIZE = 12;
+	/** Size of the header of each block (size of the records, first cycle and number of records). */
+	static final int BLOCK_HEADER_SIZE = 16;
+	/** "Number of records" of the blocks with a keyframe. */
+	static final int KEYFRAME = -1;
+	/** "Number of records" of the block with the index of the keyframes. */
+	static final int INDEX = -2;
+	/** The last bytes of a trace file with an index ("DRMI"), after its position. */
+	static final int INDEX_MAGIC = 0x44524D49;
+	/** Size of the end of a trace file with an index (position of the index and <tt>INDEX_MAGIC</tt>). */
+	static final int TRAILER_SIZE = 12;
+	/** Maximum size of a record, in bytes. */
+	static final int MAX_RECORD_SIZE = 1 + 10 + 5 + 1 + 5 * 5 + 10 + 10;
+	/** Size of the arrays of the blocks. */
+	private static final int BLOCK_ARRAY_SIZE = BLOCK_HEADER_SIZE + BLOCK_SIZE + MAX_RECORD_SIZE;
+	/** Flag of the records with a register write. */
+	static final int FLAG_REGISTER_WRITE = 1;
+	/** Flag of the records with a data memory write. */
+	static final int FLAG_MEMORY_WRITE = 1 << 1;
+	/** Flag of the records of stalled cycles. */
+	static final int FLAG_STALL = 1 << 2;
+	/** Position of the value of the ForwardA signal (2 bits) in the flags. */
+	static final int FORWARD_A_SHIFT = 3;
+	/** Position of the value of the ForwardB signal (2 bits) in the flags. */
+	static final int FORWARD_B_SHIFT = 5;
+	/** Flag of the records whose cycle isn't the one after the previous record's. */
+	static final int FLAG_CYCLE = 1 << 7;
+	/** "Number of code lines" of the keyframes whose program is the same as the previous keyframe's. */
+	static final int SAME_PROGRAM = -1;
+	/** The charset of the code lines of the program. */
+	static final Charset CHARSET = Charset.forName(JSONLoader.ENCODING);
+
+	/** The CPU. */
+	private final CPU cpu;
+	/** The channel where the blocks are written (<tt>null</tt> if none). */
+	private final WritableByteChannel channel;
+	/** The thread that writes to the channel (<tt>null</tt> if there is no channel). */
+	private final Writer writer;
+	/** The maximum number of blocks kept in memory. */
+	private final int ringBlocks;
+	/** The number of instruction indexes of each record (1 or 5 in pipelined CPUs). */
+	private final int stages;
+	/** The most recent full blocks, the oldest first. */
+	private final ArrayDeque<byte[]> ring;
+	/** The block being filled (header and records). */
+	private byte[] block = new byte[BLOCK_ARRAY_SIZE];
+	/** The position in <tt>block</tt> where the next record is written. */
+	private int position = BLOCK_HEADER_SIZE;
+	/** The number of records in the current block. */
+	private int blockRecords = 0;
+	/** The cycle of the first record of the current block. */
+	private long blockCycle = 0;
+	/** The cycle of the previous record. */
+	private long previousCycle;
+	/** The PC address of the previous record. */
+	private int previousPC;
+	/** The instruction indexes of the previous record. */
+	private final int[] previousIndexes;
+	/** The instruction indexes of the current record. */
+	private final int[] indexes;
+	/** The last value written to each register in the current block. */
+	private final int[] previousRegisters;
+	/** The written data memory address of the previous record with a memory write. */
+	private int previousAddress;
+	/** The value written to the data memory by the previous record with a memory write. */
+	private int previousMemoryValue;
+	/** Whether the header was already written to the channel. */
+	private boolean headerWritten = false;
+	/** Whether the recorder was closed. */
+	private boolean closed = false;
+	/** The number of cycles between keyframes (0 to only write the requested keyframes). */
+	private int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+	/** Whether a keyframe should be written before the next record. */
+	private boolean keyframeRequested = true;
+	/** The number of records before the last keyframe. */
+	private long lastKeyframeRecord = 0;
+	/** The cycle of the last record. */
+	private long lastCycle = Long.MIN_VALUE;
+	/** The index of the keyframes: number of records before, cycle and position in the channel of each one. */
+	private long[] keyframes = new long[3 * 16];
+	/** The number of keyframes written. */
+	private int numberOfKeyframes = 0;
+	/** The code lines of the program in the previous keyframe (<tt>null</tt> if none). */
+	private String[] program = null;
+	/** Buffer for the keyframes (reused). */
+	private ByteBuffer keyframe = ByteBuffer.allocate(1024);
+	/** The number of records. */
+	private long records = 0;
+	/** The number of bytes written (or waiting to be written) to the channel. */
+	private long bytesWritten = 0;
+	/** The error that occurred while writing to the channel (<tt>null</tt> if none). */
+	private volatile IOException error = null;
+
+	/**
+	 * Creates a recorder that only keeps the most recent cycles in memory.
+	 * @param cpu The CPU whose cycles are recorded.
+	 * @param ringBlocks The maximum number of blocks kept in memory (at least 1).
+	 * @throws IllegalArgumentException If the number of blocks is invalid.
+	 */
+	public TraceRecorder(CPU cpu, int ringBlocks) throws IllegalArgumentException {
+		this(cpu, null, ringBlocks);
+	}
+
+	/**
+	 * Creates a recorder that writes the trace to a channel.
+	 * @param cpu The CPU whose cycles are recorded.
+	 * @param channel The channel where the trace is written (<tt>null</tt> to only keep the recent cycles in memory).
+	 * @param ringBlocks The maximum number of blocks kept in memory (at least 1).
+	 * @throws IllegalArgumentException If the number of blocks is invalid.
+	 */
+	public TraceRecorder(CPU cpu, WritableByteChannel channel, int ringBlocks) throws IllegalArgumentException {
+		if(ringBlocks < 1) throw new IllegalArgumentException("Invalid number of blocks: " + ringBlocks + "!");
+		this.cpu = cpu;
+		this.channel = channel;
+		this.ringBlocks = ringBlocks;
+		stages = cpu.isPipeline() ? 5 : 1;
+		ring = new ArrayDeque<>(Math.min(ringBlocks, 1024));
+		previousIndexes = new int[stages];
+		indexes = new int[stages];
+		previousRegisters = new int[cpu.getRegBank().getNumberOfRegisters()];
+		startBlock(cpu.getNumberOfExecutedCycles() + 1);
+		if(channel != null) {
+			writer = new Writer();
+			writer.start();
+		}
+		else
+			writer = null;
+	}
+
+	/**
+	 * Appends the record of the cycle that is about to be executed.
+	 * <p>Called by {@link CPU#executeCycle()} before the synchronous
+	 * components are updated, when the signals have the values of the cycle.</p>
+	 */
+	void record() {
+		long cycle = cpu.getNumberOfExecutedCycles();
+		if(channel != null && (keyframeRequested || cycle != lastCycle + 1
+			|| (keyframeInterval > 0 && records - lastKeyframeRecord >= keyframeInterval)))
+			writeKeyframe(cycle);
+		else if(position - BLOCK_HEADER_SIZE >= BLOCK_SIZE)
+			finishBlock(cycle);
+		lastCycle = cycle;
+
+		byte[] b = block;
+		int p = position + 1; // flags are written at the end
+		int flags = 0;
+		if(cycle != previousCycle + 1) {
+			flags |= FLAG_CYCLE;
+			p = putLong(b, p, cycle - previousCycle);
+		}
+		previousCycle = cycle;
+
+		int pc = cpu.getPC().getAddress().getValue();
+		p = putInt(b, p, pc - previousPC);
+		previousPC = pc;
+		indexes[0] = cpu.getPC().getCurrentInstructionIndex();
+		if(stages > 1) {
+			indexes[1] = cpu.getIfIdReg().getCurrentInstructionIndex();
+			indexes[2] = cpu.getIdExReg().getCurrentInstructionIndex();
+			indexes[3] = cpu.getExMemReg().getCurrentInstructionIndex();
+			indexes[4] = cpu.getMemWbReg().getCurrentInstructionIndex();
+		}
+		p = putIndexes(b, p, pc);
+
+		RegBank regbank = cpu.getRegBank();
+		if(regbank.getRegWrite().getValue() == 1 && !regbank.isRegisterConstant(regbank.getWriteReg().getValue())) {
+			flags |= FLAG_REGISTER_WRITE;
+			int reg = regbank.getWriteReg().getValue();
+			int value = regbank.getWriteData().getValue();
+			p = putUnsigned(b, p, reg);
+			p = putInt(b, p, value - previousRegisters[reg]);
+			previousRegisters[reg] = value;
+		}
+		if(cpu.hasDataMemory()) {
+			DataMemory memory = cpu.getDataMemory();
+			int address = memory.getAddress().getValue();
+			if(memory.getMemWrite().getValue() == 1 && memory.getIndexOfAddress(address) >= 0) {
+				flags |= FLAG_MEMORY_WRITE;
+				p = putInt(b, p, address - previousAddress);
+				int value = memory.getWriteData().getValue();
+				p = putInt(b, p, value - previousMemoryValue);
+				previousAddress = address;
+				previousMemoryValue = value;
+			}
+		}
+		if(cpu.hasHazardDetectionUnit() && cpu.getHazardDetectionUnit().getStall().getValue() != 0)
+			flags |= FLAG_STALL;
+		if(cpu.hasForwardingUnit()) {
+			flags |= Math.min(cpu.getForwardingUnit().getForwardA().getValue(), 3) << FORWARD_A_SHIFT;
+			flags |= Math.min(cpu.getForwardingUnit().getForwardB().getValue(), 3) << FORWARD_B_SHIFT;
+		}
+
+		b[position] = (byte)flags;
+		position = p;
+		blockRecords++;
+		records++;
+	}
+
+	/**
+	 * Writes the cycles recorded so far to the channel, if any.
+	 * <p>The current block is finished, even if it isn't full, and this
+	 * method waits until everything is written.</p>
+	 * @throws IOException If an error occurred while writing to the channel (now or before).
+	 */
+	public void flush() throws IOException {
+		if(blockRecords > 0)
+			finishBlock(previousCycle + 1);
+		else if(channel != null && !headerWritten)
+			writeHeader();
+		if(writer != null) writer.waitForWrites();
+		if(error != null) throw error;
+	}
+
+	/**
+	 * Writes the remaining cycles and the index of the keyframes, and closes the channel, if any.
+	 * <p>The recorder should be detached from the CPU before.</p>
+	 * @throws IOException If an error occurred while writing to the channel or closing it.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) return;
+		closed = true;
+		try {
+			flush();
+			if(channel != null) writeIndex();
+		}
+		finally {
+			if(writer != null) writer.finish();
+			if(channel != null) channel.close();
+		}
+		if(error != null) throw error;
+	}
+
+	/**
+	 * Returns the number of cycles between keyframes.
+	 * @return The number of cycles between keyframes, or 0 if they are only written when needed.
+	 */
+	public int getKeyframeInterval() {
+		return keyframeInterval;
+	}
+
+	/**
+	 * Sets the number of cycles between keyframes.
+	 * <p>The keyframes are only written if there is a channel. Smaller
+	 * intervals make the trace bigger, but the reconstruction of the cycles
+	 * faster.</p>
+	 * @param keyframeInterval The number of cycles between keyframes, or 0 to only write them when needed.
+	 * @throws IllegalArgumentException If the interval is negative.
+	 */
+	public void setKeyframeInterval(int keyframeInterval) throws IllegalArgumentException {
+		if(keyframeInterval < 0) throw new IllegalArgumentException("Invalid keyframe interval: " + keyframeInterval + "!");
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	/**
+	 * Writes a keyframe before the next record.
+	 * <p>Should be called when the values of the registers or of the data
+	 * memory are changed outside of the execution of a cycle (by the user,
+	 * for example), as those changes aren't recorded.</p>
+	 */
+	public void requestKeyframe() {
+		keyframeRequested = true;
+	}
+
+	/**
+	 * Returns the number of keyframes written to the channel.
+	 * @return The number of keyframes.
+	 */
+	public int getNumberOfKeyframes() {
+		return numberOfKeyframes;
+	}
+
+	/**
+	 * Returns the number of recorded cycles.
+	 * @return The number of records.
+	 */
+	public long getNumberOfRecords() {
+		return records;
+	}
+
+	/**
+	 * Returns the number of bytes written to the channel so far.
+	 * <p>Includes the bytes still waiting to be written by the background
+	 * thread (all of them are written after {@link #flush()}).</p>
+	 * @return The number of bytes written.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Returns the error that occurred while writing to the channel.
+	 * @return The error, or <tt>null</tt> if none.
+	 */
+	public IOException getError() {
+		return error;
+	}
+
+	/**
+	 * Returns a reader of the most recent cycles, kept in memory.
+	 * <p>The reader contains copies of the blocks in memory, including the
+	 * current one, so it isn't affected by the cycles recorded after.</p>
+	 * @return The reader.
+	 */
+	public TraceReader getRecentCycles() {
+		List<byte[]> blocks = new ArrayList<>(ring.size() + 1);
+		for(byte[] b: ring)
+			blocks.add(Arrays.copyOf(b, BLOCK_HEADER_SIZE + ByteBuffer.wrap(b).getInt(0)));
+		if(blockRecords > 0) {
+			writeBlockHeader(block, position - BLOCK_HEADER_SIZE, blockCycle, blockRecords);
+			blocks.add(Arrays.copyOf(block, position));
+		}
+		return new TraceReader(stages, blocks);
+	}
+
+	/**
+	 * Starts a new block, where the values are relative to 0.
+	 * @param cycle The cycle of the first record of the block.
+	 */
+	private void startBlock(long cycle) {
+		position = BLOCK_HEADER_SIZE;
+		blockRecords = 0;
+		blockCycle = cycle;
+		previousCycle = cycle - 1;
+		previousPC = 0;
+		Arrays.fill(previousIndexes, 0);
+		Arrays.fill(previousRegisters, 0);
+		previousAddress = 0;
+		previousMemoryValue = 0;
+	}
+
+	/**
+	 * Finishes the current block, writing it to the channel and adding it to the ring.
+	 * @param nextCycle The cycle of the first record of the next block.
+	 */
+	private void finishBlock(long nextCycle) {
+		int size = position - BLOCK_HEADER_SIZE;
+		writeBlockHeader(block, size, blockCycle, blockRecords);
+		if(channel != null && error == null) {
+			if(!headerWritten) writeHeader();
+			write(ByteBuffer.wrap(block, 0, BLOCK_HEADER_SIZE + size));
+		}
+
+		// Add to the ring, reusing the array of the oldest block if it's discarded
+		byte[] recycled = ring.size() >= ringBlocks ? ring.removeFirst() : null;
+		ring.addLast(block);
+		block = recycled != null ? recycled : new byte[BLOCK_ARRAY_SIZE];
+		startBlock(nextCycle);
+	}
+
+	/**
+	 * Writes a keyframe with the current values of the registers and data memory.
+	 * <p>The current block is finished, so the keyframe is followed by a
+	 * block that starts with the record of the given cycle. The keyframe has
+	 * the number of records before it, the code lines of the program (or
+	 * {@link #SAME_PROGRAM} if it didn't change since the previous keyframe),
+	 * the values of the registers, the size of the data memory, whether it is
+	 * sparse and the values of the used positions, as runs of consecutive
+	 * positions (index, count and values).</p>
+	 * @param cycle The cycle of the next record.
+	 */
+	private void writeKeyframe(long cycle) {
+		if(blockRecords > 0)
+			finishBlock(cycle);
+		else
+			startBlock(cycle);
+		keyframeRequested = false;
+		lastKeyframeRecord = records;
+		if(error != null) return;
+		if(!headerWritten) writeHeader();
+
+		RegBank regbank = cpu.getRegBank();
+		DataMemory memory = cpu.hasDataMemory() ? cpu.getDataMemory() : null;
+		int[] used = memory != null ? memory.getUsedIndexes() : new int[0];
+		int runs = 0;
+		for(int i = 0; i < used.length; i++) {
+			if(i == 0 || used[i] != used[i - 1] + 1) runs++;
+		}
+		byte[][] code = isProgramChanged() ? getCodeLines() : null;
+		int codeSize = 4;
+		if(code != null) {
+			for(byte[] line: code)
+				codeSize += 4 + line.length;
+		}
+		int size = 8 + codeSize + 4 + regbank.getNumberOfRegisters() * 4 + 4 + 4 + 4 + runs * 8 + used.length * 4;
+		if(keyframe.capacity() < BLOCK_HEADER_SIZE + size)
+			keyframe = ByteBuffer.allocate(BLOCK_HEADER_SIZE + size);
+
+		ByteBuffer k = keyframe;
+		k.clear();
+		k.putInt(size).putLong(cycle).putInt(KEYFRAME);
+		k.putLong(records);
+		if(code != null) {
+			k.putInt(code.length);
+			for(byte[] line: code)
+				k.putInt(line.length).put(line);
+		}
+		else
+			k.putInt(SAME_PROGRAM);
+		k.putInt(regbank.getNumberOfRegisters());
+		for(int i = 0; i < regbank.getNumberOfRegisters(); i++)
+			k.putInt(regbank.getRegister(i).getValue());
+		k.putInt(memory != null ? memory.getMemorySize() : 0);
+		k.putInt(memory != null && memory.isSparse() ? 1 : 0);
+		k.putInt(runs);
+		for(int i = 0; i < used.length; ) {
+			int start = i;
+			while(++i < used.length && used[i] == used[i - 1] + 1) { }
+			k.putInt(used[start]).putInt(i - start);
+			for(int j = start; j < i; j++)
+				k.putInt(memory.getDataInIndex(used[j]));
+		}
+		k.flip();
+
+		long offset = bytesWritten;
+		write(k);
+		if(error == null) {
+			if(3 * (numberOfKeyframes + 1) > keyframes.length)
+				keyframes = Arrays.copyOf(keyframes, keyframes.length * 2);
+			keyframes[3 * numberOfKeyframes] = records;
+			keyframes[3 * numberOfKeyframes + 1] = cycle;
+			keyframes[3 * numberOfKeyframes + 2] = offset;
+			numberOfKeyframes++;
+		}
+	}
+
+	/**
+	 * Returns whether the program of the CPU is different from the one in the previous keyframe.
+	 * @return <tt>True</tt> if the code lines changed or no keyframe was written yet.
+	 */
+	private boolean isProgramChanged() {
+		InstructionMemory memory = cpu.getInstructionMemory();
+		if(program == null || program.length != memory.getNumberOfInstructions())
+			return true;
+		for(int i = 0; i < program.length; i++) {
+			if(!program[i].equals(getCodeLine(memory, i)))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the code lines of the program of the CPU, encoded, and saves them as the program of the keyframes.
+	 * @return The UTF-8 bytes of each code line.
+	 */
+	private byte[][] getCodeLines() {
+		InstructionMemory memory = cpu.getInstructionMemory();
+		program = new String[memory.getNumberOfInstructions()];
+		byte[][] code = new byte[program.length][];
+		for(int i = 0; i < program.length; i++) {
+			program[i] = getCodeLine(memory, i);
+			code[i] = program[i].getBytes(CHARSET);
+		}
+		return code;
+	}
+
+	/**
+	 * Returns the code line of an instruction.
+	 * @param memory The instruction memory.
+	 * @param index The index of the instruction.
+	 * @return The code line, or an empty string if it has none.
+	 */
+	private static String getCodeLine(InstructionMemory memory, int index) {
+		String line = memory.getInstruction(index).getCodeLine();
+		return line != null ? line : "";
+	}
+
+	/**
+	 * Writes the index of the keyframes and the end of the trace to the channel.
+	 * <p>The index has the total number of records, the number of keyframes
+	 * and, for each one, the number of records before it, its cycle and its
+	 * position. The trace ends with the position of the index and
+	 * {@link #INDEX_MAGIC}.</p>
+	 */
+	private void writeIndex() {
+		if(error != null) return;
+		int size = 8 + 4 + numberOfKeyframes * 24;
+		ByteBuffer index = ByteBuffer.allocate(BLOCK_HEADER_SIZE + size + TRAILER_SIZE);
+		index.putInt(size).putLong(0).putInt(INDEX);
+		index.putLong(records).putInt(numberOfKeyframes);
+		for(int i = 0; i < 3 * numberOfKeyframes; i++)
+			index.putLong(keyframes[i]);
+		index.putLong(bytesWritten).putInt(INDEX_MAGIC);
+		index.flip();
+		write(index);
+	}
+
+	/**
+	 * Writes the header of the trace to the channel.
+	 */
+	private void writeHeader() {
+		headerWritten = true;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(stages).flip();
+		write(header);
+	}
+
+	/**
+	 * Queues a copy of the contents of a buffer to be written to the channel.
+	 * <p>If an error occurs, it is saved and nothing else is written.</p>
+	 * @param buffer The buffer (can be reused after this method returns).
+	 */
+	private void write(ByteBuffer buffer) {
+		if(error != null) return;
+		int length = buffer.remaining();
+		byte[] copy = length <= BLOCK_ARRAY_SIZE ? writer.free.poll() : null;
+		if(copy == null) copy = new byte[Math.max(length, BLOCK_ARRAY_SIZE)];
+		buffer.get(copy, 0, length);
+		writer.submit(ByteBuffer.wrap(copy, 0, length));
+		bytesWritten += length;
+	}
+
+	/**
+	 * Writes the header of a block.
+	 * @param block The block.
+	 * @param size The size of the records, in bytes.
+	 * @param cycle The cycle of the first record.
+	 * @param count The number of records.
+	 */
+	private static void writeBlockHeader(byte[] block, int size, long cycle, int count) {
+		ByteBuffer.wrap(block, 0, BLOCK_HEADER_SIZE).putInt(size).putLong(cycle).putInt(count);
+	}
+
+	/**
+	 * Writes the instruction indexes of the current record.
+	 * <p>The index in the IF stage is predicted to be the one of the address
+	 * in the PC, and the index in each other stage to be the one in the
+	 * previous stage in the previous record (the pipeline advanced). A mask
+	 * of the stages that don't match the prediction is written, followed by
+	 * the differences of those stages, from the last stage to the first.</p>
+	 * @param b The array.
+	 * @param p The position in the array.
+	 * @param pc The address in the PC.
+	 * @return The position after the written bytes.
+	 */
+	private int putIndexes(byte[] b, int p, int pc) {
+		int maskPosition = p++;
+		int mask = 0;
+		for(int s = stages - 1; s >= 0; s--) {
+			int predicted = s > 0 ? previousIndexes[s - 1] : pc / (Data.DATA_SIZE / 8);
+			if(indexes[s] != predicted) {
+				mask |= 1 << s;
+				p = putInt(b, p, indexes[s] - predicted);
+			}
+		}
+		b[maskPosition] = (byte)mask;
+		System.arraycopy(indexes, 0, previousIndexes, 0, stages);
+		return p;
+	}
+
+	/**
+	 * Writes a signed int as a variable-length integer (zigzag encoded).
+	 * @param b The array.
+	 * @param p The position in the array.
+	 * @param value The value.
+	 * @return The position after the written bytes.
+	 */
+	private static int putInt(byte[] b, int p, int value) {
+		return putUnsigned(b, p, (value << 1) ^ (value >> 31));
+	}
+
+	/**
+	 * Writes an unsigned int as a variable-length integer (7 bits per byte, least significant first).
+	 * @param b The array.
+	 * @param p The position in the array.
+	 * @param value The value.
+	 * @return The position after the written bytes.
+	 */
+	private static int putUnsigned(byte[] b, int p, int value) {
+		while((value & ~0x7F) != 0) {
+			b[p++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		b[p++] = (byte)value;
+		return p;
+	}
+
+	/**
+	 * Writes a signed long as a variable-length integer (zigzag encoded).
+	 * @param b The array.
+	 * @param p The position in the array.
+	 * @param value The value.
+	 * @return The position after the written bytes.
+	 */
+	private static int putLong(byte[] b, int p, long value) {
+		value = (value << 1) ^ (value >> 63);
+		while((value & ~0x7FL) != 0) {
+			b[p++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		b[p++] = (byte)value;
+		return p;
+	}
+
+	/**
+	 * Thread that writes the queued blocks and keyframes to the channel, in order.
+	 * <p>The arrays of the written buffers are returned to be reused for the
+	 * next copies.</p>
+	 */
+	private final class Writer extends Thread {
+		/** The buffers waiting to be written, in order. */
+		private final BlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(MAX_PENDING_WRITES);
+		/** The arrays already written, to be reused. */
+		private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(MAX_PENDING_WRITES);
+		/** Buffer queued to stop the thread. */
+		private final ByteBuffer end = ByteBuffer.allocate(0);
+		/** The number of buffers queued (only used by the simulation thread). */
+		private long submitted = 0;
+		/** The number of buffers already written (or skipped after an error). */
+		private long written = 0;
+
+		/**
+		 * Creates the thread.
+		 */
+		public Writer() {
+			super("DrMIPS trace writer");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				ByteBuffer buffer;
+				while((buffer = queue.take()) != end) {
+					if(error == null) {
+						try {
+							while(buffer.hasRemaining())
+								channel.write(buffer);
+						}
+						catch(IOException ex) {
+							error = ex;
+						}
+					}
+					if(buffer.array().length == BLOCK_ARRAY_SIZE)
+						free.offer(buffer.array());
+					synchronized(this) {
+						written++;
+						notifyAll();
+					}
+				}
+			}
+			catch(InterruptedException ex) {
+				error = new InterruptedIOException("Trace writer interrupted!");
+			}
+		}
+
+		/**
+		 * Queues a buffer to be written, waiting if the queue is full.
+		 * @param buffer The buffer.
+		 */
+		private void submit(ByteBuffer buffer) {
+			try {
+				queue.put(buffer);
+				submitted++;
+			}
+			catch(InterruptedException ex) {
+				error = new InterruptedIOException("Interrupted while writing the trace!");
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Waits until all the queued buffers are written.
+		 */
+		private synchronized void waitForWrites() {
+			try {
+				while(written < submitted && isAlive())
+					wait(100);
+			}
+			catch(InterruptedException ex) {
+				error = new InterruptedIOException("Interrupted while writing the trace!");
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Waits until all the queued buffers are written and stops the thread.
+		 */
+		private void finish() {
+			waitForWrites();
+			try {
+				queue.put(end);
+				join();
+			}
+			catch(InterruptedException ex) {
+				error = new InterruptedIOException("Interrupted while writing the trace!");
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -53,6 +53,25 @@ public class ALU extends Component {
 		zero = addOutput(json.getString("zero"), new Data(1));
 	}
 
+	/**
+	 * Creates a copy of an ALU (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected ALU(ALU original) {
+		super(original);
+		input1 = getInput(original.input1.getId());
+		input2 = getInput(original.input2.getId());
+		control = getInput(original.control.getId());
+		output = getOutput(original.output.getId());
+		zero = getOutput(original.zero.getId());
+		controlALU = original.controlALU;
+	}
+
+	@Override
+	protected ALU copy() {
+		return new ALU(this);
+	}
+
 	/**
 	 * Sets the control information for the ALU.
 	 * <p>This method should be called after the instruction set has been loaded.</p>
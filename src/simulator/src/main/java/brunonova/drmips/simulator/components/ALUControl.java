@@ -33,6 +33,7 @@ public class ALUControl extends Component {
 	private Input aluOp, func;
 	private String aluOpId, funcId; // temporary
 	private ControlALU controlALU = null;
+	private Output[] outputs; // indexed like the outputs of the ALU control information
 
 	/**
 	 * Component constructor.
@@ -47,10 +48,31 @@ public class ALUControl extends Component {
 		funcId = json.getString("func");
 	}
 
+	/**
+	 * Creates a copy of an ALU control (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected ALUControl(ALUControl original) {
+		super(original);
+		aluOp = getInput(original.aluOp.getId());
+		func = getInput(original.func.getId());
+		controlALU = original.controlALU;
+		outputs = new Output[original.outputs.length];
+		for(int i = 0; i < outputs.length; i++)
+			outputs[i] = getOutput(original.outputs[i].getId());
+	}
+
+	@Override
+	protected ALUControl copy() {
+		return new ALUControl(this);
+	}
+
 	@Override
 	public void execute() {
-		for(String id: controlALU.getOutputsIds())
-			getOutput(id).setValue(controlALU.getControlValue(getALUOp().getValue(), getFunc().getValue(), id));
+		int op = getALUOp().getValue();
+		int f = getFunc().getValue();
+		for(int i = 0; i < outputs.length; i++)
+			outputs[i].setValue(controlALU.getControlValue(op, f, i));
 	}
 
 	/**
@@ -66,8 +88,11 @@ public class ALUControl extends Component {
 		aluOp = addInput(aluOpId, new Data(controlALU.getAluOpSize()), IOPort.Direction.NORTH);
 		func = addInput(funcId, new Data(controlALU.getFuncSize()));
 		aluOpId = funcId = null;
-		for(String id: controlALU.getOutputsIds())
-			addOutput(id, new Data(controlALU.getOutSize(id)));
+		outputs = new Output[controlALU.getNumberOfOutputs()];
+		for(int i = 0; i < outputs.length; i++) {
+			String id = controlALU.getOutputId(i);
+			outputs[i] = addOutput(id, new Data(controlALU.getOutSize(id)));
+		}
 	}
 
 	/**
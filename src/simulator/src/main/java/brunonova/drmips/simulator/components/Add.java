@@ -42,6 +42,19 @@ public class Add extends SimpleBinaryOperationComponent {
 		super(id, json, "ADD", "add", "add_description", new Dimension(35, 35), Data.DATA_SIZE);
 	}
 
+	/**
+	 * Creates a copy of an adder (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected Add(Add original) {
+		super(original);
+	}
+
+	@Override
+	protected Add copy() {
+		return new Add(this);
+	}
+
 	@Override
 	protected int operation(int in1, int in2) {
 		return in1 + in2;
@@ -62,6 +62,22 @@ public class Concatenator extends Component {
 		setPosition(new Point(getPosition().x - 2, getPosition().y - 2));
 	}
 
+	/**
+	 * Creates a copy of a concatenator (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected Concatenator(Concatenator original) {
+		super(original);
+		input1 = getInput(original.input1.getId());
+		input2 = getInput(original.input2.getId());
+		output = getOutput(original.output.getId());
+	}
+
+	@Override
+	protected Concatenator copy() {
+		return new Concatenator(this);
+	}
+
 	@Override
 	public void execute() {
 		getOutput().setValue((getInput1().getValue() << getInput2().getSize()) | getInput2().getValue());
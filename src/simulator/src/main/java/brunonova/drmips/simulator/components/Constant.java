@@ -48,6 +48,21 @@ public class Constant extends Component {
 		output = addOutput(json.getString("out"), new Data(json.getInt("size")));
 	}
 
+	/**
+	 * Creates a copy of a constant (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected Constant(Constant original) {
+		super(original);
+		output = getOutput(original.output.getId());
+		value = original.value;
+	}
+
+	@Override
+	protected Constant copy() {
+		return new Constant(this);
+	}
+
 	@Override
 	public void execute() {
 		getOutput().setValue(value);
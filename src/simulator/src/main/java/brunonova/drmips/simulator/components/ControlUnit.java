@@ -33,6 +33,7 @@ public class ControlUnit extends Component {
 	private Input input;
 	private String inId; // temporary
 	private Control control = null;
+	private Output[] outputs; // indexed like the outputs of the control
 
 	/**
 	 * Component constructor.
@@ -46,12 +47,30 @@ public class ControlUnit extends Component {
 		inId = json.getString("in");
 	}
 
+	/**
+	 * Creates a copy of a control unit (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected ControlUnit(ControlUnit original) {
+		super(original);
+		input = getInput(original.input.getId());
+		control = original.control;
+		outputs = new Output[original.outputs.length];
+		for(int i = 0; i < outputs.length; i++)
+			outputs[i] = getOutput(original.outputs[i].getId());
+	}
+
+	@Override
+	protected ControlUnit copy() {
+		return new ControlUnit(this);
+	}
+
 	@Override
 	public void execute() {
 		int opcode = getInput().getValue();
 
-		for(String o: control.getOutputsIds())
-			getOutput(o).setValue(control.getOutOfOpcode(opcode, o));
+		for(int i = 0; i < outputs.length; i++)
+			outputs[i].setValue(control.getOutOfOpcode(opcode, i));
 	}
 
 	/**
@@ -69,8 +88,11 @@ public class ControlUnit extends Component {
 		inId = null;
 
 		// Add outputs
-		for(String o: control.getOutputsIds())
-			addOutput(o, new Data(control.getOutSize(o)));
+		outputs = new Output[control.getNumberOfOutputs()];
+		for(int i = 0; i < outputs.length; i++) {
+			String o = control.getOutputId(i);
+			outputs[i] = addOutput(o, new Data(control.getOutSize(o)));
+		}
 	}
 
 	/**
@@ -21,25 +21,34 @@ package brunonova.drmips.simulator.components;
 import brunonova.drmips.simulator.*;
 import brunonova.drmips.simulator.exceptions.InvalidCPUException;
 import brunonova.drmips.simulator.util.Dimension;
-import java.util.Stack;
+import brunonova.drmips.simulator.util.IntStack;
+import brunonova.drmips.simulator.util.PagedMemory;
+import java.nio.IntBuffer;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
  * Class that represents the data memory.
+ * <p>The memory is normally a small array with the given size. If it is
+ * <i>sparse</i>, it covers the whole 32-bit address space instead, and is
+ * stored in pages that are allocated on demand (see {@link PagedMemory}).</p>
  *
  * @author Bruno Nova
  */
-public class DataMemory extends Component implements Synchronous {
+public class DataMemory extends Component implements Synchronous, Checkpointable {
 	/** The minimum size of the memory (in ints). */
 	public static final int MINIMUM_SIZE = 20;
 	/** The maximum size of the memory (in ints). */
 	public static final int MAXIMUM_SIZE = 500;
+	/** Size of each memory position, in bytes. */
+	private static final int WORD = Data.DATA_SIZE / 8;
 
 	private final Input address, writeData, memRead, memWrite;
 	private final Output output;
-	private int[] memory;
-	private final Stack<int[]> states = new Stack<>(); // previous values
+	private final int[] memory; // null if sparse
+	private final PagedMemory pages; // null if not sparse
+	private final IntStack states = new IntStack(); // journal of overwritten values: [index, value,]* count
+	private boolean edited = false; // memory changed outside of a cycle since the state was saved/restored?
 
 	/**
 	 * Component constructor.
@@ -51,11 +60,17 @@ public class DataMemory extends Component implements Synchronous {
 	public DataMemory(String id, JSONObject json) throws InvalidCPUException, JSONException {
 		super(id, json, "Data\nmemory", "data_memory", "data_memory_description", new Dimension(80, 100));
 
-		int size = json.getInt("size");
-		if(size < MINIMUM_SIZE || size > MAXIMUM_SIZE)
-			throw new InvalidCPUException("Invalid data memory size! Must be between " + MINIMUM_SIZE + " and " + MAXIMUM_SIZE + " positions (each position has 32 bits).");
-
-		memory = new int[size];
+		if(json.optBoolean("sparse", false)) {
+			memory = null;
+			pages = new PagedMemory();
+		}
+		else {
+			int size = json.getInt("size");
+			if(size < MINIMUM_SIZE || size > MAXIMUM_SIZE)
+				throw new InvalidCPUException("Invalid data memory size! Must be between " + MINIMUM_SIZE + " and " + MAXIMUM_SIZE + " positions (each position has 32 bits), or the memory must be sparse.");
+			memory = new int[size];
+			pages = null;
+		}
 		address = addInput(json.getString("address"), new Data(), IOPort.Direction.WEST, true, true);
 		writeData = addInput(json.getString("write_data"), new Data(), IOPort.Direction.WEST, false, true);
 		memRead = addInput(json.getString("mem_read"), new Data(1), IOPort.Direction.NORTH);
@@ -63,6 +78,26 @@ public class DataMemory extends Component implements Synchronous {
 		output = addOutput(json.getString("out"), new Data(), IOPort.Direction.EAST, true);
 	}
 
+	/**
+	 * Creates a copy of a data memory (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected DataMemory(DataMemory original) {
+		super(original);
+		address = getInput(original.address.getId());
+		writeData = getInput(original.writeData.getId());
+		memRead = getInput(original.memRead.getId());
+		memWrite = getInput(original.memWrite.getId());
+		output = getOutput(original.output.getId());
+		memory = (original.memory != null) ? new int[original.memory.length] : null;
+		pages = (original.pages != null) ? new PagedMemory() : null;
+	}
+
+	@Override
+	protected DataMemory copy() {
+		return new DataMemory(this);
+	}
+
 	@Override
 	public void execute() {
 		boolean read = getMemRead().getValue() == 1;
@@ -81,28 +116,46 @@ public class DataMemory extends Component implements Synchronous {
 
 	@Override
 	public void executeSynchronous() {
-		if(getMemWrite().getValue() == 1)
-			setData(getAddress().getValue(), getWriteData().getValue(), true);
+		int index = getIndexOfAddress(getAddress().getValue());
+		if(getMemWrite().getValue() == 1 && index >= 0) { // not an edit, saved by pushState()
+			setValue(index, getWriteData().getValue());
+			execute();
+		}
 	}
 
 	@Override
 	public void pushState() {
-		states.push(memory.clone());
+		int index = getIndexOfAddress(getAddress().getValue());
+		if(getMemWrite().getValue() == 1 && index >= 0) { // save only the position that will be written
+			states.push(index);
+			states.push(getDataInIndex(index));
+			states.push(1);
+		}
+		else
+			states.push(0);
+		edited = false;
 	}
 
 	@Override
 	public void popState() {
-		memory = states.pop();
+		if(hasSavedStates()) {
+			for(int n = states.pop(); n > 0; n--) {
+				int value = states.pop();
+				setValue(states.pop(), value);
+			}
+		}
+		edited = false;
 	}
 
 	@Override
 	public boolean hasSavedStates() {
-		return !states.empty();
+		return !states.isEmpty();
 	}
 
 	@Override
 	public void clearSavedStates() {
 		states.clear();
+		edited = false;
 	}
 
 	@Override
@@ -116,12 +169,55 @@ public class DataMemory extends Component implements Synchronous {
 		return getMemWrite().getValue() == 1;
 	}
 
+	@Override
+	public Object saveCheckpoint() {
+		edited = false;
+		return memory != null ? memory.clone() : pages.snapshot(); // the snapshot shares the pages
+	}
+
+	@Override
+	public void restoreCheckpoint(Object checkpoint) {
+		if(memory != null)
+			System.arraycopy((int[])checkpoint, 0, memory, 0, memory.length);
+		else
+			pages.restore((PagedMemory.Snapshot)checkpoint);
+		states.clear();
+		edited = false;
+	}
+
+	@Override
+	public long getCheckpointMemoryUsage(Object checkpoint) {
+		if(memory != null)
+			return 16 + ((int[])checkpoint).length * 4L;
+		else
+			return ((PagedMemory.Snapshot)checkpoint).getMemoryUsage();
+	}
+
+	@Override
+	public void discardSavedStates() {
+		states.clear();
+	}
+
+	@Override
+	public long getSavedStatesMemoryUsage() {
+		return states.size() * 4L;
+	}
+
+	@Override
+	public boolean isEdited() {
+		return edited;
+	}
+
 	/**
 	 * Resets the memory to zeros.
 	 */
 	public final void reset() {
-		for(int i = 0; i < memory.length; i++)
-			memory[i] = 0;
+		if(memory != null) {
+			for(int i = 0; i < memory.length; i++)
+				memory[i] = 0;
+		}
+		else
+			pages.clear();
 		execute();
 	}
 
@@ -140,7 +236,8 @@ public class DataMemory extends Component implements Synchronous {
 	 * @return The desired value, or 0 if the index is out of bounds.
 	 */
 	public final int getDataInIndex(int index) {
-		return (index >= 0 && index < getMemorySize()) ? memory[index] : 0;
+		if(index < 0 || index >= getMemorySize()) return 0;
+		return memory != null ? memory[index] : pages.get(index);
 	}
 
 	/**
@@ -175,24 +272,121 @@ public class DataMemory extends Component implements Synchronous {
 
 	/**
 	 * Updates the value in the specified index.
+	 * <p>The change is undone when the previous cycle is restored.</p>
 	 * @param index The index of the memory position.
 	 * @param value The new value.
 	 * @param propagate Whether the new value is propagated to the rest of the circuit if it is being read.
 	 */
 	public final void setDataInIndex(int index, int value, boolean propagate) {
 		if(index >= 0 && index < getMemorySize()) {
-			memory[index] = value;
+			saveEdit(index, 1);
+			setValue(index, value);
 			if(propagate) execute();
 		}
 	}
 
+	/**
+	 * Copies the values of consecutive positions to a buffer.
+	 * <p>The values are copied from the buffer's position to its limit, and
+	 * the position is advanced.</p>
+	 * @param index The index of the first memory position.
+	 * @param values The buffer that receives the values.
+	 * @throws IndexOutOfBoundsException If the positions are out of bounds.
+	 */
+	public final void getDataInIndexes(int index, IntBuffer values) throws IndexOutOfBoundsException {
+		int count = values.remaining();
+		checkRange(index, count);
+		if(memory != null)
+			values.put(memory, index, count);
+		else
+			pages.get(index, values);
+	}
+
+	/**
+	 * Updates the values of consecutive positions from a buffer.
+	 * <p>The values are read from the buffer's position to its limit, and the
+	 * position is advanced. The new values are propagated to the rest of the
+	 * circuit only once, at the end.</p>
+	 * @param index The index of the first memory position.
+	 * @param values The buffer with the new values.
+	 * @throws IndexOutOfBoundsException If the positions are out of bounds.
+	 */
+	public final void setDataInIndexes(int index, IntBuffer values) throws IndexOutOfBoundsException {
+		setDataInIndexes(index, values, true);
+	}
+
+	/**
+	 * Updates the values of consecutive positions from a buffer.
+	 * <p>The values are read from the buffer's position to its limit, and the
+	 * position is advanced. The change is undone when the previous cycle is
+	 * restored.</p>
+	 * @param index The index of the first memory position.
+	 * @param values The buffer with the new values.
+	 * @param propagate Whether the new values are propagated to the rest of the circuit (once, at the end).
+	 * @throws IndexOutOfBoundsException If the positions are out of bounds.
+	 */
+	public final void setDataInIndexes(int index, IntBuffer values, boolean propagate) throws IndexOutOfBoundsException {
+		int count = values.remaining();
+		checkRange(index, count);
+		saveEdit(index, count);
+		if(memory != null)
+			values.get(memory, index, count);
+		else
+			pages.set(index, values);
+		if(propagate) execute();
+	}
+
+	/**
+	 * Checks whether a range of positions is inside the memory.
+	 * @param index The index of the first memory position.
+	 * @param count The number of positions.
+	 * @throws IndexOutOfBoundsException If the positions are out of bounds.
+	 */
+	private void checkRange(int index, int count) throws IndexOutOfBoundsException {
+		if(index < 0 || count > getMemorySize() - index)
+			throw new IndexOutOfBoundsException("The positions " + index + " to " + ((long)index + count - 1) + " are outside the data memory (size " + getMemorySize() + ")!");
+	}
+
+	/**
+	 * Saves the values of positions that will be changed outside of a cycle
+	 * (by the user) in the state of the last cycle, so that restoring that
+	 * cycle undoes the change.
+	 * @param index The index of the first memory position.
+	 * @param count The number of positions.
+	 */
+	private void saveEdit(int index, int count) {
+		if(!states.isEmpty()) {
+			int n = states.pop();
+			for(int i = index; i < index + count; i++) {
+				states.push(i);
+				states.push(getDataInIndex(i));
+			}
+			states.push(n + count);
+		}
+		edited = true;
+	}
+
+	/**
+	 * Updates the value in the specified (valid) index, without propagating it.
+	 * @param index The index of the memory position.
+	 * @param value The new value.
+	 */
+	private void setValue(int index, int value) {
+		if(memory != null)
+			memory[index] = value;
+		else
+			pages.set(index, value);
+	}
+
 	/**
 	 * Returns the index of the memory position in the specified address.
 	 * @param address The address of the memory position.
 	 * @return The index of the position, or -1 if out of bounds.
 	 */
 	public final int getIndexOfAddress(int address) {
-		int index = address / (Data.DATA_SIZE / 8); // A lw on an address like 3 would give an error in a CPU with exceptions
+		if(memory == null) // the whole (unsigned) address space
+			return (int)((address & 0xFFFFFFFFL) / WORD);
+		int index = address / WORD; // A lw on an address like 3 would give an error in a CPU with exceptions
 		return (index >= 0 && index < getMemorySize()) ? index : -1;
 	}
 
@@ -201,7 +395,46 @@ public class DataMemory extends Component implements Synchronous {
 	 * @return The size of the memory (number of 32 bits positions).
 	 */
 	public final int getMemorySize() {
-		return memory.length;
+		return memory != null ? memory.length : PagedMemory.SIZE;
+	}
+
+	/**
+	 * Returns whether the memory is sparse (covers the whole 32-bit address space).
+	 * @return <tt>True</tt> if the memory is sparse.
+	 */
+	public final boolean isSparse() {
+		return memory == null;
+	}
+
+	/**
+	 * Returns the indexes of the memory positions that are in use.
+	 * <p>These are the positions that should be displayed to the user. If the
+	 * memory isn't sparse, all the positions are in use. If it is, the
+	 * positions of the allocated pages and of the first page (where the data
+	 * segment starts) are in use; the other positions have the value 0.</p>
+	 * @return The indexes of the positions in use, in ascending order.
+	 */
+	public final int[] getUsedIndexes() {
+		if(memory != null) {
+			int[] indexes = new int[memory.length];
+			for(int i = 0; i < indexes.length; i++)
+				indexes[i] = i;
+			return indexes;
+		}
+
+		int[] usedPages = pages.getPages();
+		boolean firstPage = usedPages.length > 0 && usedPages[0] == 0;
+		int[] indexes = new int[(usedPages.length + (firstPage ? 0 : 1)) * PagedMemory.PAGE_SIZE];
+		int n = 0;
+		if(!firstPage) {
+			for(int i = 0; i < PagedMemory.PAGE_SIZE; i++)
+				indexes[n++] = i;
+		}
+		for(int page: usedPages) {
+			for(int i = 0; i < PagedMemory.PAGE_SIZE; i++)
+				indexes[n++] = page * PagedMemory.PAGE_SIZE + i;
+		}
+		return indexes;
 	}
 
 	/**
@@ -64,6 +64,21 @@ public class Distributor extends Component {
 		}
 	}
 
+	/**
+	 * Creates a copy of a distributor (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected Distributor(Distributor original) {
+		super(original);
+		input = getInput(original.input.getId());
+		outParameters = original.outParameters; // not modified
+	}
+
+	@Override
+	protected Distributor copy() {
+		return new Distributor(this);
+	}
+
 	/**
 	 * Adds an output.
 	 * @param id The identifier of the output.
@@ -93,6 +108,28 @@ public class Distributor extends Component {
 		return input;
 	}
 
+	/**
+	 * Returns the most significant bit of the input that is put in the specified output.
+	 * @param id The identifier of the output.
+	 * @return The most significant bit, or <tt>-1</tt> if the output doesn't exist.
+	 */
+	public final int getOutputMSB(String id) {
+		for(OutputParameters o: outParameters)
+			if(o.id.equals(id)) return o.msb;
+		return -1;
+	}
+
+	/**
+	 * Returns the less significant bit of the input that is put in the specified output.
+	 * @param id The identifier of the output.
+	 * @return The less significant bit, or <tt>-1</tt> if the output doesn't exist.
+	 */
+	public final int getOutputLSB(String id) {
+		for(OutputParameters o: outParameters)
+			if(o.id.equals(id)) return o.lsb;
+		return -1;
+	}
+
 	/**
 	 * Contains the parameters (MSB, LSB, id) for an output of a distributor.
 	 */
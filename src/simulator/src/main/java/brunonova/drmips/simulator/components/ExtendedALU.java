@@ -20,19 +20,20 @@ package brunonova.drmips.simulator.components;
 
 import brunonova.drmips.simulator.Data;
 import brunonova.drmips.simulator.exceptions.InvalidCPUException;
-import java.util.Stack;
+import brunonova.drmips.simulator.util.IntStack;
 import org.json.JSONException;
 import org.json.JSONObject;
 import brunonova.drmips.simulator.Synchronous;
+import brunonova.drmips.simulator.Checkpointable;
 
 /**
  * An ALU that supports multiplications and divisions, and contains the <tt>HI</tt> and <tt>LO</tt> "registers".
  *
  * @author Bruno Nova
  */
-public class ExtendedALU extends ALU implements Synchronous {
+public class ExtendedALU extends ALU implements Synchronous, Checkpointable {
 	private final Data hi, lo;
-	private final Stack<int[]> states = new Stack<>(); // previous values
+	private final IntStack states = new IntStack(); // journal of overwritten values: [hi, lo,] written?
 
 	/**
 	 * Component constructor.
@@ -50,6 +51,21 @@ public class ExtendedALU extends ALU implements Synchronous {
 		lo = new Data();
 	}
 
+	/**
+	 * Creates a copy of an extended ALU (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected ExtendedALU(ExtendedALU original) {
+		super(original);
+		hi = new Data();
+		lo = new Data();
+	}
+
+	@Override
+	protected ExtendedALU copy() {
+		return new ExtendedALU(this);
+	}
+
 	@Override
 	public void executeSynchronous() {
 		controlALU.doSynchronousOperation(getInput1().getValue(), getInput2().getValue(), this, getControl().getValue());
@@ -57,21 +73,26 @@ public class ExtendedALU extends ALU implements Synchronous {
 
 	@Override
 	public void pushState() {
-		states.push(new int[] {hi.getValue(), lo.getValue()});
+		if(isWritingState()) { // save HI and LO only if they will be written
+			states.push(hi.getValue());
+			states.push(lo.getValue());
+			states.push(1);
+		}
+		else
+			states.push(0);
 	}
 
 	@Override
 	public void popState() {
-		if(hasSavedStates()) {
-			int[] val = states.pop();
-			hi.setValue(val[0]);
-			lo.setValue(val[1]);
+		if(hasSavedStates() && states.pop() == 1) {
+			lo.setValue(states.pop());
+			hi.setValue(states.pop());
 		}
 	}
 
 	@Override
 	public boolean hasSavedStates() {
-		return !states.empty();
+		return !states.isEmpty();
 	}
 
 	@Override
@@ -90,6 +111,39 @@ public class ExtendedALU extends ALU implements Synchronous {
 		return controlALU.isWritingState(getControl().getValue());
 	}
 
+	@Override
+	public int[] saveCheckpoint() {
+		return new int[] {hi.getValue(), lo.getValue()};
+	}
+
+	@Override
+	public void restoreCheckpoint(Object checkpoint) {
+		int[] state = (int[])checkpoint;
+		hi.setValue(state[0]);
+		lo.setValue(state[1]);
+		states.clear();
+	}
+
+	@Override
+	public long getCheckpointMemoryUsage(Object checkpoint) {
+		return 16 + ((int[])checkpoint).length * 4L;
+	}
+
+	@Override
+	public void discardSavedStates() {
+		states.clear();
+	}
+
+	@Override
+	public long getSavedStatesMemoryUsage() {
+		return states.size() * 4L;
+	}
+
+	@Override
+	public boolean isEdited() {
+		return false;
+	}
+
 	/**
 	 * Returns the <tt>HI</tt> "register".
 	 * @return The <tt>HI</tt> "register".
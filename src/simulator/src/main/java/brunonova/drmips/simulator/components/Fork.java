@@ -60,9 +60,23 @@ public class Fork extends Component {
 		setPosition(new Point(getPosition().x - 2, getPosition().y - 2));
 	}
 
+	/**
+	 * Creates a copy of a fork (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected Fork(Fork original) {
+		super(original);
+		input = getInput(original.input.getId());
+	}
+
+	@Override
+	protected Fork copy() {
+		return new Fork(this);
+	}
+
 	@Override
 	public void execute() {
-		for(Output o: getOutputs())
+		for(Output o: getOutputArray())
 			o.setValue(getInput().getValue());
 	}
 
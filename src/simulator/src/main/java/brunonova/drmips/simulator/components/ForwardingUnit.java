@@ -56,6 +56,28 @@ public class ForwardingUnit extends Component {
 		forwardB = addOutput(json.getString("fwd_b"), new Data(2), IOPort.Direction.NORTH);
 	}
 
+	/**
+	 * Creates a copy of a forwarding unit (see {@link Component#copy}).
+	 * <p>The register bank must be set with {@link #setRegbank}.</p>
+	 * @param original The component being copied.
+	 */
+	protected ForwardingUnit(ForwardingUnit original) {
+		super(original);
+		exMemRegWrite = getInput(original.exMemRegWrite.getId());
+		memWbRegWrite = getInput(original.memWbRegWrite.getId());
+		exMemRd = getInput(original.exMemRd.getId());
+		memWbRd = getInput(original.memWbRd.getId());
+		idExRs = getInput(original.idExRs.getId());
+		idExRt = getInput(original.idExRt.getId());
+		forwardA = getOutput(original.forwardA.getId());
+		forwardB = getOutput(original.forwardB.getId());
+	}
+
+	@Override
+	protected ForwardingUnit copy() {
+		return new ForwardingUnit(this);
+	}
+
 	@Override
 	public void execute() {
 		if(regbank != null) {
@@ -98,6 +120,8 @@ public class ForwardingUnit extends Component {
 	 */
 	public final void setRegbank(RegBank regbank) throws InvalidCPUException {
 		this.regbank = regbank;
+		if(exMemRd != null) // inputs already added (copy of another unit)
+			return;
 		int size = regbank.getRequiredBitsToIdentifyRegister();
 		exMemRd = addInput(exMemRdId, new Data(size), IOPort.Direction.EAST, true, true);
 		memWbRd = addInput(memWbRdId, new Data(size), IOPort.Direction.EAST, true, true);
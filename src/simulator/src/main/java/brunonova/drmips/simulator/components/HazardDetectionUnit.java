@@ -53,6 +53,25 @@ public class HazardDetectionUnit extends Component {
 		stall = addOutput(json.getString("stall"), new Data(1), IOPort.Direction.NORTH);
 	}
 
+	/**
+	 * Creates a copy of a hazard detection unit (see {@link Component#copy}).
+	 * <p>The register bank must be set with {@link #setRegbank}.</p>
+	 * @param original The component being copied.
+	 */
+	protected HazardDetectionUnit(HazardDetectionUnit original) {
+		super(original);
+		idExMemRead = getInput(original.idExMemRead.getId());
+		idExRt = getInput(original.idExRt.getId());
+		ifIdRs = getInput(original.ifIdRs.getId());
+		ifIdRt = getInput(original.ifIdRt.getId());
+		stall = getOutput(original.stall.getId());
+	}
+
+	@Override
+	protected HazardDetectionUnit copy() {
+		return new HazardDetectionUnit(this);
+	}
+
 	@Override
 	public void execute() {
 		if(regbank != null) {
@@ -74,6 +93,8 @@ public class HazardDetectionUnit extends Component {
 	 */
 	public final void setRegbank(RegBank regbank) throws InvalidCPUException {
 		this.regbank = regbank;
+		if(idExRt != null) // inputs already added (copy of another unit)
+			return;
 		int size = regbank.getRequiredBitsToIdentifyRegister();
 		idExRt = addInput(idExRtId, new Data(size), IOPort.Direction.EAST, true, true);
 		ifIdRs = addInput(ifIdRsId, new Data(size), IOPort.Direction.WEST, true, true);
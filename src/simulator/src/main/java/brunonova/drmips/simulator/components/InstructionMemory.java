@@ -50,6 +50,22 @@ public class InstructionMemory extends Component {
 		output = addOutput(json.getString("out"), new Data());
 	}
 
+	/**
+	 * Creates a copy of an instruction memory, without instructions (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected InstructionMemory(InstructionMemory original) {
+		super(original);
+		input = getInput(original.input.getId());
+		output = getOutput(original.output.getId());
+		instructions = new ArrayList<>();
+	}
+
+	@Override
+	protected InstructionMemory copy() {
+		return new InstructionMemory(this);
+	}
+
 	@Override
 	public void execute() {
 		int index = getInput().getValue() / (Data.DATA_SIZE / 8);
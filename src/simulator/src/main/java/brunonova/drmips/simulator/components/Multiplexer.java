@@ -36,6 +36,7 @@ public class Multiplexer extends Component {
 	private final Input selector;
 	private final Output output;
 	private final List<Input> inputs; // inputs (excluding the selector)
+	private final List<Input> latencyInputs = new ArrayList<>(2); // reused by getLatencyInputs()
 
 	/**
 	 * Component constructor.
@@ -59,6 +60,24 @@ public class Multiplexer extends Component {
 		output = addOutput(json.getString("out"), new Data(size));
 	}
 
+	/**
+	 * Creates a copy of a multiplexer (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected Multiplexer(Multiplexer original) {
+		super(original);
+		inputs = new ArrayList<>(original.inputs.size());
+		for(Input i: original.inputs)
+			inputs.add(getInput(i.getId()));
+		selector = getInput(original.selector.getId());
+		output = getOutput(original.output.getId());
+	}
+
+	@Override
+	protected Multiplexer copy() {
+		return new Multiplexer(this);
+	}
+
 	@Override
 	public void execute() {
 		int sel = getSelector().getValue();
@@ -72,7 +91,8 @@ public class Multiplexer extends Component {
 
 	@Override
 	protected List<Input> getLatencyInputs() {
-		ArrayList<Input> inList = new ArrayList<>();
+		List<Input> inList = latencyInputs;
+		inList.clear();
 		// always add control input
 		inList.add(getSelector());
 		// add the selected input to the list of inputs that
@@ -110,4 +130,12 @@ public class Multiplexer extends Component {
 		else
 			return null;
 	}
+
+	/**
+	 * Returns the number of inputs (excluding the selector).
+	 * @return The number of inputs.
+	 */
+	public final int getNumberOfInputs() {
+		return inputs.size();
+	}
 }
@@ -46,6 +46,21 @@ public class Not extends Component {
 		output = addOutput(json.getString("out"), new Data(1));
 	}
 
+	/**
+	 * Creates a copy of a NOT port (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected Not(Not original) {
+		super(original);
+		input = getInput(original.input.getId());
+		output = getOutput(original.output.getId());
+	}
+
+	@Override
+	protected Not copy() {
+		return new Not(this);
+	}
+
 	@Override
 	public void execute() {
 		getOutput().setValue(~getInput().getValue());
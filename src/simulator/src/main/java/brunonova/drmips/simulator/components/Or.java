@@ -33,6 +33,9 @@ import org.json.JSONObject;
  * @author Bruno Nova
  */
 public class Or extends SimpleBinaryOperationComponent {
+	/** The inputs that influence the latency (reused by <tt>getLatencyInputs()</tt>). */
+	private final List<Input> latencyInputs = new ArrayList<>(2);
+
 	/**
 	 * Component constructor.
 	 * @param id The component's identifier.
@@ -44,6 +47,19 @@ public class Or extends SimpleBinaryOperationComponent {
 		super(id, json, "OR", "or", "or_description", new Dimension(30, 30), 1);
 	}
 
+	/**
+	 * Creates a copy of an OR port (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected Or(Or original) {
+		super(original);
+	}
+
+	@Override
+	protected Or copy() {
+		return new Or(this);
+	}
+
 	@Override
 	protected int operation(int in1, int in2) {
 		return in1 | in2;
@@ -51,7 +67,8 @@ public class Or extends SimpleBinaryOperationComponent {
 
 	@Override
 	protected List<Input> getLatencyInputs() {
-		ArrayList<Input> inList = new ArrayList<>();
+		List<Input> inList = latencyInputs;
+		inList.clear();
 		int val1 = getInput1().getValue();
 		int val2 = getInput2().getValue();
 		if (val1 == val2) {  // inputs have identical logic values
@@ -21,7 +21,7 @@ package brunonova.drmips.simulator.components;
 import brunonova.drmips.simulator.*;
 import brunonova.drmips.simulator.exceptions.InvalidCPUException;
 import brunonova.drmips.simulator.util.Dimension;
-import java.util.Stack;
+import brunonova.drmips.simulator.util.IntStack;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -30,13 +30,13 @@ import org.json.JSONObject;
  *
  * @author Bruno Nova
  */
-public class PC extends Component implements Synchronous {
+public class PC extends Component implements Synchronous, Checkpointable {
 	private final Input input, write;
 	private final Output output;
 	private final Data address;
-	private final Stack<Integer> states = new Stack<>(); // previous adresses
+	private final IntStack states = new IntStack(); // journal: [previous address,] address written?, previous instruction
 	private int currentInstructionIndex = -1;
-	private final Stack<Integer> instructions = new Stack<>(); // previous instructions
+	private boolean edited = false; // address changed outside of a cycle since the state was saved/restored?
 
 	/**
 	 * Component constructor.
@@ -53,6 +53,23 @@ public class PC extends Component implements Synchronous {
 		write = addInput(json.optString("write", "Write"), new Data(1, 1), IOPort.Direction.NORTH, false);
 	}
 
+	/**
+	 * Creates a copy of a program counter (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected PC(PC original) {
+		super(original);
+		input = getInput(original.input.getId());
+		write = getInput(original.write.getId());
+		output = getOutput(original.output.getId());
+		address = new Data();
+	}
+
+	@Override
+	protected PC copy() {
+		return new PC(this);
+	}
+
 	@Override
 	public void execute() {
 		getOutput().setValue(getAddress().getValue());
@@ -62,32 +79,40 @@ public class PC extends Component implements Synchronous {
 	@Override
 	public void executeSynchronous() {
 		if(getWrite().getValue() == 1)
-			setAddress(getInput().getValue(), false);
+			address.setValue(getInput().getValue());
 	}
 
 	@Override
 	public void pushState() {
-		states.push(getAddress().getValue());
-		instructions.push(getCurrentInstructionIndex());
+		if(getWrite().getValue() == 1) { // save the address only if it will be written
+			states.push(getAddress().getValue());
+			states.push(1);
+		}
+		else
+			states.push(0);
+		states.push(getCurrentInstructionIndex());
+		edited = false;
 	}
 
 	@Override
 	public void popState() {
 		if(hasSavedStates()) {
-			setAddress(states.pop(), false);
-			setCurrentInstructionIndex(instructions.pop());
+			setCurrentInstructionIndex(states.pop());
+			if(states.pop() == 1)
+				address.setValue(states.pop());
 		}
+		edited = false;
 	}
 
 	@Override
 	public boolean hasSavedStates() {
-		return !states.empty();
+		return !states.isEmpty();
 	}
 
 	@Override
 	public void clearSavedStates() {
 		states.clear();
-		instructions.clear();
+		edited = false;
 	}
 
 	@Override
@@ -101,6 +126,41 @@ public class PC extends Component implements Synchronous {
 		return getWrite().getValue() == 1;
 	}
 
+	@Override
+	public int[] saveCheckpoint() {
+		edited = false;
+		return new int[] {getAddress().getValue(), getCurrentInstructionIndex()};
+	}
+
+	@Override
+	public void restoreCheckpoint(Object checkpoint) {
+		int[] state = (int[])checkpoint;
+		address.setValue(state[0]);
+		setCurrentInstructionIndex(state[1]);
+		states.clear();
+		edited = false;
+	}
+
+	@Override
+	public long getCheckpointMemoryUsage(Object checkpoint) {
+		return 16 + ((int[])checkpoint).length * 4L;
+	}
+
+	@Override
+	public void discardSavedStates() {
+		states.clear();
+	}
+
+	@Override
+	public long getSavedStatesMemoryUsage() {
+		return states.size() * 4L;
+	}
+
+	@Override
+	public boolean isEdited() {
+		return edited;
+	}
+
 	/**
 	 * Returns the current address of the Program Counter (the <tt>$pc</tt> register).
 	 * @return Current address.
@@ -120,10 +180,21 @@ public class PC extends Component implements Synchronous {
 
 	/**
 	 * Updates the addres of the Program Counter (the <tt>$pc</tt> register).
+	 * <p>The change is undone when the previous cycle is restored.</p>
 	 * @param address New address.
 	 * @param propagate Whether the new address is propagated to the rest of the circuit.
 	 */
 	public final void setAddress(int address, boolean propagate) {
+		if(!states.isEmpty()) { // save the current address in the state of the last cycle, if not saved
+			int index = states.pop();
+			if(states.peek() == 0) {
+				states.pop();
+				states.push(this.address.getValue());
+				states.push(1);
+			}
+			states.push(index);
+		}
+		edited = true;
 		this.address.setValue(address);
 		if(propagate) execute();
 	}
@@ -21,24 +21,30 @@ package brunonova.drmips.simulator.components;
 import brunonova.drmips.simulator.*;
 import brunonova.drmips.simulator.exceptions.InvalidCPUException;
 import brunonova.drmips.simulator.util.Dimension;
-import java.util.HashMap;
+import brunonova.drmips.simulator.util.IntStack;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Stack;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
  * Class that represents a synchronous register that divides two stages of the pipeline.
  *
+ * <p>The values of the "registers" are stored in parallel arrays, together
+ * with their masks and their inputs and outputs, which are resolved once in the
+ * constructor. This way, executing the component doesn't look up the ports by
+ * name nor allocate any objects.</p>
+ *
  * @author Bruno Nova
  */
-public class PipelineRegister extends Component implements Synchronous {
+public class PipelineRegister extends Component implements Synchronous, Checkpointable {
 	private final Input write, flush;
-	private Map<String, Data> registers; // stored values
-	private final Stack<Map<String, Data>> states = new Stack<>(); // previous values
+	private final int[] values; // stored values
+	private final int[] masks; // masks of the stored values (according to their sizes)
+	private final Input[] inputs; // input of each stored value
+	private final Output[] outputs; // output of each stored value
+	private final IntStack states = new IntStack(); // journal: [index, value,] count, previous instruction
 	private int currentInstructionIndex = -1;
-	private final Stack<Integer> instructions = new Stack<>(); // previous instructions
 
 	/**
 	 * Component constructor.
@@ -57,26 +63,55 @@ public class PipelineRegister extends Component implements Synchronous {
 		// Add the pipeline "registers", plus their inputs and outputs
 		String name;
 		JSONObject regs = json.getJSONObject("regs");
-		registers = new HashMap<>(32);
+		int n = regs.length();
+		values = new int[n];
+		masks = new int[n];
+		inputs = new Input[n];
+		outputs = new Output[n];
 		Iterator<String> i = regs.keys();
-		while(i.hasNext()) {
+		for(int x = 0; i.hasNext(); x++) {
 			name = i.next();
-			addInput(name, new Data(regs.getInt(name)), IOPort.Direction.WEST, false);
-			addOutput(name, new Data(regs.getInt(name)));
-			this.registers.put(name, new Data(regs.getInt(name)));
+			int size = regs.getInt(name);
+			inputs[x] = addInput(name, new Data(size), IOPort.Direction.WEST, false);
+			outputs[x] = addOutput(name, new Data(size));
+			masks[x] = inputs[x].getData().getMask();
+		}
+	}
+
+	/**
+	 * Creates a copy of a pipeline register (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected PipelineRegister(PipelineRegister original) {
+		super(original);
+		write = getInput(original.write.getId());
+		flush = getInput(original.flush.getId());
+		int n = original.values.length;
+		values = new int[n];
+		masks = original.masks.clone();
+		inputs = new Input[n];
+		outputs = new Output[n];
+		for(int x = 0; x < n; x++) {
+			inputs[x] = getInput(original.inputs[x].getId());
+			outputs[x] = getOutput(original.outputs[x].getId());
 		}
 	}
 
+	@Override
+	protected PipelineRegister copy() {
+		return new PipelineRegister(this);
+	}
+
 	@Override
 	public void execute() {
 		boolean stall = getWrite().getValue() == 0 || getFlush().getValue() == 1;
 		Input input;
 		Output output;
 
-		for(Map.Entry<String, Data> e: registers.entrySet()) {
-			input = getInput(e.getKey());
-			output = getOutput(e.getKey());
-			output.setValue(e.getValue().getValue());
+		for(int i = 0; i < values.length; i++) {
+			input = inputs[i];
+			output = outputs[i];
+			output.setValue(values[i]);
 
 			if(stall) // mark input as irrelevant if stalled
 				input.setRelevant(false);
@@ -96,22 +131,36 @@ public class PipelineRegister extends Component implements Synchronous {
 	public void executeSynchronous() {
 		boolean f = getFlush().getValue() == 1; // flush?
 		if(getWrite().getValue() == 1 || f) {
-			for(Map.Entry<String, Data> e: registers.entrySet())
-				e.getValue().setValue(f ? 0 : getInput(e.getKey()).getValue());
+			for(int i = 0; i < values.length; i++)
+				values[i] = f ? 0 : (inputs[i].getValue() & masks[i]);
 		}
 	}
 
 	@Override
 	public void pushState() {
-		states.push(cloneRegisters());
-		instructions.push(getCurrentInstructionIndex());
+		int count = 0;
+		boolean f = getFlush().getValue() == 1; // flush?
+		if(getWrite().getValue() == 1 || f) { // save only the registers whose values will change
+			for(int i = 0; i < values.length; i++) {
+				if(values[i] != (f ? 0 : (inputs[i].getValue() & masks[i]))) {
+					states.push(i);
+					states.push(values[i]);
+					count++;
+				}
+			}
+		}
+		states.push(count);
+		states.push(getCurrentInstructionIndex());
 	}
 
 	@Override
 	public void popState() {
 		if(hasSavedStates()) {
-			registers = states.pop();
-			setCurrentInstructionIndex(instructions.pop());
+			setCurrentInstructionIndex(states.pop());
+			for(int count = states.pop(); count > 0; count--) {
+				int value = states.pop();
+				values[states.pop()] = value;
+			}
 		}
 	}
 
@@ -123,9 +172,7 @@ public class PipelineRegister extends Component implements Synchronous {
 	@Override
 	public void clearSavedStates() {
 		states.clear();
-		instructions.clear();
-		for(Map.Entry<String, Data> e: registers.entrySet()) // also clear registers
-			e.getValue().setValue(0);
+		Arrays.fill(values, 0); // also clear registers
 		execute();
 	}
 
@@ -140,6 +187,41 @@ public class PipelineRegister extends Component implements Synchronous {
 		return getWrite().getValue() == 1 && getFlush().getValue() == 0;
 	}
 
+	@Override
+	public int[] saveCheckpoint() {
+		int[] checkpoint = Arrays.copyOf(values, values.length + 1);
+		checkpoint[values.length] = getCurrentInstructionIndex();
+		return checkpoint;
+	}
+
+	@Override
+	public void restoreCheckpoint(Object checkpoint) {
+		int[] state = (int[])checkpoint;
+		System.arraycopy(state, 0, values, 0, values.length);
+		setCurrentInstructionIndex(state[values.length]);
+		states.clear();
+	}
+
+	@Override
+	public long getCheckpointMemoryUsage(Object checkpoint) {
+		return 16 + ((int[])checkpoint).length * 4L;
+	}
+
+	@Override
+	public void discardSavedStates() {
+		states.clear();
+	}
+
+	@Override
+	public long getSavedStatesMemoryUsage() {
+		return states.size() * 4L;
+	}
+
+	@Override
+	public boolean isEdited() {
+		return false;
+	}
+
 	/**
 	 * Sets the pipeline register's display name.
 	 * <p>The name corresponds to the component's identifier, 1 letter per line.</p>
@@ -153,17 +235,6 @@ public class PipelineRegister extends Component implements Synchronous {
 		setDisplayName(name);
 	}
 
-	/**
-	 * Returns a copy of the stored registers.
-	 * @return Copy of the registers.
-	 */
-	private Map<String, Data> cloneRegisters() {
-		Map<String, Data> map = new HashMap<>();
-		for(Map.Entry<String, Data> e: registers.entrySet())
-			map.put(e.getKey(), e.getValue().clone());
-		return map;
-	}
-
 	/**
 	 * Returns the index of the current instruction being executed.
 	 * @return Index of the current instruction being executed (-1 if none).
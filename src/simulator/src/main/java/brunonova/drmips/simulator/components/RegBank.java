@@ -21,9 +21,10 @@ package brunonova.drmips.simulator.components;
 import brunonova.drmips.simulator.*;
 import brunonova.drmips.simulator.exceptions.InvalidCPUException;
 import brunonova.drmips.simulator.util.Dimension;
+import brunonova.drmips.simulator.util.IntStack;
+import java.nio.IntBuffer;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.Stack;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -33,13 +34,14 @@ import org.json.JSONObject;
  *
  * @author Bruno Nova
  */
-public class RegBank extends Component implements Synchronous {
+public class RegBank extends Component implements Synchronous, Checkpointable {
 	private final Input readReg1, readReg2, writeReg, writeData, regWrite;
 	private final Output readData1, readData2;
 	private final Data[] registers;
 	private final Set<Integer> constantRegisters; // indexes of the constant registers
 	private final boolean forwarding; // use internal forwarding?
-	private final Stack<int[]> states = new Stack<>(); // previous values
+	private final IntStack states = new IntStack(); // journal of overwritten values: [index, value,]* count
+	private boolean edited = false; // registers changed outside of a cycle since the state was saved/restored?
 
 	/**
 	 * Component constructor.
@@ -86,6 +88,32 @@ public class RegBank extends Component implements Synchronous {
 		}
 	}
 
+	/**
+	 * Creates a copy of a register bank (see {@link Component#copy}).
+	 * <p>The registers are set to 0, except the constant registers.</p>
+	 * @param original The component being copied.
+	 */
+	protected RegBank(RegBank original) {
+		super(original);
+		readReg1 = getInput(original.readReg1.getId());
+		readReg2 = getInput(original.readReg2.getId());
+		writeReg = getInput(original.writeReg.getId());
+		writeData = getInput(original.writeData.getId());
+		regWrite = getInput(original.regWrite.getId());
+		readData1 = getOutput(original.readData1.getId());
+		readData2 = getOutput(original.readData2.getId());
+		forwarding = original.forwarding;
+		constantRegisters = new HashSet<>(original.constantRegisters);
+		registers = new Data[original.registers.length];
+		for(int i = 0; i < registers.length; i++)
+			registers[i] = new Data(Data.DATA_SIZE, isRegisterConstant(i) ? original.registers[i].getValue() : 0);
+	}
+
+	@Override
+	protected RegBank copy() {
+		return new RegBank(this);
+	}
+
 	@Override
 	public void execute() {
 		int index1 = getReadReg1().getValue();
@@ -114,40 +142,43 @@ public class RegBank extends Component implements Synchronous {
 
 	@Override
 	public void pushState() {
-		int[] values = new int[getNumberOfRegisters()];
-		for(int i = 0; i < getNumberOfRegisters(); i++)
-			values[i] = registers[i].getValue();
-		states.push(values);
+		int index = getWriteReg().getValue();
+		if(getRegWrite().getValue() == 1 && !isRegisterConstant(index)) { // save only the register that will be written
+			states.push(index);
+			states.push(registers[index].getValue());
+			states.push(1);
+		}
+		else
+			states.push(0);
+		edited = false;
 	}
 
 	@Override
 	public void popState() {
 		if(hasSavedStates()) {
-			int[] values = states.pop();
-			for(int i = 0; i < getNumberOfRegisters(); i++)
-				registers[i].setValue(values[i]);
+			for(int n = states.pop(); n > 0; n--) {
+				int value = states.pop();
+				registers[states.pop()].setValue(value);
+			}
 		}
+		edited = false;
 	}
 
 	@Override
 	public boolean hasSavedStates() {
-		return !states.empty();
+		return !states.isEmpty();
 	}
 
 	@Override
 	public void clearSavedStates() {
 		states.clear();
+		edited = false;
 	}
 
 	@Override
 	public void resetFirstState() {
-		if(hasSavedStates()) {
-			int[] values = states.peek();
-			while(hasSavedStates())
-				values = states.pop();
-			for(int i = 0; i < getNumberOfRegisters(); i++)
-				registers[i].setValue(values[i]);
-		}
+		while(hasSavedStates())
+			popState();
 	}
 
 	@Override
@@ -155,6 +186,51 @@ public class RegBank extends Component implements Synchronous {
 		return getRegWrite().getValue() == 1;
 	}
 
+	@Override
+	public int[] saveCheckpoint() {
+		int[] values = new int[getNumberOfRegisters()];
+		for(int i = 0; i < values.length; i++)
+			values[i] = registers[i].getValue();
+		edited = false;
+		return values;
+	}
+
+	@Override
+	public void restoreCheckpoint(Object checkpoint) {
+		int[] values = (int[])checkpoint;
+		for(int i = 0; i < getNumberOfRegisters(); i++)
+			registers[i].setValue(values[i]);
+		states.clear();
+		edited = false;
+	}
+
+	@Override
+	public long getCheckpointMemoryUsage(Object checkpoint) {
+		return 16 + ((int[])checkpoint).length * 4L;
+	}
+
+	@Override
+	public void discardSavedStates() {
+		states.clear();
+	}
+
+	@Override
+	public long getSavedStatesMemoryUsage() {
+		return states.size() * 4L;
+	}
+
+	@Override
+	public boolean isEdited() {
+		return edited;
+	}
+
+	@Override
+	protected boolean isCombinationalInput(Input input) {
+		// The write inputs are forwarded to the outputs with internal forwarding
+		return super.isCombinationalInput(input) ||
+			(isForwarding() && (input == writeReg || input == writeData || input == regWrite));
+	}
+
 	/**
 	 * Returns whether the data in the WriteData input should be forwarded to and output if reading and writing to the same register.
 	 * @return <tt>True</tt> if internal forwarding is enabled.
@@ -211,6 +287,7 @@ public class RegBank extends Component implements Synchronous {
 
 	/**
 	 * Updates the value of the indicated register.
+	 * <p>The change is undone when the previous cycle is restored.</p>
 	 * @param index Index/address of the register.
 	 * @param newValue New value.
 	 * @param propagate Whether the new register is propagated to the rest of the circuit if it is being read.
@@ -218,11 +295,49 @@ public class RegBank extends Component implements Synchronous {
 	 */
 	public final void setRegister(int index, int newValue, boolean propagate) throws ArrayIndexOutOfBoundsException {
 		if(!isRegisterConstant(index)) { // don't update constant registers
+			int oldValue = registers[index].getValue();
+			if(!states.isEmpty()) { // save the old value in the state of the last cycle
+				int n = states.pop();
+				states.push(index);
+				states.push(oldValue);
+				states.push(n + 1);
+			}
+			edited = true;
 			registers[index].setValue(newValue);
 			if(propagate) execute();
 		}
 	}
 
+	/**
+	 * Copies the values of the registers to a buffer, starting with the first register.
+	 * <p>The values are copied from the buffer's position to its limit, and
+	 * the position is advanced.</p>
+	 * @param values The buffer that receives the values.
+	 * @throws IndexOutOfBoundsException If the buffer has more values than the number of registers.
+	 */
+	public final void getRegisters(IntBuffer values) throws IndexOutOfBoundsException {
+		if(values.remaining() > registers.length)
+			throw new IndexOutOfBoundsException("There are only " + registers.length + " registers!");
+		for(int i = 0; values.hasRemaining(); i++)
+			values.put(registers[i].getValue());
+	}
+
+	/**
+	 * Updates the values of the registers from a buffer, starting with the first register.
+	 * <p>The values are read from the buffer's position to its limit, and the
+	 * position is advanced. The constant registers aren't updated. The new
+	 * values are propagated to the rest of the circuit only once, at the end.</p>
+	 * @param values The buffer with the new values.
+	 * @throws IndexOutOfBoundsException If the buffer has more values than the number of registers.
+	 */
+	public final void setRegisters(IntBuffer values) throws IndexOutOfBoundsException {
+		if(values.remaining() > registers.length)
+			throw new IndexOutOfBoundsException("There are only " + registers.length + " registers!");
+		for(int i = 0; values.hasRemaining(); i++)
+			setRegister(i, values.get(), false);
+		execute();
+	}
+
 	/**
 	 * Specifies that the indicated register is constant with the indicated value.
 	 * @param index Index/address of the register.
@@ -51,6 +51,22 @@ public class ShiftLeft extends Component {
 		output = addOutput(o.getString("id"), new Data(o.getInt("size")), IOPort.Direction.EAST, true);
 	}
 
+	/**
+	 * Creates a copy of a shift left (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected ShiftLeft(ShiftLeft original) {
+		super(original);
+		input = getInput(original.input.getId());
+		output = getOutput(original.output.getId());
+		amount = original.amount;
+	}
+
+	@Override
+	protected ShiftLeft copy() {
+		return new ShiftLeft(this);
+	}
+
 	@Override
 	public void execute() {
 		getOutput().setValue(getInput().getValue() << amount);
@@ -71,4 +87,12 @@ public class ShiftLeft extends Component {
 	public final Output getOutput() {
 		return output;
 	}
+
+	/**
+	 * Returns the number of bits the input is shifted.
+	 * @return The shift amount.
+	 */
+	public final int getAmount() {
+		return amount;
+	}
 }
@@ -57,6 +57,21 @@ public class SignExtend extends Component {
 		output = addOutput(o.getString("id"), new Data(outSize), IOPort.Direction.EAST, true);
 	}
 
+	/**
+	 * Creates a copy of a sign extender (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected SignExtend(SignExtend original) {
+		super(original);
+		input = getInput(original.input.getId());
+		output = getOutput(original.output.getId());
+	}
+
+	@Override
+	protected SignExtend copy() {
+		return new SignExtend(this);
+	}
+
 	@Override
 	public void execute() {
 		getOutput().setValue(getInput().getData().signExtend(getOutput().getSize()).getValue());
@@ -41,6 +41,19 @@ public class Xor extends SimpleBinaryOperationComponent {
 		super(id, json, "XOR", "xor", "xor_description", new Dimension(30, 30), 1);
 	}
 
+	/**
+	 * Creates a copy of a XOR port (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected Xor(Xor original) {
+		super(original);
+	}
+
+	@Override
+	protected Xor copy() {
+		return new Xor(this);
+	}
+
 	@Override
 	protected int operation(int in1, int in2) {
 		return in1 ^ in2;
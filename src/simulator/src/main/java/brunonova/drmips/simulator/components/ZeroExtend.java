@@ -57,6 +57,21 @@ public class ZeroExtend extends Component {
 		output = addOutput(o.getString("id"), new Data(outSize), IOPort.Direction.EAST, true);
 	}
 
+	/**
+	 * Creates a copy of a zero extender (see {@link Component#copy}).
+	 * @param original The component being copied.
+	 */
+	protected ZeroExtend(ZeroExtend original) {
+		super(original);
+		input = getInput(original.input.getId());
+		output = getOutput(original.output.getId());
+	}
+
+	@Override
+	protected ZeroExtend copy() {
+		return new ZeroExtend(this);
+	}
+
 	@Override
 	public void execute() {
 		getOutput().setValue(getInput().getData().zeroExtend(getOutput().getSize()).getValue());
@@ -0,0 +1,109 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package brunonova.drmips.simulator.util;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+
+/**
+ * Simple growable stack of <tt>int</tt>s, without boxing.
+ *
+ * <p>Used by the synchronous components to keep a journal of the values
+ * overwritten in each clock cycle.</p>
+ *
+ * @author Bruno Nova
+ */
+public final class IntStack {
+	/** The default initial capacity. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** The values in the stack. */
+	private int[] values;
+	/** The number of values in the stack. */
+	private int size = 0;
+
+	/**
+	 * Creates an empty stack.
+	 */
+	public IntStack() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty stack with the given initial capacity.
+	 * @param capacity The initial capacity.
+	 */
+	public IntStack(int capacity) {
+		values = new int[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Pushes a value to the top of the stack.
+	 * @param value The value.
+	 */
+	public void push(int value) {
+		if(size == values.length)
+			values = Arrays.copyOf(values, size * 2);
+		values[size++] = value;
+	}
+
+	/**
+	 * Removes and returns the value at the top of the stack.
+	 * @return The value.
+	 * @throws EmptyStackException If the stack is empty.
+	 */
+	public int pop() throws EmptyStackException {
+		if(size == 0) throw new EmptyStackException();
+		return values[--size];
+	}
+
+	/**
+	 * Returns the value at the top of the stack, without removing it.
+	 * @return The value.
+	 * @throws EmptyStackException If the stack is empty.
+	 */
+	public int peek() throws EmptyStackException {
+		if(size == 0) throw new EmptyStackException();
+		return values[size - 1];
+	}
+
+	/**
+	 * Returns whether the stack is empty.
+	 * @return <tt>True</tt> if empty.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of values in the stack.
+	 * @return The size of the stack.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all values from the stack.
+	 */
+	public void clear() {
+		size = 0;
+		if(values.length > DEFAULT_CAPACITY * 64) // release memory of very long journals
+			values = new int[DEFAULT_CAPACITY];
+	}
+}
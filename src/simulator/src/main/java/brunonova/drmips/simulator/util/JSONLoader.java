@@ -0,0 +1,80 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Loads JSON files (CPU and instruction set files).
+ * <p>The file is streamed through a buffered reader directly into the JSON
+ * parser, so the loading time is linear in the size of the file.</p>
+ *
+ * @author Bruno Nova
+ */
+public final class JSONLoader {
+	/** The encoding of the files. */
+	public static final String ENCODING = "UTF-8";
+	/** Size of the reader's buffer, in characters. */
+	private static final int BUFFER_SIZE = 16384;
+
+	private JSONLoader() { }
+
+	/**
+	 * Loads a JSON object from a file.
+	 * @param path Path to the file.
+	 * @return The JSON object in the file.
+	 * @throws IOException If the file doesn't exist or an I/O error occurs.
+	 * @throws JSONException If the JSON file is malformed.
+	 */
+	public static JSONObject load(String path) throws IOException, JSONException {
+		return load(new File(path));
+	}
+
+	/**
+	 * Loads a JSON object from a file.
+	 * @param file The file.
+	 * @return The JSON object in the file.
+	 * @throws IOException If the file doesn't exist or an I/O error occurs.
+	 * @throws JSONException If the JSON file is malformed.
+	 */
+	public static JSONObject load(File file) throws IOException, JSONException {
+		Reader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING), BUFFER_SIZE);
+			return new JSONObject(new JSONTokener(reader));
+		}
+		catch(JSONException ex) {
+			// JSONTokener wraps the I/O errors
+			if(ex.getCause() instanceof IOException)
+				throw (IOException)ex.getCause();
+			throw ex;
+		}
+		finally {
+			if(reader != null) reader.close();
+		}
+	}
+}
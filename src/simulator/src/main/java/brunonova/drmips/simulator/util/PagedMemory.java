@@ -0,0 +1,277 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator.util;
+
+import java.nio.IntBuffer;
+
+/**
+ * Sparse memory of ints that covers the whole 32-bit address space.
+ * <p>The memory is divided in pages of {@link #PAGE_SIZE} ints (4 KiB), which
+ * are allocated only when a non-zero value is written to them. The positions
+ * of the pages that aren't allocated have the value 0. The pages are found
+ * through a two-level page table, so every access takes constant time.</p>
+ * <p>The pages are copy-on-write: a {@link Snapshot} shares all the pages with
+ * the memory, and a page is only copied when it is written after the
+ * snapshot. The last position of each page stores the "generation" of the
+ * memory when the page was allocated or copied; a page from an older
+ * generation may be shared with a snapshot.</p>
+ *
+ * @author Bruno Nova
+ */
+public final class PagedMemory {
+	/** Number of bits of the index of a position in a page. */
+	public static final int PAGE_BITS = 10;
+	/** Number of positions (ints) of each page. */
+	public static final int PAGE_SIZE = 1 << PAGE_BITS;
+	/** Number of positions (ints) of the memory (the whole 32-bit address space). */
+	public static final int SIZE = 1 << 30;
+	/** Number of bits of the index of a page in a table. */
+	private static final int TABLE_BITS = 10;
+	/** Number of pages of each table. */
+	private static final int TABLE_SIZE = 1 << TABLE_BITS;
+	/** Number of tables of the directory. */
+	private static final int DIRECTORY_SIZE = SIZE >>> (PAGE_BITS + TABLE_BITS);
+	/** Approximate memory used by a page, in bytes. */
+	private static final long PAGE_MEMORY = 16 + (PAGE_SIZE + 1) * 4L;
+	/** Approximate memory used by a table, in bytes. */
+	private static final long TABLE_MEMORY = 16 + TABLE_SIZE * 8L;
+	/** Approximate memory used by the directory, in bytes. */
+	private static final long DIRECTORY_MEMORY = 16 + DIRECTORY_SIZE * 8L;
+
+	/** The tables of pages (<tt>null</tt> if not allocated). */
+	private int[][][] directory = new int[DIRECTORY_SIZE][][];
+	/** The current generation (the pages of other generations are read-only). */
+	private int generation = 0;
+	/** The number of allocated pages. */
+	private int numberOfPages = 0;
+
+	/**
+	 * Returns the value in the specified position.
+	 * @param index The index of the position (between 0 and <tt>SIZE - 1</tt>).
+	 * @return The value, or 0 if the page isn't allocated.
+	 */
+	public int get(int index) {
+		int[][] table = directory[index >>> (PAGE_BITS + TABLE_BITS)];
+		if(table == null) return 0;
+		int[] page = table[(index >>> PAGE_BITS) & (TABLE_SIZE - 1)];
+		return page != null ? page[index & (PAGE_SIZE - 1)] : 0;
+	}
+
+	/**
+	 * Updates the value in the specified position.
+	 * <p>The page is allocated, or copied if shared with a snapshot, if
+	 * needed.</p>
+	 * @param index The index of the position (between 0 and <tt>SIZE - 1</tt>).
+	 * @param value The new value.
+	 */
+	public void set(int index, int value) {
+		if(value == 0) { // don't allocate a page just to write 0
+			int[][] table = directory[index >>> (PAGE_BITS + TABLE_BITS)];
+			if(table == null || table[(index >>> PAGE_BITS) & (TABLE_SIZE - 1)] == null)
+				return; // already 0
+		}
+		getWritablePage(index)[index & (PAGE_SIZE - 1)] = value;
+	}
+
+	/**
+	 * Copies the values of consecutive positions to a buffer.
+	 * <p>The values are copied from the buffer's position to its limit, and
+	 * the position is advanced.</p>
+	 * @param index The index of the first position.
+	 * @param values The buffer that receives the values.
+	 */
+	public void get(int index, IntBuffer values) {
+		while(values.hasRemaining()) {
+			int offset = index & (PAGE_SIZE - 1);
+			int count = Math.min(PAGE_SIZE - offset, values.remaining());
+			int[][] table = directory[index >>> (PAGE_BITS + TABLE_BITS)];
+			int[] page = table != null ? table[(index >>> PAGE_BITS) & (TABLE_SIZE - 1)] : null;
+			if(page != null)
+				values.put(page, offset, count);
+			else {
+				for(int i = 0; i < count; i++)
+					values.put(0);
+			}
+			index += count;
+		}
+	}
+
+	/**
+	 * Updates the values of consecutive positions from a buffer.
+	 * <p>The values are read from the buffer's position to its limit, and the
+	 * position is advanced. The pages are allocated even if the values are 0.</p>
+	 * @param index The index of the first position.
+	 * @param values The buffer with the new values.
+	 */
+	public void set(int index, IntBuffer values) {
+		while(values.hasRemaining()) {
+			int offset = index & (PAGE_SIZE - 1);
+			int count = Math.min(PAGE_SIZE - offset, values.remaining());
+			values.get(getWritablePage(index), offset, count);
+			index += count;
+		}
+	}
+
+	/**
+	 * Returns the page with the specified position, ready to be written.
+	 * <p>The page is allocated, or copied if shared with a snapshot, if
+	 * needed.</p>
+	 * @param index The index of a position of the page.
+	 * @return The page.
+	 */
+	private int[] getWritablePage(int index) {
+		int d = index >>> (PAGE_BITS + TABLE_BITS);
+		int[][] table = directory[d];
+		if(table == null)
+			table = directory[d] = new int[TABLE_SIZE][];
+
+		int t = (index >>> PAGE_BITS) & (TABLE_SIZE - 1);
+		int[] page = table[t];
+		if(page == null) {
+			page = table[t] = new int[PAGE_SIZE + 1];
+			page[PAGE_SIZE] = generation;
+			numberOfPages++;
+		}
+		else if(page[PAGE_SIZE] != generation) { // may be shared, copy it
+			page = table[t] = page.clone();
+			page[PAGE_SIZE] = generation;
+		}
+		return page;
+	}
+
+	/**
+	 * Frees all the pages, setting all the positions to 0.
+	 */
+	public void clear() {
+		directory = new int[DIRECTORY_SIZE][][];
+		numberOfPages = 0;
+	}
+
+	/**
+	 * Returns the number of allocated pages.
+	 * @return The number of allocated pages.
+	 */
+	public int getNumberOfPages() {
+		return numberOfPages;
+	}
+
+	/**
+	 * Returns the numbers of the allocated pages, in ascending order.
+	 * <p>The first position of page <tt>n</tt> has the index <tt>n * PAGE_SIZE</tt>.</p>
+	 * @return The numbers of the allocated pages.
+	 */
+	public int[] getPages() {
+		int[] pages = new int[numberOfPages];
+		int n = 0;
+		for(int d = 0; d < DIRECTORY_SIZE; d++) {
+			if(directory[d] != null) {
+				for(int t = 0; t < TABLE_SIZE; t++) {
+					if(directory[d][t] != null)
+						pages[n++] = (d << TABLE_BITS) | t;
+				}
+			}
+		}
+		return pages;
+	}
+
+	/**
+	 * Returns the approximate memory used by the memory.
+	 * @return Memory used, in bytes.
+	 */
+	public long getMemoryUsage() {
+		long size = DIRECTORY_MEMORY + numberOfPages * PAGE_MEMORY;
+		for(int[][] table: directory) {
+			if(table != null) size += TABLE_MEMORY;
+		}
+		return size;
+	}
+
+	/**
+	 * Creates a snapshot of the memory.
+	 * <p>The snapshot shares the pages with the memory (only the page tables
+	 * are copied).</p>
+	 * @return The snapshot.
+	 */
+	public Snapshot snapshot() {
+		int[][][] copy = new int[DIRECTORY_SIZE][][];
+		long size = DIRECTORY_MEMORY;
+		for(int d = 0; d < DIRECTORY_SIZE; d++) {
+			if(directory[d] != null) {
+				copy[d] = directory[d].clone();
+				size += TABLE_MEMORY;
+				for(int[] page: copy[d]) {
+					if(page != null && page[PAGE_SIZE] == generation) // not shared with the previous snapshot
+						size += PAGE_MEMORY;
+				}
+			}
+		}
+		generation++; // the current pages are now shared
+		return new Snapshot(copy, numberOfPages, size);
+	}
+
+	/**
+	 * Restores the memory from a snapshot of this memory.
+	 * <p>The snapshot isn't modified and can be restored again.</p>
+	 * @param snapshot A snapshot created by {@link #snapshot()} of this memory.
+	 */
+	public void restore(Snapshot snapshot) {
+		int[][][] copy = new int[DIRECTORY_SIZE][][];
+		for(int d = 0; d < DIRECTORY_SIZE; d++) {
+			if(snapshot.directory[d] != null)
+				copy[d] = snapshot.directory[d].clone();
+		}
+		directory = copy;
+		numberOfPages = snapshot.numberOfPages;
+		generation++; // the pages are shared with the snapshot
+	}
+
+	/**
+	 * A snapshot of a paged memory.
+	 */
+	public static final class Snapshot {
+		/** The tables of pages (the pages are shared with the memory). */
+		private final int[][][] directory;
+		/** The number of allocated pages. */
+		private final int numberOfPages;
+		/** The approximate memory used by the tables and by the pages not shared with the previous snapshot. */
+		private final long memoryUsage;
+
+		/**
+		 * Creates the snapshot.
+		 * @param directory The tables of pages.
+		 * @param numberOfPages The number of allocated pages.
+		 * @param memoryUsage The approximate memory used, in bytes.
+		 */
+		private Snapshot(int[][][] directory, int numberOfPages, long memoryUsage) {
+			this.directory = directory;
+			this.numberOfPages = numberOfPages;
+			this.memoryUsage = memoryUsage;
+		}
+
+		/**
+		 * Returns the approximate memory used by the snapshot.
+		 * <p>Only the pages that weren't shared with the previous snapshot
+		 * are counted.</p>
+		 * @return Memory used, in bytes.
+		 */
+		public long getMemoryUsage() {
+			return memoryUsage;
+		}
+	}
+}
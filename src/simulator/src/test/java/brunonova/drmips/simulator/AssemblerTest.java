@@ -0,0 +1,245 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import brunonova.drmips.simulator.exceptions.SyntaxErrorException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AssemblerTest {
+	/** Number of lines of the generated code used in the large program test. */
+	private static final int LARGE_PROGRAM_LINES = 100000;
+
+	/** The CPU used in the tests. */
+	private CPU cpu;
+
+	@Before
+	public void setUp() throws Exception {
+		cpu = CPU.createFromJSONFile("cpu/unicycle.cpu");
+	}
+
+	@Test
+	public void testLexer() {
+		List<Token> tokens = Lexer.tokenize("loop: lw $t0, -4($sp) # comment, (ignored)\n\tli $T1,0x1F\n.word 010, _x.y");
+		Token.Type[] types = {Token.Type.IDENTIFIER, Token.Type.COLON, Token.Type.IDENTIFIER, Token.Type.REGISTER,
+			Token.Type.COMMA, Token.Type.INTEGER, Token.Type.LEFT_PARENTHESIS, Token.Type.REGISTER, Token.Type.RIGHT_PARENTHESIS,
+			Token.Type.NEWLINE, Token.Type.IDENTIFIER, Token.Type.REGISTER, Token.Type.COMMA, Token.Type.INTEGER,
+			Token.Type.NEWLINE, Token.Type.DIRECTIVE, Token.Type.INTEGER, Token.Type.COMMA, Token.Type.IDENTIFIER};
+		String[] texts = {"loop", ":", "lw", "$t0", ",", "-4", "(", "$sp", ")", "\n", "li", "$T1", ",", "0x1F", "\n", ".word", "010", ",", "_x.y"};
+		assertEquals(types.length, tokens.size());
+		for(int i = 0; i < types.length; i++) {
+			assertEquals(tokens.get(i).toString(), types[i], tokens.get(i).getType());
+			assertEquals(tokens.get(i).toString(), texts[i], tokens.get(i).getText());
+		}
+
+		// Positions
+		assertEquals(1, tokens.get(3).getLine());
+		assertEquals(10, tokens.get(3).getColumn());
+		assertEquals(2, tokens.get(11).getLine());
+		assertEquals(5, tokens.get(11).getColumn());
+		assertEquals(3, tokens.get(18).getLine());
+		assertEquals(12, tokens.get(18).getColumn());
+
+		// Values (like Long.decode)
+		assertEquals(-4, tokens.get(5).getValue());
+		assertEquals(31, tokens.get(13).getValue());
+		assertEquals(8, tokens.get(16).getValue());
+		assertEquals(0, Lexer.tokenize("0").get(0).getValue());
+		assertEquals(Long.MAX_VALUE, Lexer.tokenize("0x7FFFFFFFFFFFFFFF").get(0).getValue());
+		assertEquals(5, Lexer.tokenize("+5").get(0).getValue());
+	}
+
+	@Test
+	public void testLexerInvalid() {
+		for(String word: new String[] {"08", "0x", "-", "1a", "$", ".", "$t-0", "a-b", "9abc", "0x10000000000000000", "%x"}) {
+			List<Token> tokens = Lexer.tokenize(word);
+			assertEquals(word, 1, tokens.size());
+			assertEquals(word, Token.Type.INVALID, tokens.get(0).getType());
+			assertEquals(word, word, tokens.get(0).getText());
+		}
+
+		// Only whitespace and comments
+		assertTrue(Lexer.tokenize("  \t# comment").isEmpty());
+		Lexer lexer = new Lexer("", 7);
+		assertEquals(Token.Type.END, lexer.next().getType());
+		assertEquals(Token.Type.END, lexer.next().getType());
+		assertEquals(7, lexer.getLine());
+	}
+
+	@Test
+	public void testAssemble() throws Exception {
+		cpu.assembleCode(
+			".data\n" +
+			"nums: .word 1, 2, 3\n" +
+			".text\n" +
+			"main: lw $t0, nums($zero)\n" +
+			"\tbeq $t0, $zero, end # forward reference\n" +
+			"\tli $t1, 5\n" +
+			"loop: addi $t0, $t0, -1\n" +
+			"\tbeq $t0, $t0, loop\n" +
+			"end: add $t0, $t1, $t2\n");
+
+		int[] expected = {0x8C080000, 0x11000003, 0x20090005, 0x2108FFFF, 0x1108FFFE, 0x012A4020};
+		int[] lines = {4, 5, 6, 7, 8, 9};
+		assertEquals(expected.length, cpu.getInstructionMemory().getNumberOfInstructions());
+		for(int i = 0; i < expected.length; i++) {
+			AssembledInstruction instruction = cpu.getInstructionMemory().getInstruction(i);
+			assertEquals(i + "", expected[i], instruction.getData().getValue());
+			assertEquals(i + "", lines[i], instruction.getLineNumber());
+		}
+		assertEquals("addi $t1, $0, 5  # li $t1, 5", cpu.getInstructionMemory().getInstruction(2).getCodeLine());
+		assertEquals(Arrays.asList("main"), cpu.getInstructionMemory().getInstruction(0).getLabels());
+		assertEquals(Arrays.asList("loop"), cpu.getInstructionMemory().getInstruction(3).getLabels());
+		assertEquals(Arrays.asList("end"), cpu.getInstructionMemory().getInstruction(5).getLabels());
+		for(int i = 0; i < 3; i++)
+			assertEquals(i + 1, cpu.getDataMemory().getDataInIndex(i));
+	}
+
+	@Test
+	public void testErrors() throws Exception {
+		try {
+			cpu.assembleCode(
+				"x-y: add $t0, $t0, $t0\n" +
+				"foo $t0\n" +
+				"add $t0, $t1\n" +
+				"li $t0\n" +
+				"beq $t0, $t1, nowhere\n" +
+				"lw $t0, 4($t0\n" +
+				".word 1\n");
+			fail("no error");
+		}
+		catch(SyntaxErrorException ex) {
+			// Errors of the first pass (labels and pseudo-instructions), then of the instructions
+			SyntaxErrorException.Type[] types = {SyntaxErrorException.Type.INVALID_LABEL, SyntaxErrorException.Type.WRONG_NUMBER_OF_ARGUMENTS,
+				SyntaxErrorException.Type.UNKNOWN_INSTRUCTION, SyntaxErrorException.Type.WRONG_NUMBER_OF_ARGUMENTS,
+				SyntaxErrorException.Type.UNKNOWN_LABEL, SyntaxErrorException.Type.INVALID_DATA_ARG, SyntaxErrorException.Type.UNKNOWN_INSTRUCTION};
+			int[] lines = {1, 4, 2, 3, 5, 6, 7};
+			String[] extras = {"x-y", "2", "foo", "3", "nowhere", "4($t0", ".word"};
+			List<SyntaxErrorException> errors = ex.getOtherErrors();
+			assertSame(ex, errors.get(0));
+			assertEquals(types.length, errors.size());
+			for(int i = 0; i < types.length; i++) {
+				assertEquals(i + "", types[i], errors.get(i).getType());
+				assertEquals(i + "", lines[i], errors.get(i).getLine());
+				assertEquals(i + "", extras[i], errors.get(i).getExtra());
+			}
+		}
+	}
+
+	@Test
+	public void testCodeHelpers() {
+		Assembler assembler = cpu.getAssembler();
+		assertEquals(Arrays.asList("slt $1, $t0, $t1", "beq $1, $0, end"), assembler.interpretPseudoInstruction("x: bge $t0, $t1, end # comment"));
+		assertEquals(Arrays.asList("addi $1, $0, 3", "sub $t0, $t1, $1"), assembler.interpretPseudoInstruction("subi $t0, $t1, 3"));
+		assertTrue(assembler.interpretPseudoInstruction("add $t0, $t1, $t2").isEmpty());
+		assertTrue(assembler.interpretPseudoInstruction("li $t0").isEmpty());
+
+		assertEquals(Arrays.asList("a", "c", "e"), Arrays.asList(assembler.getCodeLabels(
+			"a: nop\n  c :\n# d: comment\ne:f: nop\nadd: nop\n1x: nop\ng.h: nop\nb: nop").toArray()));
+	}
+
+	@Test
+	public void testLargeProgram() throws Exception {
+		AssembledProgram program = cpu.getAssembler().assemble(generate(LARGE_PROGRAM_LINES));
+		assertEquals(LARGE_PROGRAM_LINES - LARGE_PROGRAM_LINES / 10 - 2, program.getInstructions().size());
+	}
+
+	@Test
+	public void testCache() throws Exception {
+		String code = ".data\nx: .word 5\n.text\nlw $t0, x($zero)\nadd $t1, $t0, $t0\n";
+		Assembler.clearCache();
+		long hits = Assembler.getCacheHits(), misses = Assembler.getCacheMisses();
+
+		cpu.assembleCode(code);
+		assertEquals(misses + 1, Assembler.getCacheMisses());
+		AssembledInstruction first = cpu.getInstructionMemory().getInstruction(0);
+
+		// Same code in another CPU with the same instruction set
+		CPU other = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		assertSame(cpu.getInstructionSet(), other.getInstructionSet());
+		other.assembleCode(new String(code));
+		assertEquals(hits + 1, Assembler.getCacheHits());
+		assertSame(first, other.getInstructionMemory().getInstruction(0)); // not assembled again
+		assertEquals(5, other.getDataMemory().getData(0)); // data segment also loaded
+
+		// Different code, or errors
+		cpu.assembleCode(code + "nop\n");
+		assertEquals(misses + 2, Assembler.getCacheMisses());
+		try {
+			cpu.assembleCode("foo\n");
+			fail("no syntax error");
+		}
+		catch(SyntaxErrorException ex) { }
+		assertEquals(2, Assembler.getNumberOfCachedPrograms());
+
+		// Least recently used removed first
+		int size = Assembler.getCacheSize();
+		try {
+			cpu.assembleCode(code); // now the most recently used
+			Assembler.setCacheSize(1);
+			assertEquals(1, Assembler.getNumberOfCachedPrograms());
+			hits = Assembler.getCacheHits();
+			cpu.assembleCode(code);
+			assertEquals(hits + 1, Assembler.getCacheHits());
+		}
+		finally {
+			Assembler.setCacheSize(size);
+			Assembler.clearCache();
+		}
+	}
+
+	/**
+	 * Generates assembly code to benchmark the assembler.
+	 * <p>The code has a data segment with a tenth of the lines and a text
+	 * segment with labels, comments, backward and forward branches and
+	 * pseudo-instructions.</p>
+	 * @param lines Number of lines.
+	 * @return The code.
+	 */
+	static String generate(int lines) {
+		String[] regs = {"$t0", "$t1", "$t2", "$t3", "$s0", "$s1", "$a0", "$v0"};
+		int data = lines / 10, text = lines - data - 2;
+		StringBuilder code = new StringBuilder(lines * 24);
+		code.append(".data\n");
+		for(int i = 0; i < data; i++)
+			code.append("d").append(i).append(": .word ").append(i).append(", -").append(i * 3).append(", 0x").append(Integer.toHexString(i * 7)).append('\n');
+		code.append(".text\n");
+		for(int i = 0; i < text; i++) {
+			String a = regs[i % 8], b = regs[(i + 3) % 8], c = regs[(i + 5) % 8];
+			if(i % 5 == 0) code.append("l").append(i / 5).append(": ");
+			switch(i % 10) {
+				case 0: code.append("add ").append(a).append(", ").append(b).append(", ").append(c); break;
+				case 1: code.append("lw ").append(a).append(", ").append((i % 16) * 4).append("($sp)  # load"); break;
+				case 2: code.append("sw ").append(b).append(", d").append(i % data).append("(").append(c).append(")"); break;
+				case 3: code.append("addi ").append(a).append(", ").append(b).append(", -").append(i % 1000); break;
+				case 4: code.append("beq ").append(a).append(", ").append(b).append(", l").append(Math.min(i / 5 + 2, (text - 1) / 5)); break;
+				case 5: code.append("\tslt ").append(c).append(",").append(a).append(",").append(b); break;
+				case 6: code.append("li ").append(a).append(", 0x").append(Integer.toHexString(i & 0x7FFF)); break;
+				case 7: code.append("move ").append(b).append(", ").append(c).append(" # copy"); break;
+				case 8: code.append("j l").append(Math.max(0, i / 5 - 3)); break;
+				default: code.append("or ").append(a).append(", ").append(b).append(", $zero"); break;
+			}
+			code.append('\n');
+		}
+		return code.toString();
+	}
+}
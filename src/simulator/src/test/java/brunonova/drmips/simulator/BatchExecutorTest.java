@@ -0,0 +1,152 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class BatchExecutorTest {
+	/** The CPUs used in the tests. */
+	private static final String[] CPUS = {"cpu/unicycle.cpu", "cpu/pipeline.cpu"};
+
+	@Test
+	public void testResults() throws Exception {
+		List<BatchExecutor.Job> jobs = createJobs(12, 50);
+		String[] digests = null;
+
+		for(String path: CPUS) {
+			BatchExecutor executor = new BatchExecutor(path, 4);
+			List<BatchExecutor.Result> results = executor.runAll(jobs);
+			executor.shutdown();
+			assertEquals(jobs.size(), results.size());
+
+			CPU cpu = CPU.createFromJSONFile(path);
+			for(int i = 0; i < jobs.size(); i++) {
+				BatchExecutor.Result result = results.get(i);
+				assertEquals(jobs.get(i).getName(), result.getName());
+				assertEquals(result.toString(), BatchExecutor.Status.FINISHED, result.getStatus());
+
+				// Compare with a sequential run
+				cpu.resetData();
+				cpu.assembleCode(jobs.get(i).getCode());
+				assertTrue(cpu.run(BatchExecutor.DEFAULT_MAX_CYCLES, 0, null).isCompleted());
+				assertEquals(path, BatchExecutor.getStateDigest(cpu), result.getStateDigest());
+				assertEquals(path, cpu.getNumberOfExecutedCycles(), result.getNumberOfExecutedCycles());
+				assertEquals(path, cpu.getNumberOfExecutedInstructions(), result.getNumberOfExecutedInstructions());
+				assertEquals(path, cpu.getCPI(), result.getCPI(), 0.0);
+				assertEquals(path, cpu.getNumberOfForwards(), result.getNumberOfForwards());
+				assertEquals(path, cpu.getNumberOfStalls(), result.getNumberOfStalls());
+			}
+
+			// The architectural state doesn't depend on the CPU
+			if(digests == null) {
+				digests = new String[results.size()];
+				for(int i = 0; i < digests.length; i++)
+					digests[i] = results.get(i).getStateDigest();
+			}
+			else {
+				for(int i = 0; i < digests.length; i++)
+					assertEquals(path, digests[i], results.get(i).getStateDigest());
+			}
+		}
+	}
+
+	@Test
+	public void testStatuses() throws Exception {
+		BatchExecutor executor = new BatchExecutor("cpu/pipeline.cpu", 2);
+		List<BatchExecutor.Job> jobs = new ArrayList<>();
+		jobs.add(new BatchExecutor.Job("syntax", "foo $t0"));
+		jobs.add(new BatchExecutor.Job("limit", "loop: beq $zero, $zero, loop", null, null, 1000, 0));
+		jobs.add(new BatchExecutor.Job("timeout", "loop: beq $zero, $zero, loop", null, null, 0, 50));
+		jobs.add(new BatchExecutor.Job("images", "lw $t2, 4($zero)\nadd $t3, $t1, $t2\nsw $t3, 8($zero)",
+			new int[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 7}, new int[] {0, 35}, 1000, 0));
+		List<BatchExecutor.Result> results = executor.runAll(jobs);
+
+		assertEquals(BatchExecutor.Status.SYNTAX_ERROR, results.get(0).getStatus());
+		assertNotNull(results.get(0).getError());
+		assertNull(results.get(0).getStateDigest());
+		assertEquals(BatchExecutor.Status.CYCLE_LIMIT, results.get(1).getStatus());
+		assertEquals(1000, results.get(1).getNumberOfExecutedCycles());
+		assertEquals(BatchExecutor.Status.TIMEOUT, results.get(2).getStatus());
+		assertTrue(results.get(2).getTime() >= 50);
+
+		// $t1 = 7, mem[1] = 35, so mem[2] = 42
+		CPU cpu = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		cpu.assembleCode("");
+		cpu.getRegBank().setRegister(9, 7);
+		cpu.getRegBank().setRegister(10, 35);
+		cpu.getRegBank().setRegister(11, 42);
+		cpu.getDataMemory().setDataInIndex(1, 35);
+		cpu.getDataMemory().setDataInIndex(2, 42);
+		assertEquals(BatchExecutor.Status.FINISHED, results.get(3).getStatus());
+		assertEquals(BatchExecutor.getStateDigest(cpu), results.get(3).getStateDigest());
+
+		// No more jobs after the shutdown
+		executor.shutdown();
+		assertTrue(executor.isShutdown());
+		try {
+			executor.submit(jobs.get(0));
+			fail("job accepted after shutdown");
+		}
+		catch(java.util.concurrent.RejectedExecutionException ex) { }
+	}
+
+	@Test
+	public void testParallel() throws Exception {
+		int processors = Runtime.getRuntime().availableProcessors();
+		assumeTrue(processors > 1);
+		List<BatchExecutor.Job> jobs = createJobs(4 * processors, 2000);
+
+		BatchExecutor sequential = new BatchExecutor("cpu/pipeline.cpu", 1);
+		BatchExecutor parallel = new BatchExecutor("cpu/pipeline.cpu", processors);
+		List<BatchExecutor.Result> r1 = sequential.runAll(jobs);
+		List<BatchExecutor.Result> rn = parallel.runAll(jobs);
+		sequential.shutdown();
+		parallel.shutdown();
+
+		assertEquals(jobs.size(), rn.size());
+		for(int i = 0; i < jobs.size(); i++)
+			assertEquals(r1.get(i).getStateDigest(), rn.get(i).getStateDigest());
+	}
+
+	/**
+	 * Creates jobs that sum the numbers up to different limits.
+	 * @param n The number of jobs.
+	 * @param maxLimit The biggest limit.
+	 * @return The jobs.
+	 */
+	static List<BatchExecutor.Job> createJobs(int n, int maxLimit) {
+		List<BatchExecutor.Job> jobs = new ArrayList<>(n);
+		for(int i = 0; i < n; i++) {
+			int limit = 1 + (i * maxLimit) / n;
+			jobs.add(new BatchExecutor.Job("job" + i,
+				"addi $t1, $zero, " + limit + "\n" +
+				"loop: add $t0, $t0, $t1\n" +
+				"sw $t0, 0($zero)\n" +
+				"addi $t1, $t1, -1\n" +
+				"beq $t1, $zero, end\n" +
+				"beq $zero, $zero, loop\n" +
+				"end: lw $t2, 0($zero)\n"));
+		}
+		return jobs;
+	}
+}
@@ -0,0 +1,287 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package brunonova.drmips.simulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Timing benchmarks of the simulator.
+ *
+ * <p>These are not part of the test suite, because their results depend on
+ * the machine and its load. Run them with <tt>gradle benchmark</tt> (from the
+ * <tt>simulator</tt> directory, so that the bundled CPUs are found). The names
+ * of the benchmarks to run can be given as arguments; all of them are run by
+ * default.</p>
+ *
+ * <p>Each benchmark is repeated several times and the best time is reported,
+ * the first repetitions serving to warm up the JIT.</p>
+ *
+ * @author Bruno Nova
+ */
+public class Benchmarks {
+	/** Number of times each benchmark is repeated. */
+	private static final int REPETITIONS = 5;
+
+	/** Names of the benchmarks, in the order they are run. */
+	private static final String[] NAMES = {"copy", "compiled", "functional", "assembler", "image", "batch", "trace"};
+
+	/**
+	 * Runs the benchmarks and prints the results.
+	 * @param args The names of the benchmarks to run (all if none).
+	 * @throws Exception If a benchmark fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		String[] names = args.length > 0 ? args : NAMES;
+		for(String name: names) {
+			switch(name) {
+				case "copy": copy(); break;
+				case "compiled": compiled(); break;
+				case "functional": functional(); break;
+				case "assembler": assembler(); break;
+				case "image": image(); break;
+				case "batch": batch(); break;
+				case "trace": trace(); break;
+				default:
+					System.err.println("Unknown benchmark: " + name);
+					System.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * Compares the time to copy a CPU with the time to load it from the file.
+	 * @throws Exception If the CPU fails to load.
+	 */
+	private static void copy() throws Exception {
+		int copies = 50;
+		CPU prototype = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		long tc = Long.MAX_VALUE, tl = Long.MAX_VALUE;
+		for(int r = 0; r < REPETITIONS; r++) {
+			long start = System.nanoTime();
+			for(int i = 0; i < copies; i++)
+				prototype.copy();
+			tc = Math.min(tc, (System.nanoTime() - start) / copies);
+			start = System.nanoTime();
+			for(int i = 0; i < copies; i++)
+				CPU.createFromJSONFile("cpu/pipeline.cpu");
+			tl = Math.min(tl, (System.nanoTime() - start) / copies);
+		}
+		System.out.printf("copy: pipeline.cpu load %.1f us, copy %.1f us, speed-up %.1fx%n", tl / 1e3, tc / 1e3, (double)tl / tc);
+	}
+
+	/**
+	 * Compares the interpreted and the compiled execution of the datapath.
+	 * @throws Exception If the test program fails to assemble.
+	 */
+	private static void compiled() throws Exception {
+		int cycles = 20000;
+		CPU interpreted = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		CPU compiled = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		compiled.setCompiled(true);
+		if(!compiled.isCompiled()) {
+			System.out.println("compiled: skipped (requires a JDK)");
+			return;
+		}
+		long ti = Long.MAX_VALUE, tc = Long.MAX_VALUE;
+		for(int r = 0; r < REPETITIONS; r++) {
+			ti = Math.min(ti, run(interpreted, cycles));
+			tc = Math.min(tc, run(compiled, cycles));
+		}
+		System.out.printf("compiled: pipeline.cpu, %d cycles: interpreted %.1f ms, compiled %.1f ms, speed-up %.2fx%n",
+			cycles, ti / 1e6, tc / 1e6, (double)ti / tc);
+	}
+
+	/**
+	 * Measures the speed of the functional mode.
+	 * @throws Exception If the program fails to assemble.
+	 */
+	private static void functional() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		String code = "addi $t2, $zero, 100\n" +
+			"outer: addi $t0, $zero, 10000\n" +
+			"loop: addi $t0, $t0, -1\n" +
+			"lw $t1, 0($zero)\n" +
+			"add $t1, $t1, $t0\n" +
+			"sw $t1, 0($zero)\n" +
+			"beq $t0, $zero, next\n" +
+			"j loop\n" +
+			"next: addi $t2, $t2, -1\n" +
+			"beq $t2, $zero, end\n" +
+			"j outer\n" +
+			"end: nop";
+		long best = Long.MAX_VALUE;
+		int instructions = 0;
+		for(int r = 0; r < REPETITIONS; r++) {
+			cpu.assembleCode(code);
+			long start = System.nanoTime();
+			instructions = cpu.runFunctional(10000000, null).getNumberOfExecutedCycles();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.printf("functional: %d instructions in %.1f ms (%.1f million instructions per second)%n",
+			instructions, best / 1e6, instructions / (best / 1e3));
+	}
+
+	/**
+	 * Measures the throughput of the assembler.
+	 * @throws Exception If the generated code fails to assemble.
+	 */
+	private static void assembler() throws Exception {
+		int lines = 100000;
+		CPU cpu = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		String code = AssemblerTest.generate(lines);
+		long best = Long.MAX_VALUE;
+		for(int r = 0; r < REPETITIONS; r++) {
+			long start = System.nanoTime();
+			cpu.getAssembler().assemble(code); // not cached
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.printf("assembler: %d lines in %.1f ms (%.0f lines per second)%n",
+			lines, best / 1e6, lines / (best / 1e9));
+	}
+
+	/**
+	 * Measures the time to load a large machine code image.
+	 * @throws Exception If the image can't be written or loaded.
+	 */
+	private static void image() throws Exception {
+		int size = 200000;
+		CPU cpu = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		cpu.assembleCode(CPUTest.testProgram(cpu.getInstructionSet()));
+		int n = cpu.getInstructionMemory().getNumberOfInstructions();
+		IntBuffer words = IntBuffer.allocate(size);
+		for(int i = 0; i < size; i++)
+			words.put(cpu.getInstructionMemory().getInstruction(i % n).getData().getValue());
+		words.flip();
+		File file = File.createTempFile("drmips", ".bin");
+		try {
+			MemoryImage.write(file, MemoryImage.Format.RAW, ByteOrder.LITTLE_ENDIAN, words);
+			long best = Long.MAX_VALUE;
+			for(int r = 0; r < REPETITIONS; r++) {
+				CPU large = CPU.createFromJSONFile("cpu/unicycle.cpu");
+				long start = System.nanoTime();
+				MemoryImage.loadProgram(file, null, MemoryImage.Format.RAW, ByteOrder.LITTLE_ENDIAN, large);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.printf("image: %d instructions in %.1f ms%n", size, best / 1e6);
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Compares the batch executor with one thread and with one thread per
+	 * processor.
+	 * @throws Exception If a job fails.
+	 */
+	private static void batch() throws Exception {
+		int processors = Runtime.getRuntime().availableProcessors();
+		List<BatchExecutor.Job> jobs = BatchExecutorTest.createJobs(4 * processors, 2000);
+		BatchExecutor sequential = new BatchExecutor("cpu/pipeline.cpu", 1);
+		BatchExecutor parallel = new BatchExecutor("cpu/pipeline.cpu", processors);
+		long t1 = Long.MAX_VALUE, tn = Long.MAX_VALUE;
+		try {
+			for(int r = 0; r < REPETITIONS; r++) {
+				long start = System.nanoTime();
+				sequential.runAll(jobs);
+				t1 = Math.min(t1, System.nanoTime() - start);
+				start = System.nanoTime();
+				parallel.runAll(jobs);
+				tn = Math.min(tn, System.nanoTime() - start);
+			}
+		}
+		finally {
+			sequential.shutdown();
+			parallel.shutdown();
+		}
+		System.out.printf("batch: %d jobs: 1 thread %.1f ms, %d threads %.1f ms, speed-up %.2fx%n",
+			jobs.size(), t1 / 1e6, processors, tn / 1e6, (double)t1 / tn);
+	}
+
+	/**
+	 * Measures the overhead of recording a trace to a file.
+	 * <p>The untraced and traced runs alternate, after warming up both, and
+	 * the medians are compared, as the differences are small compared to the
+	 * variation between runs.</p>
+	 * @throws Exception If the trace can't be written.
+	 */
+	private static void trace() throws Exception {
+		int cycles = 200000, warmUp = 10, runs = 21;
+		CPU cpu = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		cpu.assembleCode("loop: addi $t0, $t0, 1\nsw $t0, 0($zero)\nbeq $zero, $zero, loop");
+		File file = File.createTempFile("drmips", ".trace");
+		long[] times = new long[runs], traced = new long[runs];
+		long bytes = 0;
+		try {
+			for(int r = -warmUp; r < runs; r++) {
+				cpu.resetToFirstCycle();
+				long start = System.nanoTime();
+				cpu.run(cycles, 0, null);
+				long t = System.nanoTime() - start;
+
+				cpu.resetToFirstCycle();
+				TraceRecorder recorder = new TraceRecorder(cpu, new FileOutputStream(file).getChannel(), TraceRecorder.DEFAULT_RING_BLOCKS);
+				cpu.setTraceRecorder(recorder);
+				start = System.nanoTime();
+				cpu.run(cycles, 0, null);
+				recorder.close();
+				long tt = System.nanoTime() - start;
+				cpu.setTraceRecorder(null);
+				bytes = recorder.getBytesWritten();
+				if(r >= 0) {
+					times[r] = t;
+					traced[r] = tt;
+				}
+			}
+		}
+		finally {
+			file.delete();
+		}
+		Arrays.sort(times);
+		Arrays.sort(traced);
+		long median = times[runs / 2], medianTraced = traced[runs / 2];
+		System.out.printf("trace: %d cycles (median of %d): %.1f ms, traced %.1f ms (%+.1f%%), %.2f bytes per cycle%n",
+			cycles, runs, median / 1e6, medianTraced / 1e6, (medianTraced - median) * 100.0 / median, bytes / (double)cycles);
+	}
+
+	/**
+	 * Executes the test program repeatedly in the CPU.
+	 * @param cpu The CPU.
+	 * @param cycles The number of cycles to execute.
+	 * @return The elapsed time, in nanoseconds.
+	 * @throws Exception If the test program fails to assemble.
+	 */
+	private static long run(CPU cpu, int cycles) throws Exception {
+		cpu.assembleCode(CPUTest.testProgram(cpu.getInstructionSet()));
+		long start = System.nanoTime();
+		int executed = 0;
+		while(executed < cycles) {
+			executed += cpu.run(cycles - executed, 0, null).getNumberOfExecutedCycles();
+			cpu.resetToFirstCycle();
+			cpu.clearPreviousCycles();
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,763 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import brunonova.drmips.simulator.components.DataMemory;
+import brunonova.drmips.simulator.components.ExtendedALU;
+import brunonova.drmips.simulator.exceptions.SyntaxErrorException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class CPUTest {
+	/** Maximum number of cycles to execute in each CPU. */
+	private static final int MAX_CYCLES = 200;
+
+	/** Number of cycles executed in the allocation test. */
+	private static final int ALLOCATION_CYCLES = 20000;
+
+	@Test
+	public void testLevelizedEquivalence() throws Exception {
+		File[] files = getBundledCPUs();
+		assertTrue(files.length > 0);
+
+		for(File file: files) {
+			CPU levelized = CPU.createFromJSONFile(file.getPath());
+			CPU cascade = CPU.createFromJSONFile(file.getPath());
+			assertTrue(file.getName(), levelized.isLevelized());
+			cascade.setLevelized(false);
+			assertFalse(cascade.isLevelized());
+			assertEquivalent(file.getName(), cascade, levelized);
+		}
+	}
+
+	@Test
+	public void testCompiledEquivalence() throws Exception {
+		for(File file: getBundledCPUs()) {
+			CPU compiled = CPU.createFromJSONFile(file.getPath());
+			CPU cascade = CPU.createFromJSONFile(file.getPath());
+			compiled.setCompiled(true);
+			assumeTrue(compiled.isCompiled()); // requires a JDK
+			cascade.setLevelized(false);
+			assertEquivalent(file.getName(), cascade, compiled);
+		}
+	}
+
+	@Test
+	public void testCopy() throws Exception {
+		for(File file: getBundledCPUs()) {
+			CPU original = CPU.createFromJSONFile(file.getPath());
+			CPU expected = CPU.createFromJSONFile(file.getPath());
+			for(CPU cpu: new CPU[] {original, expected}) { // change the configuration
+				cpu.getRegBank().setLatency(cpu.getRegBank().getLatency() + 50);
+				cpu.calculatePerformance();
+				cpu.getHistory().setCheckpointInterval(9);
+			}
+			original.assembleCode(testProgram(original.getInstructionSet()));
+			original.executeCycle(); // the state isn't copied
+			String originalState = state(original);
+
+			CPU copy = original.copy();
+			assertNotSame(original, copy);
+			assertSame(original.getInstructionSet(), copy.getInstructionSet());
+			assertNotSame(original.getRegBank(), copy.getRegBank());
+			assertEquals(file.getName(), original.getComponents().length, copy.getComponents().length);
+			assertEquals(file.getName(), original.getRegBank().getLatency(), copy.getRegBank().getLatency());
+			assertEquals(file.getName(), original.getClockPeriod(), copy.getClockPeriod());
+			assertEquals(file.getName(), original.getRegisterName(2), copy.getRegisterName(2));
+			assertEquals(file.getName(), 9, copy.getHistory().getCheckpointInterval());
+			assertEquals(file.getName(), 0, copy.getNumberOfExecutedCycles());
+			assertSameGraph(file.getName(), original, copy);
+			assertEquivalent(file.getName(), expected, copy);
+			assertEquals(file.getName(), originalState, state(original)); // not changed by the copy
+		}
+	}
+
+	@Test
+	public void testCopyCompiled() throws Exception {
+		CPU original = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		original.setCompiled(true);
+		assumeTrue(original.isCompiled()); // requires a JDK
+		CPU copy = original.copy();
+		assertTrue(copy.isCompiled());
+		CPU cascade = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		cascade.setLevelized(false);
+		assertEquivalent("pipeline.cpu", cascade, copy);
+	}
+
+	@Test
+	public void testCopyConcurrent() throws Exception {
+		final CPU prototype = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		final String code = testProgram(prototype.getInstructionSet());
+		CPU reference = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		reference.assembleCode(code);
+		reference.run(MAX_CYCLES, 0, null);
+		final String expected = state(reference);
+
+		final int copies = 25;
+		final List<String> errors = java.util.Collections.synchronizedList(new ArrayList<String>());
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for(int i = 0; i < copies; i++) {
+							CPU cpu = prototype.copy();
+							cpu.assembleCode(code);
+							cpu.run(MAX_CYCLES, 0, null);
+							if(!expected.equals(state(cpu))) errors.add(getName() + " copy " + i);
+						}
+					} catch(Exception ex) {
+						errors.add(ex.toString());
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for(Thread t: threads)
+			t.join();
+		assertTrue(errors.toString(), errors.isEmpty());
+
+	}
+
+	@Test
+	public void testSharedInstructionSet() throws Exception {
+		// CPUs that use the same file share the instruction set
+		CPU pipeline = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		CPU unicycle = CPU.createFromJSONFile("cpu/unicycle-no-jump.cpu");
+		assertSame(pipeline.getInstructionSet(), unicycle.getInstructionSet());
+		assertSame(pipeline.getInstructionSet(), InstructionSet.createFromJSONFile("cpu/../cpu/default-no-jump.set"));
+		assertNotSame(pipeline.getInstructionSet(), CPU.createFromJSONFile("cpu/unicycle.cpu").getInstructionSet());
+
+		// The file is parsed again if it is modified
+		File file = File.createTempFile("drmips", ".set");
+		try {
+			Files.copy(new File("cpu/default.set").toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			InstructionSet set = InstructionSet.createFromJSONFile(file.getPath());
+			assertSame(set, InstructionSet.createFromJSONFile(file.getPath()));
+			assertTrue(file.setLastModified(file.lastModified() - 10000));
+			InstructionSet modified = InstructionSet.createFromJSONFile(file.getPath());
+			assertNotSame(set, modified);
+			assertEquals(set.getInstructions().length, modified.getInstructions().length);
+			InstructionSet.clearCache();
+			assertNotSame(modified, InstructionSet.createFromJSONFile(file.getPath()));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testPortIndices() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		for(Component c: cpu.getComponents()) {
+			List<Input> inputs = c.getInputs();
+			assertSame(inputs, c.getInputs());
+			for(int i = 0; i < inputs.size(); i++) {
+				assertEquals(i, inputs.get(i).getIndex());
+				assertSame(inputs.get(i), c.getInput(inputs.get(i).getId()));
+			}
+			List<Output> outputs = c.getOutputs();
+			assertSame(outputs, c.getOutputs());
+			for(int i = 0; i < outputs.size(); i++) {
+				assertEquals(i, outputs.get(i).getIndex());
+				assertSame(outputs.get(i), c.getOutput(outputs.get(i).getId()));
+			}
+		}
+	}
+
+	@Test
+	public void testAllocationsPerCycle() throws Exception {
+		java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean); // requires a HotSpot-based JVM
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		long thread = Thread.currentThread().getId();
+
+		CPU cpu = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		cpu.setPerformanceInstructionDependent(true); // the latencies are recalculated in each cycle
+		cpu.assembleCode("loop: add $t0, $t0, $t1\nlw $t2, 0($zero)\nbeq $zero, $zero, loop");
+		for(int i = 0; i < ALLOCATION_CYCLES; i++) // warm up the JIT
+			cpu.executeCycle();
+
+		long start = threads.getThreadAllocatedBytes(thread);
+		for(int i = 0; i < ALLOCATION_CYCLES; i++)
+			cpu.executeCycle();
+		long bytes = threads.getThreadAllocatedBytes(thread) - start;
+		// only the history of the executed cycles should allocate memory
+		// (about 400 bytes per cycle, mostly for the checkpoints)
+		assertTrue(bytes / ALLOCATION_CYCLES + " bytes allocated per cycle", bytes / ALLOCATION_CYCLES < 1024);
+	}
+
+	@Test
+	public void testStepBack() throws Exception {
+		for(File file: getBundledCPUs()) {
+			CPU cpu = CPU.createFromJSONFile(file.getPath());
+			cpu.assembleCode(testProgram(cpu.getInstructionSet()));
+			List<String> states = new ArrayList<>();
+			assertFalse(cpu.hasPreviousCycle());
+			for(int i = 0; i < MAX_CYCLES && !cpu.isProgramFinished(); i++) {
+				states.add(state(cpu));
+				cpu.executeCycle();
+				assertTrue(cpu.hasPreviousCycle());
+			}
+
+			for(int i = states.size() - 1; i >= states.size() / 2; i--) {
+				cpu.restorePreviousCycle();
+				assertEquals(file.getName() + " cycle " + i, states.get(i), state(cpu));
+				assertEquals(i, cpu.getNumberOfExecutedCycles());
+			}
+			cpu.resetToFirstCycle();
+			assertEquals(file.getName() + " reset", states.get(0), state(cpu));
+			assertFalse(cpu.hasPreviousCycle());
+		}
+	}
+
+	@Test
+	public void testHistoryCheckpoints() throws Exception {
+		for(File file: getBundledCPUs()) {
+			CPU cpu = CPU.createFromJSONFile(file.getPath());
+			HistoryManager history = cpu.getHistory();
+			assertNotNull(file.getName(), history);
+			history.setCheckpointInterval(7);
+			cpu.assembleCode(testProgram(cpu.getInstructionSet()));
+			List<String> states = new ArrayList<>();
+			for(int i = 0; i < MAX_CYCLES && !cpu.isProgramFinished(); i++) {
+				states.add(state(cpu));
+				cpu.executeCycle();
+			}
+			assertEquals(states.size(), history.getCurrentCycle());
+			assertTrue(history.getNumberOfCheckpoints() > 1);
+
+			for(int i = states.size() - 1; i >= 0; i--) { // crosses several checkpoints
+				cpu.restorePreviousCycle();
+				assertEquals(file.getName() + " cycle " + i, states.get(i), state(cpu));
+				assertEquals(i, cpu.getNumberOfExecutedCycles());
+			}
+			assertFalse(cpu.hasPreviousCycle());
+			assertTrue(history.getNumberOfReplayedCycles() > 0);
+
+			// Forward again, then jump straight to the first cycle
+			for(int i = 0; i < states.size(); i++)
+				cpu.executeCycle();
+			cpu.resetToFirstCycle();
+			assertEquals(file.getName() + " reset", states.get(0), state(cpu));
+			assertEquals(0, history.getCurrentCycle());
+		}
+	}
+
+	@Test
+	public void testHistoryMemoryLimit() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		HistoryManager history = cpu.getHistory();
+		history.setCheckpointInterval(1);
+		cpu.assembleCode("loop: addi $t0, $t0, 1\nj loop");
+		List<String> states = new ArrayList<>();
+		for(int i = 0; i < 20; i++) {
+			states.add(state(cpu));
+			cpu.executeCycle();
+		}
+		int unlimited = history.getNumberOfCheckpoints();
+		assertTrue(history.getMemoryUsage() > 0);
+
+		history.setMemoryLimit(history.getMemoryUsage() / 3);
+		for(int i = 0; i < 20; i++) {
+			states.add(state(cpu));
+			cpu.executeCycle();
+		}
+		assertTrue(history.getNumberOfCheckpoints() < unlimited * 2);
+
+		for(int i = states.size() - 1; i >= 0; i--) { // older cycles are replayed from the remaining checkpoints
+			cpu.restorePreviousCycle();
+			assertEquals("cycle " + i, states.get(i), state(cpu));
+		}
+	}
+
+	@Test
+	public void testStepBackEdits() throws Exception {
+		for(String name: new String[] {"unicycle.cpu", "pipeline.cpu"}) {
+			CPU cpu = CPU.createFromJSONFile("cpu/" + name);
+			HistoryManager history = cpu.getHistory();
+			history.setCheckpointInterval(4);
+			history.setMemoryLimit(0); // keep only the checkpoints that can't be removed
+			cpu.assembleCode("loop: addi $t0, $t0, 1\nsw $t0, 4($zero)\nlw $t1, 8($zero)\nadd $t2, $t1, $t0\nbeq $zero, $zero, loop");
+			List<String> states = new ArrayList<>();
+			for(int i = 0; i < 10; i++) {
+				states.add(state(cpu));
+				cpu.executeCycle();
+			}
+
+			// Edit the memory, a register and the PC in the middle of the execution
+			String before = state(cpu);
+			cpu.getDataMemory().setDataInIndex(2, 1234); // read by the lw
+			cpu.getRegBank().setRegister(cpu.getRegisterIndex("$t0"), 100);
+			cpu.setPCAddress(4);
+			assertFalse(before.equals(state(cpu)));
+			for(int i = 0; i < 10; i++) {
+				states.add(state(cpu));
+				cpu.executeCycle();
+			}
+
+			// The cycles after the edit keep it (even when replayed from a
+			// checkpoint), the cycles before it don't (the relevance of the
+			// outputs isn't compared, as the edits propagate only part of it)
+			for(int i = states.size() - 1; i >= 0; i--) {
+				cpu.restorePreviousCycle();
+				assertEquals(name + " cycle " + i, states.get(i).replace("?", ""), state(cpu).replace("?", ""));
+			}
+
+			// Stepping back right after an edit undoes it
+			for(int i = 0; i < 3; i++)
+				cpu.executeCycle();
+			cpu.getDataMemory().setDataInIndex(2, 5678);
+			cpu.getRegBank().setRegister(cpu.getRegisterIndex("$t1"), 200);
+			cpu.restorePreviousCycle();
+			assertEquals(name + " undo", states.get(2), state(cpu));
+			cpu.executeCycle();
+			assertEquals(name + " redo", states.get(3), state(cpu));
+
+			// Restarting undoes the edits made after the first cycle
+			cpu.getDataMemory().setDataInIndex(2, 5678);
+			for(int i = 0; i < 8; i++)
+				cpu.executeCycle();
+			cpu.resetToFirstCycle();
+			assertEquals(name + " reset", states.get(0), state(cpu));
+		}
+	}
+
+	@Test
+	public void testFunctional() throws Exception {
+		int supported = 0;
+		for(File file: getBundledCPUs()) {
+			CPU cpu = CPU.createFromJSONFile(file.getPath());
+			String code = testProgram(cpu.getInstructionSet());
+			cpu.assembleCode(code);
+			if(!cpu.canRunFunctional()) continue;
+			supported++;
+
+			CPU reference = CPU.createFromJSONFile(file.getPath());
+			reference.assembleCode(code);
+			assertEquals(RunResult.Reason.FINISHED, reference.run(MAX_CYCLES, 0, null).getReason());
+			String expected = architecturalState(reference);
+			RunResult result = cpu.runFunctional(0, null);
+			assertEquals(file.getName(), RunResult.Reason.FINISHED, result.getReason());
+			assertEquals(file.getName(), expected, architecturalState(cpu));
+			assertTrue(file.getName(), cpu.isProgramFinished());
+
+			// Hand off to the datapath after some instructions
+			for(int n = 1; n < result.getNumberOfExecutedCycles(); n += 3) {
+				cpu.resetData();
+				cpu.assembleCode(code);
+				assertEquals(RunResult.Reason.BUDGET, cpu.runFunctional(n, null).getReason());
+				assertEquals(n, cpu.getNumberOfExecutedInstructions());
+				assertFalse(cpu.hasPreviousCycle());
+				cpu.run(MAX_CYCLES, 0, null);
+				assertEquals(file.getName() + " after " + n, expected, architecturalState(cpu));
+			}
+
+			// Hand off at the breakpoint
+			cpu.resetData();
+			cpu.assembleCode(code);
+			cpu.setBreakpointAddr(12);
+			assertEquals(RunResult.Reason.BREAKPOINT, cpu.runFunctional(0, null).getReason());
+			assertEquals(12, cpu.getPC().getAddress().getValue());
+			cpu.setBreakpointAddr(-1);
+			cpu.run(MAX_CYCLES, 0, null);
+			assertEquals(file.getName() + " breakpoint", expected, architecturalState(cpu));
+			if(cpu.isPipeline()) {
+				cpu.assembleCode(code);
+				cpu.executeCycle();
+				assertFalse(cpu.canRunFunctional()); // instructions in the pipeline
+			}
+		}
+		assertTrue(supported > 0);
+	}
+
+	@Test
+	public void testFunctionalUnknownSignals() throws Exception {
+		File dir = Files.createTempDirectory("drmips").toFile();
+		try {
+			String set = new String(Files.readAllBytes(new File("cpu", "default.set").toPath()), "UTF-8");
+			Files.write(new File(dir, "default.set").toPath(), set.replace("\"Branch\": 1}", "\"Branch\": 1, \"BranchNE\": 1}").getBytes("UTF-8"));
+			Files.copy(new File("cpu", "unicycle.cpu").toPath(), new File(dir, "unicycle.cpu").toPath());
+
+			assertTrue(CPU.createFromJSONFile("cpu/unicycle.cpu").canRunFunctional());
+			CPU cpu = CPU.createFromJSONFile(new File(dir, "unicycle.cpu").getPath());
+			assertTrue(cpu.getInstructionSet().getControl().hasOut("BranchNE"));
+			assertFalse(cpu.canRunFunctional()); // the meaning of BranchNE is unknown
+		}
+		finally {
+			for(File f: dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void testSparseMemory() throws Exception {
+		String code = ".data\n" +
+			"val: .word 9\n" +
+			".text\n" +
+			"lw $t1, 0($zero)\n" +
+			"addi $t0, $zero, -4\n" +
+			"sw $t1, 0($t0)\n" +
+			"lw $t2, 0($t0)\n" +
+			"sw $t2, -4096($t0)\n" +
+			"add $t3, $t2, $t1\n" +
+			"sw $t3, 8($zero)\n";
+		File dir = Files.createTempDirectory("drmips").toFile();
+		try {
+			for(File set: new File("cpu").listFiles()) {
+				if(set.getName().endsWith(".set"))
+					Files.copy(set.toPath(), new File(dir, set.getName()).toPath());
+			}
+			for(String name: new String[] {"unicycle.cpu", "pipeline.cpu"}) {
+				File file = new File(dir, name);
+				String json = new String(Files.readAllBytes(new File("cpu", name).toPath()), "UTF-8");
+				Files.write(file.toPath(), json.replace("\"size\": 100, \"address\"", "\"sparse\": true, \"address\"").getBytes("UTF-8"));
+
+				CPU cpu = CPU.createFromJSONFile(file.getPath());
+				assertTrue(name, cpu.getDataMemory().isSparse());
+				cpu.assembleCode(code);
+				List<String> states = new ArrayList<>();
+				for(int i = 0; i < MAX_CYCLES && !cpu.isProgramFinished(); i++) {
+					states.add(state(cpu));
+					cpu.executeCycle();
+				}
+				assertEquals(name, 9, cpu.getRegBank().getRegister(10).getValue()); // $t2
+				assertEquals(name, 18, cpu.getRegBank().getRegister(11).getValue()); // $t3
+				assertEquals(name, 9, cpu.getDataMemory().getData(0xFFFFFFFC));
+				assertEquals(name, 9, cpu.getDataMemory().getData(0xFFFFEFFC));
+				assertEquals(name, 18, cpu.getDataMemory().getData(8));
+				String expected = architecturalState(cpu);
+
+				for(int i = states.size() - 1; i >= 0; i--) {
+					cpu.restorePreviousCycle();
+					assertEquals(name + " cycle " + i, states.get(i), state(cpu));
+				}
+
+				cpu.resetData();
+				cpu.assembleCode(code);
+				if(cpu.canRunFunctional()) {
+					assertEquals(name, RunResult.Reason.FINISHED, cpu.runFunctional(0, null).getReason());
+					assertEquals(name, expected, architecturalState(cpu));
+				}
+			}
+		}
+		finally {
+			for(File f: dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void testAssembleData() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		DataMemory memory = cpu.getDataMemory();
+		memory.setDataInIndex(1, 99);
+		memory.setDataInIndex(5, 77);
+		cpu.assembleCode(".data\na: .word 1\n.space 4\nb: .word 2, 3\n.text\nadd $t0, $t0, $t0");
+		assertEquals(1, memory.getDataInIndex(0));
+		assertEquals(99, memory.getDataInIndex(1)); // reserved positions aren't modified
+		assertEquals(2, memory.getDataInIndex(2));
+		assertEquals(3, memory.getDataInIndex(3));
+		assertEquals(77, memory.getDataInIndex(5));
+
+		// A failed assembly leaves the memory untouched
+		try {
+			cpu.assembleCode(".data\n.word 5, 6, 7, 8\n.text\nfoo $t0");
+			fail();
+		}
+		catch(SyntaxErrorException ex) { }
+		assertEquals(1, memory.getDataInIndex(0));
+		assertEquals(99, memory.getDataInIndex(1));
+		assertEquals(2, memory.getDataInIndex(2));
+
+		// The values that don't fit in the memory are ignored
+		StringBuilder code = new StringBuilder(".data\n.word 0");
+		for(int i = 1; i < memory.getMemorySize() + 10; i++)
+			code.append(", ").append(i);
+		cpu.assembleCode(code.append("\n.text\nadd $t0, $t0, $t0").toString());
+		for(int i = 0; i < memory.getMemorySize(); i++)
+			assertEquals(i, memory.getDataInIndex(i));
+	}
+
+	@Test
+	public void testFunctionalLongRun() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		assumeTrue(cpu.canRunFunctional());
+		String code = "addi $t2, $zero, 100\n" +
+			"outer: addi $t0, $zero, 10000\n" +
+			"loop: addi $t0, $t0, -1\n" +
+			"lw $t1, 0($zero)\n" +
+			"add $t1, $t1, $t0\n" +
+			"sw $t1, 0($zero)\n" +
+			"beq $t0, $zero, next\n" +
+			"j loop\n" +
+			"next: addi $t2, $t2, -1\n" +
+			"beq $t2, $zero, end\n" +
+			"j outer\n" +
+			"end: nop";
+		cpu.assembleCode(code);
+		RunResult result = cpu.runFunctional(10000000, null);
+		assertEquals(RunResult.Reason.FINISHED, result.getReason());
+		assertEquals(6000301, result.getNumberOfExecutedCycles());
+		assertEquals((int)(100 * 49995000L), cpu.getDataMemory().getDataInIndex(0));
+	}
+
+	@Test
+	public void testRun() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		cpu.assembleCode(testProgram(cpu.getInstructionSet()));
+		RunResult result = cpu.run(0, 0, null);
+		assertEquals(RunResult.Reason.FINISHED, result.getReason());
+		assertTrue(cpu.isProgramFinished());
+		assertEquals(cpu.getNumberOfExecutedCycles(), result.getNumberOfExecutedCycles());
+
+		cpu.resetToFirstCycle();
+		result = cpu.run(5, 0, null);
+		assertEquals(RunResult.Reason.BUDGET, result.getReason());
+		assertEquals(5, result.getNumberOfExecutedCycles());
+
+		cpu.resetToFirstCycle();
+		cpu.setBreakpointAddr(8);
+		result = cpu.run(0, 0, null);
+		assertEquals(RunResult.Reason.BREAKPOINT, result.getReason());
+		assertEquals(8, cpu.getPC().getAddress().getValue());
+		cpu.setBreakpointAddr(-1);
+
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+		cpu.resetToFirstCycle();
+		result = cpu.run(0, 0, token);
+		assertEquals(RunResult.Reason.CANCELLED, result.getReason());
+		assertEquals(0, result.getNumberOfExecutedCycles());
+
+		cpu.assembleCode("loop: j loop");
+		result = cpu.run(0, 50, null);
+		assertEquals(RunResult.Reason.DEADLINE, result.getReason());
+		assertTrue(result.getNumberOfExecutedCycles() > 0);
+		assertEquals(0, result.getNumberOfExecutedCycles() % CPU.RUN_CHECK_INTERVAL);
+	}
+
+	/**
+	 * Executes the test program in both CPUs, checking that they have the same state after every cycle.
+	 * @param name Name of the CPU (for the error messages).
+	 * @param expected The CPU that uses the reference engine.
+	 * @param actual The CPU to check.
+	 * @throws Exception If the test program fails to assemble.
+	 */
+	/**
+	 * Asserts that a copy of a CPU has new components connected and placed
+	 * like the original ones.
+	 * @param name The name of the CPU file.
+	 * @param original The original CPU.
+	 * @param copy The copy.
+	 */
+	private static void assertSameGraph(String name, CPU original, CPU copy) {
+		Component[] oc = original.getComponents(), cc = copy.getComponents();
+		for(int i = 0; i < oc.length; i++) {
+			String id = name + " " + oc[i].getId();
+			assertNotSame(id, oc[i], cc[i]);
+			assertEquals(id, oc[i].getId(), cc[i].getId());
+			assertEquals(id, oc[i].getPosition(), cc[i].getPosition());
+			assertEquals(id, oc[i].isInControlPath(), cc[i].isInControlPath());
+			for(Input in: oc[i].getInputs()) {
+				Input c = cc[i].getInput(in.getId());
+				assertSame(id, cc[i], c.getComponent());
+				assertEquals(id, in.getIndex(), c.getIndex());
+				assertEquals(id, oc[i].getInputPosition(in), cc[i].getInputPosition(c));
+			}
+			for(Output out: oc[i].getOutputs()) {
+				Output c = cc[i].getOutput(out.getId());
+				assertSame(id, cc[i], c.getComponent());
+				assertEquals(id, out.getIntermediatePoints(), c.getIntermediatePoints());
+				assertEquals(id, oc[i].getOutputPosition(out), cc[i].getOutputPosition(c));
+				assertEquals(id, out.isInControlPath(), c.isInControlPath());
+				assertEquals(id, out.isConnected(), c.isConnected());
+				if(out.isConnected()) {
+					assertSame(id, copy.getComponent(out.getConnectedInput().getComponent().getId()), c.getConnectedInput().getComponent());
+					assertEquals(id, out.getConnectedInput().getId(), c.getConnectedInput().getId());
+				}
+			}
+		}
+	}
+
+	static void assertEquivalent(String name, CPU expected, CPU actual) throws Exception {
+		assertEquals(name, state(expected), state(actual));
+
+		String code = testProgram(actual.getInstructionSet());
+		actual.assembleCode(code);
+		expected.assembleCode(code);
+		assertEquals(name, state(expected), state(actual));
+
+		int cycles = 0;
+		while(!expected.isProgramFinished() && cycles++ < MAX_CYCLES) {
+			actual.executeCycle();
+			expected.executeCycle();
+			assertEquals(name + " cycle " + cycles, state(expected), state(actual));
+		}
+		assertEquals(name, expected.isProgramFinished(), actual.isProgramFinished());
+
+		for(int i = 0; i < 5 && expected.hasPreviousCycle(); i++) {
+			actual.restorePreviousCycle();
+			expected.restorePreviousCycle();
+			assertEquals(name + " back " + i, state(expected), state(actual));
+		}
+
+		actual.resetToFirstCycle();
+		expected.resetToFirstCycle();
+		assertEquals(name + " reset", state(expected), state(actual));
+	}
+
+	/**
+	 * Returns the bundled CPU files.
+	 * @return The <tt>.cpu</tt> files in the <tt>cpu</tt> directory.
+	 */
+	static File[] getBundledCPUs() {
+		File[] files = new File("cpu").listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".cpu");
+			}
+		});
+		return files != null ? files : new File[0];
+	}
+
+	/**
+	 * Returns a test program that uses the instructions supported by the given instruction set.
+	 * @param set The instruction set.
+	 * @return Assembly code.
+	 */
+	static String testProgram(InstructionSet set) {
+		StringBuilder code = new StringBuilder();
+		code.append(".data\n")
+			.append("vals: .word 5, 7, 0, -3\n")
+			.append(".text\n")
+			.append("lw $t0, 0($zero)\n")
+			.append("lw $t1, 4($zero)\n")
+			.append("add $t2, $t0, $t1\n")
+			.append("sub $t3, $t0, $t1\n")
+			.append("and $t4, $t0, $t1\n")
+			.append("or $t5, $t2, $t3\n")
+			.append("slt $t6, $t3, $t0\n")
+			.append("nor $t7, $t4, $t5\n")
+			.append("sw $t2, 8($zero)\n")
+			.append("lw $s0, 8($zero)\n")
+			.append("addi $s1, $s0, -3\n")
+			.append("sw $s1, 12($zero)\n");
+		if(set.hasInstruction("beq")) {
+			code.append("loop: addi $t0, $t0, -1\n")
+				.append("add $s2, $s2, $t0\n")
+				.append("beq $t0, $zero, end\n");
+			if(set.hasInstruction("j"))
+				code.append("j loop\n");
+			else
+				code.append("beq $zero, $zero, loop\n");
+			code.append("end: nop\n");
+		}
+		if(set.hasInstruction("mult")) {
+			code.append("mult $t1, $t3\n")
+				.append("mflo $s3\n")
+				.append("mfhi $s4\n")
+				.append("div $t1, $t0\n")
+				.append("mflo $s5\n")
+				.append("xor $s6, $s3, $t1\n");
+		}
+		code.append("sw $s2, 0($zero)\n");
+		return code.toString();
+	}
+
+	/**
+	 * Returns a textual representation of the architectural state of the CPU.
+	 * <p>Includes only the registers, the data memory and the <tt>HI</tt> and
+	 * <tt>LO</tt> registers (if the ALU is extended).</p>
+	 * @param cpu The CPU.
+	 * @return The architectural state of the CPU.
+	 */
+	static String architecturalState(CPU cpu) {
+		StringBuilder s = new StringBuilder("regs:");
+		for(int i = 0; i < cpu.getRegBank().getNumberOfRegisters(); i++)
+			s.append(' ').append(cpu.getRegBank().getRegister(i).getValue());
+		if(cpu.hasDataMemory()) {
+			s.append("\nmem:");
+			appendMemory(s, cpu.getDataMemory());
+		}
+		if(cpu.getALU() instanceof ExtendedALU) {
+			ExtendedALU alu = (ExtendedALU)cpu.getALU();
+			s.append("\nhi: ").append(alu.getHI().getValue()).append(" lo: ").append(alu.getLO().getValue());
+		}
+		return s.toString();
+	}
+
+	/**
+	 * Returns a textual representation of the state of the CPU.
+	 * <p>Includes the values of all inputs and outputs, the relevance of the
+	 * outputs (irrelevant ones are marked with <tt>?</tt>), the PC, the
+	 * registers and the data memory.</p>
+	 * @param cpu The CPU.
+	 * @return The state of the CPU.
+	 */
+	static String state(CPU cpu) {
+		StringBuilder s = new StringBuilder();
+		s.append("pc=").append(cpu.getPC().getAddress().getValue()).append('\n');
+		for(Component c: cpu.getComponents()) {
+			s.append(c.getId()).append(':');
+			for(Input i: c.getInputs())
+				s.append(' ').append(i.getId()).append('=').append(i.getValue());
+			s.append(" |");
+			for(Output o: c.getOutputs())
+				s.append(' ').append(o.getId()).append('=').append(o.getValue()).append(o.isRelevant() ? "" : "?");
+			s.append('\n');
+		}
+		s.append("regs:");
+		for(int i = 0; i < cpu.getRegBank().getNumberOfRegisters(); i++)
+			s.append(' ').append(cpu.getRegBank().getRegister(i).getValue());
+		if(cpu.hasDataMemory()) {
+			s.append("\nmem:");
+			appendMemory(s, cpu.getDataMemory());
+		}
+		return s.toString();
+	}
+
+	/**
+	 * Appends the values of the data memory to a textual representation.
+	 * <p>Only the non-zero positions of a sparse memory are appended, as
+	 * stepping back may leave empty pages allocated.</p>
+	 * @param s The textual representation.
+	 * @param memory The data memory.
+	 */
+	private static void appendMemory(StringBuilder s, DataMemory memory) {
+		for(int i: memory.getUsedIndexes()) {
+			int value = memory.getDataInIndex(i);
+			if(!memory.isSparse())
+				s.append(' ').append(value);
+			else if(value != 0)
+				s.append(' ').append(i).append('=').append(value);
+		}
+	}
+}
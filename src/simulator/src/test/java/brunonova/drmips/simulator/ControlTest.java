@@ -0,0 +1,207 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import brunonova.drmips.simulator.components.ALUControl;
+import brunonova.drmips.simulator.components.ControlUnit;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ControlTest {
+	@Test
+	public void testTables() throws Exception {
+		File[] files = getBundledInstructionSets();
+		assertTrue(files.length > 0);
+
+		for(File file: files) {
+			InstructionSet set = new InstructionSet(file.getPath());
+			JSONObject json = new JSONObject(new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+			Control control = set.getControl();
+			ControlALU controlALU = set.getControlALU();
+			int funcValues = 1 << controlALU.getFuncSize();
+
+			for(Instruction instruction: set.getInstructions()) {
+				String name = file.getName() + ": " + instruction.getMnemonic();
+				InstructionType type = instruction.getType();
+				int opcode = constant(instruction, type.getOpCodeField());
+				assertTrue(name, opcode >= 0);
+
+				// Control unit
+				assertEquals(name, control.getOutputsIds().size(), control.getNumberOfOutputs());
+				for(int i = 0; i < control.getNumberOfOutputs(); i++) {
+					String id = control.getOutputId(i);
+					assertEquals(name, i, control.getOutputIndex(id));
+					assertEquals(name + " " + id, referenceControl(json, opcode, id), control.getOutOfOpcode(opcode, i));
+					assertEquals(name + " " + id, control.getOutOfOpcode(opcode, id), control.getOutOfOpcode(opcode, i));
+				}
+
+				// ALU control and ALU (every func value if the instruction doesn't have a constant func)
+				int aluOp = control.getOutOfOpcode(opcode, control.getOutputIndex("ALUOp"));
+				int func = type.hasField("func") ? constant(instruction, type.getField("func")) : -1;
+				for(int f = (func >= 0 ? func : 0); f < (func >= 0 ? func + 1 : funcValues); f++) {
+					for(int i = 0; i < controlALU.getNumberOfOutputs(); i++) {
+						String id = controlALU.getOutputId(i);
+						assertEquals(name, i, controlALU.getOutputIndex(id));
+						int value = controlALU.getControlValue(aluOp, f, i);
+						assertEquals(name + " " + id, referenceControlALU(json, aluOp, f, id), value);
+						assertEquals(name + " " + id, controlALU.getControlValue(aluOp, f, id), value);
+						assertEquals(name + " " + id, referenceOperation(json, value), controlALU.getOperation(value));
+					}
+				}
+			}
+
+			// Values outside the tables
+			assertEquals(file.getName(), -1, control.getOutputIndex("NonExistent"));
+			assertEquals(file.getName(), 0, control.getOutOfOpcode(-1, 0));
+			assertEquals(file.getName(), 0, control.getOutOfOpcode(1 << set.getOpCodeSize(), 0));
+			assertEquals(file.getName(), ControlALU.Operation.ADD, controlALU.getOperation(-1));
+			assertEquals(file.getName(), ControlALU.Operation.ADD, controlALU.getOperation(1 << controlALU.getControlSize()));
+		}
+	}
+
+	@Test
+	public void testComponents() throws Exception {
+		for(File file: getBundledCPUs()) {
+			CPU cpu = CPU.createFromJSONFile(file.getPath());
+			Control control = cpu.getInstructionSet().getControl();
+			ControlALU controlALU = cpu.getInstructionSet().getControlALU();
+			ControlUnit unit = cpu.getControlUnit();
+
+			for(int opcode = 0; opcode < 1 << cpu.getInstructionSet().getOpCodeSize(); opcode++) {
+				unit.getInput().setValue(opcode);
+				unit.execute();
+				for(String id: control.getOutputsIds())
+					assertEquals(file.getName() + " " + id, control.getOutOfOpcode(opcode, id), unit.getOutput(id).getValue());
+			}
+
+			if(cpu.hasALUControl()) {
+				ALUControl aluControl = cpu.getALUControl();
+				for(int aluOp = 0; aluOp < 1 << controlALU.getAluOpSize(); aluOp++) {
+					for(int func = 0; func < 1 << controlALU.getFuncSize(); func++) {
+						aluControl.getALUOp().setValue(aluOp);
+						aluControl.getFunc().setValue(func);
+						aluControl.execute();
+						for(String id: controlALU.getOutputsIds())
+							assertEquals(file.getName() + " " + id, controlALU.getControlValue(aluOp, func, id), aluControl.getOutput(id).getValue());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the constant value of a field of the instruction.
+	 * @param instruction The instruction.
+	 * @param field The field.
+	 * @return The value, or -1 if the field isn't constant.
+	 */
+	private static int constant(Instruction instruction, InstructionType.Field field) {
+		Instruction.FieldValue value = instruction.getField(field);
+		return (value instanceof Instruction.FieldConstant) ? ((Instruction.FieldConstant)value).getValue() : -1;
+	}
+
+	/**
+	 * Returns the value of a control unit output, read directly from the instruction set file.
+	 * @param json The contents of the instruction set file.
+	 * @param opcode The opcode.
+	 * @param id The identifier of the output.
+	 * @return The value of the output.
+	 */
+	private static int referenceControl(JSONObject json, int opcode, String id) {
+		JSONObject op = json.getJSONObject("control").optJSONObject(String.valueOf(opcode));
+		return op != null ? op.optInt(id, 0) : 0;
+	}
+
+	/**
+	 * Returns the value of an ALU control output, read directly from the instruction set file.
+	 * <p>The entries with <tt>func</tt> take precedence over the ones with only <tt>ALUOp</tt>.</p>
+	 * @param json The contents of the instruction set file.
+	 * @param aluOp The value of <tt>ALUOp</tt>.
+	 * @param func The value of <tt>func</tt>.
+	 * @param id The identifier of the output.
+	 * @return The value of the output.
+	 */
+	private static int referenceControlALU(JSONObject json, int aluOp, int func, String id) {
+		JSONArray control = json.getJSONObject("alu").getJSONArray("control");
+		JSONObject aluOpOnly = null;
+		for(int i = 0; i < control.length(); i++) {
+			JSONObject entry = control.getJSONObject(i);
+			if(entry.getInt("aluop") != aluOp) continue;
+			if(!entry.has("func"))
+				aluOpOnly = entry;
+			else if(entry.getInt("func") == func && entry.getJSONObject("out").has(id))
+				return entry.getJSONObject("out").getInt(id);
+		}
+		return aluOpOnly != null ? aluOpOnly.getJSONObject("out").optInt(id, 0) : 0;
+	}
+
+	/**
+	 * Returns the ALU operation of an ALU control value, read directly from the instruction set file.
+	 * @param json The contents of the instruction set file.
+	 * @param value The value of the ALU control signal.
+	 * @return The operation.
+	 */
+	private static ControlALU.Operation referenceOperation(JSONObject json, int value) {
+		JSONObject operations = json.getJSONObject("alu").getJSONObject("operations");
+		Iterator<String> i = operations.keys();
+		while(i.hasNext()) {
+			String key = i.next();
+			if(Integer.parseInt(key) == value)
+				return ControlALU.Operation.valueOf(operations.getString(key).toUpperCase());
+		}
+		return ControlALU.Operation.ADD;
+	}
+
+	/**
+	 * Returns the bundled instruction sets, sorted by name.
+	 * @return The <tt>default*.set</tt> files.
+	 */
+	private static File[] getBundledInstructionSets() {
+		File[] files = new File("cpu").listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith("default") && name.endsWith(".set");
+			}
+		});
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * Returns the bundled CPUs, sorted by name.
+	 * @return The <tt>.cpu</tt> files.
+	 */
+	private static File[] getBundledCPUs() {
+		File[] files = new File("cpu").listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".cpu");
+			}
+		});
+		Arrays.sort(files);
+		return files;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DisassemblerTest {
+	@Test
+	public void testDisassemble() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		Disassembler disassembler = new Disassembler(cpu);
+		String[] code = {"add $t0, $t1, $t2", "lw $t0, -4($sp)", "sw $s1, 8($zero)", "beq $t0, $zero, -3", "j 5", "addi $a0, $a0, -1", "nop"};
+		for(String line: code)
+			assertEquals(line, disassembler.disassemble(assemble(cpu, line)));
+		assertEquals(0, assemble(cpu, "nop"));
+		assertNull(disassembler.disassemble(0xFC000000)); // unknown opcode
+		assertNull(cpu.getInstructionSet().getDecoder().getInstruction(0x0000003F)); // unknown func
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		Random random = new Random(42);
+		for(File file: getBundledCPUs()) {
+			CPU cpu = CPU.createFromJSONFile(file.getPath());
+			Disassembler disassembler = new Disassembler(cpu);
+			InstructionDecoder decoder = cpu.getInstructionSet().getDecoder();
+			Instruction[] instructions = cpu.getInstructionSet().getInstructions();
+
+			for(Instruction instruction: instructions) {
+				for(int n = 0; n < 20; n++) {
+					String line = randomCode(cpu, instruction, random);
+					String name = file.getName() + ": " + line;
+					int word = assemble(cpu, line);
+					assertSame(name, findLinear(instructions, word), decoder.getInstruction(word));
+					String disassembled = disassembler.disassemble(word);
+					assertNotNull(name, disassembled);
+					assertEquals(name + " -> " + disassembled, word, assemble(cpu, disassembled));
+				}
+			}
+
+			// Random words, compared to a linear search
+			for(int n = 0; n < 100000; n++) {
+				int word = random.nextInt();
+				if(n % 2 == 0) { // keep the opcode of an instruction, to reach deeper nodes
+					Instruction i = instructions[random.nextInt(instructions.length)];
+					InstructionType.Field op = i.getType().getOpCodeField();
+					word = (word & ~op.getValueInField(-1)) | op.getValueInField(((Instruction.FieldConstant)i.getField(op)).getValue());
+				}
+				Instruction expected = findLinear(instructions, word);
+				assertSame(file.getName() + ": " + Integer.toHexString(word), expected, decoder.getInstruction(word));
+				if(expected != null)
+					assertEquals(file.getName() + ": " + Integer.toHexString(word), word, assemble(cpu, disassembler.disassemble(word)));
+			}
+		}
+	}
+
+	/**
+	 * Returns the code of an instruction with random arguments.
+	 * @param cpu The CPU.
+	 * @param instruction The instruction.
+	 * @param random The random number generator.
+	 * @return The code.
+	 */
+	private static String randomCode(CPU cpu, Instruction instruction, Random random) {
+		int registers = cpu.getRegBank().getNumberOfRegisters();
+		StringBuilder code = new StringBuilder(instruction.getMnemonic());
+		for(int i = 0; i < instruction.getNumberOfArguments(); i++) {
+			code.append(i == 0 ? " " : ", ");
+			switch(instruction.getArgument(i)) {
+				case REG: code.append(cpu.getRegisterName(random.nextInt(registers))); break;
+				case TARGET: code.append(random.nextInt(1000)); break;
+				case DATA: code.append(random.nextInt(2000) - 1000).append('(').append(cpu.getRegisterName(random.nextInt(registers))).append(')'); break;
+				default: code.append(random.nextInt(65536) - 32768);
+			}
+		}
+		return code.toString();
+	}
+
+	/**
+	 * Finds the instruction encoded in a word by comparing the constant fields of all the instructions.
+	 * @param instructions The instructions.
+	 * @param word The instruction word.
+	 * @return The matching instruction with the most constant bits, or <tt>null</tt> if none.
+	 */
+	private static Instruction findLinear(Instruction[] instructions, int word) {
+		Instruction best = null;
+		int bestBits = -1;
+		for(Instruction instruction: instructions) {
+			int mask = 0, value = 0;
+			for(InstructionType.Field field: instruction.getType().getFields()) {
+				Instruction.FieldValue f = instruction.getField(field);
+				if(f instanceof Instruction.FieldConstant) {
+					mask |= field.getValueInField(-1);
+					value |= field.getValueInField(((Instruction.FieldConstant)f).getValue());
+				}
+			}
+			if((word & mask) == value && Integer.bitCount(mask) > bestBits) {
+				best = instruction;
+				bestBits = Integer.bitCount(mask);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Assembles a single instruction.
+	 * @param cpu The CPU.
+	 * @param line The code of the instruction.
+	 * @return The instruction word.
+	 * @throws Exception If the code has a syntax error.
+	 */
+	private static int assemble(CPU cpu, String line) throws Exception {
+		return cpu.getAssembler().assemble(line).getInstructions().get(0).getData().getValue();
+	}
+
+	/**
+	 * Returns the bundled CPUs, sorted by name.
+	 * @return The <tt>.cpu</tt> files.
+	 */
+	private static File[] getBundledCPUs() {
+		File[] files = new File("cpu").listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".cpu");
+			}
+		});
+		Arrays.sort(files);
+		return files;
+	}
+}
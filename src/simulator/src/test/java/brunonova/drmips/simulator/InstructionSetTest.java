@@ -0,0 +1,110 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class InstructionSetTest {
+	@Test
+	public void testMnemonics() throws Exception {
+		File[] files = new File("cpu").listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".set");
+			}
+		});
+		Arrays.sort(files);
+		assertTrue(files.length > 0);
+
+		for(File file: files) {
+			InstructionSet set = new InstructionSet(file.getPath());
+			Map<String, Instruction> instructions = new HashMap<>();
+			Map<String, PseudoInstruction> pseudos = new HashMap<>();
+			for(Instruction i: set.getInstructions())
+				instructions.put(i.getMnemonic(), i);
+			for(PseudoInstruction p: set.getPseudoInstructions())
+				pseudos.put(p.getMnemonic(), p);
+
+			for(String mnemonic: instructions.keySet())
+				assertMnemonic(file.getName(), set, mnemonic, instructions, pseudos);
+			for(String mnemonic: pseudos.keySet())
+				assertMnemonic(file.getName(), set, mnemonic, instructions, pseudos);
+			for(String other: new String[] {"", "a", "addx", "ad", "x.y", "label", "$t0", ".word", "l1"})
+				assertMnemonic(file.getName(), set, other, instructions, pseudos);
+
+			// Mnemonic in the middle of a line
+			String line = "loop: ADDI $t0, $t0, 1";
+			InstructionSet.Mnemonic m = set.getMnemonic(line, 6, 10);
+			assertNotNull(file.getName(), m);
+			assertSame(file.getName(), set.getInstruction("addi"), m.getInstruction());
+			assertNull(file.getName(), m.getPseudoInstruction());
+			assertSame(file.getName(), set.getInstruction("add"), set.getMnemonic(line, 6, 9).getInstruction());
+			assertNull(file.getName(), set.getMnemonic(line, 6, 8)); // "AD"
+			assertNull(file.getName(), set.getMnemonic(line, 0, 4)); // "loop"
+		}
+	}
+
+	/**
+	 * Asserts that the lookups of a mnemonic in any case return the same as the reference maps.
+	 * @param message The message of the assertions.
+	 * @param set The instruction set.
+	 * @param mnemonic The mnemonic.
+	 * @param instructions The instructions by mnemonic.
+	 * @param pseudos The pseudo-instructions by mnemonic.
+	 */
+	private static void assertMnemonic(String message, InstructionSet set, String mnemonic,
+			Map<String, Instruction> instructions, Map<String, PseudoInstruction> pseudos) {
+		String[] variants = {mnemonic, mnemonic.toUpperCase(), mixedCase(mnemonic)};
+		for(String variant: variants) {
+			String name = message + ": " + variant;
+			Instruction instruction = instructions.get(variant.toLowerCase());
+			PseudoInstruction pseudo = pseudos.get(variant.toLowerCase());
+			assertSame(name, instruction, set.getInstruction(variant));
+			assertSame(name, pseudo, set.getPseudoInstruction(variant));
+			assertEquals(name, instruction != null, set.hasInstruction(variant));
+			assertEquals(name, pseudo != null, set.hasPseudoInstruction(variant));
+			assertEquals(name, instruction != null || pseudo != null, set.hasInstructionOrPseudoInstruction(variant));
+
+			InstructionSet.Mnemonic m = set.getMnemonic(" " + variant + ",", 1, variant.length() + 1);
+			assertEquals(name, instruction != null || pseudo != null, m != null);
+			if(m != null) {
+				assertSame(name, instruction, m.getInstruction());
+				assertSame(name, pseudo, m.getPseudoInstruction());
+			}
+		}
+	}
+
+	/**
+	 * Returns the text with alternating upper and lower case letters.
+	 * @param text The text.
+	 * @return The text in mixed case.
+	 */
+	private static String mixedCase(String text) {
+		StringBuilder sb = new StringBuilder(text.length());
+		for(int i = 0; i < text.length(); i++)
+			sb.append(i % 2 == 0 ? Character.toUpperCase(text.charAt(i)) : text.charAt(i));
+		return sb.toString();
+	}
+}
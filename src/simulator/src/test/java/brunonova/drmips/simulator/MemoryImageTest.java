@@ -0,0 +1,269 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package brunonova.drmips.simulator;
+
+import brunonova.drmips.simulator.MemoryImage.Format;
+import brunonova.drmips.simulator.components.DataMemory;
+import brunonova.drmips.simulator.components.RegBank;
+import brunonova.drmips.simulator.util.PagedMemory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MemoryImageTest {
+	/** Values used in the images. */
+	private static final int[] VALUES = {0, 1, -1, 0x12345678, Integer.MIN_VALUE, Integer.MAX_VALUE, 0xCAFE};
+
+	/** Temporary file for the images. */
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("drmips", ".img");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		for(Format format: Format.values()) {
+			for(ByteOrder order: new ByteOrder[] {ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+				MemoryImage.write(file, format, order, IntBuffer.wrap(VALUES));
+				assertEquals(format + " " + order, IntBuffer.wrap(VALUES), MemoryImage.read(file, format, order));
+			}
+		}
+
+		// Raw byte order
+		MemoryImage.write(file, Format.RAW, ByteOrder.LITTLE_ENDIAN, IntBuffer.wrap(new int[] {0x12345678}));
+		assertArrayEquals(new byte[] {0x78, 0x56, 0x34, 0x12}, Files.readAllBytes(file.toPath()));
+		assertEquals(0x78563412, MemoryImage.read(file, Format.RAW, ByteOrder.BIG_ENDIAN).get());
+
+		// Text formats
+		MemoryImage.write(file, Format.HEX, null, IntBuffer.wrap(new int[] {0xCAFE, -1}));
+		assertEquals("0000CAFE\nFFFFFFFF\n", new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+		MemoryImage.write(file, Format.BIN, null, IntBuffer.wrap(new int[] {5}));
+		assertEquals("00000000000000000000000000000101\n", new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+	}
+
+	@Test
+	public void testRead() throws Exception {
+		write("// comment\r\ncafe_babe 1\t\tA # other comment\n\n  ff//end");
+		assertEquals(IntBuffer.wrap(new int[] {0xCAFEBABE, 1, 10, 255}), MemoryImage.read(file, Format.HEX, null));
+		write("101 1111_0000\n");
+		assertEquals(IntBuffer.wrap(new int[] {5, 0xF0}), MemoryImage.read(file, Format.BIN, null));
+		write("");
+		assertEquals(0, MemoryImage.read(file, Format.HEX, null).remaining());
+
+		// Incomplete raw value
+		Files.write(file.toPath(), new byte[] {1, 2, 3, 4, 5});
+		assertEquals(IntBuffer.wrap(new int[] {0x04030201, 5}), MemoryImage.read(file, Format.RAW, ByteOrder.LITTLE_ENDIAN));
+		assertEquals(IntBuffer.wrap(new int[] {0x01020304, 0x05000000}), MemoryImage.read(file, Format.RAW, ByteOrder.BIG_ENDIAN));
+
+		// Invalid values
+		for(String text: new String[] {"1 12\nxyz", "123456789", "1 / 2"}) {
+			write(text);
+			try {
+				MemoryImage.read(file, Format.HEX, null);
+				fail(text);
+			}
+			catch(IOException ex) { }
+		}
+		write("102");
+		try {
+			MemoryImage.read(file, Format.BIN, null);
+			fail();
+		}
+		catch(IOException ex) {
+			assertTrue(ex.getMessage().contains("line 1"));
+		}
+	}
+
+	@Test
+	public void testDataMemory() throws Exception {
+		DataMemory memory = createMemory(new JSONObject().put("size", 20));
+		memory.getMemRead().setValue(1);
+		memory.getAddress().setValue(8);
+		MemoryImage.write(file, Format.RAW, ByteOrder.BIG_ENDIAN, IntBuffer.wrap(VALUES));
+		assertEquals(VALUES.length, MemoryImage.load(file, Format.RAW, ByteOrder.BIG_ENDIAN, memory, 4));
+		assertEquals(0, memory.getDataInIndex(0));
+		for(int i = 0; i < VALUES.length; i++)
+			assertEquals(VALUES[i], memory.getDataInIndex(i + 1));
+		assertEquals(VALUES[1], memory.getOutput().getValue()); // propagated
+
+		File copy = File.createTempFile("drmips", ".hex");
+		try {
+			MemoryImage.dump(copy, Format.HEX, null, memory, 4, VALUES.length);
+			assertEquals(IntBuffer.wrap(VALUES), MemoryImage.read(copy, Format.HEX, null));
+			MemoryImage.dump(copy, Format.HEX, null, memory, 0, MemoryImage.getDataSegmentSize(memory));
+			assertEquals(20, MemoryImage.read(copy, Format.HEX, null).remaining());
+		}
+		finally {
+			copy.delete();
+		}
+
+		// Doesn't fit, or invalid address
+		try {
+			MemoryImage.load(file, Format.RAW, ByteOrder.BIG_ENDIAN, memory, 60);
+			fail();
+		}
+		catch(IOException ex) { }
+		for(int address: new int[] {2, -4, 80}) {
+			try {
+				MemoryImage.load(file, Format.RAW, ByteOrder.BIG_ENDIAN, memory, address);
+				fail("address " + address);
+			}
+			catch(IllegalArgumentException ex) { }
+		}
+		try {
+			MemoryImage.dump(file, Format.RAW, ByteOrder.BIG_ENDIAN, memory, 0, 21);
+			fail();
+		}
+		catch(IllegalArgumentException ex) { }
+	}
+
+	@Test
+	public void testSparseDataMemory() throws Exception {
+		DataMemory memory = createMemory(new JSONObject().put("sparse", true));
+		assertEquals(PagedMemory.PAGE_SIZE, MemoryImage.getDataSegmentSize(memory));
+		int[] large = new int[PagedMemory.PAGE_SIZE * 3];
+		for(int i = 0; i < large.length; i++)
+			large[i] = i + 1;
+		MemoryImage.write(file, Format.RAW, ByteOrder.LITTLE_ENDIAN, IntBuffer.wrap(large));
+		MemoryImage.load(file, Format.RAW, ByteOrder.LITTLE_ENDIAN, memory, 0);
+		MemoryImage.load(file, Format.RAW, ByteOrder.LITTLE_ENDIAN, memory, -4 * large.length); // top of the address space
+		assertEquals(1, memory.getData(0));
+		assertEquals(large.length, memory.getData(-4));
+		assertEquals(large.length, MemoryImage.getDataSegmentSize(memory)); // the stack isn't included
+
+		MemoryImage.dump(file, Format.RAW, ByteOrder.BIG_ENDIAN, memory, 0x80000000, 2);
+		assertEquals(IntBuffer.wrap(new int[2]), MemoryImage.read(file, Format.RAW, ByteOrder.BIG_ENDIAN));
+		assertEquals(6, memory.getUsedIndexes().length / PagedMemory.PAGE_SIZE); // reading doesn't allocate pages
+	}
+
+	@Test
+	public void testRegisters() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		RegBank regbank = cpu.getRegBank();
+		MemoryImage.write(file, Format.HEX, null, IntBuffer.wrap(VALUES));
+		assertEquals(VALUES.length, MemoryImage.load(file, Format.HEX, null, regbank));
+		assertEquals(0, regbank.getRegister(0).getValue()); // constant
+		for(int i = 1; i < VALUES.length; i++)
+			assertEquals(VALUES[i], regbank.getRegister(i).getValue());
+
+		MemoryImage.dump(file, Format.RAW, ByteOrder.LITTLE_ENDIAN, regbank);
+		IntBuffer values = MemoryImage.read(file, Format.RAW, ByteOrder.LITTLE_ENDIAN);
+		assertEquals(regbank.getNumberOfRegisters(), values.remaining());
+		assertEquals(VALUES[3], values.get(3));
+
+		MemoryImage.write(file, Format.RAW, ByteOrder.LITTLE_ENDIAN, IntBuffer.allocate(regbank.getNumberOfRegisters() + 1));
+		try {
+			MemoryImage.load(file, Format.RAW, ByteOrder.LITTLE_ENDIAN, regbank);
+			fail();
+		}
+		catch(IOException ex) { }
+	}
+
+	@Test
+	public void testProgram() throws Exception {
+		String code = ".data\nx: .word 7, 8\n.text\nlw $t0, x($zero)\nlw $t1, 4($zero)\nloop: add $t2, $t0, $t1\n"
+			+ "addi $t1, $t1, -1\nbne: beq $t1, $zero, end\nj loop\nend: sw $t2, 8($zero)\n";
+		CPU assembled = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		assembled.assembleCode(code);
+		int n = assembled.getInstructionMemory().getNumberOfInstructions();
+		IntBuffer words = IntBuffer.allocate(n);
+		for(int i = 0; i < n; i++)
+			words.put(assembled.getInstructionMemory().getInstruction(i).getData().getValue());
+		words.flip();
+		MemoryImage.write(file, Format.HEX, null, words);
+		File data = File.createTempFile("drmips", ".img");
+		try {
+			MemoryImage.write(data, Format.HEX, null, IntBuffer.wrap(new int[] {7, 8}));
+			CPU loaded = CPU.createFromJSONFile("cpu/unicycle.cpu");
+			assertEquals(n, MemoryImage.loadProgram(file, data, Format.HEX, null, loaded));
+			assertEquals(8, loaded.getDataMemory().getData(4));
+			assertEquals("lw $t0, 0($zero)", loaded.getInstructionMemory().getInstruction(0).getCodeLine());
+			assertEquals(5, loaded.getInstructionMemory().getInstruction(4).getLineNumber());
+
+			assembled.run(1000, 0, null);
+			loaded.run(1000, 0, null);
+			assertEquals(BatchExecutor.getStateDigest(assembled), BatchExecutor.getStateDigest(loaded));
+			assertEquals(assembled.getNumberOfExecutedCycles(), loaded.getNumberOfExecutedCycles());
+		}
+		finally {
+			data.delete();
+		}
+
+		// Invalid instruction
+		MemoryImage.write(file, Format.HEX, null, IntBuffer.wrap(new int[] {0, 0xFC000000}));
+		try {
+			MemoryImage.loadProgram(file, null, Format.HEX, null, CPU.createFromJSONFile("cpu/unicycle.cpu"));
+			fail();
+		}
+		catch(IOException ex) { }
+
+		// Large image
+		int size = 200000;
+		words = IntBuffer.allocate(size);
+		for(int i = 0; i < size; i++)
+			words.put(assembled.getInstructionMemory().getInstruction(i % n).getData().getValue());
+		words.flip();
+		MemoryImage.write(file, Format.RAW, ByteOrder.LITTLE_ENDIAN, words);
+		CPU large = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		assertEquals(size, MemoryImage.loadProgram(file, null, Format.RAW, ByteOrder.LITTLE_ENDIAN, large));
+		assertEquals(size, large.getInstructionMemory().getNumberOfInstructions());
+	}
+
+	@Test
+	public void testFromFileName() {
+		assertEquals(Format.HEX, Format.fromFileName("data.HEX"));
+		assertEquals(Format.BIN, Format.fromFileName("dir/data.bin"));
+		assertEquals(Format.RAW, Format.fromFileName("data.raw"));
+		assertEquals(Format.RAW, Format.fromFileName("data"));
+	}
+
+	/**
+	 * Writes text to the temporary file.
+	 * @param text The text.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	private void write(String text) throws IOException {
+		Files.write(file.toPath(), text.getBytes("UTF-8"));
+	}
+
+	/**
+	 * Creates a data memory.
+	 * @param json The JSON object with the size of the memory.
+	 * @return The data memory.
+	 * @throws Exception If the memory is invalid.
+	 */
+	private static DataMemory createMemory(JSONObject json) throws Exception {
+		json.put("x", 0).put("y", 0).put("address", "Address").put("write_data", "WriteData")
+			.put("mem_read", "MemRead").put("mem_write", "MemWrite").put("out", "ReadData");
+		return new DataMemory("test", json);
+	}
+}
@@ -0,0 +1,232 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import brunonova.drmips.simulator.util.JSONLoader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PrecompiledCPUTest {
+	/** Program used to compare the CPUs (without branches, as some CPUs don't support them). */
+	private static final String CODE =
+		"addi $t1, $zero, 10\n" +
+		"add $t0, $t1, $t1\n" +
+		"sw $t0, 4($zero)\n" +
+		"addi $t1, $t1, -1\n" +
+		"lw $t2, 4($zero)\n" +
+		"sub $t3, $t2, $t1\n";
+
+	/** Temporary directory with copies of the bundled CPUs. */
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("drmips").toFile();
+		for(File file: new File("cpu").listFiles()) {
+			if(file.getName().endsWith(".cpu") || file.getName().endsWith(".set")) {
+				File copy = new File(dir, file.getName());
+				Files.copy(file.toPath(), copy.toPath());
+				copy.setLastModified(System.currentTimeMillis() - 60000); // not modified recently
+			}
+		}
+		InstructionSet.clearCache();
+	}
+
+	@After
+	public void tearDown() {
+		delete(dir);
+		InstructionSet.clearCache();
+	}
+
+	@Test
+	public void testPrecompiled() throws Exception {
+		for(File file: getCPUs()) {
+			File cpub = PrecompiledCPU.getFile(file);
+			assertFalse(cpub.exists());
+			assertNull(PrecompiledCPU.read(file));
+
+			// The first load writes the precompiled file
+			CPU original = CPU.createFromJSONFile(file.getPath());
+			assertTrue(file.getName(), cpub.isFile());
+			PrecompiledCPU pre = PrecompiledCPU.read(file);
+			assertNotNull(file.getName(), pre);
+			JSONObject cpuJson = JSONLoader.load(file);
+			assertTrue(file.getName(), cpuJson.similar(pre.getCPU()));
+			assertTrue(file.getName(), JSONLoader.load(new File(dir, cpuJson.getString("instructions"))).similar(pre.getInstructionSet()));
+
+			// The second load uses it
+			InstructionSet.clearCache();
+			long modified = cpub.lastModified();
+			CPU precompiled = CPU.createFromJSONFile(file.getPath());
+			assertEquals(file.getName(), modified, cpub.lastModified());
+			assertEquivalent(file.getName(), original, precompiled);
+		}
+	}
+
+	@Test
+	public void testOutdated() throws Exception {
+		File file = new File(dir, "pipeline.cpu");
+		File set = new File(dir, "default-no-jump.set");
+		File cpub = PrecompiledCPU.getFile(file);
+		CPU original = CPU.createFromJSONFile(file.getPath());
+		assertNotNull(PrecompiledCPU.read(file));
+
+		// Change the instruction set file
+		append(set, "\n");
+		assertNull(PrecompiledCPU.read(file));
+		assertEquivalent("set", original, CPU.createFromJSONFile(file.getPath()));
+		assertNotNull(PrecompiledCPU.read(file)); // rewritten
+
+		// Change the CPU file
+		append(file, " ");
+		assertNull(PrecompiledCPU.read(file));
+		assertEquivalent("cpu", original, CPU.createFromJSONFile(file.getPath()));
+		assertNotNull(PrecompiledCPU.read(file));
+
+		// Truncated file
+		RandomAccessFile raf = new RandomAccessFile(cpub, "rw");
+		raf.setLength(raf.length() / 2);
+		raf.close();
+		assertNull(PrecompiledCPU.read(file));
+		assertEquivalent("truncated", original, CPU.createFromJSONFile(file.getPath()));
+
+		// Other version of the format
+		raf = new RandomAccessFile(cpub, "rw");
+		raf.seek(4);
+		raf.writeInt(Integer.MAX_VALUE);
+		raf.close();
+		assertNull(PrecompiledCPU.read(file));
+	}
+
+	@Test
+	public void testModificationTime() throws Exception {
+		File file = new File(dir, "pipeline.cpu");
+		File set = new File(dir, "default-no-jump.set");
+		CPU.createFromJSONFile(file.getPath());
+		assertFalse(PrecompiledCPU.read(file).needsRewrite()); // sources not hashed
+
+		// Modification time changed, but not the contents
+		assertTrue(set.setLastModified(set.lastModified() - 1000));
+		assertTrue(PrecompiledCPU.read(file).needsRewrite());
+		CPU.createFromJSONFile(file.getPath()); // rewritten
+		assertFalse(PrecompiledCPU.read(file).needsRewrite());
+
+		// Contents changed, with the same size
+		String contents = new String(Files.readAllBytes(set.toPath()), "UTF-8");
+		Files.write(set.toPath(), contents.replaceFirst("\t", " ").getBytes("UTF-8"));
+		assertEquals(contents.length(), set.length());
+		assertNull(PrecompiledCPU.read(file));
+
+		// Sources modified recently are always hashed
+		CPU.createFromJSONFile(file.getPath());
+		assertTrue(PrecompiledCPU.read(file).needsRewrite());
+	}
+
+	@Test
+	public void testMain() throws Exception {
+		File out = new File(dir, "out");
+		PrecompiledCPU.main(new String[] {dir.getPath(), out.getPath()});
+		File[] cpus = getCPUs();
+		assertEquals(cpus.length, out.listFiles().length);
+
+		for(File file: cpus) {
+			assertFalse(file.getName(), PrecompiledCPU.getFile(file).exists()); // not written next to the source
+			File cpub = new File(out, PrecompiledCPU.getFile(file).getName());
+			assertTrue(file.getName(), cpub.isFile());
+			Files.copy(cpub.toPath(), PrecompiledCPU.getFile(file).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			assertNotNull(file.getName(), PrecompiledCPU.read(file));
+		}
+	}
+
+	/**
+	 * Asserts that two CPUs loaded from the same file are equivalent.
+	 * @param message The message of the assertions.
+	 * @param expected The CPU loaded from the JSON files.
+	 * @param actual The CPU loaded from the precompiled file.
+	 * @throws Exception If the program can't be assembled.
+	 */
+	private static void assertEquivalent(String message, CPU expected, CPU actual) throws Exception {
+		assertEquals(message, expected.getComponents().length, actual.getComponents().length);
+		for(int i = 0; i < expected.getComponents().length; i++)
+			assertEquals(message, expected.getComponents()[i].getId(), actual.getComponents()[i].getId());
+		for(int i = 0; i < expected.getRegBank().getNumberOfRegisters(); i++)
+			assertEquals(message, expected.getRegisterName(i), actual.getRegisterName(i));
+		assertEquals(message, expected.getInstructionSet().getInstructions().length, actual.getInstructionSet().getInstructions().length);
+		assertEquals(message, expected.getClockPeriod(), actual.getClockPeriod());
+		assertEquals(message, expected.isLevelized(), actual.isLevelized());
+
+		expected.resetData();
+		expected.assembleCode(CODE);
+		expected.run(1000, 0, null);
+		actual.assembleCode(CODE);
+		actual.run(1000, 0, null);
+		assertEquals(message, BatchExecutor.getStateDigest(expected), BatchExecutor.getStateDigest(actual));
+		assertEquals(message, expected.getNumberOfExecutedCycles(), actual.getNumberOfExecutedCycles());
+	}
+
+	/**
+	 * Appends text to a file.
+	 * @param file The file.
+	 * @param text The text to append.
+	 * @throws Exception If an I/O error occurs.
+	 */
+	private static void append(File file, String text) throws Exception {
+		FileOutputStream out = new FileOutputStream(file, true);
+		out.write(text.getBytes("UTF-8"));
+		out.close();
+	}
+
+	/**
+	 * Deletes a file or a directory and its contents.
+	 * @param file The file or directory.
+	 */
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if(files != null) {
+			for(File f: files)
+				delete(f);
+		}
+		file.delete();
+	}
+
+	/**
+	 * Returns the CPU files in the temporary directory, sorted by name.
+	 * @return The <tt>.cpu</tt> files.
+	 */
+	private File[] getCPUs() {
+		File[] files = dir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".cpu");
+			}
+		});
+		Arrays.sort(files);
+		return files;
+	}
+}
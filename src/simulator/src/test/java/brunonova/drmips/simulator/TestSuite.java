@@ -25,7 +25,7 @@ import org.junit.runners.Suite;
  * This test suite runs all of the tests of the simulator.
  */
 @RunWith(Suite.class)
-@Suite.SuiteClasses({brunonova.drmips.simulator.components.TestSuite.class})
+@Suite.SuiteClasses({brunonova.drmips.simulator.components.TestSuite.class, CPUTest.class, ControlTest.class, BatchExecutorTest.class, PrecompiledCPUTest.class, MemoryImageTest.class, AssemblerTest.class, InstructionSetTest.class, DisassemblerTest.class, TraceRecorderTest.class, TraceFileTest.class})
 public class TestSuite {
 
 }
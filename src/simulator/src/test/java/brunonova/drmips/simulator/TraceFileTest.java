@@ -0,0 +1,251 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TraceFileTest {
+	/** Program with a loop that writes registers and the data memory. */
+	private static final String CODE =
+		"addi $t1, $zero, 1500\n" +
+		"loop: add $t0, $t0, $t1\n" +
+		"sw $t0, 0($zero)\n" +
+		"lw $t2, 0($zero)\n" +
+		"sub $t3, $t2, $t1\n" +
+		"sw $t3, 4($zero)\n" +
+		"addi $t1, $t1, -1\n" +
+		"beq $t1, $zero, end\n" +
+		"beq $zero, $zero, loop\n" +
+		"end: lw $t4, 4($zero)\n";
+
+	/** Temporary file for the traces. */
+	private File file;
+	/** The expected states of the recorded cycles. */
+	private List<int[]> expected;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("drmips", ".trace");
+		expected = new ArrayList<>();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testRandomAccess() throws Exception {
+		for(String path: new String[] {"cpu/unicycle.cpu", "cpu/pipeline.cpu"}) {
+			expected.clear();
+			CPU cpu = CPU.createFromJSONFile(path);
+			cpu.assembleCode(CODE);
+			TraceRecorder recorder = record(cpu, 1000);
+			while(!cpu.isProgramFinished())
+				executeCycle(cpu);
+			cpu.setTraceRecorder(null);
+			recorder.close();
+
+			TraceFile trace = new TraceFile(file);
+			assertEquals(path, expected.size(), trace.getNumberOfRecords());
+			assertEquals(path, (expected.size() + 999) / 1000, trace.getNumberOfKeyframes());
+			assertEquals(path, cpu.isPipeline() ? 5 : 1, trace.getNumberOfStages());
+			assertState(path, trace, 0, 999, 1000, 1001, expected.size() - 1);
+			Random random = new Random(1);
+			for(int i = 0; i < 200; i++)
+				assertState(path, trace, random.nextInt(expected.size()));
+
+			try {
+				trace.getState(expected.size());
+				fail(path);
+			}
+			catch(IndexOutOfBoundsException ex) { }
+		}
+	}
+
+	@Test
+	public void testChanges() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		cpu.assembleCode(CODE);
+		TraceRecorder recorder = record(cpu, 0); // only when needed
+		for(int i = 0; i < 20; i++)
+			executeCycle(cpu);
+		for(int i = 0; i < 5; i++) // step back
+			cpu.restorePreviousCycle();
+		for(int i = 0; i < 10; i++)
+			executeCycle(cpu);
+		cpu.getRegBank().setRegister(9, 1234); // changed by the user
+		cpu.getDataMemory().setData(8, 5678);
+		recorder.requestKeyframe();
+		for(int i = 0; i < 10; i++)
+			executeCycle(cpu);
+		cpu.resetToFirstCycle(); // restart
+		for(int i = 0; i < 10; i++)
+			executeCycle(cpu);
+		cpu.setTraceRecorder(null);
+		recorder.close();
+
+		TraceFile trace = new TraceFile(file);
+		assertEquals(4, trace.getNumberOfKeyframes());
+		for(int i = 0; i < expected.size(); i++)
+			assertState("", trace, i);
+		assertEquals(16, trace.getState(20).getCycle());
+		assertEquals(1234, trace.getState(30).getRegister(9));
+		assertEquals(5678, trace.getState(30).getData(8));
+		assertEquals(1, trace.getState(40).getCycle());
+	}
+
+	@Test
+	public void testUnclosed() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		cpu.assembleCode(CODE);
+		TraceRecorder recorder = record(cpu, 500);
+		for(int i = 0; i < 8000; i++)
+			executeCycle(cpu);
+		recorder.flush(); // without the index
+		TraceFile trace = new TraceFile(file);
+		assertEquals(expected.size(), trace.getNumberOfRecords());
+		assertEquals(16, trace.getNumberOfKeyframes());
+		assertState("flushed", trace, 0, 4321, expected.size() - 1);
+
+		// Incomplete last block
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 10);
+		raf.close();
+		trace = new TraceFile(file);
+		assertTrue(trace.getNumberOfRecords() < expected.size());
+		assertState("truncated", trace, 0, trace.getNumberOfRecords() - 1);
+		recorder.close();
+
+		// Invalid files
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(TraceRecorder.HEADER_SIZE); // no keyframes
+		raf.close();
+		try {
+			new TraceFile(file);
+			fail();
+		}
+		catch(IOException ex) { }
+		raf = new RandomAccessFile(file, "rw");
+		raf.writeInt(0); // no magic
+		raf.close();
+		try {
+			new TraceFile(file);
+			fail();
+		}
+		catch(IOException ex) { }
+	}
+
+	@Test
+	public void testProgram() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		cpu.assembleCode(CODE);
+		TraceRecorder recorder = record(cpu, 500);
+		for(int i = 0; i < 2000; i++)
+			executeCycle(cpu);
+		cpu.assembleCode("addi $t0, $zero, 1\nloop: addi $t0, $t0, 1\nbeq $zero, $zero, loop"); // new program
+		for(int i = 0; i < 1000; i++)
+			executeCycle(cpu);
+		cpu.setTraceRecorder(null);
+		recorder.close();
+		cpu.assembleCode("sub $t0, $t0, $t0"); // the trace shows the recorded programs, not this one
+
+		TraceFile trace = new TraceFile(file);
+		assertEquals(6, trace.getNumberOfKeyframes()); // every 500 cycles and the new program
+		for(long position: new long[] {1999, 0, 1500}) {
+			TraceFile.State state = trace.getState(position);
+			assertEquals(10, state.getNumberOfInstructions());
+			assertEquals("add $t0, $t0, $t1", state.getCodeLine(1));
+			assertEquals("lw $t4, 4($zero)", state.getCodeLine(9));
+		}
+		TraceFile.State state = trace.getState(2999);
+		assertEquals(3, state.getNumberOfInstructions());
+		assertEquals("addi $t0, $t0, 1", state.getCodeLine(1));
+		assertNull(state.getCodeLine(3));
+		assertNull(state.getCodeLine(-1));
+	}
+
+	/**
+	 * Starts recording the cycles of a CPU to the temporary file.
+	 * @param cpu The CPU.
+	 * @param keyframeInterval The number of cycles between keyframes.
+	 * @return The recorder.
+	 * @throws Exception If the file can't be opened.
+	 */
+	private TraceRecorder record(CPU cpu, int keyframeInterval) throws Exception {
+		TraceRecorder recorder = new TraceRecorder(cpu, new FileOutputStream(file).getChannel(), 1);
+		recorder.setKeyframeInterval(keyframeInterval);
+		cpu.setTraceRecorder(recorder);
+		return recorder;
+	}
+
+	/**
+	 * Executes a cycle, saving the expected state before.
+	 * @param cpu The CPU.
+	 */
+	private void executeCycle(CPU cpu) {
+		int registers = cpu.getRegBank().getNumberOfRegisters();
+		int memory = cpu.getDataMemory().getMemorySize();
+		int[] state = new int[3 + registers + memory];
+		state[0] = cpu.getNumberOfExecutedCycles() + 1;
+		state[1] = cpu.getPC().getAddress().getValue();
+		state[2] = cpu.isPipeline() ? cpu.getMemWbReg().getCurrentInstructionIndex() : cpu.getPC().getCurrentInstructionIndex();
+		for(int i = 0; i < registers; i++)
+			state[3 + i] = cpu.getRegBank().getRegister(i).getValue();
+		for(int i = 0; i < memory; i++)
+			state[3 + registers + i] = cpu.getDataMemory().getDataInIndex(i);
+		expected.add(state);
+		cpu.executeCycle();
+	}
+
+	/**
+	 * Asserts that the states reconstructed from the trace are the expected.
+	 * @param message The message of the assertions.
+	 * @param trace The trace.
+	 * @param positions The positions of the cycles.
+	 * @throws Exception If the trace can't be read.
+	 */
+	private void assertState(String message, TraceFile trace, long... positions) throws Exception {
+		for(long position: positions) {
+			int[] e = expected.get((int)position);
+			TraceFile.State state = trace.getState(position);
+			String m = message + " " + position;
+			assertEquals(m, position, state.getPosition());
+			assertEquals(m, e[0], state.getCycle());
+			assertEquals(m, e[1], state.getPC());
+			assertEquals(m, e[2], state.getInstructionIndex(state.getNumberOfStages() - 1));
+			int registers = state.getNumberOfRegisters();
+			for(int i = 0; i < registers; i++)
+				assertEquals(m, e[3 + i], state.getRegister(i));
+			assertEquals(m, e.length - 3 - registers, state.getMemorySize());
+			for(int i = 0; i < state.getMemorySize(); i++)
+				assertEquals(m, e[3 + registers + i], state.getDataInIndex(i));
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package brunonova.drmips.simulator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TraceRecorderTest {
+	/** Program with a loop that writes registers and the data memory. */
+	private static final String CODE =
+		"addi $t1, $zero, 2500\n" +
+		"loop: add $t0, $t0, $t1\n" +
+		"sw $t0, 0($zero)\n" +
+		"lw $t2, 0($zero)\n" +
+		"sub $t3, $t2, $t1\n" +
+		"sw $t3, 4($zero)\n" +
+		"addi $t1, $t1, -1\n" +
+		"beq $t1, $zero, end\n" +
+		"beq $zero, $zero, loop\n" +
+		"end: lw $t4, 4($zero)\n";
+
+	/** Temporary file for the traces. */
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("drmips", ".trace");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testRecord() throws Exception {
+		for(String path: new String[] {"cpu/unicycle.cpu", "cpu/pipeline.cpu"}) {
+			// Expected values, stepping manually
+			CPU expected = CPU.createFromJSONFile(path);
+			expected.assembleCode(CODE);
+			int[] registers = getRegisters(expected);
+			List<Integer> pcs = new ArrayList<>();
+			while(!expected.isProgramFinished()) {
+				pcs.add(expected.getPC().getAddress().getValue());
+				expected.executeCycle();
+			}
+			assertTrue(path, pcs.size() > 12000);
+
+			// Record
+			CPU cpu = CPU.createFromJSONFile(path);
+			cpu.assembleCode(CODE);
+			TraceRecorder recorder = new TraceRecorder(cpu, new FileOutputStream(file).getChannel(), 2);
+			cpu.setTraceRecorder(recorder);
+			cpu.run(100000, 0, null);
+			cpu.setTraceRecorder(null);
+			recorder.close();
+			assertNull(path, recorder.getError());
+			assertEquals(path, pcs.size(), recorder.getNumberOfRecords());
+			assertEquals(path, file.length(), recorder.getBytesWritten());
+			assertTrue(path, file.length() < pcs.size() * 6L); // compact
+
+			// Replay
+			TraceReader reader = new TraceReader(new FileInputStream(file).getChannel());
+			assertEquals(path, cpu.isPipeline() ? 5 : 1, reader.getNumberOfStages());
+			Map<Integer, Integer> memory = new HashMap<>();
+			int stalls = 0, forwards = 0;
+			for(int i = 0; i < pcs.size(); i++) {
+				assertTrue(path, reader.next());
+				assertEquals(path, i + 1, reader.getCycle());
+				assertEquals(path, (int)pcs.get(i), reader.getPC());
+				int index = reader.getPC() / 4;
+				if(index >= cpu.getInstructionMemory().getNumberOfInstructions()) index = -1;
+				assertEquals(path, index, reader.getInstructionIndex(TraceReader.IF));
+				if(reader.hasRegisterWrite())
+					registers[reader.getWrittenRegister()] = reader.getWrittenRegisterValue();
+				if(reader.hasMemoryWrite())
+					memory.put(reader.getMemoryWriteAddress(), reader.getMemoryWriteValue());
+				if(reader.isStall()) stalls++;
+				if(reader.getForwardA() != 0) forwards++;
+				if(reader.getForwardB() != 0) forwards++;
+			}
+			assertFalse(path, reader.next());
+			reader.close();
+
+			assertArrayEquals(path, getRegisters(cpu), registers);
+			assertEquals(path, 2, memory.size());
+			for(Map.Entry<Integer, Integer> e: memory.entrySet())
+				assertEquals(path, cpu.getDataMemory().getData(e.getKey()), (int)e.getValue());
+			assertEquals(path, cpu.getNumberOfStalls(), stalls);
+			assertEquals(path, cpu.getNumberOfForwards(), forwards);
+			if(cpu.isPipeline()) assertTrue(path, stalls > 0 && forwards > 0);
+		}
+	}
+
+	@Test
+	public void testPipelineStages() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		cpu.assembleCode(CODE);
+		TraceRecorder recorder = new TraceRecorder(cpu, 1);
+		cpu.setTraceRecorder(recorder);
+		int[][] indexes = new int[20][];
+		for(int i = 0; i < indexes.length; i++) {
+			indexes[i] = new int[] {cpu.getPC().getCurrentInstructionIndex(),
+				cpu.getIfIdReg().getCurrentInstructionIndex(), cpu.getIdExReg().getCurrentInstructionIndex(),
+				cpu.getExMemReg().getCurrentInstructionIndex(), cpu.getMemWbReg().getCurrentInstructionIndex()};
+			cpu.executeCycle();
+		}
+
+		TraceReader reader = recorder.getRecentCycles();
+		for(int[] expected: indexes) {
+			assertTrue(reader.next());
+			for(int stage = TraceReader.IF; stage <= TraceReader.WB; stage++)
+				assertEquals(expected[stage], reader.getInstructionIndex(stage));
+		}
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testStepBack() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		cpu.assembleCode(CODE);
+		cpu.getHistory().setCheckpointInterval(4);
+		TraceRecorder recorder = new TraceRecorder(cpu, 1);
+		cpu.setTraceRecorder(recorder);
+		for(int i = 0; i < 10; i++)
+			cpu.executeCycle();
+		for(int i = 0; i < 3; i++) // the last one is restored from a checkpoint
+			cpu.restorePreviousCycle();
+		assertTrue(cpu.getHistory().getNumberOfReplayedCycles() > 0);
+		for(int i = 0; i < 2; i++)
+			cpu.executeCycle();
+
+		TraceReader reader = recorder.getRecentCycles();
+		for(long cycle: new long[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 8, 9}) {
+			assertTrue(reader.next());
+			assertEquals(cycle, reader.getCycle());
+		}
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testRing() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		cpu.assembleCode("loop: addi $t0, $t0, 1\nbeq $zero, $zero, loop");
+		TraceRecorder recorder = new TraceRecorder(cpu, 2);
+		cpu.setTraceRecorder(recorder);
+		cpu.run(50000, 0, null);
+		recorder.flush(); // no channel
+		cpu.run(10, 0, null);
+		assertEquals(50010, recorder.getNumberOfRecords());
+		assertEquals(0, recorder.getBytesWritten());
+
+		TraceReader reader = recorder.getRecentCycles();
+		assertTrue(reader.next());
+		long first = reader.getCycle();
+		assertTrue(first > 1);
+		long cycle = first;
+		while(reader.next())
+			assertEquals(++cycle, reader.getCycle());
+		assertEquals(50010, cycle);
+		assertEquals(cpu.getPC().getAddress().getValue() == 0 ? 4 : 0, reader.getPC());
+
+		try {
+			new TraceRecorder(cpu, 0);
+			fail();
+		}
+		catch(IllegalArgumentException ex) { }
+	}
+
+	@Test
+	public void testChannelError() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/unicycle.cpu");
+		cpu.assembleCode("loop: addi $t0, $t0, 1\nbeq $zero, $zero, loop");
+		final AtomicInteger writes = new AtomicInteger();
+		final AtomicBoolean closed = new AtomicBoolean();
+		WritableByteChannel channel = new WritableByteChannel() {
+			@Override
+			public int write(ByteBuffer src) throws IOException {
+				if(writes.incrementAndGet() > 3) throw new IOException("disk full");
+				int n = src.remaining();
+				src.position(src.limit());
+				return n;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return !closed.get();
+			}
+
+			@Override
+			public void close() {
+				closed.set(true);
+			}
+		};
+		TraceRecorder recorder = new TraceRecorder(cpu, channel, 2);
+		cpu.setTraceRecorder(recorder);
+		cpu.run(50000, 0, null); // keeps running after the error
+		assertEquals(50000, recorder.getNumberOfRecords());
+		try {
+			recorder.flush();
+			fail();
+		}
+		catch(IOException ex) {
+			assertEquals("disk full", ex.getMessage());
+		}
+		cpu.setTraceRecorder(null);
+		try {
+			recorder.close();
+			fail();
+		}
+		catch(IOException ex) {
+			assertSame(recorder.getError(), ex);
+		}
+		assertTrue(closed.get());
+		assertEquals(4, writes.get()); // nothing else written after the error
+	}
+
+	@Test
+	public void testSize() throws Exception {
+		CPU cpu = CPU.createFromJSONFile("cpu/pipeline.cpu");
+		cpu.assembleCode("loop: addi $t0, $t0, 1\nsw $t0, 0($zero)\nbeq $zero, $zero, loop");
+		int cycles = 200000;
+		TraceRecorder recorder = new TraceRecorder(cpu, new FileOutputStream(file).getChannel(), TraceRecorder.DEFAULT_RING_BLOCKS);
+		cpu.setTraceRecorder(recorder);
+		assertEquals(cycles, cpu.run(cycles, 0, null).getNumberOfExecutedCycles());
+		recorder.close();
+		cpu.setTraceRecorder(null);
+		// A few bytes per cycle (the PC and one register or memory word changed), plus the keyframes
+		assertTrue(recorder.getBytesWritten() + " bytes", recorder.getBytesWritten() < 8L * cycles);
+	}
+
+	/**
+	 * Returns the values of the registers of a CPU.
+	 * @param cpu The CPU.
+	 * @return The values of the registers.
+	 */
+	private static int[] getRegisters(CPU cpu) {
+		int[] values = new int[cpu.getRegBank().getNumberOfRegisters()];
+		for(int i = 0; i < values.length; i++)
+			values[i] = cpu.getRegBank().getRegister(i).getValue();
+		return values;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package brunonova.drmips.simulator.components;
+
+import brunonova.drmips.simulator.exceptions.InvalidCPUException;
+import brunonova.drmips.simulator.util.PagedMemory;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DataMemoryTest {
+	@Test
+	public void testComponent() throws InvalidCPUException, JSONException {
+		DataMemory c = create(new JSONObject().put("size", 20));
+		assertFalse(c.isSparse());
+		assertEquals(20, c.getMemorySize());
+		assertEquals(20, c.getUsedIndexes().length);
+		tSync(c, 1, 1, 8, 1000, 1000);
+		tSync(c, 0, 1, 8, 2000, 1000); // read only
+		tSync(c, 1, 0, 4, 2000, 0);
+		tSync(c, 1, 1, 80, 3000, 0); // out of bounds
+		assertEquals(-1, c.getIndexOfAddress(80));
+		assertEquals(-1, c.getIndexOfAddress(-4));
+	}
+
+	@Test
+	public void testSparse() throws InvalidCPUException, JSONException {
+		DataMemory c = create(new JSONObject().put("sparse", true));
+		assertTrue(c.isSparse());
+		assertEquals(PagedMemory.SIZE, c.getMemorySize());
+		assertEquals(PagedMemory.SIZE - 1, c.getIndexOfAddress(-4));
+		assertEquals(PagedMemory.SIZE / 2, c.getIndexOfAddress(0x80000000));
+
+		tSync(c, 1, 1, 8, 1000, 1000);
+		tSync(c, 1, 1, -4, 2000, 2000);          // top of the address space
+		tSync(c, 1, 1, 0x7FFFFFFC, 3000, 3000);
+		tSync(c, 0, 1, 8, 0, 1000);
+		assertEquals(2000, c.getData(0xFFFFFFFC));
+		assertEquals(0, c.getData(0x10000000)); // not allocated
+
+		// Only the first page and the written pages are in use
+		int[] indexes = c.getUsedIndexes();
+		assertEquals(3 * PagedMemory.PAGE_SIZE, indexes.length);
+		assertEquals(0, indexes[0]);
+		assertEquals(PagedMemory.SIZE - 1, indexes[indexes.length - 1]);
+
+		// Writing zeros doesn't allocate pages
+		tSync(c, 1, 1, 0x40000000, 0, 0);
+		assertEquals(3 * PagedMemory.PAGE_SIZE, c.getUsedIndexes().length);
+
+		c.reset();
+		assertEquals(0, c.getData(-4));
+		assertEquals(PagedMemory.PAGE_SIZE, c.getUsedIndexes().length); // the first page is always in use
+	}
+
+	@Test
+	public void testStates() throws InvalidCPUException, JSONException {
+		for(JSONObject json: new JSONObject[] {new JSONObject().put("size", 20), new JSONObject().put("sparse", true)}) {
+			DataMemory c = create(json);
+			tSync(c, 1, 1, 8, 1000, 1000);
+			Object checkpoint = c.saveCheckpoint();
+
+			c.getAddress().setValue(8);
+			c.getWriteData().setValue(2000);
+			c.pushState();
+			c.executeSynchronous();
+			c.execute();
+			assertEquals(2000, c.getOutput().getValue());
+			assertEquals(3, c.getSavedStatesMemoryUsage() / 4); // index, value, count
+			c.popState();
+			c.execute();
+			assertEquals(1000, c.getOutput().getValue());
+			assertFalse(c.hasSavedStates());
+
+			tSync(c, 1, 1, 8, 3000, 3000);
+			tSync(c, 1, 1, 12, 4000, 4000);
+			c.restoreCheckpoint(checkpoint);
+			assertEquals(1000, c.getData(8));
+			assertEquals(0, c.getData(12));
+			c.restoreCheckpoint(checkpoint); // can be restored again
+			assertEquals(1000, c.getData(8));
+		}
+	}
+
+	@Test
+	public void testSparseCheckpoints() throws InvalidCPUException, JSONException {
+		DataMemory c = create(new JSONObject().put("sparse", true));
+		tSync(c, 1, 0, 0, 1, 0);
+		tSync(c, 1, 0, 0x10000000, 2, 0);
+		Object first = c.saveCheckpoint();
+		long firstUsage = c.getCheckpointMemoryUsage(first);
+
+		// Unchanged pages are shared with the previous checkpoint
+		Object second = c.saveCheckpoint();
+		assertTrue(c.getCheckpointMemoryUsage(second) < firstUsage);
+
+		// A written page is copied, and the checkpoints aren't modified
+		tSync(c, 1, 0, 4, 5, 0);
+		Object third = c.saveCheckpoint();
+		assertTrue(c.getCheckpointMemoryUsage(third) > c.getCheckpointMemoryUsage(second));
+		assertTrue(c.getCheckpointMemoryUsage(third) < firstUsage);
+		tSync(c, 1, 0, 0x20000000, 6, 0);
+		c.restoreCheckpoint(second);
+		assertEquals(1, c.getData(0));
+		assertEquals(0, c.getData(4));
+		assertEquals(2, c.getData(0x10000000));
+		assertEquals(0, c.getData(0x20000000));
+		c.restoreCheckpoint(third);
+		assertEquals(5, c.getData(4));
+		assertEquals(0, c.getData(0x20000000));
+
+		// Writing after a restore doesn't modify the checkpoint
+		tSync(c, 1, 0, 4, 7, 0);
+		c.restoreCheckpoint(third);
+		assertEquals(5, c.getData(4));
+		c.restoreCheckpoint(first);
+		assertEquals(0, c.getData(4));
+	}
+
+	private DataMemory create(JSONObject json) throws InvalidCPUException, JSONException {
+		json.put("x", 0).put("y", 0).put("address", "Address").put("write_data", "WriteData")
+			.put("mem_read", "MemRead").put("mem_write", "MemWrite").put("out", "ReadData");
+		return new DataMemory("test", json);
+	}
+
+	private void tSync(DataMemory c, int memWrite, int memRead, int address, int writeData, int expected) {
+		c.getMemWrite().setValue(memWrite);
+		c.getMemRead().setValue(memRead);
+		c.getAddress().setValue(address);
+		c.getWriteData().setValue(writeData);
+		c.executeSynchronous();
+		c.execute();
+		assertEquals(expected, c.getOutput().getValue());
+	}
+}
@@ -0,0 +1,83 @@
+/*
+    DrMIPS - Educational MIPS simulator
+    Copyright (C) 2013-2015 Bruno Nova
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package brunonova.drmips.simulator.components;
+
+import brunonova.drmips.simulator.exceptions.InvalidCPUException;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PipelineRegisterTest {
+	@Test
+	public void testComponent() throws InvalidCPUException, JSONException {
+		PipelineRegister c = create();
+		tSync(c, 1, 0, 5, 1000, 5, 1000);   // write
+		tSync(c, 0, 0, 7, 2000, 5, 1000); // stall
+		tSync(c, 1, 1, 7, 2000, 0, 0);    // flush
+		tSync(c, 1, 0, 20, -1, 4, 65535); // values masked to the size of the registers
+	}
+
+	@Test
+	public void testStates() throws InvalidCPUException, JSONException {
+		PipelineRegister c = create();
+		tSync(c, 1, 0, 5, 1000, 5, 1000);
+		c.setCurrentInstructionIndex(3);
+		int[] checkpoint = c.saveCheckpoint();
+
+		c.getInput("a").setValue(6);
+		c.pushState();
+		c.executeSynchronous();
+		c.execute();
+		assertEquals(6, c.getOutput("a").getValue());
+		assertEquals(1000, c.getOutput("b").getValue());
+		assertEquals(4, c.getSavedStatesMemoryUsage() / 4); // index, value, count, instruction
+
+		c.setCurrentInstructionIndex(4);
+		c.popState();
+		c.execute();
+		assertEquals(5, c.getOutput("a").getValue());
+		assertEquals(3, c.getCurrentInstructionIndex());
+		assertFalse(c.hasSavedStates());
+
+		c.clearSavedStates();
+		assertEquals(0, c.getOutput("a").getValue());
+		c.restoreCheckpoint(checkpoint);
+		c.execute();
+		assertEquals(5, c.getOutput("a").getValue());
+		assertEquals(1000, c.getOutput("b").getValue());
+		assertEquals(3, c.getCurrentInstructionIndex());
+	}
+
+	private PipelineRegister create() throws InvalidCPUException, JSONException {
+		JSONObject json = new JSONObject().put("x", 0).put("y", 0)
+			.put("regs", new JSONObject().put("a", 3).put("b", 16));
+		return new PipelineRegister("test", json);
+	}
+
+	private void tSync(PipelineRegister c, int write, int flush, int a, int b, int expectedA, int expectedB) {
+		c.getWrite().setValue(write);
+		c.getFlush().setValue(flush);
+		c.getInput("a").setValue(a);
+		c.getInput("b").setValue(b);
+		c.executeSynchronous();
+		c.execute();
+		assertEquals(expectedA, c.getOutput("a").getValue());
+		assertEquals(expectedB, c.getOutput("b").getValue());
+	}
+}
@@ -29,10 +29,12 @@ import org.junit.runners.Suite;
                      AndTest.class,
                      ConcatenatorTest.class,
                      ConstantTest.class,
+                     DataMemoryTest.class,
                      ForkTest.class,
                      MultiplexerTest.class,
                      NotTest.class,
                      OrTest.class,
+                     PipelineRegisterTest.class,
                      ShiftLeftTest.class,
                      SignExtendTest.class,
                      XorTest.class,